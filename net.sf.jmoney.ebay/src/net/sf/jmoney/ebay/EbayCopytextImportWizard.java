@@ -30,6 +30,7 @@ import org.eclipse.ui.PlatformUI;
 import net.sf.jmoney.associations.AssociationMetadata;
 import net.sf.jmoney.fields.IAmountFormatter;
 import net.sf.jmoney.importer.MatchingEntryFinder;
+import net.sf.jmoney.importer.MatchingEntryIndex;
 import net.sf.jmoney.importer.matcher.EntryData;
 import net.sf.jmoney.importer.matcher.ImportEntryProperty;
 import net.sf.jmoney.importer.matcher.ImportMatcher;
@@ -216,6 +217,13 @@ public class EbayCopytextImportWizard extends Wizard implements IAccountImportWi
 
 		String userName = bindings.getVariable("username").text;
 		
+		/*
+		 * Index the entries by amount and date so that each imported
+		 * transaction does not have to look at every entry in the account
+		 * when looking for a match.
+		 */
+		MatchingEntryIndex matchingEntryIndex = new MatchingEntryIndex(accountOutsideTransaction);
+
 		for (MatchResults transactionBindings : bindings.getCollections(0)) {
 			String dateAsString = transactionBindings.getVariable("orderdate").text;
 			String description = transactionBindings.getVariable("description").text;
@@ -280,7 +288,7 @@ public class EbayCopytextImportWizard extends Wizard implements IAccountImportWi
 			 * transaction at all. We just update a few properties in the
 			 * existing entry.
 			 */
-			Entry match = matchFinder.findMatch(accountOutsideTransaction, -amount, transactionDate);
+			Entry match = matchFinder.findMatch(matchingEntryIndex, -amount, transactionDate);
 			if (match != null) {
 				Entry entryInTrans = transactionManager.getCopyInTransaction(match);
 				entryInTrans.setValuta(transactionDate);
@@ -1,15 +1,26 @@
 package net.sf.jmoney.importer;
 
-import java.util.ArrayList;
 import java.util.Calendar;
-import java.util.Collection;
 import java.util.Date;
+import java.util.List;
 
 import net.sf.jmoney.model2.Account;
 import net.sf.jmoney.model2.Entry;
 
 public abstract class MatchingEntryFinder {
 
+	/**
+	 * The number of days either side of the imported date within which
+	 * entries are looked for when an index is used.
+	 */
+	private static final int DEFAULT_MAXIMUM_DAYS = 31;
+
+	/**
+	 * Used for the date arithmetic in the date range checks. These checks are
+	 * made for every candidate entry so we don't create a calendar each time.
+	 */
+	private final Calendar calendar = Calendar.getInstance();
+
 	/**
 	 * It is probably more efficient if the caller calls this method with
 	 * an account that is outside a transaction.  The returned entry would
@@ -48,26 +59,76 @@ public abstract class MatchingEntryFinder {
 	 * @return the matching entry if one is found, otherwise null
 	 */
 	public Entry findMatch(Account account, long amount, Date startSearchDate) {
-		Collection<Entry> possibleMatches = new ArrayList<Entry>();
+		/*
+		 * Find the earliest. If multiple matches have the same day then we
+		 * pick an arbitrary one. Note that as we generally set an id when
+		 * we match, and that id will stop the transaction being a possible
+		 * match again.
+		 */
+		Entry earliestMatch = null;
 		for (Entry entry : account.getEntries()) {
 			if (!doNotConsiderEntryForMatch(entry)
 					&& entry.getAmount() == amount) {
 				Date date = entry.getTransaction().getDate();
-				if (nearEnoughMatches(date, startSearchDate, entry)){
-					possibleMatches.add(entry);
+				if (nearEnoughMatches(date, startSearchDate, entry)
+						&& (earliestMatch == null || date.before(earliestMatch.getTransaction().getDate()))) {
+					earliestMatch = entry;
 				}
 			}
 		}
+		return earliestMatch;
+	}
+
+	/**
+	 * Finds a match in the same way as {@link #findMatch(Account, long, Date)}
+	 * but looks only at the entries in the index with the given amount and with
+	 * a date within {@link #getMaximumDays()} days of the imported date.
+	 * <P>
+	 * Importers that match many lines against the same account should use this
+	 * method, building the index once for the import.
+	 * <P>
+	 * The matched entry, if any, is removed from the index so that it will not
+	 * be matched to another line in the same import.
+	 *
+	 * @param index an index of the entries in the account into which the
+	 *            entries are being imported
+	 * @param amount
+	 * @param startSearchDate
+	 * @return the matching entry if one is found, otherwise null
+	 */
+	public Entry findMatch(MatchingEntryIndex index, long amount, Date startSearchDate) {
+		calendar.setTime(startSearchDate);
+		calendar.add(Calendar.DAY_OF_MONTH, -getMaximumDays());
+		Date fromDate = calendar.getTime();
+		calendar.setTime(startSearchDate);
+		calendar.add(Calendar.DAY_OF_MONTH, getMaximumDays() + 1);
+		Date toDate = calendar.getTime();
 
 		/*
-		 * Find the earliest. If multiple matches have the same day then we
-		 * pick an arbitrary one. Note that as we generally set an id when
-		 * we match, and that id will stop the transaction being a possible
-		 * match again.
+		 * The candidates are in date order so the first that matches is the
+		 * earliest.
 		 */
-		return possibleMatches.stream()
-			.sorted((entry1, entry2) -> entry1.getTransaction().getDate().compareTo(entry2.getTransaction().getDate()))
-					.findFirst().orElse(null);
+		List<Entry> candidates = index.getCandidates(amount, fromDate, toDate);
+		for (Entry entry : candidates) {
+			if (!doNotConsiderEntryForMatch(entry)
+					&& nearEnoughMatches(entry.getTransaction().getDate(), startSearchDate, entry)) {
+				index.remove(entry);
+				return entry;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * The number of days either side of the imported date within which an
+	 * existing entry may match. This is used only when matching using an
+	 * index, to limit the entries that are passed to
+	 * <code>nearEnoughMatches</code>. The default is 31 days which is more than
+	 * the range used by any of the importers. Override this method if
+	 * <code>nearEnoughMatches</code> may accept dates further apart.
+	 */
+	protected int getMaximumDays() {
+		return DEFAULT_MAXIMUM_DAYS;
 	}
 
 	/**
@@ -79,7 +140,6 @@ public abstract class MatchingEntryFinder {
 	 * @return
 	 */
 	protected boolean isDateInRange(Date date, Date startSearchDate, int numberOfDays) {
-		Calendar calendar = Calendar.getInstance();
 		calendar.setTime(startSearchDate);
 		calendar.add(Calendar.DAY_OF_MONTH, numberOfDays);
 		Date endSearchDate = calendar.getTime();
@@ -99,7 +159,6 @@ public abstract class MatchingEntryFinder {
 	 * @return
 	 */
 	protected boolean isDateInRange(Date date, Date importDate, int numberOfDays, int startBefore) {
-		Calendar calendar = Calendar.getInstance();
 		calendar.setTime(importDate);
 		calendar.add(Calendar.DAY_OF_MONTH, numberOfDays);
 		Date endSearchDate = calendar.getTime();
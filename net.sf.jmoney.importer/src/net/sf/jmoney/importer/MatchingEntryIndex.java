@@ -0,0 +1,119 @@
+package net.sf.jmoney.importer;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+import net.sf.jmoney.model2.Account;
+import net.sf.jmoney.model2.Entry;
+
+/**
+ * An index of the entries in an account, keyed by amount and then by date.
+ * <P>
+ * An importer should build one of these for each account before it processes
+ * the imported lines and then pass it to
+ * {@link MatchingEntryFinder#findMatch(MatchingEntryIndex, long, Date)} for
+ * each line. Only the entries with the same amount and a date close to the
+ * imported date are then looked at, rather than every entry in the account.
+ * <P>
+ * When an entry is returned as a match it is removed from the index. This
+ * ensures the same existing entry is not matched to two lines in the same
+ * import. This matters because the importers set the unique id only in the
+ * copy of the entry inside the transaction, so the entries seen by
+ * <code>doNotConsiderEntryForMatch</code> are not marked until the import is
+ * committed.
+ * <P>
+ * The index is built from the entries at the time it is constructed. Entries
+ * added to the account later are not seen.
+ */
+public class MatchingEntryIndex {
+
+	/**
+	 * Map of amount to the entries with that amount. The entries with the
+	 * same amount are keyed by the date of their transaction. There may be more
+	 * than one entry with the same amount on the same date.
+	 */
+	private Map<Long, NavigableMap<Date, List<Entry>>> entriesByAmount = new HashMap<Long, NavigableMap<Date, List<Entry>>>();
+
+	public MatchingEntryIndex(Account account) {
+		for (Entry entry : account.getEntries()) {
+			add(entry);
+		}
+	}
+
+	private void add(Entry entry) {
+		NavigableMap<Date, List<Entry>> entriesByDate = entriesByAmount.get(entry.getAmount());
+		if (entriesByDate == null) {
+			entriesByDate = new TreeMap<Date, List<Entry>>();
+			entriesByAmount.put(entry.getAmount(), entriesByDate);
+		}
+
+		Date date = entry.getTransaction().getDate();
+		List<Entry> entriesOnDate = entriesByDate.get(date);
+		if (entriesOnDate == null) {
+			entriesOnDate = new ArrayList<Entry>(1);
+			entriesByDate.put(date, entriesOnDate);
+		}
+		entriesOnDate.add(entry);
+	}
+
+	/**
+	 * Returns the entries with the given amount and with a transaction
+	 * date in the given range. The entries are returned in date order, earliest
+	 * first.
+	 *
+	 * @param amount
+	 * @param fromDate the first date, inclusive
+	 * @param toDate the last date, exclusive
+	 */
+	List<Entry> getCandidates(long amount, Date fromDate, Date toDate) {
+		NavigableMap<Date, List<Entry>> entriesByDate = entriesByAmount.get(amount);
+		if (entriesByDate == null) {
+			return new ArrayList<Entry>();
+		}
+
+		List<Entry> candidates = new ArrayList<Entry>();
+		for (List<Entry> entriesOnDate : entriesByDate.subMap(fromDate, true, toDate, false).values()) {
+			candidates.addAll(entriesOnDate);
+		}
+		return candidates;
+	}
+
+	/**
+	 * Removes an entry from the index. This is called when the entry has been
+	 * matched to an imported line, so that it is not matched again.
+	 *
+	 * @param entry
+	 */
+	public void remove(Entry entry) {
+		NavigableMap<Date, List<Entry>> entriesByDate = entriesByAmount.get(entry.getAmount());
+		if (entriesByDate == null) {
+			return;
+		}
+
+		Date date = entry.getTransaction().getDate();
+		List<Entry> entriesOnDate = entriesByDate.get(date);
+		if (entriesOnDate == null) {
+			return;
+		}
+
+		for (Iterator<Entry> iter = entriesOnDate.iterator(); iter.hasNext(); ) {
+			if (iter.next() == entry) {
+				iter.remove();
+				break;
+			}
+		}
+
+		if (entriesOnDate.isEmpty()) {
+			entriesByDate.remove(date);
+			if (entriesByDate.isEmpty()) {
+				entriesByAmount.remove(entry.getAmount());
+			}
+		}
+	}
+}
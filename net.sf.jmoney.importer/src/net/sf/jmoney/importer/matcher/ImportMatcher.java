@@ -1,6 +1,7 @@
 package net.sf.jmoney.importer.matcher;
 
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
@@ -26,10 +27,30 @@ public class ImportMatcher<T extends BaseEntryData> {
 
 	private List<MemoPattern> sortedPatterns;
 
+	/**
+	 * Used to skip patterns that cannot match without running the regular
+	 * expression.
+	 */
+	private PatternPrefilter prefilter = new PatternPrefilter();
+
+	/**
+	 * True if the patterns may have changed since the prefilter was last
+	 * updated. This is set by the listener for pattern changes so that the
+	 * prefilter is not brought up to date for every imported entry.
+	 */
+	private boolean patternsChanged = true;
+
 	private List<ImportEntryProperty<T>> importEntryProperties;
 
 	private List<TransactionType<T>> applicableTransactionTypes;
 
+	private static final Comparator<MemoPattern> patternOrder = new Comparator<MemoPattern>() {
+		@Override
+		public int compare(MemoPattern pattern1, MemoPattern pattern2) {
+			return pattern1.getOrderingIndex() - pattern2.getOrderingIndex();
+		}
+	};
+
 	/**
 	 * 
 	 * @param matcherInsideTransaction
@@ -51,12 +72,7 @@ public class ImportMatcher<T extends BaseEntryData> {
 		 * pattern.
 		 */
 		sortedPatterns = new ArrayList<MemoPattern>(account.getPatternCollection());
-		Collections.sort(sortedPatterns, new Comparator<MemoPattern>() {
-			@Override
-			public int compare(MemoPattern pattern1, MemoPattern pattern2) {
-				return pattern1.getOrderingIndex() - pattern2.getOrderingIndex();
-			}
-		});
+		Collections.sort(sortedPatterns, patternOrder);
 
 		/*
 		 * Now let's keep this sorted array up to date.  This is necessary if this class is being used
@@ -68,7 +84,8 @@ public class ImportMatcher<T extends BaseEntryData> {
 				public void objectInserted(IModelObject newObject) {
 					if (newObject instanceof MemoPattern
 							&& newObject.getParentListKey().getParentKey().equals(account.getBaseObject().getObjectKey())) {
-						sortedPatterns.add((MemoPattern)newObject);
+						insertInOrder((MemoPattern)newObject);
+						patternsChanged = true;
 					}
 				}
 
@@ -77,16 +94,19 @@ public class ImportMatcher<T extends BaseEntryData> {
 					if (deletedObject instanceof MemoPattern
 							&& deletedObject.getParentListKey().getParentKey().equals(account.getBaseObject().getObjectKey())) {
 						sortedPatterns.remove(deletedObject);
+						patternsChanged = true;
 					}
 				}
 
 				@Override
 				public void objectChanged(IModelObject changedObject, IScalarPropertyAccessor changedProperty, Object oldValue, Object newValue) {
 					if (changedObject instanceof MemoPattern
-							&& changedProperty == MemoPatternInfo.getOrderingIndexAccessor()
 							&& changedObject.getParentListKey().getParentKey().equals(account.getBaseObject().getObjectKey())) {
-						sortedPatterns.remove(changedObject);
-						sortedPatterns.add((MemoPattern)changedObject);
+						if (changedProperty == MemoPatternInfo.getOrderingIndexAccessor()) {
+							sortedPatterns.remove(changedObject);
+							insertInOrder((MemoPattern)changedObject);
+						}
+						patternsChanged = true;
 					}
 				}
 
@@ -94,6 +114,21 @@ public class ImportMatcher<T extends BaseEntryData> {
 		}
 	}
 
+	/**
+	 * Inserts a pattern into the sorted list, after any patterns with the
+	 * same ordering index.
+	 */
+	private void insertInOrder(MemoPattern pattern) {
+		int index = Collections.binarySearch(sortedPatterns, pattern, patternOrder);
+		if (index < 0) {
+			index = -index - 1;
+		}
+		while (index < sortedPatterns.size() && patternOrder.compare(sortedPatterns.get(index), pattern) == 0) {
+			index++;
+		}
+		sortedPatterns.add(index, pattern);
+	}
+
 	/**
 	 * 
 	 * @param text
@@ -138,14 +173,41 @@ public class ImportMatcher<T extends BaseEntryData> {
 	 * 			means the caller should create a default transaction using the default category)
 	 */
 	public PatternMatch findMatchingPattern(T entryData) {
+		/*
+		 * Get each imported value once, and find which of the literals
+		 * required by the patterns occur in it. The patterns are then tried
+		 * in order as before, but a pattern whose required literal does not
+		 * occur in the value is rejected without running the regular
+		 * expression.
+		 */
+		if (patternsChanged) {
+			prefilter.update(sortedPatterns, importEntryProperties);
+			patternsChanged = false;
+		}
+		String [] importEntryPropertyValues = new String[importEntryProperties.size()];
+		BitSet [] literalsFound = new BitSet[importEntryProperties.size()];
+		for (int i = 0; i < importEntryProperties.size(); i++) {
+			importEntryPropertyValues[i] = importEntryProperties.get(i).getCurrentValue(entryData);
+			if (importEntryPropertyValues[i] != null) {
+				literalsFound[i] = prefilter.scan(importEntryPropertyValues[i]);
+			}
+		}
+
    		for (MemoPattern pattern: sortedPatterns) {
    			
 			boolean unmatchedFound = false;
 			Object [] args = null;
-			for (ImportEntryProperty<T> importEntryProperty : importEntryProperties) {
-				String importEntryPropertyValue = importEntryProperty.getCurrentValue(entryData);
+			for (int propertyIndex = 0; propertyIndex < importEntryProperties.size(); propertyIndex++) {
+				ImportEntryProperty<T> importEntryProperty = importEntryProperties.get(propertyIndex);
+				String importEntryPropertyValue = importEntryPropertyValues[propertyIndex];
 				Pattern compiledPattern = pattern.getCompiledPattern(importEntryProperty.id);
 
+				if (compiledPattern != null && importEntryPropertyValue != null
+						&& !prefilter.mayMatch(compiledPattern, literalsFound[propertyIndex])) {
+					unmatchedFound = true;
+					break;
+				}
+
 				if (compiledPattern != null && importEntryPropertyValue != null) {
 					Matcher m = compiledPattern.matcher(importEntryPropertyValue);
 					if (!m.matches()) {
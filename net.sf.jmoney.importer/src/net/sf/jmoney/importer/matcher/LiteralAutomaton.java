@@ -0,0 +1,117 @@
+package net.sf.jmoney.importer.matcher;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+
+/**
+ * An Aho-Corasick automaton that finds, in a single pass over a string, which
+ * of a set of literal strings occur in it.
+ * <P>
+ * The automaton is immutable once built. If the set of literals changes then a
+ * new automaton must be built. This is cheap, being linear in the total length
+ * of the literals.
+ *
+ * @author Nigel Westbury
+ */
+public class LiteralAutomaton {
+
+	/**
+	 * The transitions out of each node, indexed by node number. Node zero is
+	 * the root.
+	 */
+	private final List<Map<Character, Integer>> transitions = new ArrayList<Map<Character, Integer>>();
+
+	/**
+	 * The node to go to when there is no transition for a character, indexed
+	 * by node number.
+	 */
+	private int[] failures;
+
+	/**
+	 * The indexes of the literals that end at each node, including those that
+	 * end at nodes in the failure chain, indexed by node number.
+	 */
+	private final List<BitSet> outputs = new ArrayList<BitSet>();
+
+	/**
+	 * @param literals the literals to search for, which must not be empty
+	 *            strings. The index of each literal in this list is the index
+	 *            of the bit set by {@link #findLiterals(String)} when the
+	 *            literal is found.
+	 */
+	public LiteralAutomaton(List<String> literals) {
+		addNode();
+
+		for (int literalIndex = 0; literalIndex < literals.size(); literalIndex++) {
+			String literal = literals.get(literalIndex);
+			int node = 0;
+			for (int i = 0; i < literal.length(); i++) {
+				Integer next = transitions.get(node).get(literal.charAt(i));
+				if (next == null) {
+					next = addNode();
+					transitions.get(node).put(literal.charAt(i), next);
+				}
+				node = next;
+			}
+			outputs.get(node).set(literalIndex);
+		}
+
+		/*
+		 * Set the failure links, breadth first so that the failure node of
+		 * each node's parent has been set before the node itself.
+		 */
+		failures = new int[transitions.size()];
+		Queue<Integer> queue = new LinkedList<Integer>();
+		for (int child : transitions.get(0).values()) {
+			failures[child] = 0;
+			queue.add(child);
+		}
+		while (!queue.isEmpty()) {
+			int node = queue.remove();
+			for (Map.Entry<Character, Integer> transition : transitions.get(node).entrySet()) {
+				int child = transition.getValue();
+				queue.add(child);
+
+				int failure = failures[node];
+				while (failure != 0 && !transitions.get(failure).containsKey(transition.getKey())) {
+					failure = failures[failure];
+				}
+				Integer failureChild = transitions.get(failure).get(transition.getKey());
+				failures[child] = (failureChild == null || failureChild == child) ? 0 : failureChild;
+				outputs.get(child).or(outputs.get(failures[child]));
+			}
+		}
+	}
+
+	private int addNode() {
+		transitions.add(new HashMap<Character, Integer>());
+		outputs.add(new BitSet());
+		return transitions.size() - 1;
+	}
+
+	/**
+	 * @param text the text to search, which should have been case-folded in
+	 *            the same way as the literals
+	 * @return the indexes of the literals that occur in the given text
+	 */
+	public BitSet findLiterals(String text) {
+		BitSet found = new BitSet();
+		int node = 0;
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			Integer next = transitions.get(node).get(c);
+			while (next == null && node != 0) {
+				node = failures[node];
+				next = transitions.get(node).get(c);
+			}
+			node = (next == null) ? 0 : next;
+			found.or(outputs.get(node));
+		}
+		return found;
+	}
+}
@@ -0,0 +1,272 @@
+package net.sf.jmoney.importer.matcher;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import net.sf.jmoney.importer.model.MemoPattern;
+
+/**
+ * Used by the import matcher to avoid running regular expressions that cannot
+ * possibly match.
+ * <P>
+ * From each compiled pattern we extract a literal string that must occur in
+ * any text that the pattern matches. For example, from
+ * <code>AMAZON\.COM.*</code> the literal 'amazon.com' is extracted. All the
+ * literals are put into a single automaton so that one pass over an imported
+ * value finds which of the literals occur in it. A pattern need then only be
+ * run against the value if its literal was found.
+ * <P>
+ * The literal extraction is conservative. If a pattern contains alternation,
+ * inline flags, or escapes that are not understood here then no literal is
+ * extracted and the pattern is always run. It is never the case that a
+ * pattern that would have matched is skipped.
+ * <P>
+ * The literals are cached against the compiled pattern objects. A pattern
+ * that is edited is recompiled by <code>MemoPattern</code>, so the new
+ * compiled pattern is seen here as a new pattern and its literal extracted.
+ * The automaton is rebuilt only when the set of literals changes.
+ *
+ * @author Nigel Westbury
+ */
+public class PatternPrefilter {
+
+	/**
+	 * The required literal for each compiled pattern, or null if the pattern
+	 * has no required literal.
+	 */
+	private Map<Pattern, String> requiredLiterals = new IdentityHashMap<Pattern, String>();
+
+	/**
+	 * The literals in the automaton, mapped to their index in the automaton.
+	 */
+	private Map<String, Integer> literalIndexes = new HashMap<String, Integer>();
+
+	private LiteralAutomaton automaton = new LiteralAutomaton(new ArrayList<String>());
+
+	/**
+	 * Brings the literals and the automaton up to date with the given
+	 * patterns. This must be called before values are scanned and again
+	 * whenever the patterns change. It looks at every compiled pattern, so
+	 * callers should not call it when the patterns have not changed, but the
+	 * automaton is rebuilt only if the set of literals has changed.
+	 */
+	void update(List<MemoPattern> patterns, List<? extends ImportEntryProperty<?>> importEntryProperties) {
+		Map<Pattern, String> newRequiredLiterals = new IdentityHashMap<Pattern, String>();
+		boolean literalsChanged = false;
+		for (MemoPattern pattern : patterns) {
+			for (ImportEntryProperty<?> importEntryProperty : importEntryProperties) {
+				Pattern compiledPattern = pattern.getCompiledPattern(importEntryProperty.id);
+				if (compiledPattern != null) {
+					String literal;
+					if (requiredLiterals.containsKey(compiledPattern)) {
+						literal = requiredLiterals.get(compiledPattern);
+					} else {
+						literal = getRequiredLiteral(compiledPattern);
+						if (literal != null && !literalIndexes.containsKey(literal)) {
+							literalsChanged = true;
+						}
+					}
+					newRequiredLiterals.put(compiledPattern, literal);
+				}
+			}
+		}
+
+		if (newRequiredLiterals.size() < requiredLiterals.size()) {
+			// Some patterns have gone, so there may be unused literals.
+			literalsChanged = true;
+		}
+		requiredLiterals = newRequiredLiterals;
+
+		if (literalsChanged) {
+			List<String> literals = new ArrayList<String>();
+			literalIndexes = new HashMap<String, Integer>();
+			for (String literal : requiredLiterals.values()) {
+				if (literal != null && !literalIndexes.containsKey(literal)) {
+					literalIndexes.put(literal, literals.size());
+					literals.add(literal);
+				}
+			}
+			automaton = new LiteralAutomaton(literals);
+		}
+	}
+
+	/**
+	 * Finds which literals occur in an imported value. The result is passed
+	 * to {@link #mayMatch(Pattern, BitSet)}.
+	 */
+	BitSet scan(String value) {
+		return automaton.findLiterals(foldCase(value));
+	}
+
+	/**
+	 * @param compiledPattern a pattern that was passed to the last call to
+	 *            <code>update</code>
+	 * @param literalsFound the result of scanning the value against which the
+	 *            pattern is to be matched
+	 * @return false if the pattern cannot match the value, true if it might
+	 */
+	boolean mayMatch(Pattern compiledPattern, BitSet literalsFound) {
+		String literal = requiredLiterals.get(compiledPattern);
+		if (literal == null) {
+			return true;
+		}
+		return literalsFound.get(literalIndexes.get(literal));
+	}
+
+	/**
+	 * The patterns are compiled with CASE_INSENSITIVE but not UNICODE_CASE,
+	 * so only US-ASCII letters are matched without regard to case. We fold
+	 * the same letters here, and no others.
+	 */
+	private static String foldCase(String text) {
+		char [] chars = text.toCharArray();
+		for (int i = 0; i < chars.length; i++) {
+			if (chars[i] >= 'A' && chars[i] <= 'Z') {
+				chars[i] += 'a' - 'A';
+			}
+		}
+		return new String(chars);
+	}
+
+	/**
+	 * Extracts the longest literal that must occur in any text matched by the
+	 * given pattern.
+	 * <P>
+	 * Only literals outside of groups are considered. A literal character
+	 * followed by '?', '*', or '{' is not required, so ends the literal
+	 * before that character.
+	 *
+	 * @return the literal, case folded, or null if no literal could be found
+	 */
+	public static String getRequiredLiteral(Pattern compiledPattern) {
+		String regex = compiledPattern.pattern();
+		if ((compiledPattern.flags() & (Pattern.LITERAL | Pattern.COMMENTS)) != 0) {
+			return null;
+		}
+
+		String longest = "";
+		StringBuffer current = new StringBuffer();
+		int depth = 0;
+
+		int i = 0;
+		while (i < regex.length()) {
+			char c = regex.charAt(i++);
+			switch (c) {
+			case '\\':
+				if (i == regex.length()) {
+					return null;
+				}
+				char escaped = regex.charAt(i++);
+				if (Character.isLetterOrDigit(escaped)) {
+					if ("dDsSwWbBAzZG".indexOf(escaped) == -1) {
+						// \Q, \p{..}, \x.., back references etc.
+						return null;
+					}
+					longest = longer(longest, current);
+					current.setLength(0);
+				} else if (depth == 0) {
+					current.append(escaped);
+				}
+				break;
+			case '[':
+				i = skipCharacterClass(regex, i);
+				if (i == -1) {
+					return null;
+				}
+				longest = longer(longest, current);
+				current.setLength(0);
+				break;
+			case '(':
+				if (i < regex.length() && regex.charAt(i) == '?') {
+					if (i + 1 < regex.length() && regex.charAt(i + 1) == ':') {
+						i += 2;
+					} else {
+						// Inline flags, look-arounds, named groups
+						return null;
+					}
+				}
+				longest = longer(longest, current);
+				current.setLength(0);
+				depth++;
+				break;
+			case ')':
+				depth--;
+				break;
+			case '|':
+				if (depth == 0) {
+					return null;
+				}
+				break;
+			case '?':
+			case '*':
+			case '{':
+				// The preceding character is optional
+				if (current.length() > 0) {
+					current.setLength(current.length() - 1);
+				}
+				longest = longer(longest, current);
+				current.setLength(0);
+				if (c == '{') {
+					i = regex.indexOf('}', i);
+					if (i == -1) {
+						return null;
+					}
+					i++;
+				}
+				break;
+			case '+':
+			case '.':
+			case '^':
+			case '$':
+				longest = longer(longest, current);
+				current.setLength(0);
+				break;
+			default:
+				if (depth == 0) {
+					current.append(c);
+				}
+			}
+		}
+		longest = longer(longest, current);
+
+		return longest.isEmpty() ? null : foldCase(longest);
+	}
+
+	private static String longer(String longest, StringBuffer current) {
+		return current.length() > longest.length() ? current.toString() : longest;
+	}
+
+	/**
+	 * @param i the index of the character following the opening '['
+	 * @return the index of the character following the matching ']', or -1
+	 *         if there is no matching ']'
+	 */
+	private static int skipCharacterClass(String regex, int i) {
+		int depth = 1;
+		if (i < regex.length() && regex.charAt(i) == '^') {
+			i++;
+		}
+		if (i < regex.length() && regex.charAt(i) == ']') {
+			// A ']' at the start of a class is a literal
+			i++;
+		}
+		while (i < regex.length()) {
+			char c = regex.charAt(i++);
+			if (c == '\\') {
+				i++;
+			} else if (c == '[') {
+				depth++;
+			} else if (c == ']') {
+				if (--depth == 0) {
+					return i;
+				}
+			}
+		}
+		return -1;
+	}
+}
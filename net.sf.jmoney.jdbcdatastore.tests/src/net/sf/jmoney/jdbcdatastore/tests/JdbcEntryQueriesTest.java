@@ -0,0 +1,374 @@
+/*
+ *
+ *  JMoney - A Personal Finance Manager
+ *  Copyright (c) 2010 Nigel Westbury <westbury@users.sourceforge.net>
+ *
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ */
+package net.sf.jmoney.jdbcdatastore.tests;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+
+import junit.framework.TestCase;
+import net.sf.jmoney.isolation.ReferenceViolationException;
+import net.sf.jmoney.jdbcdatastore.IDatabaseRowKey;
+import net.sf.jmoney.jdbcdatastore.SessionManager;
+import net.sf.jmoney.jdbcdatastore.SortedAccountEntriesList;
+import net.sf.jmoney.model2.BankAccount;
+import net.sf.jmoney.model2.Account;
+import net.sf.jmoney.model2.BankAccountInfo;
+import net.sf.jmoney.model2.Entry;
+import net.sf.jmoney.model2.Session;
+import net.sf.jmoney.model2.Transaction;
+import net.sf.jmoney.model2.TransactionInfo;
+
+/**
+ * Tests the queries in the JDBC datastore. An in-memory HSQLDB
+ * database is used.
+ * <P>
+ * This is a fragment of the JDBC datastore plug-in so that the HSQLDB driver,
+ * which is on the class path of that plug-in but is not exported, can be
+ * loaded.
+ */
+public class JdbcEntryQueriesTest extends TestCase {
+
+	private static final int YEARS = 10;
+
+	private static final int TRANSACTIONS_PER_MONTH = 30;
+
+	private SessionManager manager;
+
+	private BankAccount account;
+
+	/**
+	 * The expected total for each month, indexed from the first month.
+	 */
+	private long[] expectedTotals = new long[YEARS * 12];
+
+	@Override
+	public void setUp() throws ClassNotFoundException, SQLException {
+		Class.forName("org.hsqldb.jdbcDriver");
+		manager = new SessionManager("jdbc:hsqldb:mem:" + getName(), "sa", "");
+
+		Session session = manager.getSession();
+		account = session.getAccountCollection().createNewElement(BankAccountInfo.getPropertySet());
+		account.setName("Checking");
+		BankAccount otherAccount = session.getAccountCollection().createNewElement(BankAccountInfo.getPropertySet());
+		otherAccount.setName("Savings");
+
+		Calendar calendar = Calendar.getInstance();
+		for (int month = 0; month < YEARS * 12; month++) {
+			for (int i = 0; i < TRANSACTIONS_PER_MONTH; i++) {
+				calendar.clear();
+				calendar.set(2000 + month / 12, month % 12, i % 28 + 1);
+
+				long amount = month * 100 + i;
+
+				Transaction trans = session.getTransactionCollection().createNewElement(TransactionInfo.getPropertySet());
+				trans.setDate(calendar.getTime());
+				Entry entry1 = trans.createEntry();
+				Entry entry2 = trans.createEntry();
+				entry1.setAccount(account);
+				entry2.setAccount(otherAccount);
+				entry1.setAmount(amount);
+				entry2.setAmount(-amount);
+
+				expectedTotals[month] += amount;
+			}
+		}
+	}
+
+	@Override
+	public void tearDown() {
+		manager.close();
+	}
+
+	public void testEntryTotalsByMonth() {
+		long[] totals = manager.getEntryTotalsByMonth(account, 2000, 1, YEARS * 12, false);
+
+		assertEquals(expectedTotals.length, totals.length);
+		for (int month = 0; month < expectedTotals.length; month++) {
+			assertEquals("month " + month, expectedTotals[month], totals[month]);
+		}
+	}
+
+	/**
+	 * Opens a second session on the same database, so none of the entries
+	 * are materialized, and checks that the totals for every month in the
+	 * ten years are calculated by a single statement. The entries are not
+	 * read, however many there are.
+	 */
+	public void testEntryTotalsByMonthInOneStatement() throws SQLException {
+		SessionManager manager2 = new SessionManager("jdbc:hsqldb:mem:" + getName(), "sa", "");
+		try {
+			BankAccount account2 = null;
+			for (Account eachAccount : manager2.getSession().getAccountCollection()) {
+				if (eachAccount.getName().equals("Checking")) {
+					account2 = (BankAccount)eachAccount;
+				}
+			}
+			assertNotNull(account2);
+
+			long statementCount = manager2.getStatementCount();
+			long[] totals = manager2.getEntryTotalsByMonth(account2, 2000, 1, YEARS * 12, false);
+			assertEquals(1, manager2.getStatementCount() - statementCount);
+
+			for (int month = 0; month < expectedTotals.length; month++) {
+				assertEquals("month " + month, expectedTotals[month], totals[month]);
+			}
+		} finally {
+			manager2.close();
+		}
+	}
+
+	public void testEntryTotalsByMonthOutsideRange() {
+		long[] totals = manager.getEntryTotalsByMonth(account, 1990, 1, 12, false);
+		for (long total : totals) {
+			assertEquals(0, total);
+		}
+	}
+
+	public void testSumOfAmounts() {
+		Calendar calendar = Calendar.getInstance();
+		calendar.clear();
+		calendar.set(2000, Calendar.JANUARY, 1);
+		long fromTime = calendar.getTimeInMillis();
+		calendar.set(2000 + YEARS - 1, Calendar.DECEMBER, 31);
+		long toTime = calendar.getTimeInMillis();
+
+		long expectedTotal = 0;
+		for (long monthTotal : expectedTotals) {
+			expectedTotal += monthTotal;
+		}
+
+		long total = manager.sumOfAmounts(account, new java.util.Date(fromTime), new java.util.Date(toTime));
+
+		assertEquals(expectedTotal, total);
+	}
+
+	/**
+	 * Checks that the date and amount restrictions are applied both to the
+	 * entries returned and to the size of the restricted list.
+	 */
+	public void testRestrictedEntries() {
+		Calendar calendar = Calendar.getInstance();
+		calendar.clear();
+		calendar.set(2003, Calendar.MARCH, 1);
+		Date fromDate = calendar.getTime();
+		calendar.set(2003, Calendar.MARCH, 31);
+		Date toDate = calendar.getTime();
+
+		// The amounts in March 2003, which is month 38, are 3800 to 3829
+		Iterator<Entry> iterator = manager.getEntries(account, fromDate, toDate, 3810L, 3819L);
+		int count = 0;
+		Date previousDate = fromDate;
+		while (iterator.hasNext()) {
+			Entry entry = iterator.next();
+			assertTrue(entry.getAmount() >= 3810 && entry.getAmount() <= 3819);
+			assertFalse(entry.getTransaction().getDate().before(previousDate));
+			previousDate = entry.getTransaction().getDate();
+			count++;
+		}
+		assertEquals(10, count);
+		assertFalse(previousDate.after(toDate));
+
+		SortedAccountEntriesList entries = new SortedAccountEntriesList(manager, (IDatabaseRowKey)account.getObjectKey(), TransactionInfo.getDateAccessor(), false, fromDate, toDate, 3810L, 3819L);
+		assertEquals(10, entries.size());
+		assertFalse(entries.isEmpty());
+
+		SortedAccountEntriesList noEntries = new SortedAccountEntriesList(manager, (IDatabaseRowKey)account.getObjectKey(), TransactionInfo.getDateAccessor(), false, fromDate, toDate, 5000L, null);
+		assertEquals(0, noEntries.size());
+		assertTrue(noEntries.isEmpty());
+	}
+
+	/**
+	 * Opens a second session on the same database, so none of the objects
+	 * are already materialized, and checks that the entries, their
+	 * transactions, and the other entries in the transactions are read
+	 * using a fixed number of queries.
+	 */
+	public void testEntriesWithTransactions() throws SQLException {
+		SessionManager manager2 = new SessionManager("jdbc:hsqldb:mem:" + getName(), "sa", "");
+		try {
+			Account account2 = null;
+			for (Account eachAccount : manager2.getSession().getAccountCollection()) {
+				if (eachAccount.getName().equals("Checking")) {
+					account2 = eachAccount;
+				}
+			}
+			assertNotNull(account2);
+
+			long statementCount = manager2.getStatementCount();
+
+			Collection<Entry> entries = manager2.getEntriesWithTransactions(account2);
+			int otherEntryCount = 0;
+			for (Entry entry : entries) {
+				assertSame(account2, entry.getAccount());
+				for (Entry otherEntry : entry.getTransaction().getEntryCollection()) {
+					if (otherEntry != entry) {
+						assertEquals(-entry.getAmount(), otherEntry.getAmount());
+						otherEntryCount++;
+					}
+				}
+			}
+
+			assertEquals(YEARS * 12 * TRANSACTIONS_PER_MONTH, entries.size());
+			assertEquals(YEARS * 12 * TRANSACTIONS_PER_MONTH, otherEntryCount);
+
+			/*
+			 * Two queries to read the entries and transactions, plus any
+			 * queries needed to resolve the accounts (which are cached after
+			 * the first read).
+			 */
+			assertTrue(manager2.getStatementCount() - statementCount <= 4);
+		} finally {
+			manager2.close();
+		}
+	}
+
+	/**
+	 * Runs the aggregate queries on several threads at the same time while
+	 * this thread continues to make updates through the main connection.
+	 */
+	public void testConcurrentReadOnlyQueries() throws InterruptedException {
+		final long[][] results = new long[4][];
+		final Throwable[] failures = new Throwable[results.length];
+		Thread[] threads = new Thread[results.length];
+		for (int i = 0; i < threads.length; i++) {
+			final int threadIndex = i;
+			threads[i] = new Thread() {
+				@Override
+				public void run() {
+					try {
+						results[threadIndex] = manager.getEntryTotalsByMonth(account, 2000, 1, YEARS * 12, false);
+					} catch (Throwable e) {
+						failures[threadIndex] = e;
+					}
+				}
+			};
+			threads[i].start();
+		}
+
+		/*
+		 * Updates made while the queries are running. These are in 1990 so
+		 * they do not affect the totals being calculated.
+		 */
+		Calendar calendar = Calendar.getInstance();
+		calendar.clear();
+		calendar.set(1990, Calendar.JANUARY, 1);
+		for (int i = 0; i < 10; i++) {
+			Transaction trans = manager.getSession().getTransactionCollection().createNewElement(TransactionInfo.getPropertySet());
+			trans.setDate(calendar.getTime());
+			Entry entry = trans.createEntry();
+			entry.setAccount(account);
+			entry.setAmount(i);
+		}
+
+		for (int i = 0; i < threads.length; i++) {
+			threads[i].join();
+			assertNull(failures[i]);
+			for (int month = 0; month < expectedTotals.length; month++) {
+				assertEquals("month " + month, expectedTotals[month], results[i][month]);
+			}
+		}
+	}
+
+	/**
+	 * Searches for entries by memo, checking that the table of memo terms is
+	 * kept up to date as memos are set and changed and as transactions are
+	 * deleted.
+	 */
+	public void testMemoSearch() throws ReferenceViolationException, SQLException {
+		Session session = manager.getSession();
+		Entry[] entries = new Entry[3];
+		String[] memos = { "AMAZON.COM purchase", "Amazonia tours", "Grocery" };
+		for (int i = 0; i < entries.length; i++) {
+			Transaction trans = session.getTransactionCollection().createNewElement(TransactionInfo.getPropertySet());
+			entries[i] = trans.createEntry();
+			entries[i].setAccount(account);
+			entries[i].setMemo(memos[i]);
+		}
+
+		List<Entry> found = manager.getEntries(null, null, null, "mazon");
+
+		assertEquals(2, found.size());
+		assertEquals(1, manager.getEntries(null, null, null, "amazon.com pur").size());
+		assertEquals(0, manager.getEntries(null, null, null, "amazon pur").size());
+
+		entries[0].setMemo("Bookshop");
+		found = manager.getEntries(null, null, null, "mazon");
+		assertEquals(1, found.size());
+		assertSame(entries[1], found.get(0));
+
+		int deletedId = ((IDatabaseRowKey)entries[1].getObjectKey()).getRowId();
+		assertTrue(countTerms(manager, deletedId) > 0);
+		session.getTransactionCollection().deleteElement(entries[1].getTransaction());
+		assertEquals(0, manager.getEntries(null, null, null, "mazon").size());
+		assertEquals(0, countTerms(manager, deletedId));
+	}
+
+	/**
+	 * Checks that the table of memo terms is rebuilt when a database is
+	 * opened if the table has no version, as would be the case if the entries
+	 * had been changed by something that does not maintain the table.
+	 */
+	public void testMemoTermsRebuilt() throws SQLException {
+		Transaction trans = manager.getSession().getTransactionCollection().createNewElement(TransactionInfo.getPropertySet());
+		Entry entry = trans.createEntry();
+		entry.setAccount(account);
+		entry.setMemo("Amazon");
+		int entryId = ((IDatabaseRowKey)entry.getObjectKey()).getRowId();
+
+		Statement stmt = manager.getConnection().createStatement();
+		try {
+			stmt.execute("DELETE FROM net_sf_jmoney_entry_terms");
+			stmt.execute("DELETE FROM net_sf_jmoney_entry_terms_version");
+		} finally {
+			stmt.close();
+		}
+		assertEquals(0, countTerms(manager, entryId));
+
+		SessionManager manager2 = new SessionManager("jdbc:hsqldb:mem:" + getName(), "sa", "");
+		try {
+			assertTrue(countTerms(manager2, entryId) > 0);
+			assertEquals(1, manager2.getEntries(null, null, null, "amazon").size());
+		} finally {
+			manager2.close();
+		}
+	}
+
+	private static int countTerms(SessionManager manager, int entryId) throws SQLException {
+		PreparedStatement stmt = manager.getConnection().prepareStatement(
+				"SELECT COUNT(*) FROM net_sf_jmoney_entry_terms WHERE \"entry\" = ?");
+		try {
+			stmt.setInt(1, entryId);
+			ResultSet rs = stmt.executeQuery();
+			rs.next();
+			return rs.getInt(1);
+		} finally {
+			stmt.close();
+		}
+	}
+}
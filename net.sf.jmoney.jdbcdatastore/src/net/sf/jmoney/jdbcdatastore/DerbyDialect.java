@@ -0,0 +1,65 @@
+/*
+*
+*  JMoney - A Personal Finance Manager
+*  Copyright (c) 2004 Nigel Westbury <westbury@users.sourceforge.net>
+*
+*
+*  This program is free software; you can redistribute it and/or modify
+*  it under the terms of the GNU General Public License as published by
+*  the Free Software Foundation; either version 2 of the License, or
+*  (at your option) any later version.
+*
+*  This program is distributed in the hope that it will be useful,
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*  GNU General Public License for more details.
+*
+*  You should have received a copy of the GNU General Public License
+*  along with this program; if not, write to the Free Software
+*  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+*
+*/
+
+
+package net.sf.jmoney.jdbcdatastore;
+
+/**
+ * SQL dialect for Apache Derby.
+ *
+ * @author Nigel Westbury
+ */
+public class DerbyDialect extends SqlDialect {
+
+	/**
+	 * Derby does not have DATETIME, it has only DATE, TIME, and TIMESTAMP.
+	 */
+	@Override
+	public String getDateTypeName() {
+		return "DATE";
+	}
+
+	@Override
+	public String getIdentityColumnDefinition() {
+		return " NOT NULL GENERATED ALWAYS AS IDENTITY";
+	}
+
+	/**
+	 * For some very strange reason, Derby requires all foreign keys
+	 * constraints to be 'CASCADE' if the table has any 'CASCADE' foreign keys
+	 * constraints.
+	 */
+	@Override
+	public boolean allowsMixedCascadeForeignKeys() {
+		return false;
+	}
+
+	@Override
+	public String yearOf(String dateColumn) {
+		return "YEAR(" + dateColumn + ")";
+	}
+
+	@Override
+	public String monthOf(String dateColumn) {
+		return "MONTH(" + dateColumn + ")";
+	}
+}
@@ -0,0 +1,317 @@
+/*
+*
+*  JMoney - A Personal Finance Manager
+*  Copyright (c) 2004 Nigel Westbury <westbury@users.sourceforge.net>
+*
+*
+*  This program is free software; you can redistribute it and/or modify
+*  it under the terms of the GNU General Public License as published by
+*  the Free Software Foundation; either version 2 of the License, or
+*  (at your option) any later version.
+*
+*  This program is distributed in the hope that it will be useful,
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*  GNU General Public License for more details.
+*
+*  You should have received a copy of the GNU General Public License
+*  along with this program; if not, write to the Free Software
+*  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+*
+*/
+
+
+package net.sf.jmoney.jdbcdatastore;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import net.sf.jmoney.isolation.IModelObject;
+import net.sf.jmoney.isolation.IScalarPropertyAccessor;
+import net.sf.jmoney.isolation.SessionChangeAdapter;
+import net.sf.jmoney.model2.Entry;
+import net.sf.jmoney.model2.EntryInfo;
+import net.sf.jmoney.model2.EntryTextIndex;
+import net.sf.jmoney.model2.Transaction;
+
+/**
+ * Maintains a table that indexes the words in the entry memos, so that a
+ * search for entries whose memo contains some text can use a database index
+ * instead of scanning every entry.
+ * <P>
+ * The table has a row for each term in the memo of each entry, the terms
+ * being given by {@link EntryTextIndex#getTerms(String)}. A search for text
+ * then requires, for each word in the text, that the entry has a term that
+ * starts with the word. This is a range of the index on the terms. The
+ * entries found this way may not all contain the text, so the search must
+ * still check the memo.
+ * <P>
+ * The table is kept up to date by this object, which must be added as a
+ * listener to the session manager. A second table holds the version of the
+ * terms table. When the database is opened the terms table is rebuilt from the
+ * existing entries if there is no version, or if the version is not the
+ * current version, so a table built with different terms is never used. The
+ * version must be incremented whenever {@link EntryTextIndex#getTerms(String)}
+ * changes. Anything else that changes the entries in the database without
+ * maintaining the terms table must delete the version, so that the terms
+ * table is rebuilt the next time the database is opened.
+ *
+ * @author Nigel Westbury
+ */
+class EntryTermsTable extends SessionChangeAdapter {
+
+	static final String TABLE_NAME = "net_sf_jmoney_entry_terms";
+
+	static final String VERSION_TABLE_NAME = "net_sf_jmoney_entry_terms_version";
+
+	/**
+	 * The version of the terms in the table, to be incremented whenever the
+	 * terms given for a memo change.
+	 */
+	static final int VERSION = 1;
+
+	private static final String INSERT_SQL = "INSERT INTO " + TABLE_NAME + " (\"term\", \"entry\") VALUES (?, ?)";
+
+	private static final String DELETE_SQL = "DELETE FROM " + TABLE_NAME + " WHERE \"entry\" = ?";
+
+	private final SessionManager sessionManager;
+
+	/**
+	 * The row ids of entries that are being destroyed, mapped by the row id
+	 * of the transaction containing them. The ids are recorded when the
+	 * entries are destroyed, because the entries are gone from the database
+	 * by the time the transaction is removed.
+	 */
+	private Map<Integer, List<Integer>> destroyedEntryIds = new HashMap<Integer, List<Integer>>();
+
+	EntryTermsTable(SessionManager sessionManager) {
+		this.sessionManager = sessionManager;
+	}
+
+	@Override
+	public void objectCreated(IModelObject newObject) {
+		if (newObject instanceof Entry) {
+			Entry entry = (Entry)newObject;
+			insertTerms(getRowId(entry), entry.getMemo());
+		}
+	}
+
+	@Override
+	public void objectDestroyed(IModelObject deletedObject) {
+		if (deletedObject instanceof Entry) {
+			Entry entry = (Entry)deletedObject;
+			int transactionId = ((IDatabaseRowKey)entry.getTransaction().getObjectKey()).getRowId();
+			List<Integer> entryIds = destroyedEntryIds.get(transactionId);
+			if (entryIds == null) {
+				entryIds = new ArrayList<Integer>();
+				destroyedEntryIds.put(transactionId, entryIds);
+			}
+			entryIds.add(getRowId(entry));
+		}
+	}
+
+	@Override
+	public void objectRemoved(IModelObject deletedObject) {
+		if (deletedObject instanceof Entry) {
+			deleteTerms(getRowId((Entry)deletedObject));
+		} else if (deletedObject instanceof Transaction) {
+			Transaction transaction = (Transaction)deletedObject;
+			List<Integer> entryIds = destroyedEntryIds.remove(((IDatabaseRowKey)transaction.getObjectKey()).getRowId());
+			if (entryIds == null) {
+				/*
+				 * Destroy events are fired only when a deletion is committed
+				 * through a transaction manager. Otherwise the entries are
+				 * taken from the transaction, whose list of entries was read
+				 * before the entries were deleted from the database.
+				 */
+				entryIds = new ArrayList<Integer>();
+				for (Entry entry : transaction.getEntryCollection()) {
+					entryIds.add(getRowId(entry));
+				}
+			}
+			deleteTerms(entryIds);
+		}
+	}
+
+	@Override
+	public void objectChanged(IModelObject changedObject, IScalarPropertyAccessor changedProperty, Object oldValue, Object newValue) {
+		if (changedObject instanceof Entry
+				&& changedProperty == EntryInfo.getMemoAccessor()) {
+			int rowId = getRowId((Entry)changedObject);
+			deleteTerms(rowId);
+			insertTerms(rowId, (String)newValue);
+		}
+	}
+
+	private static int getRowId(Entry entry) {
+		return ((IDatabaseRowKey)entry.getObjectKey()).getRowId();
+	}
+
+	/**
+	 * Creates the table if it does not exist, or rebuilds it if it was not
+	 * built with the current version of the terms. When the table is built,
+	 * it is filled with the terms from the entries already in the database.
+	 */
+	static void checkTable(Connection con, DatabaseMetaData dmd, Statement stmt) throws SQLException {
+		boolean termsTableExists = tableExists(dmd, TABLE_NAME);
+		boolean versionTableExists = tableExists(dmd, VERSION_TABLE_NAME);
+
+		if (termsTableExists && versionTableExists) {
+			ResultSet rs = stmt.executeQuery("SELECT \"version\" FROM " + VERSION_TABLE_NAME);
+			try {
+				if (rs.next() && rs.getInt(1) == VERSION) {
+					return;
+				}
+			} finally {
+				rs.close();
+			}
+		}
+
+		if (termsTableExists) {
+			String sql = "DROP TABLE " + TABLE_NAME;
+			if (JDBCDatastorePlugin.DEBUG) System.out.println(sql);
+			stmt.execute(sql);
+		}
+
+		if (versionTableExists) {
+			stmt.execute("DELETE FROM " + VERSION_TABLE_NAME);
+		} else {
+			String sql = "CREATE TABLE " + VERSION_TABLE_NAME + " (\"version\" INT NOT NULL)";
+			if (JDBCDatastorePlugin.DEBUG) System.out.println(sql);
+			stmt.execute(sql);
+		}
+
+		String sql = "CREATE TABLE " + TABLE_NAME
+			+ " (\"term\" VARCHAR(" + EntryTextIndex.MAXIMUM_TERM_LENGTH + ") NOT NULL, \"entry\" INT NOT NULL)";
+		if (JDBCDatastorePlugin.DEBUG) System.out.println(sql);
+		stmt.execute(sql);
+
+		sql = "CREATE INDEX " + TABLE_NAME + "_term ON " + TABLE_NAME + " (\"term\")";
+		if (JDBCDatastorePlugin.DEBUG) System.out.println(sql);
+		stmt.execute(sql);
+
+		sql = "CREATE INDEX " + TABLE_NAME + "_entry ON " + TABLE_NAME + " (\"entry\")";
+		if (JDBCDatastorePlugin.DEBUG) System.out.println(sql);
+		stmt.execute(sql);
+
+		String entryTableName = EntryInfo.getPropertySet().getId().replace('.', '_');
+		ResultSet rs = stmt.executeQuery("SELECT \"_ID\", \"memo\" FROM " + entryTableName + " WHERE \"memo\" IS NOT NULL");
+		PreparedStatement insertStatement = con.prepareStatement(INSERT_SQL);
+		try {
+			while (rs.next()) {
+				addTerms(insertStatement, rs.getInt(1), rs.getString(2));
+			}
+			insertStatement.executeBatch();
+		} finally {
+			insertStatement.close();
+			rs.close();
+		}
+
+		/*
+		 * The version is written last, so if the table is not completely
+		 * built then it is built again the next time the database is opened.
+		 */
+		stmt.execute("INSERT INTO " + VERSION_TABLE_NAME + " (\"version\") VALUES (" + VERSION + ")");
+	}
+
+	private static boolean tableExists(DatabaseMetaData dmd, String tableName) throws SQLException {
+		ResultSet tableResultSet = dmd.getTables(null, null, tableName.toUpperCase(), new String[] { "TABLE" });
+		try {
+			return tableResultSet.next();
+		} finally {
+			tableResultSet.close();
+		}
+	}
+
+	private static void addTerms(PreparedStatement insertStatement, int rowId, String memo) throws SQLException {
+		for (String term : EntryTextIndex.getTerms(memo)) {
+			insertStatement.setString(1, term);
+			insertStatement.setInt(2, rowId);
+			insertStatement.addBatch();
+		}
+	}
+
+	private void insertTerms(int rowId, String memo) {
+		Set<String> terms = EntryTextIndex.getTerms(memo);
+		if (terms.isEmpty()) {
+			return;
+		}
+
+		try {
+			PreparedStatement stmt = sessionManager.getCachedStatement(INSERT_SQL);
+			addTerms(stmt, rowId, memo);
+			stmt.executeBatch();
+		} catch (SQLException e) {
+			throw new RuntimeException("Failed to index the memo of an entry", e);
+		}
+	}
+
+	private void deleteTerms(int rowId) {
+		try {
+			PreparedStatement stmt = sessionManager.getCachedStatement(DELETE_SQL);
+			stmt.setInt(1, rowId);
+			stmt.executeUpdate();
+		} catch (SQLException e) {
+			throw new RuntimeException("Failed to remove the memo of an entry from the index", e);
+		}
+	}
+
+	private void deleteTerms(List<Integer> rowIds) {
+		if (rowIds.isEmpty()) {
+			return;
+		}
+
+		try {
+			PreparedStatement stmt = sessionManager.getCachedStatement(DELETE_SQL);
+			for (int rowId : rowIds) {
+				stmt.setInt(1, rowId);
+				stmt.addBatch();
+			}
+			stmt.executeBatch();
+		} catch (SQLException e) {
+			throw new RuntimeException("Failed to remove the memos of deleted entries from the index", e);
+		}
+	}
+
+	/**
+	 * Builds the conditions that restrict a query on the entry table to the
+	 * entries whose memo may contain the given text. There is one condition
+	 * for each word in the text, each with one parameter, which must be set
+	 * using {@link #getParameterValues(String)}.
+	 *
+	 * @param idColumn the qualified name of the id column of the entry table
+	 * @return the conditions, each followed by 'and ', or an empty string if
+	 *         the text contains no words
+	 */
+	static String buildConditions(String idColumn, String text) {
+		StringBuffer conditions = new StringBuffer();
+		for (int i = 0; i < EntryTextIndex.getWords(text).size(); i++) {
+			conditions.append(idColumn + " IN (SELECT \"entry\" FROM " + TABLE_NAME + " WHERE \"term\" LIKE ?) and ");
+		}
+		return conditions.toString();
+	}
+
+	/**
+	 * @return the parameter values for the conditions built by
+	 *         {@link #buildConditions(String, String)}, in order
+	 */
+	static String[] getParameterValues(String text) {
+		Set<String> words = EntryTextIndex.getWords(text);
+		String[] values = new String[words.size()];
+		int i = 0;
+		for (String word : words) {
+			// The words contain only letters and digits, so need no escaping.
+			values[i++] = EntryTextIndex.truncateTerm(word) + "%";
+		}
+		return values;
+	}
+}
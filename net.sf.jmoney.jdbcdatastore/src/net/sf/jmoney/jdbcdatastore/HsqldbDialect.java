@@ -0,0 +1,61 @@
+/*
+*
+*  JMoney - A Personal Finance Manager
+*  Copyright (c) 2004 Nigel Westbury <westbury@users.sourceforge.net>
+*
+*
+*  This program is free software; you can redistribute it and/or modify
+*  it under the terms of the GNU General Public License as published by
+*  the Free Software Foundation; either version 2 of the License, or
+*  (at your option) any later version.
+*
+*  This program is distributed in the hope that it will be useful,
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*  GNU General Public License for more details.
+*
+*  You should have received a copy of the GNU General Public License
+*  along with this program; if not, write to the Free Software
+*  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+*
+*/
+
+
+package net.sf.jmoney.jdbcdatastore;
+
+/**
+ * SQL dialect for HSQLDB.
+ *
+ * @author Nigel Westbury
+ */
+public class HsqldbDialect extends SqlDialect {
+
+	@Override
+	public String getBooleanTypeName() {
+		return "BIT";
+	}
+
+	/**
+	 * HSQLDB does not, as of 1.8.0.7, support the JDBC standard way of getting
+	 * the generated key.
+	 */
+	@Override
+	public boolean supportsGetGeneratedKeys() {
+		return false;
+	}
+
+	@Override
+	public String getIdentityQuery() {
+		return "CALL IDENTITY()";
+	}
+
+	@Override
+	public String yearOf(String dateColumn) {
+		return "YEAR(" + dateColumn + ")";
+	}
+
+	@Override
+	public String monthOf(String dateColumn) {
+		return "MONTH(" + dateColumn + ")";
+	}
+}
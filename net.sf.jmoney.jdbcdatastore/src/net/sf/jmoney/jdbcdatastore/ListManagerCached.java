@@ -79,6 +79,22 @@ public class ListManagerCached<E extends IModelObject, S extends IModelObject> i
 		}
 	}
 
+	/**
+	 * Constructs a list manager for a list whose elements have already been
+	 * read from the database.
+	 *
+	 * @param sessionManager
+	 * @param listKey
+	 * @param elements
+	 *            the elements in the list, which becomes owned by this
+	 *            list manager
+	 */
+	public ListManagerCached(SessionManager sessionManager, DatabaseListKey<E,S> listKey, List<E> elements) {
+		this.sessionManager = sessionManager;
+		this.listKey = listKey;
+		this.elements = elements;
+	}
+
 	@Override
 	public <F extends E> F createNewElement(IExtendablePropertySet<F> propertySet) {
 		// We must create the object before we persist it to the database.
@@ -0,0 +1,56 @@
+/*
+*
+*  JMoney - A Personal Finance Manager
+*  Copyright (c) 2004 Nigel Westbury <westbury@users.sourceforge.net>
+*
+*
+*  This program is free software; you can redistribute it and/or modify
+*  it under the terms of the GNU General Public License as published by
+*  the Free Software Foundation; either version 2 of the License, or
+*  (at your option) any later version.
+*
+*  This program is distributed in the hope that it will be useful,
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*  GNU General Public License for more details.
+*
+*  You should have received a copy of the GNU General Public License
+*  along with this program; if not, write to the Free Software
+*  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+*
+*/
+
+
+package net.sf.jmoney.jdbcdatastore;
+
+/**
+ * SQL dialect for Microsoft SQL Server.
+ *
+ * @author Nigel Westbury
+ */
+public class MsSqlDialect extends SqlDialect {
+
+	@Override
+	public String getBooleanTypeName() {
+		return "BIT";
+	}
+
+	/**
+	 * MS SQL does not support ON DELETE RESTRICT, but NO ACTION has the same
+	 * effect.
+	 */
+	@Override
+	public String getOnDeleteRestrict() {
+		return "ON DELETE NO ACTION";
+	}
+
+	@Override
+	public String yearOf(String dateColumn) {
+		return "YEAR(" + dateColumn + ")";
+	}
+
+	@Override
+	public String monthOf(String dateColumn) {
+		return "MONTH(" + dateColumn + ")";
+	}
+}
@@ -26,6 +26,9 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.text.MessageFormat;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 import net.sf.jmoney.isolation.AbstractDataManager;
 import net.sf.jmoney.isolation.IExtendablePropertySet;
@@ -103,6 +106,14 @@ public class ObjectKey implements IDatabaseRowKey {
 	// work.
 	private IModelObject extendableObject = null;
 
+	/**
+	 * Lists whose elements were read from the database before the object
+	 * itself was materialized, or null if there are none. When the object is
+	 * materialized, the list managers for these lists are constructed with
+	 * the elements already in place, so the lists are not read again.
+	 */
+	private Map<IListPropertyAccessor<?,?>, List<?>> prefetchedLists = null;
+
 	/**
 	 * Construct an object key when used as a reference from
 	 * an extendable object.
@@ -354,13 +365,32 @@ public class ObjectKey implements IDatabaseRowKey {
 	@Override
 	public <E extends IModelObject, S extends IModelObject> IListManager<E> constructListManager(IListPropertyAccessor<E,S> listAccessor) {
 		DatabaseListKey<E,S> listKey = new SessionManager.DatabaseListKey<E,S>(this, listAccessor);
-		if (listAccessor == SessionInfo.getTransactionsAccessor()) {
+		if (prefetchedLists != null && prefetchedLists.containsKey(listAccessor)) {
+			@SuppressWarnings("unchecked")
+			List<E> elements = (List<E>)prefetchedLists.remove(listAccessor);
+			return new ListManagerCached<E,S>(sessionManager, listKey, elements);
+		} else if (listAccessor == SessionInfo.getTransactionsAccessor()) {
 			return new ListManagerUncached<E,S>(sessionManager, listKey);
 		} else {
 			return new ListManagerCached<E,S>(sessionManager, listKey, false);
 		}
 	}
 
+	/**
+	 * Sets the elements of a list property of the object, when the elements
+	 * have been read from the database before the object itself. This must
+	 * be called before the object is materialized.
+	 *
+	 * @param listAccessor
+	 * @param elements
+	 */
+	<E extends IModelObject> void setPrefetchedList(IListPropertyAccessor<E,?> listAccessor, List<E> elements) {
+		if (prefetchedLists == null) {
+			prefetchedLists = new HashMap<IListPropertyAccessor<?,?>, List<?>>();
+		}
+		prefetchedLists.put(listAccessor, elements);
+	}
+
 	/**
 	 * This method is used only when a new object is
 	 * being created.  TODO: It may be possible to
@@ -395,5 +425,10 @@ public class ObjectKey implements IDatabaseRowKey {
 	 */
 	public void setRowId(int rowId) {
 		this.rowId = rowId;
+
+		/*
+		 * The object could not be put in the cache until the row id was known.
+		 */
+		sessionManager.setMaterializedObject(basemostPropertySet, rowId, extendableObject);
 	}
 }
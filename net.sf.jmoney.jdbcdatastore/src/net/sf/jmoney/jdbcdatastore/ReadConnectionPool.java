@@ -0,0 +1,185 @@
+/*
+*
+*  JMoney - A Personal Finance Manager
+*  Copyright (c) 2004 Nigel Westbury <westbury@users.sourceforge.net>
+*
+*
+*  This program is free software; you can redistribute it and/or modify
+*  it under the terms of the GNU General Public License as published by
+*  the Free Software Foundation; either version 2 of the License, or
+*  (at your option) any later version.
+*
+*  This program is distributed in the hope that it will be useful,
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*  GNU General Public License for more details.
+*
+*  You should have received a copy of the GNU General Public License
+*  along with this program; if not, write to the Free Software
+*  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+*
+*/
+
+
+package net.sf.jmoney.jdbcdatastore;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.LinkedList;
+
+/**
+ * A pool of read-only connections to the database.
+ * <P>
+ * The session manager has a single connection through which all updates are
+ * made. That connection is used from the UI thread. Queries that only read
+ * from the database, such as the queries used by reports, may instead be run
+ * on a connection from this pool. This allows such queries to be run from
+ * background jobs without blocking, or being blocked by, the UI thread.
+ * <P>
+ * Connections are opened only when needed, up to a maximum number. If all the
+ * connections are in use then callers wait until one is released.
+ * <P>
+ * Queries run on pooled connections see only committed data. Updates made on
+ * the session manager's connection within a transaction are not seen until the
+ * transaction is committed.
+ * <P>
+ * This class is thread safe.
+ *
+ * @author Nigel Westbury
+ */
+class ReadConnectionPool {
+
+	private final String url;
+
+	private final String user;
+
+	private final String password;
+
+	private final int maximumSize;
+
+	private final StatementCounter statementCounter;
+
+	/**
+	 * The connections that are open but not currently in use.
+	 */
+	private final LinkedList<Connection> idleConnections = new LinkedList<Connection>();
+
+	/**
+	 * The number of connections that are open, including both idle
+	 * connections and connections in use.
+	 */
+	private int openCount = 0;
+
+	private boolean closed = false;
+
+	/**
+	 * @param url
+	 * @param user
+	 * @param password
+	 * @param maximumSize the maximum number of connections to be open at any
+	 *            one time
+	 * @param statementCounter the counter to which statements executed on the
+	 *            pooled connections are added
+	 */
+	ReadConnectionPool(String url, String user, String password, int maximumSize, StatementCounter statementCounter) {
+		this.url = url;
+		this.user = user;
+		this.password = password;
+		this.maximumSize = maximumSize;
+		this.statementCounter = statementCounter;
+	}
+
+	/**
+	 * Gets a connection from the pool, opening a new connection if none are
+	 * idle and the maximum has not been reached, otherwise waiting for a
+	 * connection to be released.
+	 * <P>
+	 * The caller must pass the connection to either <code>release</code> or
+	 * <code>discard</code> when done with it.
+	 */
+	Connection acquire() throws SQLException {
+		synchronized (this) {
+			while (idleConnections.isEmpty() && openCount == maximumSize && !closed) {
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new RuntimeException("interrupted while waiting for a database connection", e);
+				}
+			}
+			if (closed) {
+				throw new RuntimeException("The session has been closed.");
+			}
+			if (!idleConnections.isEmpty()) {
+				return idleConnections.removeFirst();
+			}
+			openCount++;
+		}
+
+		/*
+		 * Open the new connection outside the lock, as it may take a while.
+		 */
+		try {
+			Connection connection = statementCounter.wrap(DriverManager.getConnection(url, user, password));
+			connection.setReadOnly(true);
+			return connection;
+		} catch (SQLException e) {
+			synchronized (this) {
+				openCount--;
+				notify();
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * Returns a connection to the pool so it can be used by other callers.
+	 */
+	synchronized void release(Connection connection) {
+		if (closed) {
+			closeQuietly(connection);
+			openCount--;
+		} else {
+			idleConnections.addFirst(connection);
+		}
+		notify();
+	}
+
+	/**
+	 * Closes a connection that failed. A new connection will be opened in its
+	 * place when next needed.
+	 */
+	void discard(Connection connection) {
+		closeQuietly(connection);
+		synchronized (this) {
+			openCount--;
+			notify();
+		}
+	}
+
+	/**
+	 * Closes all idle connections. Connections currently in use are closed
+	 * when they are released.
+	 */
+	synchronized void close() {
+		closed = true;
+		for (Connection connection : idleConnections) {
+			closeQuietly(connection);
+			openCount--;
+		}
+		idleConnections.clear();
+		notifyAll();
+	}
+
+	private static void closeQuietly(Connection connection) {
+		try {
+			connection.close();
+		} catch (SQLException e) {
+			/*
+			 * Ignore any failures on the close. It was a 'best efforts only'
+			 * close.
+			 */
+		}
+	}
+}
@@ -0,0 +1,116 @@
+/*
+*
+*  JMoney - A Personal Finance Manager
+*  Copyright (c) 2004 Nigel Westbury <westbury@users.sourceforge.net>
+*
+*
+*  This program is free software; you can redistribute it and/or modify
+*  it under the terms of the GNU General Public License as published by
+*  the Free Software Foundation; either version 2 of the License, or
+*  (at your option) any later version.
+*
+*  This program is distributed in the hope that it will be useful,
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*  GNU General Public License for more details.
+*
+*  You should have received a copy of the GNU General Public License
+*  along with this program; if not, write to the Free Software
+*  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+*
+*/
+
+
+package net.sf.jmoney.jdbcdatastore;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.TreeMap;
+
+import net.sf.jmoney.model2.CurrencyAccount;
+import net.sf.jmoney.model2.EntryInfo;
+import net.sf.jmoney.reconciliation.BankStatement;
+import net.sf.jmoney.reconciliation.IReconciliationQueries;
+import net.sf.jmoney.reconciliation.ReconciliationEntryInfo;
+
+/**
+ * Implementation of the reconciliation queries for the JDBC datastore.
+ * <P>
+ * The statement totals are calculated by the database in a single query that
+ * groups the entries in the account by statement. Only one row per statement
+ * is returned, and no entries are materialized.
+ * <P>
+ * The reconciliation plug-in is an optional dependency of this plug-in. This
+ * class is loaded only when the adapter is requested, which can only happen if
+ * the reconciliation plug-in is present.
+ *
+ * @author Nigel Westbury
+ */
+public class ReconciliationQueries implements IReconciliationQueries {
+
+	private SessionManager sessionManager;
+
+	public ReconciliationQueries(SessionManager sessionManager) {
+		this.sessionManager = sessionManager;
+	}
+
+	@Override
+	public BankStatementAndBalance[] getStatements(CurrencyAccount account) {
+		final IDatabaseRowKey proxy = (IDatabaseRowKey)account.getObjectKey();
+
+		String entryTableName = EntryInfo.getPropertySet().getId().replace('.', '_');
+		String statementColumn = entryTableName + ".\"" + sessionManager.getColumnName(ReconciliationEntryInfo.getStatementAccessor()) + "\"";
+
+		final String sql = "SELECT " + statementColumn
+			+ ", SUM(" + entryTableName + ".\"" + sessionManager.getColumnName(EntryInfo.getAmountAccessor()) + "\")"
+			+ " FROM " + entryTableName
+			+ " WHERE " + entryTableName + ".\"" + sessionManager.getColumnName(EntryInfo.getAccountAccessor()) + "\" = ?"
+			+ " AND " + statementColumn + " IS NOT NULL"
+			+ " GROUP BY " + statementColumn;
+		if (JDBCDatastorePlugin.DEBUG) System.out.println(sql);
+
+		/*
+		 * The statements are stored as text, which does not sort in statement
+		 * order (statement 10 would sort before statement 9), so the rows are
+		 * sorted here.
+		 */
+		Map<BankStatement, Long> statementTotals = sessionManager.runReadOnly(new IRunnableSql<Map<BankStatement, Long>>() {
+			@Override
+			public Map<BankStatement, Long> execute(Connection readConnection) throws SQLException {
+				Map<BankStatement, Long> statementTotals = new TreeMap<BankStatement, Long>();
+				PreparedStatement stmt = readConnection.prepareStatement(sql);
+				try {
+					stmt.setInt(1, proxy.getRowId());
+					ResultSet resultSet = stmt.executeQuery();
+					try {
+						while (resultSet.next()) {
+							String statementText = resultSet.getString(1);
+							if (statementText.length() != 0) {
+								BankStatement statement = new BankStatement(statementText);
+								Long total = statementTotals.get(statement);
+								statementTotals.put(statement, (total == null ? 0 : total) + resultSet.getLong(2));
+							}
+						}
+					} finally {
+						resultSet.close();
+					}
+				} finally {
+					stmt.close();
+				}
+				return statementTotals;
+			}
+		});
+
+		BankStatementAndBalance[] result = new BankStatementAndBalance[statementTotals.size()];
+		long balance = account.getStartBalance();
+		int i = 0;
+		for (Map.Entry<BankStatement, Long> mapEntry : statementTotals.entrySet()) {
+			balance += mapEntry.getValue();
+			result[i++] = new BankStatementAndBalance(mapEntry.getKey(), balance);
+		}
+		return result;
+	}
+}
@@ -23,7 +23,6 @@
 package net.sf.jmoney.jdbcdatastore;
 
 import java.io.IOException;
-import java.lang.ref.WeakReference;
 import java.lang.reflect.InvocationTargetException;
 import java.sql.Blob;
 import java.sql.Connection;
@@ -34,15 +33,18 @@ import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.sql.Types;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Hashtable;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Vector;
@@ -58,6 +60,7 @@ import net.sf.jmoney.isolation.IObjectKey;
 import net.sf.jmoney.isolation.IReferencePropertyAccessor;
 import net.sf.jmoney.isolation.IScalarPropertyAccessor;
 import net.sf.jmoney.isolation.IValues;
+import net.sf.jmoney.isolation.IntWeakValuedMap;
 import net.sf.jmoney.isolation.ListKey;
 import net.sf.jmoney.isolation.ReferenceViolationException;
 import net.sf.jmoney.model2.Account;
@@ -69,7 +72,9 @@ import net.sf.jmoney.model2.EntryInfo;
 import net.sf.jmoney.model2.ExtendableObject;
 import net.sf.jmoney.model2.ExtendablePropertySet;
 import net.sf.jmoney.model2.IDatastoreManager;
+import net.sf.jmoney.model2.IEntryCollector;
 import net.sf.jmoney.model2.IEntryQueries;
+import net.sf.jmoney.model2.IEntrySearchTask;
 import net.sf.jmoney.model2.ListPropertyAccessor;
 import net.sf.jmoney.model2.PropertyAccessor;
 import net.sf.jmoney.model2.PropertySet;
@@ -80,6 +85,7 @@ import net.sf.jmoney.model2.SessionInfo;
 import net.sf.jmoney.model2.Transaction;
 import net.sf.jmoney.model2.TransactionInfo;
 
+import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.ui.IMemento;
 import org.eclipse.ui.IPersistableElement;
 import org.eclipse.ui.IWorkbenchWindow;
@@ -100,17 +106,59 @@ public class SessionManager extends AbstractDataManager implements IDatastoreMan
 		dateFormat.applyPattern("yyyy-MM-dd");
 	}
 
-	private boolean isHsqldb = false;
-	
-	private boolean isDerby = false;
-	
-	private String booleanTypeName = null;
-	
-	private String dateTypeName = "DATETIME";
-	
-	private String onDeleteRestrict = "ON DELETE RESTRICT";
+	/**
+	 * The SQL that differs between database implementations.
+	 */
+	private SqlDialect dialect;
 	
 	private Connection connection;
+
+	/**
+	 * Counts the statements executed on the connection. This is used only for
+	 * diagnostics and by tests.
+	 */
+	private StatementCounter statementCounter = new StatementCounter();
+
+	/**
+	 * The prepared statements used to write to the database, together with
+	 * any batches of updates that have not yet been executed. This cache is
+	 * for the current connection and must be cleared if the connection is
+	 * replaced.
+	 */
+	private StatementCache statementCache = new StatementCache();
+
+	/**
+	 * True if we are between calls to <code>startTransaction</code> and
+	 * <code>commitTransaction</code>. Updates are batched only within a
+	 * transaction.
+	 */
+	private boolean inTransaction = false;
+
+	/**
+	 * True if a batch of updates failed during the current transaction. The
+	 * updates in the failed batch have been lost, so the transaction must be
+	 * rolled back rather than committed.
+	 */
+	private boolean transactionFailed = false;
+
+	/**
+	 * The thread that started the current transaction, or null if we are not
+	 * in a transaction. Queries made on this thread while in the transaction
+	 * must see the uncommitted updates so must use the main connection.
+	 */
+	private volatile Thread transactionThread = null;
+
+	/**
+	 * The maximum number of connections in the pool of connections used for
+	 * read-only queries.
+	 */
+	private static final int READ_CONNECTION_POOL_SIZE = 4;
+
+	/**
+	 * Connections used for read-only queries so that they can be run on
+	 * background threads without using the main connection.
+	 */
+	private ReadConnectionPool readConnectionPool;
 	
 	private IDatabaseRowKey sessionKey;
 	
@@ -119,13 +167,17 @@ public class SessionManager extends AbstractDataManager implements IDatastoreMan
 	 * to be cached, map the <code>PropertySet</code> to a <Map>.
 	 * Each map is itself a map of integer ids to extendable objects.
 	 * <P>
+	 * The maps are thread safe so objects may be materialized on more
+	 * than one thread. The outer map is not changed after this session
+	 * manager has been constructed.
+	 * <P>
 	 * If a PropertySet is cached then so are all property sets
 	 * derived from that property set.  However, derived property
 	 * sets do not have their own map.  Instead objects of the
 	 * derived property set are put in the map for the base property
 	 * set.
 	 */
-	private Map<ExtendablePropertySet<?>, Map<Integer, WeakReference<IModelObject>>> objectMaps = new HashMap<ExtendablePropertySet<?>, Map<Integer, WeakReference<IModelObject>>>();
+	private Map<IExtendablePropertySet<?>, IntWeakValuedMap<IModelObject>> objectMaps = new HashMap<IExtendablePropertySet<?>, IntWeakValuedMap<IModelObject>>();
 	
 	private class ParentList {
 		ExtendablePropertySet<?> parentPropertySet;
@@ -156,6 +208,13 @@ public class SessionManager extends AbstractDataManager implements IDatastoreMan
 	 */
 	private String url;
 
+	/**
+	 * The implementation of IReconciliationQueries, created when first
+	 * requested. The type is Object because the reconciliation plug-in may
+	 * not be present.
+	 */
+	private Object reconciliationQueries = null;
+
 	/*
 	 * This is saved so we can re-connect in case the connection fails.
 	 */
@@ -171,27 +230,20 @@ public class SessionManager extends AbstractDataManager implements IDatastoreMan
 		this.user = user;
 		this.password = password;
 
-		this.connection = DriverManager.getConnection(url, user, password);
+		this.connection = statementCounter.wrap(DriverManager.getConnection(url, user, password));
 
 		/*
 		 * Set properties that need special values depending on the database implementation.
 		 */
 		String databaseProductName = connection.getMetaData().getDatabaseProductName();
-		if (databaseProductName.equals("HSQL Database Engine")) {
-			isHsqldb = true;
-			booleanTypeName = "BIT";
-		} else if (databaseProductName.equals("Apache Derby")) {
-			isDerby = true;
-			dateTypeName = "DATE";
-		} else if (databaseProductName.equals("Microsoft SQL Server")) {
-			booleanTypeName = "BIT";
-			onDeleteRestrict = "ON DELETE NO ACTION";
-		}
+		dialect = SqlDialect.forDatabase(databaseProductName);
+
+		readConnectionPool = new ReadConnectionPool(url, user, password, READ_CONNECTION_POOL_SIZE, statementCounter);
 
 		// Create a weak reference map for every base property set.
 		for (ExtendablePropertySet<?> propertySet: PropertySet.getAllExtendablePropertySets()) { 
 			if (propertySet.getBasePropertySet() == null) {
-				objectMaps.put(propertySet, new HashMap<Integer, WeakReference<IModelObject>>());
+				objectMaps.put(propertySet, new IntWeakValuedMap<IModelObject>());
 			}
 		}
 		
@@ -237,6 +289,9 @@ public class SessionManager extends AbstractDataManager implements IDatastoreMan
 		// Any missing tables or columns are created at this time.
 		checkDatabase(connection, stmt);
 		
+		// Keep the table of the words in the entry memos up to date.
+		addChangeListener(new EntryTermsTable(this));
+		
 		/*
 		 * Create the single row in the session table, if it does not
 		 * already exist.  Create this row with default values for
@@ -302,12 +357,72 @@ public class SessionManager extends AbstractDataManager implements IDatastoreMan
 	}
 
 	/**
+	 * Returns the connection to the database.
+	 * <P>
+	 * Any pending batches of updates are executed before the connection is
+	 * returned. This ensures that anything the caller does with the connection
+	 * sees the updates, and that statements are executed in the correct order.
+	 * 
 	 * @return
 	 */
 	public Connection getConnection() {
+		executePendingBatches();
 		return connection;
 	}
 
+	/**
+	 * Returns a prepared statement on the connection to the database. The
+	 * statement is cached, so the caller must not close it. Pending batches
+	 * are not executed first, so the statement must not depend on any batched
+	 * updates.
+	 */
+	PreparedStatement getCachedStatement(String sql) {
+		return prepareStatement(sql, false);
+	}
+
+	/**
+	 * Returns the number of statements that have been executed against the
+	 * database since this session was opened. This includes queries, updates,
+	 * and each execution of a batch.
+	 * <P>
+	 * This is intended for diagnostics and for tests that check the number of
+	 * round trips made to the database.
+	 */
+	public long getStatementCount() {
+		return statementCounter.getCount();
+	}
+
+	/**
+	 * Executes any updates that have been batched but not yet sent to the
+	 * database.
+	 */
+	private void executePendingBatches() {
+		if (statementCache.hasPendingBatches()) {
+			try {
+				executeBatches();
+			} catch (SQLException e) {
+				throw new RuntimeException("Batched updates could not be written to the database.", e);
+			}
+		}
+	}
+
+	/**
+	 * Executes all pending batches. If this fails within a transaction then
+	 * the transaction is marked as failed so that it is rolled back and not
+	 * committed.
+	 */
+	private void executeBatches() throws SQLException {
+		boolean succeeded = false;
+		try {
+			statementCache.executeBatches();
+			succeeded = true;
+		} finally {
+			if (!succeeded && inTransaction) {
+				transactionFailed = true;
+			}
+		}
+	}
+
 	@Override
 	public boolean canClose(IWorkbenchWindow window) {
 		// A JDBC database can always be closed without further
@@ -317,6 +432,8 @@ public class SessionManager extends AbstractDataManager implements IDatastoreMan
 	
 	@Override
 	public void close() {
+		readConnectionPool.close();
+		statementCache.clear();
 		try {
 			connection.close();
 		} catch (SQLException e) {
@@ -382,24 +499,49 @@ public class SessionManager extends AbstractDataManager implements IDatastoreMan
 		if (adapter == IEntryQueries.class) {
 			return this;
 		}
+
+		/*
+		 * The reconciliation plug-in is optional so we compare by name.
+		 * Comparing against the class would fail if the plug-in is not
+		 * present.
+		 */
+		if (adapter.getName().equals("net.sf.jmoney.reconciliation.IReconciliationQueries")) {
+			if (reconciliationQueries == null) {
+				reconciliationQueries = new ReconciliationQueries(this);
+			}
+			return reconciliationQueries;
+		}
 		
 		return null;
 	}
 	
 	public <E extends IModelObject> E getObjectIfMaterialized(IExtendablePropertySet<E> basemostPropertySet, int id) {
-		Map<Integer, WeakReference<IModelObject>> result = objectMaps.get(basemostPropertySet);
-		WeakReference<IModelObject> object = result.get(id);
-		if (object == null) {
-			// Indicate that the object is not cached.
-			return null;
-		} else {
-			return basemostPropertySet.getImplementationClass().cast(object.get());
-		}
+		IModelObject object = objectMaps.get(basemostPropertySet).get(id);
+		// Null indicates that the object is not cached.
+		return basemostPropertySet.getImplementationClass().cast(object);
+	}
+
+	public void setMaterializedObject(IExtendablePropertySet<?> basemostPropertySet, int id, IModelObject extendableObject) {
+		objectMaps.get(basemostPropertySet).put(id, extendableObject);
 	}
 
-	public <E extends IModelObject> void setMaterializedObject(IExtendablePropertySet<E> basemostPropertySet, int id, E extendableObject) {
-		Map<Integer, WeakReference<IModelObject>> result = objectMaps.get(basemostPropertySet);
-		result.put(id, new WeakReference<IModelObject>(extendableObject));
+	/**
+	 * Adds a newly materialized object to the cache unless another thread
+	 * has already materialized the same object, in which case the object
+	 * already in the cache is returned and the caller must use that one.
+	 * This ensures there is never more than one instance of an object.
+	 * 
+	 * @param propertySet the property set of the object, which is not
+	 * 		necessarily the basemost property set
+	 * @return the object in the cache, which is the given object unless
+	 * 		another thread got there first
+	 */
+	<E extends IModelObject> E addMaterializedObject(IExtendablePropertySet<E> propertySet, int id, E extendableObject) {
+		IModelObject existingObject = objectMaps.get(getBasemostPropertySet(propertySet)).putIfAbsent(id, extendableObject);
+		if (existingObject != null) {
+			return propertySet.getImplementationClass().cast(existingObject);
+		}
+		return extendableObject;
 	}
 
 	/**
@@ -476,7 +618,7 @@ public class SessionManager extends AbstractDataManager implements IDatastoreMan
 				sql += " WHERE " + whereClause;
 			}
 
-			PreparedStatement stmt = connection.prepareStatement(sql);
+			PreparedStatement stmt = getConnection().prepareStatement(sql);
 			System.out.println(sql);
 			return stmt;
 		} else {
@@ -488,13 +630,25 @@ public class SessionManager extends AbstractDataManager implements IDatastoreMan
 			sql += " WHERE \"" + listAccessor2.getName().replace('.', '_') + "\" = ?";
 
 			System.out.println(sql + " : " + listKey.parentKey.getRowId());
-			PreparedStatement stmt = connection.prepareStatement(sql);
+			PreparedStatement stmt = getConnection().prepareStatement(sql);
 			stmt.setInt(1, listKey.parentKey.getRowId());
 			return stmt;
 		}
 	}
 	
 	/**
+	 * Inserts a new object into the database.
+	 * <P>
+	 * All values are passed as parameters, so the SQL depends only on the
+	 * table and on the list containing the object. The prepared statements
+	 * are therefore cached and re-used for all objects of the same type in the
+	 * same list.
+	 * <P>
+	 * Inserts are not batched. The row id generated by the database for the
+	 * base-most table is needed immediately, both for the inserts into the
+	 * derived tables and by the caller, and JDBC does not portably return
+	 * generated keys from a batch.
+	 * 
 	 * @param propertySet
 	 * @param values
 	 * @param listProperty
@@ -506,6 +660,12 @@ public class SessionManager extends AbstractDataManager implements IDatastoreMan
 	public <S extends IModelObject> int insertIntoDatabase(IExtendablePropertySet<S> propertySet, ExtendableObject newObject, DatabaseListKey<?,?> listKey) {
 		int rowId = -1;
 
+		/*
+		 * The insert must see any prior updates, for example a reference
+		 * from this object may be to an object whose row is being updated.
+		 */
+		executePendingBatches();
+		
 		try {
 			// We must insert into the base table first, then the table for the objects
 			// derived from the base and so on.  The reason is that each derived table
@@ -522,121 +682,91 @@ public class SessionManager extends AbstractDataManager implements IDatastoreMan
 
 			for (int index = propertySets.size()-1; index >= 0; index--) {
 				ExtendablePropertySet<? super S> propertySet2 = (ExtendablePropertySet<? super S>)propertySets.get(index);
-
-				String sql = "INSERT INTO " 
-					+ propertySet2.getId().replace('.', '_')
-					+ " (";
-
-				String columnNames = "";
-				String columnValues = "";
-				String separator = "";
+				boolean isBasemost = (index == propertySets.size()-1);
 
 				/*
-				 * If this is a basemost property set then the _ID column will be
-				 * auto-generated by the database.  If this is a derived property
-				 * set then we must insert the id that had been assigned when the
-				 * row in the basemost table was inserted.
-				 */
-				if (index != propertySets.size()-1) {
-					columnNames += separator + "\"_ID\"";
-					columnValues += separator + Integer.toString(rowId);
-					separator = ", ";
-				}
-
-				for (ScalarPropertyAccessor<?,? super S> propertyAccessor: propertySet2.getScalarProperties2()) {
-					String columnName = getColumnName(propertyAccessor);
-
-					// Get the value from the passed property value array.
-					Object value = propertyAccessor.getValue((S)newObject);
-
-					columnNames += separator + "\"" + columnName + "\"";
-					columnValues += separator + valueToSQLText(value);
-
-					separator = ", ";
-				}
-
-				/* Set the parent id in the appropriate column.
+				 * Determine if there is a parent column to be set.
 				 * 
 				 * If the containing list property is a property in one of the three
 				 * lists in the session object
 				 * then, as an optimization, there is no parent column.
 				 */
+				String parentColumnName = null;
 				if (listKey.listPropertyAccessor.getElementPropertySet() == propertySet2
 						&& ((ListPropertyAccessor)listKey.listPropertyAccessor).getPropertySet() != SessionInfo.getPropertySet()) {
-					String valueString = Integer.toString(listKey.parentKey.getRowId());
 					ListPropertyAccessor<?,?> listPropertyAccessor2 = (ListPropertyAccessor<?,?>)listKey.listPropertyAccessor;
-					String parentColumnName = listPropertyAccessor2.getName().replace('.', '_');
-					columnNames += separator + "\"" + parentColumnName + "\"";
-					columnValues += separator + valueString;
-					separator = ", ";
+					parentColumnName = listPropertyAccessor2.getName().replace('.', '_');
 				}
 
 				/*
 				 * If the base-most property set and it is derivable, the
 				 * _PROPERTY_SET column must be set.
 				 */
-				if (propertySet2.getBasePropertySet() == null
-						&& propertySet2.isDerivable()) {
-					columnNames += separator + "\"_PROPERTY_SET\"";
-					// Set to the id of the final
-					// (non-derivable) property set for this object.
-					ExtendablePropertySet<?> finalPropertySet = (ExtendablePropertySet<?>)propertySets.get(0); 
-					columnValues += separator + "\'" + finalPropertySet.getId() + "\'";
-					separator = ", ";
-				}
+				boolean hasPropertySetColumn = propertySet2.getBasePropertySet() == null
+						&& propertySet2.isDerivable();
 
-				sql += columnNames + ") VALUES(" + columnValues + ")";
+				String sql = buildInsertStatement(propertySet2, !isBasemost, parentColumnName, hasPropertySetColumn);
 
-				System.out.println(sql);
+				if (JDBCDatastorePlugin.DEBUG) System.out.println(sql);
 
 				/*
 				 * Insert the row and, if this is a basemost table, get the
 				 * value of the auto-generated key.
 				 */
 
-				PreparedStatement statement = prepareStatement(sql, index == propertySets.size()-1);
+				PreparedStatement statement = prepareStatement(sql, isBasemost);
 
-				try {
-					/*
-					 * Loop around again setting the parameters.
-					 */
-					int parameterNumber = 1;
-					for (ScalarPropertyAccessor<?,? super S> propertyAccessor: propertySet2.getScalarProperties2()) {
-						// Get the value from the passed property value array.
-						Object value = propertyAccessor.getValue((S)newObject);
+				/*
+				 * Set the parameters in the same order as the columns
+				 * were added by buildInsertStatement.
+				 */
+				int parameterNumber = 1;
 
-						// Currently only blobs use parameters
-						if (value instanceof IBlob) {
-							statement.setBlob(parameterNumber++, ((IBlob)value).createStream());
-						}
-					}
+				/*
+				 * If this is a basemost property set then the _ID column will be
+				 * auto-generated by the database.  If this is a derived property
+				 * set then we must insert the id that had been assigned when the
+				 * row in the basemost table was inserted.
+				 */
+				if (!isBasemost) {
+					statement.setInt(parameterNumber++, rowId);
+				}
 
-					statement.execute();
-					
-					if (index == propertySets.size()-1) {
-						ResultSet rs;
-						if (isHsqldb) {
-							/*
-							 * HSQLDB does not, as of 1.8.0.7, support the JDBC
-							 * standard way of getting the generated key. We must do
-							 * things slightly differently.
-							 */
-							rs = statement.executeQuery("CALL IDENTITY()");
-						} else {
-							rs = statement.getGeneratedKeys();
-						}
-						rs.next();
-						rowId = rs.getInt(1);
-						rs.close();
-					}
-				} finally {
-					try {
-						statement.close();
-					} catch (SQLException e) {
-						// ignore this one
-					}
+				for (ScalarPropertyAccessor<?,? super S> propertyAccessor: propertySet2.getScalarProperties2()) {
+					// Get the value from the passed property value array.
+					Object value = propertyAccessor.getValue((S)newObject);
+					setParameter(statement, parameterNumber++, propertyAccessor, value);
+				}
+
+				if (parentColumnName != null) {
+					statement.setInt(parameterNumber++, listKey.parentKey.getRowId());
 				}
 
+				if (hasPropertySetColumn) {
+					// Set to the id of the final
+					// (non-derivable) property set for this object.
+					ExtendablePropertySet<?> finalPropertySet = (ExtendablePropertySet<?>)propertySets.get(0); 
+					statement.setString(parameterNumber++, finalPropertySet.getId());
+				}
+
+				statement.execute();
+
+				if (isBasemost) {
+					ResultSet rs;
+					if (!dialect.supportsGetGeneratedKeys()) {
+						/*
+						 * Some databases (e.g. HSQLDB) do not support the JDBC
+						 * standard way of getting the generated key. We must do
+						 * things slightly differently.
+						 */
+						rs = statement.executeQuery(dialect.getIdentityQuery());
+					} else {
+						rs = statement.getGeneratedKeys();
+					}
+					rs.next();
+					rowId = rs.getInt(1);
+					rs.close();
+				}
 			}
 		} catch (SQLException e) {
 			// TODO Handle this properly
@@ -652,25 +782,67 @@ public class SessionManager extends AbstractDataManager implements IDatastoreMan
 		return rowId;
 	}
 
+	/**
+	 * Builds the INSERT statement for a table. All values are parameters. The
+	 * parameters are, in order, the id (if included), the scalar properties,
+	 * the parent id (if included), and the property set id (if included).
+	 */
+	private String buildInsertStatement(ExtendablePropertySet<?> propertySet, boolean includeId, String parentColumnName, boolean hasPropertySetColumn) {
+		StringBuffer columnNames = new StringBuffer();
+		StringBuffer columnValues = new StringBuffer();
+		String separator = "";
+
+		if (includeId) {
+			columnNames.append(separator).append("\"_ID\"");
+			columnValues.append(separator).append("?");
+			separator = ", ";
+		}
+
+		for (ScalarPropertyAccessor<?,?> propertyAccessor: propertySet.getScalarProperties2()) {
+			columnNames.append(separator).append('\"').append(getColumnName(propertyAccessor)).append('\"');
+			columnValues.append(separator).append("?");
+			separator = ", ";
+		}
+
+		if (parentColumnName != null) {
+			columnNames.append(separator).append('\"').append(parentColumnName).append('\"');
+			columnValues.append(separator).append("?");
+			separator = ", ";
+		}
+
+		if (hasPropertySetColumn) {
+			columnNames.append(separator).append("\"_PROPERTY_SET\"");
+			columnValues.append(separator).append("?");
+			separator = ", ";
+		}
+
+		return "INSERT INTO " 
+			+ propertySet.getId().replace('.', '_')
+			+ " (" + columnNames + ") VALUES(" + columnValues + ")";
+	}
+
+	/**
+	 * Returns a prepared statement for the given SQL. The statement is cached
+	 * so the caller must not close it.
+	 * 
+	 * @param sql
+	 * @param returnGeneratedKeys true if the statement will be used to insert
+	 * 			a row into a table with an identity column and the generated key
+	 * 			is required 
+	 */
 	private PreparedStatement prepareStatement(String sql, boolean returnGeneratedKeys) {
-		PreparedStatement statement;
+		PreparedStatement statement = statementCache.get(sql);
+		if (statement != null) {
+			return statement;
+		}
 
 		/*
-		 * HSQLDB does not, as of 1.8.0.7, support the JDBC
+		 * Some databases (e.g. HSQLDB) do not support the JDBC
 		 * standard way of getting the generated key. We must do
 		 * things slightly differently.
 		 */
 		try {
-			if (returnGeneratedKeys && !isHsqldb) {
-				/*
-				 * Generally Statement.RETURN_GENERATED_KEYS can be passed as the second parameter
-				 * but Oracle JDBC required the form where the specific parameters are passed.
-				 * So we'll use that form.
-				 */
-				statement = connection.prepareStatement(sql, new String[] { "_ID"});
-			} else {
-				statement = connection.prepareStatement(sql);
-			}
+			statement = prepareStatement(connection, sql, returnGeneratedKeys);
 		} catch (SQLException e) {
 			if (e.getSQLState().equals("HY010")) {
 				/*
@@ -678,24 +850,10 @@ public class SessionManager extends AbstractDataManager implements IDatastoreMan
 				 * by a connection that has not been used in a while.  It can most
 				 * likely be fixed simply by reconnecting.
 				 */
-				try {
-					connection.close();
-				} catch (SQLException e2) {
-					/*
-					 * Ignore any failures on the close. It was a 'best efforts
-					 * only' close. In fact, it almost certainly will fail, and
-					 * perhaps we should not even bother to try to close it.
-					 */
-				}	
+				reconnect();
 				
 				try {
-					connection = DriverManager.getConnection(url, user, password);
-
-					if (returnGeneratedKeys && !isHsqldb) {
-						statement = connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);
-					} else {
-						statement = connection.prepareStatement(sql);
-					}
+					statement = prepareStatement(connection, sql, returnGeneratedKeys);
 				} catch (SQLException e2) {
 					// TODO Handle this properly
 					e.printStackTrace();
@@ -712,9 +870,121 @@ public class SessionManager extends AbstractDataManager implements IDatastoreMan
 			}
 		}
 		
+		statementCache.put(sql, statement);
 		return statement;
 	}
 
+	private PreparedStatement prepareStatement(Connection connection, String sql, boolean returnGeneratedKeys) throws SQLException {
+		if (returnGeneratedKeys && dialect.supportsGetGeneratedKeys()) {
+			/*
+			 * Generally Statement.RETURN_GENERATED_KEYS can be passed as the second parameter
+			 * but Oracle JDBC required the form where the specific parameters are passed.
+			 * So we'll use that form.
+			 */
+			return connection.prepareStatement(sql, new String[] { "_ID"});
+		} else {
+			return connection.prepareStatement(sql);
+		}
+	}
+
+	/**
+	 * Closes the current connection and opens a new one. Cached statements
+	 * belong to the old connection so are discarded.
+	 */
+	private void reconnect() {
+		statementCache.clear();
+		try {
+			connection.close();
+		} catch (SQLException e2) {
+			/*
+			 * Ignore any failures on the close. It was a 'best efforts
+			 * only' close. In fact, it almost certainly will fail, and
+			 * perhaps we should not even bother to try to close it.
+			 */
+		}	
+		
+		try {
+			connection = statementCounter.wrap(DriverManager.getConnection(url, user, password));
+			if (inTransaction) {
+				connection.setAutoCommit(false);
+			}
+		} catch (SQLException e) {
+			throw new RuntimeException("The connection to the database could not be re-opened.", e);
+		}	
+	}
+
+	/**
+	 * Sets a property value as a parameter in a prepared statement.
+	 * 
+	 * @param statement
+	 * @param parameterNumber
+	 * @param propertyAccessor the property, used to determine the SQL type
+	 * 			if the value is null
+	 * @param value the value, which may be null
+	 * @throws IOException if the value is a blob and the blob's input stream
+	 * 			could not be obtained
+	 */
+	private void setParameter(PreparedStatement statement, int parameterNumber, ScalarPropertyAccessor<?,?> propertyAccessor, Object value) throws SQLException, IOException {
+		if (value == null) {
+			statement.setNull(parameterNumber, getSqlType(propertyAccessor.getClassOfValueObject()));
+		} else if (value instanceof String) {
+			statement.setString(parameterNumber, (String)value);
+		} else if (value instanceof Character) {
+			statement.setString(parameterNumber, value.toString());
+		} else if (value instanceof Date) {
+			statement.setDate(parameterNumber, new java.sql.Date(((Date)value).getTime()));
+		} else if (value instanceof IBlob) {
+			statement.setBlob(parameterNumber, ((IBlob)value).createStream());
+		} else if (value instanceof Boolean) {
+			boolean bValue = ((Boolean)value).booleanValue();
+			if (dialect.getBooleanTypeName() != null) {
+				statement.setBoolean(parameterNumber, bValue);
+			} else {
+				// CHAR(1) is used
+				statement.setString(parameterNumber, bValue ? "1" : "0");
+			}
+		} else if (value instanceof ExtendableObject) {
+			IDatabaseRowKey key = (IDatabaseRowKey)((ExtendableObject)value).getObjectKey();
+			statement.setInt(parameterNumber, key.getRowId());
+		} else if (value instanceof Integer) {
+			statement.setInt(parameterNumber, (Integer)value);
+		} else if (value instanceof Long) {
+			statement.setLong(parameterNumber, (Long)value);
+		} else if (value instanceof Number) {
+			statement.setObject(parameterNumber, value);
+		} else {
+			/*
+			 * All other objects are serialized to a string.
+			 */
+			statement.setString(parameterNumber, value.toString());
+		}
+	}
+
+	/**
+	 * Returns the SQL type (from <code>java.sql.Types</code>) of the
+	 * column used to store values of the given class. This must be
+	 * consistent with the column definitions in <code>buildColumnList</code>.
+	 */
+	private int getSqlType(Class<?> valueClass) {
+		if (valueClass == Integer.class) {
+			return Types.INTEGER;
+		} else if (valueClass == Long.class) {
+			return Types.BIGINT;
+		} else if (valueClass == Character.class) {
+			return Types.CHAR;
+		} else if (valueClass == Boolean.class) {
+			return dialect.getBooleanTypeName() == null ? Types.CHAR : Types.BIT;
+		} else if (valueClass == Date.class) {
+			return Types.DATE;
+		} else if (valueClass == IBlob.class) {
+			return Types.BLOB;
+		} else if (ExtendableObject.class.isAssignableFrom(valueClass)) {
+			return Types.INTEGER;
+		} else {
+			return Types.VARCHAR;
+		}
+	}
+
 	public <E extends IModelObject> void reparentInDatabase(E extendableObject, DatabaseListKey<E,?> newListKey) {
 		IDatabaseRowKey objectKey = (IDatabaseRowKey)extendableObject.getObjectKey();
 		ListKey originalListKey = extendableObject.getParentListKey();
@@ -722,7 +992,7 @@ public class SessionManager extends AbstractDataManager implements IDatastoreMan
 		
 		Statement statement;
 		try {
-			statement = connection.createStatement();
+			statement = getConnection().createStatement();
 		} catch (SQLException e) {
 			// TODO Handle this properly
 			e.printStackTrace();
@@ -809,6 +1079,13 @@ public class SessionManager extends AbstractDataManager implements IDatastoreMan
 	 * in the WHERE clause.  If the database does not contain an object
 	 * with the expected old property values that an exception is raised,
 	 * causing the transaction to be rolled back.
+	 * <P>
+	 * All values are passed as parameters so the SQL depends only on the
+	 * table, the set of columns that changed, and which of the old values
+	 * are null.  The prepared statements are cached.  If we are in a
+	 * transaction then the update is added to the statement's batch and
+	 * is executed later, so a commit that updates many objects in the same
+	 * way sends the updates to the database in a few batches.
 	 * 
 	 * @param rowId
 	 * @param oldValues
@@ -831,14 +1108,18 @@ public class SessionManager extends AbstractDataManager implements IDatastoreMan
 
 		for (int index = propertySets.size()-1; index >= 0; index--) {
 			ExtendablePropertySet<?> propertySet2 = propertySets.get(index);
+			String tableName = propertySet2.getId().replace('.', '_');
 			
-			String sql = "UPDATE " 
-				+ propertySet2.getId().replace('.', '_')
-				+ " SET ";
-			
-			String updateClauses = "";
-			String whereTerms = "";
+			StringBuffer updateClauses = new StringBuffer();
+			StringBuffer whereTerms = new StringBuffer();
 			String separator = "";
+
+			/*
+			 * The properties that have changed, and the columns for
+			 * those properties.
+			 */
+			List<ScalarPropertyAccessor<?,?>> changedProperties = new ArrayList<ScalarPropertyAccessor<?,?>>();
+			List<String> changedColumnNames = new ArrayList<String>();
 			
 			for (ScalarPropertyAccessor<?,?> propertyAccessor: propertySet2.getScalarProperties2()) {
 
@@ -852,18 +1133,20 @@ public class SessionManager extends AbstractDataManager implements IDatastoreMan
 
 				if (!JMoneyPlugin.areEqual(oldValue, newValue)) {
 					String columnName = getColumnName(propertyAccessor);
+					changedProperties.add(propertyAccessor);
+					changedColumnNames.add(columnName);
 
-					updateClauses += separator + "\"" + columnName + "\"=" + valueToSQLText(newValue);
+					updateClauses.append(separator).append('\"').append(columnName).append("\"=?");
 					
 					if (oldValue != null) {
 						if (oldValue instanceof IBlob) {
 							// Can't compare blobs, so just check one exists.
-							whereTerms += " AND \"" + columnName + "\" IS NOT NULL";
+							whereTerms.append(" AND \"").append(columnName).append("\" IS NOT NULL");
 						} else {
-							whereTerms += " AND \"" + columnName + "\"=" + valueToSQLText(oldValue);
+							whereTerms.append(" AND \"").append(columnName).append("\"=?");
 						}
 					} else {
-						whereTerms += " AND \"" + columnName + "\" IS NULL";
+						whereTerms.append(" AND \"").append(columnName).append("\" IS NULL");
 					}
 					separator = ", ";
 				}
@@ -872,40 +1155,53 @@ public class SessionManager extends AbstractDataManager implements IDatastoreMan
 			// If no properties have been updated in a table then no update
 			// statement should be executed.
 			
-			if (!separator.equals("")) {
-				sql += updateClauses + " WHERE \"_ID\"=" + rowId + whereTerms;
+			if (!changedProperties.isEmpty()) {
+				String sql = "UPDATE " + tableName
+					+ " SET " + updateClauses
+					+ " WHERE \"_ID\"=?" + whereTerms;
 
-				System.out.println(sql);
+				if (JDBCDatastorePlugin.DEBUG) System.out.println(sql + " : " + rowId);
 				PreparedStatement statement = prepareStatement(sql, false);
 
 				try {
 					/*
-					 * Loop around again setting the parameters.
+					 * If there is a pending update that sets one of the same
+					 * columns in this row through a different statement then
+					 * we must execute the pending batches now, otherwise the
+					 * updates may be applied in the wrong order.
+					 */
+					if (inTransaction && statementCache.conflictsWithPending(statement, tableName, rowId, changedColumnNames)) {
+						executeBatches();
+					}
+
+					/*
+					 * Set the parameters: first the new values, then the
+					 * row id, then the old values that are compared.
 					 */
 					int parameterNumber = 1;
-					for (ScalarPropertyAccessor<?,?> propertyAccessor: propertySet2.getScalarProperties2()) {
-						// See if the value of the property has changed.
-						int thisPropertyIndex = propertySet2.getIndexIntoScalarProperties(propertyAccessor);
-						Object oldValue = oldValues[thisPropertyIndex];
-						Object newValue = newValues[thisPropertyIndex];
-						thisPropertyIndex++;
-
-						if (!JMoneyPlugin.areEqual(oldValue, newValue)) {
-
-							// Currently only blobs use parameters
-							if (newValue instanceof IBlob) {
-								statement.setBlob(parameterNumber++, ((IBlob)newValue).createStream());
-							}
+					for (ScalarPropertyAccessor<?,?> propertyAccessor: changedProperties) {
+						Object newValue = newValues[propertySet2.getIndexIntoScalarProperties(propertyAccessor)];
+						setParameter(statement, parameterNumber++, propertyAccessor, newValue);
+					}
+					statement.setInt(parameterNumber++, rowId);
+					for (ScalarPropertyAccessor<?,?> propertyAccessor: changedProperties) {
+						Object oldValue = oldValues[propertySet2.getIndexIntoScalarProperties(propertyAccessor)];
+						if (oldValue != null && !(oldValue instanceof IBlob)) {
+							setParameter(statement, parameterNumber++, propertyAccessor, oldValue);
 						}
 					}
 
-					int numberUpdated = statement.executeUpdate();
-					if (numberUpdated != 1) {
-						// This could happen if a column in the table contains a string
-						// serialization of a custom object, and the column contained a string
-						// that failed to construct a value.  In that case, the prior property value will
-						// be null be the value in the database will be non-null.
-						throw new RuntimeException("Update failed.  Row with expected data was not found.");
+					if (inTransaction) {
+						statementCache.addBatch(statement, tableName, rowId, changedColumnNames);
+					} else {
+						int numberUpdated = statement.executeUpdate();
+						if (numberUpdated != 1) {
+							// This could happen if a column in the table contains a string
+							// serialization of a custom object, and the column contained a string
+							// that failed to construct a value.  In that case, the prior property value will
+							// be null be the value in the database will be non-null.
+							throw new RuntimeException("Update failed.  Row with expected data was not found.");
+						}
 					}
 				} catch (SQLException e) {
 					// TODO Handle this properly
@@ -930,8 +1226,8 @@ public class SessionManager extends AbstractDataManager implements IDatastoreMan
 	 * @param newValue
 	 * @return
 	 */
-	// TODO: If we always used prepared statements with parameters
-	// then we may not need this method at all.
+	// Inserts and updates now pass all values as parameters, so this
+	// is used only for column defaults and the initial session row.
 	private String valueToSQLText(Object value) {
 		String valueString;
 		
@@ -948,7 +1244,7 @@ public class SessionManager extends AbstractDataManager implements IDatastoreMan
 				valueString = "?";
 			} else if (value instanceof Boolean) {
 				Boolean bValue = (Boolean)value;
-				if (booleanTypeName != null) {
+				if (dialect.getBooleanTypeName() != null) {
 					// MS SQL does not allow true and false,
 					// even though HSQL does.  So we cannot use toString.
 					valueString = bValue.booleanValue() ? "1" : "0";
@@ -1104,7 +1400,14 @@ public class SessionManager extends AbstractDataManager implements IDatastoreMan
 		if (extendableObject.getClass().getName().endsWith("Account")) {
 			System.out.println("paypal");
 		}
-		setMaterializedObject(getBasemostPropertySet(propertySet), objectKey.getRowId(), extendableObject);
+		/*
+		 * New objects do not have a row id until they have been inserted into
+		 * the database. The object key adds the object to the cache when the
+		 * row id is set.
+		 */
+		if (objectKey.getRowId() != -1) {
+			setMaterializedObject(getBasemostPropertySet(propertySet), objectKey.getRowId(), extendableObject);
+		}
 		
 		return extendableObject;
 	}
@@ -1129,7 +1432,9 @@ public class SessionManager extends AbstractDataManager implements IDatastoreMan
 			System.out.println("paypal");
 		}
 
-		setMaterializedObject(getBasemostPropertySet(propertySet), objectKey.getRowId(), extendableObject);
+		if (objectKey.getRowId() != -1) {
+			setMaterializedObject(getBasemostPropertySet(propertySet), objectKey.getRowId(), extendableObject);
+		}
 		
 		return extendableObject;
 	}
@@ -1143,6 +1448,10 @@ public class SessionManager extends AbstractDataManager implements IDatastoreMan
 	 * The parent key is passed to this method by the caller
 	 * and that saves this method from needing to build a
 	 * new parent key from the object's data in the database.
+	 * <P>
+	 * If another thread materializes the same object at the same time then
+	 * only one of the objects is put in the cache, and that object is
+	 * returned to both threads.
 	 *
 	 * @param rs
 	 * @param propertySet
@@ -1172,7 +1481,7 @@ public class SessionManager extends AbstractDataManager implements IDatastoreMan
 				} else if (valueClass == String.class) {
 					return valueClass.cast(rs.getString(columnName));
 				} else if (valueClass == Boolean.class) {
-					if (booleanTypeName == null) {
+					if (dialect.getBooleanTypeName() == null) {
 						// Type is char(1).  Check '0' or '1', otherwise
 						// the getBoolean won't work.
 						String x = rs.getString(columnName);
@@ -1272,9 +1581,7 @@ public class SessionManager extends AbstractDataManager implements IDatastoreMan
 		
 		E extendableObject = propertySet.constructImplementationObject(objectKey, listKey, values);
 		
-		setMaterializedObject(getBasemostPropertySet(propertySet), objectKey.getRowId(), extendableObject);
-		
-		return extendableObject;
+		return addMaterializedObject(propertySet, objectKey.getRowId(), extendableObject);
 	}
 
 	/**
@@ -1525,10 +1832,10 @@ public class SessionManager extends AbstractDataManager implements IDatastoreMan
 			} else if (valueClass == Character.class) {
 				info.columnDefinition = "CHAR";
 			} else if (valueClass == Boolean.class) {
-				if (booleanTypeName == null) {
+				if (dialect.getBooleanTypeName() == null) {
 					info.columnDefinition = "CHAR(1)";
 				} else {
-					info.columnDefinition = booleanTypeName;
+					info.columnDefinition = dialect.getBooleanTypeName();
 				}
 			} else if (valueClass == String.class) {
 				/*
@@ -1547,7 +1854,7 @@ public class SessionManager extends AbstractDataManager implements IDatastoreMan
 				 * Actually Derby does not have DATETIME, it has only DATE, TIME,
 				 * and TIMESTAMP.  So we are going to have to configure this.
 				 */
-				info.columnDefinition = dateTypeName;  
+				info.columnDefinition = dialect.getDateTypeName();
 			} else if (valueClass == IBlob.class) {
 				info.columnDefinition = "BLOB";
 			} else if (ExtendableObject.class.isAssignableFrom(valueClass)) {
@@ -1730,7 +2037,7 @@ public class SessionManager extends AbstractDataManager implements IDatastoreMan
 			if (propertySet.getBasePropertySet() != null) {
 				String primaryTableName = propertySet.getBasePropertySet().getId().replace('.', '_');
 				System.out.println(tableName + ", " + primaryTableName);
-				checkForeignKey(dmd, stmt, tableName, "_ID", primaryTableName, !isDerby);
+				checkForeignKey(dmd, stmt, tableName, "_ID", primaryTableName, dialect.allowsMixedCascadeForeignKeys());
 			}
 
 			/*
@@ -1764,6 +2071,12 @@ public class SessionManager extends AbstractDataManager implements IDatastoreMan
 				}
 			}
 		}		
+		
+		/*
+		 * The table used to search the memos is not the table for any
+		 * property set, so is checked separately.
+		 */
+		EntryTermsTable.checkTable(con, dmd, stmt);
 	}
 
 	/**
@@ -1811,7 +2124,7 @@ public class SessionManager extends AbstractDataManager implements IDatastoreMan
 			if (onDeleteCascade) {
 				sql += " ON DELETE CASCADE";
 			} else {
-				sql += " " + onDeleteRestrict;
+				sql += " " + dialect.getOnDeleteRestrict();
 			}
 
 			System.out.println(sql);
@@ -1859,11 +2172,7 @@ public class SessionManager extends AbstractDataManager implements IDatastoreMan
 			+ " (\"_ID\" INT";
 		
 		if (propertySet.getBasePropertySet() == null) {
-			if (isDerby) {
-				sql += " NOT NULL GENERATED ALWAYS AS IDENTITY";
-			} else {
-				sql += " IDENTITY";
-			}
+			sql += dialect.getIdentityColumnDefinition();
 		}
 		
 		sql += " PRIMARY KEY";
@@ -1896,33 +2205,60 @@ public class SessionManager extends AbstractDataManager implements IDatastoreMan
 		return new AccountEntriesList(this, (IDatabaseRowKey)account.getObjectKey());
 	}
 
+	/**
+	 * Builds the FROM clause that joins each entry to the transaction that
+	 * contains it. Queries that filter or group entries by date need this
+	 * join because the date is a property of the transaction.
+	 */
+	private String buildEntryTransactionJoin() {
+		String entryTableName = EntryInfo.getPropertySet().getId().replace('.', '_');
+		String transactionTableName = TransactionInfo.getPropertySet().getId().replace('.', '_');
+		String transactionColumnName = TransactionInfo.getEntriesAccessor().getName().replace('.', '_');
+		return entryTableName
+			+ " JOIN " + transactionTableName
+			+ " ON " + transactionTableName + ".\"_ID\" = " + entryTableName + ".\"" + transactionColumnName + "\"";
+	}
+
 	/**
 	 * @see net.sf.jmoney.model2.IEntryQueries#sumOfAmounts(net.sf.jmoney.model2.CurrencyAccount, java.util.Date, java.util.Date)
 	 */
 	@Override
-	public long sumOfAmounts(CurrencyAccount account, Date fromDate, Date toDate) {
-		IDatabaseRowKey proxy = (IDatabaseRowKey)account.getObjectKey();
+	public long sumOfAmounts(CurrencyAccount account, final Date fromDate, final Date toDate) {
+		final IDatabaseRowKey proxy = (IDatabaseRowKey)account.getObjectKey();
 		
-		try {
-			String sql = "SELECT SUM(amount) FROM net_sf_jmoney_entry, net_sf_jmoney_transaction"
-				+ " WHERE account = ?"
-				+ " AND date >= ?"
-				+ " AND date <= ?";
-			System.out.println(sql);
-			PreparedStatement stmt = getConnection().prepareStatement(sql);
-			try {
-				stmt.setInt(1, proxy.getRowId());
-				stmt.setDate(2, new java.sql.Date(fromDate.getTime()));
-				stmt.setDate(3, new java.sql.Date(toDate.getTime()));
-				ResultSet resultSet = stmt.executeQuery();
-				resultSet.next();
-				return resultSet.getLong(0);
-			} finally {
-				stmt.close();
+		String entryTableName = EntryInfo.getPropertySet().getId().replace('.', '_');
+		String transactionTableName = TransactionInfo.getPropertySet().getId().replace('.', '_');
+		String dateColumn = transactionTableName + ".\"" + getColumnName(TransactionInfo.getDateAccessor()) + "\"";
+
+		final String sql = "SELECT SUM(" + entryTableName + ".\"" + getColumnName(EntryInfo.getAmountAccessor()) + "\")"
+			+ " FROM " + buildEntryTransactionJoin()
+			+ " WHERE " + entryTableName + ".\"" + getColumnName(EntryInfo.getAccountAccessor()) + "\" = ?"
+			+ " AND " + dateColumn + " >= ?"
+			+ " AND " + dateColumn + " <= ?";
+		if (JDBCDatastorePlugin.DEBUG) System.out.println(sql);
+
+		return runReadOnly(new IRunnableSql<Long>() {
+			@Override
+			public Long execute(Connection readConnection) throws SQLException {
+				PreparedStatement stmt = readConnection.prepareStatement(sql);
+				try {
+					stmt.setInt(1, proxy.getRowId());
+					stmt.setDate(2, new java.sql.Date(fromDate.getTime()));
+					stmt.setDate(3, new java.sql.Date(toDate.getTime()));
+					ResultSet resultSet = stmt.executeQuery();
+					resultSet.next();
+					/*
+					 * SUM returns NULL if there are no rows, which getLong
+					 * returns as zero, which is what we want.
+					 */
+					long total = resultSet.getLong(1);
+					resultSet.close();
+					return total;
+				} finally {
+					stmt.close();
+				}
 			}
-		} catch (SQLException e) {
-			throw new RuntimeException("SQL statement failed");
-		}
+		});
 	}
 
 	/* (non-Javadoc)
@@ -1930,81 +2266,244 @@ public class SessionManager extends AbstractDataManager implements IDatastoreMan
 	 */
 	@Override
 	public Collection<Entry> getSortedEntries(CapitalAccount account, PropertyAccessor sortProperty, boolean descending) {
-		// TODO implement this.
-		throw new RuntimeException("must implement");
+		if (!sortProperty.isScalar()) {
+			throw new RuntimeException("Entries can only be sorted by a scalar property.");
+		}
+		return new SortedAccountEntriesList(this, (IDatabaseRowKey)account.getObjectKey(), (ScalarPropertyAccessor<?,?>)sortProperty, descending);
 	}
 
-	/* (non-Javadoc)
+	/**
+	 * The entries are read a page at a time using the same keyset queries as
+	 * <code>getSortedEntries</code>, with the date and amount restrictions
+	 * added to the WHERE clause.
+	 * 
+	 * @see net.sf.jmoney.model2.IEntryQueries#getEntries(net.sf.jmoney.model2.Account, java.util.Date, java.util.Date, java.lang.Long, java.lang.Long)
+	 */
+	@Override
+	public Iterator<Entry> getEntries(Account account, Date fromDate, Date toDate, Long minimumAmount, Long maximumAmount) {
+		return new SortedAccountEntriesList(this, (IDatabaseRowKey)account.getObjectKey(), TransactionInfo.getDateAccessor(), false, fromDate, toDate, minimumAmount, maximumAmount).iterator();
+	}
+
+	/**
+	 * The totals are calculated in a single query that groups the entries by
+	 * year and month. Months in which there are no entries are not returned by
+	 * the database, so the totals for those months are left as zero.
+	 * 
 	 * @see net.sf.jmoney.model2.IEntryQueries#getEntryTotalsByMonth(int, int, int, boolean)
 	 */
 	@Override
-	public long[] getEntryTotalsByMonth(CapitalAccount account, int startYear, int startMonth, int numberOfMonths, boolean includeSubAccounts) {
+	public long[] getEntryTotalsByMonth(CapitalAccount account, final int startYear, final int startMonth, final int numberOfMonths, boolean includeSubAccounts) {
 		IDatabaseRowKey proxy = (IDatabaseRowKey)account.getObjectKey();
 		
-//		String startDateString = '\''
-//			+ new Integer(startYear).toString() + "-"
-//			+ new Integer(startMonth).toString() + "-"
-//			+ new Integer(1).toString()
-//			+ '\'';
 		Calendar c = Calendar.getInstance();
-		c.set(Calendar.YEAR, startYear);
-		c.set(Calendar.MONTH, startMonth - 1);
-		c.set(Calendar.DAY_OF_MONTH, 1);
-		Date startDate = c.getTime();
-
-		int endMonth = startMonth + numberOfMonths;
-		int years = (endMonth - 1) / 12;
-		endMonth -= years * 12;
-		int endYear = startYear + years;
-		
-//		String endDateString = '\''
-//			+ new Integer(endYear).toString() + "-"
-//			+ new Integer(endMonth).toString() + "-"
-//			+ new Integer(1).toString()
-//			+ '\'';
-		c.set(Calendar.YEAR, endYear);
-		c.set(Calendar.MONTH, endMonth - 1);
-		c.set(Calendar.DAY_OF_MONTH, 1);
-		Date endDate = c.getTime();
-
-		String accountList = "(" + proxy.getRowId();
+		c.clear();
+		c.set(startYear, startMonth - 1, 1);
+		final Date startDate = c.getTime();
+
+		c.add(Calendar.MONTH, numberOfMonths);
+		final Date endDate = c.getTime();
+
+		final ArrayList<Integer> accountIds = new ArrayList<Integer>();
+		accountIds.add(proxy.getRowId());
 		if (includeSubAccounts) {
-			ArrayList<Integer> accountIds = new ArrayList<Integer>();
 			addEntriesFromSubAccounts(account, accountIds);
-			for (Integer accountId: accountIds) {
-				accountList += "," + accountId; 
+		}
+
+		String entryTableName = EntryInfo.getPropertySet().getId().replace('.', '_');
+		String transactionTableName = TransactionInfo.getPropertySet().getId().replace('.', '_');
+		String dateColumn = transactionTableName + ".\"" + getColumnName(TransactionInfo.getDateAccessor()) + "\"";
+		String yearExpression = dialect.yearOf(dateColumn);
+		String monthExpression = dialect.monthOf(dateColumn);
+
+		String accountColumn = entryTableName + ".\"" + getColumnName(EntryInfo.getAccountAccessor()) + "\"";
+		String accountCondition;
+		if (accountIds.size() == 1) {
+			accountCondition = accountColumn + " = ?";
+		} else {
+			accountCondition = accountColumn + " IN (?";
+			for (int i = 1; i < accountIds.size(); i++) {
+				accountCondition += ", ?";
 			}
+			accountCondition += ")";
 		}
-		accountList += ")";
 		
+		final String sql = "SELECT " + yearExpression + ", " + monthExpression
+			+ ", SUM(" + entryTableName + ".\"" + getColumnName(EntryInfo.getAmountAccessor()) + "\")"
+			+ " FROM " + buildEntryTransactionJoin()
+			+ " WHERE " + accountCondition
+			+ " AND " + dateColumn + " >= ?"
+			+ " AND " + dateColumn + " < ?"
+			+ " GROUP BY " + yearExpression + ", " + monthExpression;
+		if (JDBCDatastorePlugin.DEBUG) System.out.println(sql);
+
+		return runReadOnly(new IRunnableSql<long[]>() {
+			@Override
+			public long[] execute(Connection readConnection) throws SQLException {
+				PreparedStatement stmt = readConnection.prepareStatement(sql);
+				try {
+					int parameterIndex = 1;
+					for (Integer accountId : accountIds) {
+						stmt.setInt(parameterIndex++, accountId);
+					}
+					stmt.setDate(parameterIndex++, new java.sql.Date(startDate.getTime()));
+					stmt.setDate(parameterIndex++, new java.sql.Date(endDate.getTime()));
+					ResultSet rs = stmt.executeQuery();
+
+					long [] totals = new long[numberOfMonths];
+					while (rs.next()) {
+						int year = rs.getInt(1);
+						int month = rs.getInt(2);
+						int index = (year - startYear) * 12 + (month - startMonth);
+						totals[index] = rs.getLong(3);
+					}
+					rs.close();
+					return totals;
+				} finally {
+					stmt.close();
+				}
+			}
+		});
+	}
+	
+	/**
+	 * The entries in the account, their transactions, and the other entries in
+	 * those transactions are read using two queries. See
+	 * <code>readTransactionsWithEntries</code>.
+	 * 
+	 * @see net.sf.jmoney.model2.IEntryQueries#getEntriesWithTransactions(net.sf.jmoney.model2.Account)
+	 */
+	@Override
+	public Collection<Entry> getEntriesWithTransactions(Account account) {
+		IDatabaseRowKey proxy = (IDatabaseRowKey)account.getObjectKey();
+
+		String entryTableName = EntryInfo.getPropertySet().getId().replace('.', '_');
+		String transactionColumnName = TransactionInfo.getEntriesAccessor().getName().replace('.', '_');
+		String accountColumnName = getColumnName(EntryInfo.getAccountAccessor());
+
+		String transactionsInAccount = "SELECT \"" + transactionColumnName + "\""
+			+ " FROM " + entryTableName
+			+ " WHERE \"" + accountColumnName + "\" = ?";
+
 		try {
-			String sql = "SELECT SUM(amount), DateSerial(Year(date),Month(date),1) FROM net_sf_jmoney_entry, net_sf_jmoney_transaction"
-				+ " GROUP BY DateSerial(Year(date),Month(date),1)"
-				+ " WHERE account IN " + accountList
-				+ " AND date >= ?"
-				+ " AND date < ?"
-				+ " ORDER BY DateSerial(Year(date),Month(date),1)";
-			System.out.println(sql);
-			PreparedStatement stmt = getConnection().prepareStatement(sql);
+			Map<Integer, Entry> accountEntries = readTransactionsWithEntries(getConnection(), transactionsInAccount, Collections.singletonList(proxy.getRowId()), proxy.getRowId());
+			return new ArrayList<Entry>(accountEntries.values());
+		} catch (SQLException e) {
+			throw new RuntimeException("SQL statement failed", e);
+		}
+	}
+
+	/**
+	 * Reads all the entries in the given transactions, and those of the
+	 * transactions that have not already been materialized, using two
+	 * queries. The first query reads all the entries in the transactions. The
+	 * second reads the transactions. The entries lists in the transactions are
+	 * built from the results of the first query, so iterating over the entries
+	 * in any of the transactions does not go back to the database.
+	 * <P>
+	 * Transactions that have already been materialized are left as they are.
+	 * Their entries lists may or may not already have been read.
+	 * <P>
+	 * This materializes objects so must be called on the thread that owns the
+	 * session, using the main connection.
+	 * 
+	 * @param transactionIds SQL that gives the row ids of the transactions,
+	 *            either a query that selects a single column or a list of
+	 *            values, for use in an IN clause
+	 * @param parameters the values of the integer parameters in the
+	 *            <code>transactionIds</code> SQL
+	 * @param accountId the row id of the account whose entries are to be
+	 *            returned
+	 * @return the entries read that are in the given account, mapped from
+	 *         their row ids, in the order in which they were read
+	 */
+	Map<Integer, Entry> readTransactionsWithEntries(Connection connection, String transactionIds, List<Integer> parameters, int accountId) throws SQLException {
+		String entryTableName = EntryInfo.getPropertySet().getId().replace('.', '_');
+		String transactionTableName = TransactionInfo.getPropertySet().getId().replace('.', '_');
+		String transactionColumnName = TransactionInfo.getEntriesAccessor().getName().replace('.', '_');
+		String accountColumnName = getColumnName(EntryInfo.getAccountAccessor());
+
+		Map<Integer, Entry> accountEntries = new LinkedHashMap<Integer, Entry>();
+
+		/*
+		 * The keys of the transactions, indexed by row id. Keys for
+		 * transactions that are not yet materialized are also put in
+		 * newTransactionKeys, together with the list of their entries.
+		 */
+		Map<Integer, IDatabaseRowKey> transactionKeys = new HashMap<Integer, IDatabaseRowKey>();
+		Map<Integer, ObjectKey> newTransactionKeys = new HashMap<Integer, ObjectKey>();
+		Map<Integer, List<Entry>> entriesByTransaction = new HashMap<Integer, List<Entry>>();
+
+		String sql = "SELECT * FROM " + entryTableName
+			+ " WHERE \"" + transactionColumnName + "\" IN (" + transactionIds + ")";
+		if (JDBCDatastorePlugin.DEBUG) System.out.println(sql);
+		PreparedStatement stmt = connection.prepareStatement(sql);
+		try {
+			int parameterIndex = 1;
+			for (Integer parameter : parameters) {
+				stmt.setInt(parameterIndex++, parameter);
+			}
+			ResultSet rs = stmt.executeQuery();
+			while (rs.next()) {
+				int transactionId = rs.getInt(transactionColumnName);
+				IDatabaseRowKey transactionKey = transactionKeys.get(transactionId);
+				if (transactionKey == null) {
+					Transaction transaction = getObjectIfMaterialized(TransactionInfo.getPropertySet(), transactionId);
+					if (transaction != null) {
+						transactionKey = (IDatabaseRowKey)transaction.getObjectKey();
+					} else {
+						ObjectKey newKey = new ObjectKey(transactionId, TransactionInfo.getPropertySet(), this);
+						newTransactionKeys.put(transactionId, newKey);
+						entriesByTransaction.put(transactionId, new ArrayList<Entry>());
+						transactionKey = newKey;
+					}
+					transactionKeys.put(transactionId, transactionKey);
+				}
+
+				DatabaseListKey<Entry,Transaction> listKey = new DatabaseListKey<Entry,Transaction>(transactionKey, TransactionInfo.getEntriesAccessor());
+				Entry entry = (Entry)new ObjectKey(rs, EntryInfo.getPropertySet(), listKey, this).getObject();
+
+				List<Entry> entriesInTransaction = entriesByTransaction.get(transactionId);
+				if (entriesInTransaction != null) {
+					entriesInTransaction.add(entry);
+				}
+				if (rs.getInt(accountColumnName) == accountId) {
+					accountEntries.put(rs.getInt("_ID"), entry);
+				}
+			}
+			rs.close();
+		} finally {
+			stmt.close();
+		}
+
+		if (!newTransactionKeys.isEmpty()) {
+			sql = "SELECT * FROM " + transactionTableName
+				+ " WHERE \"_ID\" IN (" + transactionIds + ")";
+			if (JDBCDatastorePlugin.DEBUG) System.out.println(sql);
+			stmt = connection.prepareStatement(sql);
 			try {
-				stmt.setDate(1, new java.sql.Date(startDate.getTime()));
-				stmt.setDate(2, new java.sql.Date(endDate.getTime()));
+				int parameterIndex = 1;
+				for (Integer parameter : parameters) {
+					stmt.setInt(parameterIndex++, parameter);
+				}
 				ResultSet rs = stmt.executeQuery();
-
-				long [] totals = new long[numberOfMonths];
-				for (int i = 0; i < numberOfMonths; i++) {
-					rs.next();
-					totals[i] = rs.getLong(0);
+				while (rs.next()) {
+					int transactionId = rs.getInt("_ID");
+					ObjectKey key = newTransactionKeys.get(transactionId);
+					if (key != null) {
+						key.setPrefetchedList(TransactionInfo.getEntriesAccessor(), entriesByTransaction.get(transactionId));
+						Transaction transaction = materializeObject(rs, TransactionInfo.getPropertySet(), key);
+						key.setObject(transaction);
+					}
 				}
-				return totals;
+				rs.close();
 			} finally {
 				stmt.close();
 			}
-		} catch (SQLException e) {
-			throw new RuntimeException("SQL statement failed");
 		}
+
+		return accountEntries;
 	}
-	
+
 	private void addEntriesFromSubAccounts(CapitalAccount account, ArrayList<Integer> accountIds) {
 		for (CapitalAccount subAccount: account.getSubAccountCollection()) {
 			IDatabaseRowKey proxy = (IDatabaseRowKey)subAccount.getObjectKey();
@@ -2017,6 +2516,8 @@ public class SessionManager extends AbstractDataManager implements IDatastoreMan
 	public void startTransaction() {
 		try {
 			connection.setAutoCommit(false);
+			inTransaction = true;
+			transactionThread = Thread.currentThread();
 		} catch (SQLException e) {
 			// TODO Auto-generated catch block
 			e.printStackTrace();
@@ -2025,22 +2526,47 @@ public class SessionManager extends AbstractDataManager implements IDatastoreMan
 
 	@Override
 	public void commitTransaction() {
+		inTransaction = false;
+		transactionThread = null;
+		boolean committed = false;
 		try {
+			if (transactionFailed) {
+				throw new RuntimeException("Updates in this transaction could not be written to the database, so the transaction has been rolled back.");
+			}
+			statementCache.executeBatches();
 			connection.commit();
+			committed = true;
 		} catch (SQLException e) {
-			// TODO We need a mechanism to log and report errors
-			e.printStackTrace();
-		}
+			throw new RuntimeException("The transaction could not be committed to the database, so has been rolled back.", e);
+		} finally {
+			transactionFailed = false;
 
-		/*
-		 * Note that we want to turn on auto-commit even if
-		 * the above commit failed.
-		 */
-		try {
-			connection.setAutoCommit(true);
-		} catch (SQLException e) {
-			// TODO We need a mechanism to log and report errors
-			e.printStackTrace();
+			/*
+			 * If anything failed then none of the transaction can be
+			 * committed. The updates that were executed must be rolled back
+			 * before auto-commit is turned on again, because turning on
+			 * auto-commit commits any work still in the transaction.
+			 */
+			if (!committed) {
+				statementCache.discardBatches();
+				try {
+					connection.rollback();
+				} catch (SQLException e) {
+					// TODO We need a mechanism to log and report errors
+					e.printStackTrace();
+				}
+			}
+
+			/*
+			 * Note that we want to turn on auto-commit even if
+			 * the above commit failed.
+			 */
+			try {
+				connection.setAutoCommit(true);
+			} catch (SQLException e) {
+				// TODO We need a mechanism to log and report errors
+				e.printStackTrace();
+			}
 		}
 	}
 
@@ -2066,6 +2592,7 @@ public class SessionManager extends AbstractDataManager implements IDatastoreMan
 	 * exceptions are returned to the caller.
 	 */
 	public <T> T runWithReconnect(IRunnableSql<T> runnableSql) {
+		executePendingBatches();
 		try {
 			return runnableSql.execute(connection);
 		} catch (SQLException e) {
@@ -2076,17 +2603,7 @@ public class SessionManager extends AbstractDataManager implements IDatastoreMan
 					 * by a connection that has not been used in a while.  It can most
 					 * likely be fixed simply by reconnecting.
 					 */
-					try {
-						connection.close();
-					} catch (SQLException e2) {
-						/*
-						 * Ignore any failures on the close. It was a 'best efforts
-						 * only' close. In fact, it almost certainly will fail, and
-						 * perhaps we should not even bother to try to close it.
-						 */
-					}	
-					
-					connection = DriverManager.getConnection(url, user, password);
+					reconnect();
 					return runnableSql.execute(connection);
 				} else {
 					throw e;
@@ -2097,80 +2614,238 @@ public class SessionManager extends AbstractDataManager implements IDatastoreMan
 		}
 	}
 
-	@Override
-	public List<Entry> getEntries(Date startDate, Date endDate, Long amount, String memo) {
-		String entryTableName = EntryInfo.getPropertySet().getId().replace('.', '_');
-		String transactionTableName = TransactionInfo.getPropertySet().getId().replace('.', '_');
-		
-		StringBuffer whereClause = new StringBuffer();
-		String separator = "";
-		
-		if (startDate != null) {
-			whereClause.append(separator);
-			whereClause.append("\"date\" >= ? ");
-			separator = "and ";
-		}
-		
-		if (endDate != null) {
-			whereClause.append(separator);
-			whereClause.append("\"date\" <= ? ");
-			separator = "and ";
-		}
-		
-		if (amount != null) {
-			whereClause.append(separator);
-			whereClause.append("abs(\"amount\") = ? ");
-			separator = "and ";
-		}
-		
-		if (memo != null) {
-			whereClause.append(separator);
-			whereClause.append("UPPER(\"memo\") like UPPER(?) ");
-			separator = "and ";
-		}
-		
-		if (whereClause.length() == 0) {
-			// TODO change this so we get a good error message.
-			throw new RuntimeException("Query Failed.  No restriction has been entered.  You must have at least one restriction.", null);
+	/**
+	 * Runs a query that only reads from the database. The query is run on a
+	 * connection from the pool of read-only connections, so this method may
+	 * be called from any thread and does not hold up, nor is held up by, the
+	 * updates made through the main connection.
+	 * <P>
+	 * The query sees only committed data. The exception is when this method
+	 * is called on the thread that is in the middle of a transaction, in
+	 * which case the query is run on the main connection so that it sees the
+	 * updates made so far in the transaction.
+	 * <P>
+	 * The query must not materialize objects, because the object cache is
+	 * used only from the thread that owns the session.
+	 * <P>
+	 * If the query fails because the connection has been lost then the
+	 * connection is discarded and the query is retried once on a new
+	 * connection.
+	 */
+	public <T> T runReadOnly(IRunnableSql<T> runnableSql) {
+		if (Thread.currentThread() == transactionThread) {
+			return runWithReconnect(runnableSql);
 		}
-		
-		String sql = "SELECT * FROM " + entryTableName +
-			" join " + transactionTableName + " ON net_sf_jmoney_transaction.\"_ID\" = net_sf_jmoney_entry.\"net_sf_jmoney_transaction_entry\"" +
-			" WHERE " + whereClause + "order by \"date\"";
-		
-		/* There should only be one plug-in started at a time that implements
-		 * a SQL datastore and that provides this package.  We should therefore
-		 * be able to guarantee that the session is provided by this plug-in.
-		 */
+
 		try {
-		PreparedStatement statement = getConnection().prepareStatement(sql);
+			Connection readConnection = readConnectionPool.acquire();
+			try {
+				T result = runnableSql.execute(readConnection);
+				readConnectionPool.release(readConnection);
+				return result;
+			} catch (SQLException e) {
+				readConnectionPool.discard(readConnection);
+				if (e.getSQLState() == null || !e.getSQLState().startsWith("08")) {
+					throw e;
+				}
+			} catch (RuntimeException e) {
+				readConnectionPool.release(readConnection);
+				throw e;
+			}
 
-		int index = 1;
-		if (startDate != null) {
-			statement.setDate(index++, new java.sql.Date(startDate.getTime()));
+			/*
+			 * The connection failed (SQL state class 08 is a connection
+			 * exception). This is usually caused by a connection that has not
+			 * been used in a while. It can most likely be fixed simply by
+			 * trying again on a new connection.
+			 */
+			readConnection = readConnectionPool.acquire();
+			try {
+				T result = runnableSql.execute(readConnection);
+				readConnectionPool.release(readConnection);
+				return result;
+			} catch (SQLException e) {
+				readConnectionPool.discard(readConnection);
+				throw e;
+			} catch (RuntimeException e) {
+				readConnectionPool.release(readConnection);
+				throw e;
+			}
+		} catch (SQLException e) {
+			throw new RuntimeException("SQL failed and retry cannot fix", e);
 		}
-		if (endDate != null) {
-			statement.setDate(index++, new java.sql.Date(endDate.getTime()));
+	}
+
+	@Override
+	public List<Entry> getEntries(Date startDate, Date endDate, Long amount, String memo) {
+		final EntrySearchTask search = new EntrySearchTask(startDate, endDate, amount, memo);
+		return runWithReconnect(new IRunnableSql<List<Entry>>() {
+			@Override
+			public List<Entry> execute(Connection connection) throws SQLException {
+				String entryTableName = EntryInfo.getPropertySet().getId().replace('.', '_');
+				ResultSet resultSet = search.prepareStatement(connection, entryTableName + ".*").executeQuery();
+
+				List<Entry> elements = new ArrayList<Entry>();
+				Iterator<Entry> iter = new UncachedObjectIterator<Entry>(resultSet, EntryInfo.getPropertySet(), null, SessionManager.this);
+				while (iter.hasNext()) {
+					elements.add(iter.next());
+				}
+				return elements;
+			}
+		});
+	}
+
+	@Override
+	public IEntrySearchTask prepareEntrySearch(Date startDate, Date endDate, Long amount, String memo) {
+		return new EntrySearchTask(startDate, endDate, amount, memo);
+	}
+
+	/**
+	 * A search for entries using a single query.
+	 * <P>
+	 * When the search is run, the query is run on a read-only connection and
+	 * reads only the ids of the matching entries, so it can be run on any
+	 * thread. The entries themselves are then read, on the thread that owns
+	 * the session, in a single query for each batch of ids.
+	 */
+	private class EntrySearchTask implements IEntrySearchTask {
+
+		private final String whereClause;
+
+		private final List<Object> parameterValues = new ArrayList<Object>();
+
+		EntrySearchTask(Date startDate, Date endDate, Long amount, String memo) {
+			String entryTableName = EntryInfo.getPropertySet().getId().replace('.', '_');
+
+			StringBuffer whereClause = new StringBuffer();
+			String separator = "";
+
+			if (startDate != null) {
+				whereClause.append(separator);
+				whereClause.append("\"date\" >= ? ");
+				parameterValues.add(new java.sql.Date(startDate.getTime()));
+				separator = "and ";
+			}
+
+			if (endDate != null) {
+				whereClause.append(separator);
+				whereClause.append("\"date\" <= ? ");
+				parameterValues.add(new java.sql.Date(endDate.getTime()));
+				separator = "and ";
+			}
+
+			if (amount != null) {
+				whereClause.append(separator);
+				whereClause.append("abs(\"amount\") = ? ");
+				parameterValues.add(amount);
+				separator = "and ";
+			}
+
+			if (memo != null) {
+				/*
+				 * The terms table finds the entries that may contain the memo
+				 * text using an index, so the like condition, which cannot use an
+				 * index, is checked only on those entries.
+				 */
+				whereClause.append(separator);
+				whereClause.append(EntryTermsTable.buildConditions(entryTableName + ".\"_ID\"", memo));
+				whereClause.append("UPPER(\"memo\") like UPPER(?) ");
+				for (String value : EntryTermsTable.getParameterValues(memo)) {
+					parameterValues.add(value);
+				}
+				parameterValues.add("%" + memo + "%");
+				separator = "and ";
+			}
+
+			if (whereClause.length() == 0) {
+				// TODO change this so we get a good error message.
+				throw new RuntimeException("Query Failed.  No restriction has been entered.  You must have at least one restriction.", null);
+			}
+
+			this.whereClause = whereClause.toString();
 		}
-		if (amount != null) {
-			statement.setLong(index++, amount);
+
+		/**
+		 * @param columns the columns to be selected
+		 * @return a statement that selects the matching entries in date order
+		 */
+		PreparedStatement prepareStatement(Connection connection, String columns) throws SQLException {
+			String sql = "SELECT " + columns + " FROM net_sf_jmoney_entry" +
+				" join net_sf_jmoney_transaction ON net_sf_jmoney_transaction.\"_ID\" = net_sf_jmoney_entry.\"net_sf_jmoney_transaction_entry\"" +
+				" WHERE " + whereClause + "order by \"date\"";
+			if (JDBCDatastorePlugin.DEBUG) System.out.println(sql);
+
+			PreparedStatement statement = connection.prepareStatement(sql);
+			int index = 1;
+			for (Object value : parameterValues) {
+				statement.setObject(index++, value);
+			}
+			return statement;
 		}
-		if (memo != null) {
-			statement.setString(index++, "%" + memo + "%");
+
+		@Override
+		public void run(final IEntryCollector collector, final IProgressMonitor monitor) {
+			runReadOnly(new IRunnableSql<Object>() {
+				@Override
+				public Object execute(Connection readConnection) throws SQLException {
+					PreparedStatement statement = prepareStatement(readConnection, "net_sf_jmoney_entry.\"_ID\"");
+					try {
+						ResultSet resultSet = statement.executeQuery();
+						try {
+							while (resultSet.next() && !monitor.isCanceled()) {
+								collector.entryFound(new ObjectKey(resultSet.getInt(1), EntryInfo.getPropertySet(), SessionManager.this));
+							}
+						} finally {
+							resultSet.close();
+						}
+					} finally {
+						statement.close();
+					}
+					return null;
+				}
+			});
 		}
-		
-		List<Entry> elements = new ArrayList<Entry>(); 
 
-		ResultSet resultSet = statement.executeQuery();
+		@Override
+		public List<Entry> getEntries(List<IObjectKey> entryKeys) {
+			final Map<Integer, Entry> entries = new HashMap<Integer, Entry>();
+			StringBuffer idsToRead = new StringBuffer();
+			for (IObjectKey entryKey : entryKeys) {
+				int rowId = ((IDatabaseRowKey)entryKey).getRowId();
+				Entry entry = getObjectIfMaterialized(EntryInfo.getPropertySet(), rowId);
+				if (entry != null) {
+					entries.put(rowId, entry);
+				} else {
+					idsToRead.append(idsToRead.length() == 0 ? "" : ", ").append(rowId);
+				}
+			}
 
-		Iterator<Entry> iter = new UncachedObjectIterator<Entry>(resultSet, EntryInfo.getPropertySet(), null, this);
-		while (iter.hasNext()) {
-			elements.add(iter.next());
-		}
+			if (idsToRead.length() != 0) {
+				// The ids are integers so can safely be put in the SQL
+				final String sql = "SELECT * FROM net_sf_jmoney_entry WHERE \"_ID\" IN (" + idsToRead + ")";
+				runWithReconnect(new IRunnableSql<Object>() {
+					@Override
+					public Object execute(Connection connection) throws SQLException {
+						if (JDBCDatastorePlugin.DEBUG) System.out.println(sql);
+						ResultSet resultSet = connection.createStatement().executeQuery(sql);
+						Iterator<Entry> iter = new UncachedObjectIterator<Entry>(resultSet, EntryInfo.getPropertySet(), null, SessionManager.this);
+						while (iter.hasNext()) {
+							Entry entry = iter.next();
+							entries.put(((IDatabaseRowKey)entry.getObjectKey()).getRowId(), entry);
+						}
+						return null;
+					}
+				});
+			}
 
-		return elements;
-		} catch (SQLException e) {
-			throw new RuntimeException(e.getMessage(), e);
+			List<Entry> result = new ArrayList<Entry>();
+			for (IObjectKey entryKey : entryKeys) {
+				Entry entry = entries.get(((IDatabaseRowKey)entryKey).getRowId());
+				if (entry != null) {
+					result.add(entry);
+				}
+			}
+			return result;
 		}
 	}
 }
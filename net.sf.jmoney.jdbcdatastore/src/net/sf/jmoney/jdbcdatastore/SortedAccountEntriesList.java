@@ -0,0 +1,423 @@
+/*
+*
+*  JMoney - A Personal Finance Manager
+*  Copyright (c) 2004 Nigel Westbury <westbury@users.sourceforge.net>
+*
+*
+*  This program is free software; you can redistribute it and/or modify
+*  it under the terms of the GNU General Public License as published by
+*  the Free Software Foundation; either version 2 of the License, or
+*  (at your option) any later version.
+*
+*  This program is distributed in the hope that it will be useful,
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*  GNU General Public License for more details.
+*
+*  You should have received a copy of the GNU General Public License
+*  along with this program; if not, write to the Free Software
+*  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+*
+*/
+
+package net.sf.jmoney.jdbcdatastore;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import net.sf.jmoney.model2.Account;
+import net.sf.jmoney.model2.Entry;
+import net.sf.jmoney.model2.EntryInfo;
+import net.sf.jmoney.model2.ExtendablePropertySet;
+import net.sf.jmoney.model2.ExtensionPropertySet;
+import net.sf.jmoney.model2.PropertySet;
+import net.sf.jmoney.model2.ScalarPropertyAccessor;
+import net.sf.jmoney.model2.TransactionInfo;
+
+/**
+ * This class is used to get the entries in a given account, sorted by a given
+ * property. The property may be a property of the entry, a property of the
+ * transaction containing the entry, or a property of the account containing
+ * the entry.
+ * <P>
+ * The sort is passed on to the database as an ORDER BY clause. The entries
+ * are not read from the database until the collection is iterated, and even
+ * then they are read a page at a time. Each page is fetched using a 'keyset'
+ * query, that is, a query that selects the rows that sort after the last row
+ * of the previous page. This means the database can use an index on the sort
+ * column to go directly to the start of each page, and means only the pages
+ * actually iterated by the caller are ever materialized.
+ * <P>
+ * Each page of entries is read together with the transactions containing the
+ * entries and the other entries in those transactions, using a fixed number
+ * of queries per page. Callers that show each entry with its transaction,
+ * such as the account entries table, then do not go back to the database for
+ * each entry.
+ * <P>
+ * The entries may optionally be restricted to a range of transaction dates
+ * and a range of amounts. These restrictions are added to the WHERE clause so
+ * entries outside the ranges are never read from the database.
+ * <P>
+ * The size() method submits a COUNT query with the same restrictions.
+ *
+ * @author Nigel Westbury
+ */
+public class SortedAccountEntriesList extends AccountEntriesList {
+
+	/**
+	 * The number of rows read from the database in each query.
+	 */
+	static final int PAGE_SIZE = 500;
+
+	/**
+	 * The alias given in the select list to the column on which we are
+	 * sorting. The sort column may be in a joined table so we cannot rely on
+	 * it being in the entry columns.
+	 */
+	private static final String SORT_COLUMN_ALIAS = "_SORT";
+
+	private final boolean descending;
+
+	/**
+	 * The FROM clause, including all joins needed to get to the table
+	 * containing the sort column.
+	 */
+	private final String fromClause;
+
+	/**
+	 * The qualified name of the column on which we are sorting.
+	 */
+	private final String sortColumn;
+
+	/**
+	 * The qualified name of the id column in the entry table, used as a tie
+	 * breaker so that the order is a total order. Keyset pagination requires a
+	 * total order.
+	 */
+	private final String idColumn;
+
+	/**
+	 * The name of the column in the entry table that contains the id of the
+	 * transaction.
+	 */
+	private final String transactionColumnName;
+
+	/**
+	 * The conditions that restrict the entries to the date and amount ranges,
+	 * each starting with " AND ", or an empty string if there are no
+	 * restrictions.
+	 */
+	private final String restrictions;
+
+	/**
+	 * The values of the parameters in the restrictions, in order.
+	 */
+	private final List<Object> restrictionValues = new ArrayList<Object>();
+
+	public SortedAccountEntriesList(SessionManager sessionManager, IDatabaseRowKey keyOfRequiredPropertyValue, ScalarPropertyAccessor<?,?> sortProperty, boolean descending) {
+		this(sessionManager, keyOfRequiredPropertyValue, sortProperty, descending, null, null, null, null);
+	}
+
+	/**
+	 * @param fromDate the earliest transaction date, inclusive, or null if
+	 *            there is no lower bound on the date
+	 * @param toDate the latest transaction date, inclusive, or null if there
+	 *            is no upper bound on the date
+	 * @param minimumAmount the lowest amount, inclusive, or null if there is
+	 *            no lower bound on the amount
+	 * @param maximumAmount the highest amount, inclusive, or null if there is
+	 *            no upper bound on the amount
+	 */
+	public SortedAccountEntriesList(SessionManager sessionManager, IDatabaseRowKey keyOfRequiredPropertyValue, ScalarPropertyAccessor<?,?> sortProperty, boolean descending, Date fromDate, Date toDate, Long minimumAmount, Long maximumAmount) {
+		super(sessionManager, keyOfRequiredPropertyValue);
+		this.descending = descending;
+
+		String transactionTableName = TransactionInfo.getPropertySet().getId().replace('.', '_');
+		transactionColumnName = TransactionInfo.getEntriesAccessor().getName().replace('.', '_');
+
+		idColumn = tableName + ".\"_ID\"";
+
+		/*
+		 * Find the table that contains the sort column. Extension properties
+		 * are stored in the table for the property set being extended.
+		 */
+		PropertySet<?,?> propertySet = sortProperty.getPropertySet();
+		ExtendablePropertySet<?> extendablePropertySet;
+		if (propertySet.isExtension()) {
+			extendablePropertySet = ((ExtensionPropertySet<?,?>)propertySet).getExtendablePropertySet();
+		} else {
+			extendablePropertySet = (ExtendablePropertySet<?>)propertySet;
+		}
+		String sortTableName = extendablePropertySet.getId().replace('.', '_');
+
+		String from;
+		if (extendablePropertySet == EntryInfo.getPropertySet()) {
+			from = tableName;
+		} else if (extendablePropertySet == TransactionInfo.getPropertySet()) {
+			from = tableName
+				+ " JOIN " + transactionTableName
+				+ " ON " + transactionTableName + ".\"_ID\" = " + tableName + ".\"" + transactionColumnName + "\"";
+		} else if (Account.class.isAssignableFrom(extendablePropertySet.getImplementationClass())) {
+			/*
+			 * Account properties may be in a derived table (e.g. the capital
+			 * account table) so we join on the table for the property set
+			 * containing the property. All account tables share the same _ID
+			 * values so one join is sufficient.
+			 */
+			from = tableName
+				+ " JOIN " + sortTableName
+				+ " ON " + sortTableName + ".\"_ID\" = " + tableName + ".\"" + columnName + "\"";
+		} else {
+			throw new RuntimeException("Entries cannot be sorted by property " + sortProperty.getName()
+					+ ". The property must be in the entry, transaction, or account.");
+		}
+
+		sortColumn = sortTableName + ".\"" + sessionManager.getColumnName(sortProperty) + "\"";
+
+		String conditions = "";
+		if (fromDate != null || toDate != null) {
+			if (extendablePropertySet != TransactionInfo.getPropertySet()) {
+				from = from
+					+ " JOIN " + transactionTableName
+					+ " ON " + transactionTableName + ".\"_ID\" = " + tableName + ".\"" + transactionColumnName + "\"";
+			}
+			String dateColumn = transactionTableName + ".\"" + sessionManager.getColumnName(TransactionInfo.getDateAccessor()) + "\"";
+			if (fromDate != null) {
+				conditions += " AND " + dateColumn + " >= ?";
+				restrictionValues.add(new java.sql.Date(fromDate.getTime()));
+			}
+			if (toDate != null) {
+				conditions += " AND " + dateColumn + " <= ?";
+				restrictionValues.add(new java.sql.Date(toDate.getTime()));
+			}
+		}
+		String amountColumn = tableName + ".\"" + sessionManager.getColumnName(EntryInfo.getAmountAccessor()) + "\"";
+		if (minimumAmount != null) {
+			conditions += " AND " + amountColumn + " >= ?";
+			restrictionValues.add(minimumAmount);
+		}
+		if (maximumAmount != null) {
+			conditions += " AND " + amountColumn + " <= ?";
+			restrictionValues.add(maximumAmount);
+		}
+		fromClause = from;
+		restrictions = conditions;
+	}
+
+	/**
+	 * The count is taken with the same joins and restrictions as the page
+	 * queries, so it is the number of entries the iterator returns.
+	 */
+	@Override
+	public int size() {
+		return sessionManager.runWithReconnect(new IRunnableSql<Integer>() {
+			@Override
+			public Integer execute(Connection connection) throws SQLException {
+				String sql = "SELECT COUNT(*) FROM " + fromClause
+					+ " WHERE " + tableName + ".\"" + columnName + "\" = ?"
+					+ restrictions;
+				if (JDBCDatastorePlugin.DEBUG) System.out.println(sql + " : " + keyOfRequiredPropertyValue.getRowId());
+				PreparedStatement stmt = connection.prepareStatement(sql);
+				try {
+					int parameterIndex = 1;
+					stmt.setInt(parameterIndex++, keyOfRequiredPropertyValue.getRowId());
+					for (Object value : restrictionValues) {
+						stmt.setObject(parameterIndex++, value);
+					}
+					ResultSet rs = stmt.executeQuery();
+					try {
+						rs.next();
+						return rs.getInt(1);
+					} finally {
+						rs.close();
+					}
+				} finally {
+					stmt.close();
+				}
+			}
+		});
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return size() == 0;
+	}
+
+	@Override
+	public Iterator<Entry> iterator() {
+		return new PagedIterator();
+	}
+
+	/**
+	 * Builds the query that fetches a page.
+	 * <P>
+	 * Nulls are sorted separately from the non-null values and are put first
+	 * (or last if descending). This is done explicitly rather than leaving the
+	 * null ordering to the database because databases differ in where they put
+	 * nulls, and the keyset conditions must be consistent with the order.
+	 *
+	 * @param isFirstPage true if this is the first page, in which case there is
+	 *            no keyset condition
+	 * @param lastValueIsNull if not the first page, true if the sort value in
+	 *            the last row of the previous page was null
+	 */
+	private String buildPageQuery(boolean isFirstPage, boolean lastValueIsNull) {
+		String sql = "SELECT " + tableName + ".*, " + sortColumn + " AS \"" + SORT_COLUMN_ALIAS + "\""
+			+ " FROM " + fromClause
+			+ " WHERE " + tableName + ".\"" + columnName + "\" = ?"
+			+ restrictions;
+
+		String greaterThan = descending ? " < " : " > ";
+		if (!isFirstPage) {
+			if (lastValueIsNull) {
+				sql += " AND ((" + sortColumn + " IS NULL AND " + idColumn + greaterThan + "?)";
+				if (!descending) {
+					sql += " OR " + sortColumn + " IS NOT NULL";
+				}
+				sql += ")";
+			} else {
+				sql += " AND (" + sortColumn + greaterThan + "?"
+					+ " OR (" + sortColumn + " = ? AND " + idColumn + greaterThan + "?)";
+				if (descending) {
+					sql += " OR " + sortColumn + " IS NULL";
+				}
+				sql += ")";
+			}
+		}
+
+		String direction = descending ? " DESC" : "";
+		sql += " ORDER BY CASE WHEN " + sortColumn + " IS NULL THEN 0 ELSE 1 END" + direction
+			+ ", " + sortColumn + direction
+			+ ", " + idColumn + direction;
+
+		return sql;
+	}
+
+	/**
+	 * An iterator that reads the entries from the database a page at a time.
+	 * The entries in the current page are held with strong references, so
+	 * they are not lost from the weak reference cache while the caller is
+	 * iterating, but entries in pages already passed may be garbage collected.
+	 */
+	private class PagedIterator implements Iterator<Entry> {
+		private List<Entry> page = new ArrayList<Entry>();
+		private int indexInPage = 0;
+
+		private boolean isFirstPage = true;
+		private boolean isLastPage = false;
+
+		/*
+		 * The key of the last row in the previous page.
+		 */
+		private Object lastSortValue = null;
+		private int lastRowId;
+
+		@Override
+		public boolean hasNext() {
+			if (indexInPage == page.size() && !isLastPage) {
+				fetchNextPage();
+			}
+			return indexInPage < page.size();
+		}
+
+		@Override
+		public Entry next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			return page.get(indexInPage++);
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+
+		private void fetchNextPage() {
+			page = sessionManager.runWithReconnect(new IRunnableSql<List<Entry>>() {
+				@Override
+				public List<Entry> execute(Connection connection) throws SQLException {
+					String sql = buildPageQuery(isFirstPage, lastSortValue == null);
+					if (JDBCDatastorePlugin.DEBUG) System.out.println(sql + " : " + keyOfRequiredPropertyValue.getRowId());
+					PreparedStatement stmt = connection.prepareStatement(sql);
+					try {
+						/*
+						 * setMaxRows is used rather than LIMIT or FETCH FIRST
+						 * because the syntax for the latter differs between
+						 * databases.
+						 */
+						stmt.setMaxRows(PAGE_SIZE);
+
+						int parameterIndex = 1;
+						stmt.setInt(parameterIndex++, keyOfRequiredPropertyValue.getRowId());
+						for (Object value : restrictionValues) {
+							stmt.setObject(parameterIndex++, value);
+						}
+						if (!isFirstPage) {
+							if (lastSortValue == null) {
+								stmt.setInt(parameterIndex++, lastRowId);
+							} else {
+								stmt.setObject(parameterIndex++, lastSortValue);
+								stmt.setObject(parameterIndex++, lastSortValue);
+								stmt.setInt(parameterIndex++, lastRowId);
+							}
+						}
+
+						List<Integer> entryIds = new ArrayList<Integer>(PAGE_SIZE);
+						Set<Integer> transactionIds = new LinkedHashSet<Integer>();
+						ResultSet rs = stmt.executeQuery();
+						try {
+							while (rs.next()) {
+								entryIds.add(rs.getInt("_ID"));
+								transactionIds.add(rs.getInt(transactionColumnName));
+								lastSortValue = rs.getObject(SORT_COLUMN_ALIAS);
+								lastRowId = rs.getInt("_ID");
+							}
+						} finally {
+							rs.close();
+						}
+						isLastPage = entryIds.size() < PAGE_SIZE;
+
+						List<Entry> entries = new ArrayList<Entry>(entryIds.size());
+						if (!entryIds.isEmpty()) {
+							/*
+							 * Read the entries with their transactions and the
+							 * other entries in the transactions, so that
+							 * showing the page does not go back to the database
+							 * for each entry.
+							 */
+							StringBuffer placeholders = new StringBuffer();
+							for (int i = 0; i < transactionIds.size(); i++) {
+								placeholders.append(i == 0 ? "?" : ", ?");
+							}
+							Map<Integer, Entry> entriesById = sessionManager.readTransactionsWithEntries(connection, placeholders.toString(), new ArrayList<Integer>(transactionIds), keyOfRequiredPropertyValue.getRowId());
+							for (Integer entryId : entryIds) {
+								Entry entry = entriesById.get(entryId);
+								// The entry may have been deleted since the first query
+								if (entry != null) {
+									entries.add(entry);
+								}
+							}
+						}
+						return entries;
+					} finally {
+						stmt.close();
+					}
+				}
+			});
+
+			indexInPage = 0;
+			isFirstPage = false;
+		}
+	}
+}
@@ -0,0 +1,135 @@
+/*
+*
+*  JMoney - A Personal Finance Manager
+*  Copyright (c) 2004 Nigel Westbury <westbury@users.sourceforge.net>
+*
+*
+*  This program is free software; you can redistribute it and/or modify
+*  it under the terms of the GNU General Public License as published by
+*  the Free Software Foundation; either version 2 of the License, or
+*  (at your option) any later version.
+*
+*  This program is distributed in the hope that it will be useful,
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*  GNU General Public License for more details.
+*
+*  You should have received a copy of the GNU General Public License
+*  along with this program; if not, write to the Free Software
+*  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+*
+*/
+
+
+package net.sf.jmoney.jdbcdatastore;
+
+/**
+ * Encapsulates the SQL that differs between database implementations.
+ * <P>
+ * This base class generates standard SQL. Databases that do not support the
+ * standard syntax, or that have a more efficient alternative, have a subclass
+ * that overrides the appropriate methods. The dialect is chosen when the
+ * connection is made, based on the database product name reported by the
+ * JDBC driver.
+ *
+ * @author Nigel Westbury
+ */
+public class SqlDialect {
+
+	/**
+	 * Returns the dialect to be used for the given database.
+	 *
+	 * @param databaseProductName the product name as returned by
+	 *            <code>DatabaseMetaData.getDatabaseProductName()</code>
+	 * @return the dialect, never null (standard SQL is assumed if the
+	 *         database is not recognized)
+	 */
+	public static SqlDialect forDatabase(String databaseProductName) {
+		if (databaseProductName.equals("HSQL Database Engine")) {
+			return new HsqldbDialect();
+		} else if (databaseProductName.equals("Apache Derby")) {
+			return new DerbyDialect();
+		} else if (databaseProductName.equals("Microsoft SQL Server")) {
+			return new MsSqlDialect();
+		} else {
+			return new SqlDialect();
+		}
+	}
+
+	/**
+	 * The name of the type used for boolean columns, or null if the database
+	 * has no suitable type, in which case CHAR(1) is used.
+	 */
+	public String getBooleanTypeName() {
+		return null;
+	}
+
+	/**
+	 * The name of the type used for date columns.
+	 */
+	public String getDateTypeName() {
+		return "DATETIME";
+	}
+
+	/**
+	 * The clause appended to foreign key constraints that must prevent the
+	 * deletion of referenced rows.
+	 */
+	public String getOnDeleteRestrict() {
+		return "ON DELETE RESTRICT";
+	}
+
+	/**
+	 * The text to follow the column type in the definition of an
+	 * auto-generated id column.
+	 */
+	public String getIdentityColumnDefinition() {
+		return " IDENTITY";
+	}
+
+	/**
+	 * Indicates whether the foreign key from a derived table to its base table
+	 * can be 'ON DELETE CASCADE' when other foreign keys in the same table are
+	 * not cascading.
+	 */
+	public boolean allowsMixedCascadeForeignKeys() {
+		return true;
+	}
+
+	/**
+	 * Indicates whether the JDBC standard way of getting generated keys (
+	 * <code>Statement.getGeneratedKeys</code>) is supported. If not then
+	 * <code>getIdentityQuery</code> must return a query that returns the key.
+	 */
+	public boolean supportsGetGeneratedKeys() {
+		return true;
+	}
+
+	/**
+	 * A query that returns the id most recently generated in this connection.
+	 * Used only if <code>supportsGetGeneratedKeys</code> returns false.
+	 */
+	public String getIdentityQuery() {
+		throw new UnsupportedOperationException();
+	}
+
+	/**
+	 * Returns an SQL expression that gives the year, as an integer, of a date
+	 * column.
+	 *
+	 * @param dateColumn the (qualified and quoted as necessary) column name
+	 */
+	public String yearOf(String dateColumn) {
+		return "EXTRACT(YEAR FROM " + dateColumn + ")";
+	}
+
+	/**
+	 * Returns an SQL expression that gives the month, as an integer in the
+	 * range 1 to 12, of a date column.
+	 *
+	 * @param dateColumn the (qualified and quoted as necessary) column name
+	 */
+	public String monthOf(String dateColumn) {
+		return "EXTRACT(MONTH FROM " + dateColumn + ")";
+	}
+}
@@ -0,0 +1,193 @@
+/*
+*
+*  JMoney - A Personal Finance Manager
+*  Copyright (c) 2004 Nigel Westbury <westbury@users.sourceforge.net>
+*
+*
+*  This program is free software; you can redistribute it and/or modify
+*  it under the terms of the GNU General Public License as published by
+*  the Free Software Foundation; either version 2 of the License, or
+*  (at your option) any later version.
+*
+*  This program is distributed in the hope that it will be useful,
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*  GNU General Public License for more details.
+*
+*  You should have received a copy of the GNU General Public License
+*  along with this program; if not, write to the Free Software
+*  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+*
+*/
+
+
+package net.sf.jmoney.jdbcdatastore;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A cache of prepared statements for a single connection, together with the
+ * JDBC batches that are pending against those statements.
+ * <P>
+ * The statements used to insert and update rows depend only on the table and
+ * on the set of columns being written, with all values being passed as
+ * parameters. There are therefore relatively few distinct statements and it
+ * saves the database from parsing the same SQL for every row if we keep the
+ * prepared statements. The statements are keyed by the SQL text, which is
+ * itself determined by the property set and the mask of changed columns.
+ * <P>
+ * Updates made within a transaction are not executed immediately but are added
+ * to the batch of the cached statement. The batches are executed when
+ * <code>executeBatches</code> is called, which the session manager does before
+ * any other statement is executed on the connection and before the transaction
+ * is committed. Batches for different statements are executed in the order in
+ * which the statements were first used. This means updates may be executed in
+ * a different order from the order in which they were made. That is fine
+ * unless two updates set the same column in the same row, so the columns
+ * pending for each row are tracked and the caller must execute the batches
+ * before adding an update that would be re-ordered with respect to a
+ * conflicting update.
+ * <P>
+ * This class is not thread safe. It is used only through the session manager
+ * which serializes all writes.
+ *
+ * @author Nigel Westbury
+ */
+class StatementCache {
+
+	private Map<String, PreparedStatement> statements = new HashMap<String, PreparedStatement>();
+
+	/**
+	 * The statements that have a pending batch, mapped to the number of rows
+	 * in each batch. A linked map is used so batches are executed in the order
+	 * in which they were started.
+	 */
+	private Map<PreparedStatement, Integer> pendingBatches = new LinkedHashMap<PreparedStatement, Integer>();
+
+	/**
+	 * For each row with pending updates, a map of each column being set to
+	 * the statement whose batch contains the update. The key is the table name
+	 * and the row id.
+	 */
+	private Map<String, Map<String, PreparedStatement>> pendingRows = new HashMap<String, Map<String, PreparedStatement>>();
+
+	/**
+	 * @return the cached statement for the given SQL, or null if there is no
+	 *         cached statement
+	 */
+	PreparedStatement get(String sql) {
+		return statements.get(sql);
+	}
+
+	void put(String sql, PreparedStatement statement) {
+		statements.put(sql, statement);
+	}
+
+	/**
+	 * Indicates whether adding an update to the batch of the given statement
+	 * could cause the update to be executed out of order with respect to
+	 * another pending update that sets one of the same columns in the same row.
+	 */
+	boolean conflictsWithPending(PreparedStatement statement, String tableName, int rowId, Collection<String> columnNames) {
+		Map<String, PreparedStatement> pendingColumns = pendingRows.get(tableName + ":" + rowId);
+		if (pendingColumns == null) {
+			return false;
+		}
+		for (String columnName : columnNames) {
+			PreparedStatement pendingStatement = pendingColumns.get(columnName);
+			if (pendingStatement != null && pendingStatement != statement) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Adds the current parameters of the statement to its batch.
+	 */
+	void addBatch(PreparedStatement statement, String tableName, int rowId, Collection<String> columnNames) throws SQLException {
+		statement.addBatch();
+
+		Integer count = pendingBatches.get(statement);
+		pendingBatches.put(statement, count == null ? 1 : count + 1);
+
+		String rowKey = tableName + ":" + rowId;
+		Map<String, PreparedStatement> pendingColumns = pendingRows.get(rowKey);
+		if (pendingColumns == null) {
+			pendingColumns = new HashMap<String, PreparedStatement>();
+			pendingRows.put(rowKey, pendingColumns);
+		}
+		for (String columnName : columnNames) {
+			pendingColumns.put(columnName, statement);
+		}
+	}
+
+	boolean hasPendingBatches() {
+		return !pendingBatches.isEmpty();
+	}
+
+	/**
+	 * Executes all pending batches.
+	 *
+	 * @throws RuntimeException if any update did not update exactly one row,
+	 *             which indicates the row did not contain the expected old
+	 *             values
+	 */
+	void executeBatches() throws SQLException {
+		try {
+			for (Map.Entry<PreparedStatement, Integer> mapEntry : pendingBatches.entrySet()) {
+				int[] updateCounts = mapEntry.getKey().executeBatch();
+				for (int updateCount : updateCounts) {
+					if (updateCount != 1 && updateCount != Statement.SUCCESS_NO_INFO) {
+						throw new RuntimeException("Update failed.  Row with expected data was not found.");
+					}
+				}
+			}
+		} finally {
+			/*
+			 * If a batch failed then the batches after it were not executed.
+			 * These must not be left in their statements, otherwise they
+			 * would be executed with the next batch.
+			 */
+			discardBatches();
+		}
+	}
+
+	/**
+	 * Discards any pending batches without executing them.
+	 */
+	void discardBatches() {
+		for (PreparedStatement statement : statements.values()) {
+			try {
+				statement.clearBatch();
+			} catch (SQLException e) {
+				// Ignore, the statement cannot then be used anyway.
+			}
+		}
+		pendingBatches.clear();
+		pendingRows.clear();
+	}
+
+	/**
+	 * Discards any pending batches and closes all the cached statements. This
+	 * must be called if the connection is closed or replaced.
+	 */
+	void clear() {
+		for (PreparedStatement statement : statements.values()) {
+			try {
+				statement.close();
+			} catch (SQLException e) {
+				// Ignore, the connection has probably gone anyway.
+			}
+		}
+		statements.clear();
+		pendingBatches.clear();
+		pendingRows.clear();
+	}
+}
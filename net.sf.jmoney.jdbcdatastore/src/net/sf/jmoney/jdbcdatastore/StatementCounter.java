@@ -0,0 +1,105 @@
+/*
+*
+*  JMoney - A Personal Finance Manager
+*  Copyright (c) 2004 Nigel Westbury <westbury@users.sourceforge.net>
+*
+*
+*  This program is free software; you can redistribute it and/or modify
+*  it under the terms of the GNU General Public License as published by
+*  the Free Software Foundation; either version 2 of the License, or
+*  (at your option) any later version.
+*
+*  This program is distributed in the hope that it will be useful,
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*  GNU General Public License for more details.
+*
+*  You should have received a copy of the GNU General Public License
+*  along with this program; if not, write to the Free Software
+*  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+*
+*/
+
+
+package net.sf.jmoney.jdbcdatastore;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts the statements executed against the database.
+ * <P>
+ * The connection is wrapped in a proxy which in turn wraps every statement
+ * created from the connection. Each call to one of the execute methods on a
+ * statement is counted. This gives the number of round trips made to the
+ * database, which is useful in tests that check that a particular operation
+ * does not issue a query for every object.
+ *
+ * @author Nigel Westbury
+ */
+class StatementCounter {
+
+	private AtomicLong count = new AtomicLong();
+
+	/**
+	 * @return the number of statements executed through connections wrapped
+	 *         by this counter
+	 */
+	long getCount() {
+		return count.get();
+	}
+
+	/**
+	 * Wraps a connection so that statements executed through it are counted.
+	 */
+	Connection wrap(final Connection connection) {
+		return (Connection)Proxy.newProxyInstance(
+				Connection.class.getClassLoader(),
+				new Class<?>[] { Connection.class },
+				new InvocationHandler() {
+					@Override
+					public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+						Object result = invokeUnwrapped(connection, method, args);
+						if (result instanceof CallableStatement) {
+							return wrapStatement((Statement)result, CallableStatement.class);
+						} else if (result instanceof PreparedStatement) {
+							return wrapStatement((Statement)result, PreparedStatement.class);
+						} else if (result instanceof Statement) {
+							return wrapStatement((Statement)result, Statement.class);
+						} else {
+							return result;
+						}
+					}
+				});
+	}
+
+	private Object wrapStatement(final Statement statement, Class<? extends Statement> statementInterface) {
+		return Proxy.newProxyInstance(
+				statementInterface.getClassLoader(),
+				new Class<?>[] { statementInterface },
+				new InvocationHandler() {
+					@Override
+					public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+						if (method.getName().startsWith("execute")) {
+							count.incrementAndGet();
+						}
+						return invokeUnwrapped(statement, method, args);
+					}
+				});
+	}
+
+	private static Object invokeUnwrapped(Object target, Method method, Object[] args) throws Throwable {
+		try {
+			return method.invoke(target, args);
+		} catch (InvocationTargetException e) {
+			throw e.getCause();
+		}
+	}
+}
@@ -22,15 +22,20 @@
 
 package net.sf.jmoney.oda.driver;
 
+import java.util.Date;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.Set;
 import java.util.Vector;
 
 import net.sf.jmoney.model2.Account;
 import net.sf.jmoney.model2.Commodity;
+import net.sf.jmoney.model2.CurrencyAccount;
 import net.sf.jmoney.model2.Entry;
 import net.sf.jmoney.model2.EntryInfo;
 import net.sf.jmoney.model2.ExtendableObject;
 import net.sf.jmoney.model2.ExtendablePropertySet;
+import net.sf.jmoney.model2.IEntryQueries;
 import net.sf.jmoney.model2.ScalarPropertyAccessor;
 import net.sf.jmoney.model2.TransactionInfo;
 
@@ -44,6 +49,13 @@ import org.eclipse.ui.IMemento;
  * 
  * Objects of this class fetch entry objects that belong to an account, where the
  * parent of the list property is a list of accounts.
+ * <P>
+ * The columns may be limited by 'column' child elements, each giving the name
+ * of a column to be included. If there are no such elements then all columns
+ * are included. The rows may be restricted to a range of transaction dates and
+ * a range of amounts. If the datastore implements <code>IEntryQueries</code>
+ * then these restrictions are passed on to the datastore and the entries are
+ * read from the datastore as the rows are fetched.
  * 
  * @author Nigel Westbury
  *
@@ -57,6 +69,15 @@ public class EntriesInAccountFetcher implements IFetcher {
 	
 	private IFetcher accountObjects;
 	
+	/*
+	 * The parameters giving the bounds of the restrictions, or null where
+	 * there is no bound.
+	 */
+	private Parameter_Date fromDateParameter = null;
+	private Parameter_Date toDateParameter = null;
+	private Parameter_Amount minimumAmountParameter = null;
+	private Parameter_Amount maximumAmountParameter = null;
+	
 	/**
 	 * 
 	 * @param memento
@@ -82,14 +103,31 @@ public class EntriesInAccountFetcher implements IFetcher {
 			throw new OdaException("error in query: entriesInAccount used, but the given list is not a list of accounts.");
 		}
 		
+		buildColumns();
 		
-/* Just include all properties for time being		
-		for (IMemento childMemento: memento.getChildren("column")) {
-			String id = childMemento.getString("name");
-			ScalarPropertyAccessor property = parentPropertySet.getScalarProperty(id);
-			columnProperties.add(property);
+		/*
+		 * If columns are given then include only those columns.
+		 */
+		IMemento [] columnMementos = memento.getChildren("column");
+		if (columnMementos.length != 0) {
+			Set<String> columnNames = new HashSet<String>();
+			for (IMemento columnMemento: columnMementos) {
+				columnNames.add(columnMemento.getString("name"));
+			}
+			Vector<Column> selectedColumns = new Vector<Column>();
+			for (Column column: columns) {
+				if (columnNames.remove(column.getName())) {
+					selectedColumns.add(column);
+				}
+			}
+			if (!columnNames.isEmpty()) {
+				throw new OdaException("error in query: entriesInAccount has no column " + columnNames.iterator().next() + ".");
+			}
+			columns = selectedColumns;
 		}
-*/
+	}
+	
+	private void buildColumns() {
 		for (final ScalarPropertyAccessor<?,?> property: EntryInfo.getPropertySet().getScalarProperties3()) {
 			columns.add(new Column(property.getName(), property.getDisplayName(), property.getClassOfValueObject(), property.isNullAllowed()) {
 				@Override
@@ -157,38 +195,107 @@ public class EntriesInAccountFetcher implements IFetcher {
 			if (!isAnother) {
 				return false;
 			}
-			iterator = ((Account)accountObjects.getCurrentObject()).getEntries().iterator();
+			iterator = getEntries((Account)accountObjects.getCurrentObject());
 		}
 		
 		/*
 		 * The assumption is that the caller of this method
-		 * will get all the objects at once on the SWT thread,
+		 * will get all the objects on the SWT thread,
 		 * thus solving the problem of the need for us to
 		 * take a snapshot copy to protect us from concurrent
 		 * modifications.
 		 * 
-		 * If that is not the case (perhaps a large report will
-		 * fetch data as the user scrolls down) then we would need
-		 * to take a copy.  We would also have to listen for changes
-		 * so that we can update this copy (necessary because if an
-		 * object is deleted from the model, we cannot get rely on
-		 * getting properties from that object even if we kept a reference
-		 * to the object).
+		 * The entries are not all read up front.  If the datastore
+		 * implements IEntryQueries then they are read from the
+		 * datastore a page at a time as the rows are fetched,
+		 * so a report that stops after a maximum number of rows
+		 * does not cause all the entries to be read.
 		 */
 		do {
-			if (iterator.hasNext()) {
+			while (iterator.hasNext()) {
 				currentObject = iterator.next();
-				return true;
+				if (matches((Entry)currentObject)) {
+					return true;
+				}
 			}
 			boolean isAnother = accountObjects.next();
 			if (!isAnother) {
 				break;
 			}
-			iterator = ((Account)accountObjects.getCurrentObject()).getEntries().iterator();
+			iterator = getEntries((Account)accountObjects.getCurrentObject());
 		} while (true);
 		return false;
 	}
 
+	/**
+	 * Gets the entries in the given account. The restrictions are passed on
+	 * to the datastore if the datastore supports it. The amount restrictions
+	 * are passed on only for currency accounts, because only then are all
+	 * the amounts in the same commodity. The entries returned may still
+	 * include entries outside the restrictions, so the caller must check each
+	 * entry using <code>matches</code>.
+	 */
+	private Iterator<Entry> getEntries(Account account) {
+		IEntryQueries queries = (IEntryQueries)account.getSession().getAdapter(IEntryQueries.class);
+		if (queries == null) {
+			return account.getEntries().iterator();
+		}
+
+		Long minimumAmount = null;
+		Long maximumAmount = null;
+		if (account instanceof CurrencyAccount) {
+			Commodity currency = ((CurrencyAccount)account).getCurrency();
+			if (minimumAmountParameter != null) {
+				minimumAmount = toLong(minimumAmountParameter.getValue(), currency);
+			}
+			if (maximumAmountParameter != null) {
+				maximumAmount = toLong(maximumAmountParameter.getValue(), currency);
+			}
+		}
+
+		return queries.getEntries(account,
+				fromDateParameter == null ? null : fromDateParameter.getValue(),
+				toDateParameter == null ? null : toDateParameter.getValue(),
+				minimumAmount, maximumAmount);
+	}
+
+	private static Long toLong(Double amount, Commodity commodity) {
+		return amount == null ? null : Math.round(amount * commodity.getScaleFactor());
+	}
+
+	/**
+	 * @return true if the entry is within all the restrictions, false
+	 *         otherwise
+	 */
+	private boolean matches(Entry entry) {
+		if (fromDateParameter != null || toDateParameter != null) {
+			Date date = entry.getTransaction().getDate();
+			if (date == null) {
+				return false;
+			}
+			if (fromDateParameter != null && fromDateParameter.getValue() != null
+					&& date.before(fromDateParameter.getValue())) {
+				return false;
+			}
+			if (toDateParameter != null && toDateParameter.getValue() != null
+					&& date.after(toDateParameter.getValue())) {
+				return false;
+			}
+		}
+		if (minimumAmountParameter != null || maximumAmountParameter != null) {
+			Commodity commodity = entry.getCommodityInternal();
+			if (minimumAmountParameter != null && minimumAmountParameter.getValue() != null
+					&& entry.getAmount() < toLong(minimumAmountParameter.getValue(), commodity)) {
+				return false;
+			}
+			if (maximumAmountParameter != null && maximumAmountParameter.getValue() != null
+					&& entry.getAmount() > toLong(maximumAmountParameter.getValue(), commodity)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
 	public ExtendableObject getCurrentObject() {
 		return currentObject;
 	}
@@ -202,13 +309,36 @@ public class EntriesInAccountFetcher implements IFetcher {
 	}
 
 	public void buildParameterList(Vector<Parameter> parameters) {
-		/*
-		 * This object does not directly use any parameters, but the account
-		 * fetcher used by this object might.
-		 */
+		for (Parameter parameter : new Parameter [] { fromDateParameter, toDateParameter, minimumAmountParameter, maximumAmountParameter }) {
+			if (parameter != null) {
+				parameters.add(parameter);
+			}
+		}
+
+		// The account fetcher used by this object may also use parameters.
 		accountObjects.buildParameterList(parameters);
 	}
 
+	public void addRestriction(String columnName, String fromParameterName, String toParameterName) throws OdaException {
+		if (columnName.equals(TransactionInfo.getDateAccessor().getName())) {
+			if (fromParameterName != null) {
+				fromDateParameter = new Parameter_Date(fromParameterName);
+			}
+			if (toParameterName != null) {
+				toDateParameter = new Parameter_Date(toParameterName);
+			}
+		} else if (columnName.equals(EntryInfo.getAmountAccessor().getName())) {
+			if (fromParameterName != null) {
+				minimumAmountParameter = new Parameter_Amount(fromParameterName);
+			}
+			if (toParameterName != null) {
+				maximumAmountParameter = new Parameter_Amount(toParameterName);
+			}
+		} else {
+			throw new OdaException("error in query: entriesInAccount can be restricted only by transaction date or amount, not by " + columnName + ".");
+		}
+	}
+
 	public ExtendablePropertySet getPropertySet() {
 		return EntryInfo.getPropertySet();
 	}
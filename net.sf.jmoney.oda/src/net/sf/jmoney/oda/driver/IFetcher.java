@@ -27,6 +27,8 @@ import java.util.Vector;
 import net.sf.jmoney.model2.ExtendableObject;
 import net.sf.jmoney.model2.ExtendablePropertySet;
 
+import org.eclipse.datatools.connectivity.oda.OdaException;
+
 public interface IFetcher {
 
 	/**
@@ -70,6 +72,27 @@ public interface IFetcher {
 	 * @param parameters
 	 */
 	void buildParameterList(Vector<Parameter> parameters);
+
+	/**
+	 * Restricts the rows to those in which the value in the given column is
+	 * within a range. The bounds of the range are given by report parameters,
+	 * which are created by the fetcher and included in the parameters added by
+	 * <code>buildParameterList</code>.
+	 * <P>
+	 * The restriction is applied by the fetcher, and passed on to the
+	 * datastore where the datastore supports it, so rows outside the range
+	 * are not read from the datastore. This must be called before
+	 * <code>buildParameterList</code>.
+	 * 
+	 * @param columnName the name of the column
+	 * @param fromParameterName the name of the parameter that gives the lowest
+	 *            value, inclusive, or null if there is no lower bound
+	 * @param toParameterName the name of the parameter that gives the highest
+	 *            value, inclusive, or null if there is no upper bound
+	 * @throws OdaException if this fetcher cannot restrict its rows by the
+	 *             given column
+	 */
+	void addRestriction(String columnName, String fromParameterName, String toParameterName) throws OdaException;
 	
 	/**
 	 * Gets the property set for the type of objects that are returned in this
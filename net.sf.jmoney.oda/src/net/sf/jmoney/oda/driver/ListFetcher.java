@@ -265,4 +265,8 @@ public class ListFetcher implements IFetcher {
 		// but the fetcher used by this object might.
 		parentObjects.buildParameterList(parameters);
 	}
+
+	public void addRestriction(String columnName, String fromParameterName, String toParameterName) throws OdaException {
+		throw new OdaException("error in query: a list property cannot be restricted by column " + columnName + ".");
+	}
 }
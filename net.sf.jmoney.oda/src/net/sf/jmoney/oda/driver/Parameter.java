@@ -51,4 +51,8 @@ abstract class Parameter {
 		throw new OdaException("String values not supported for parameter " + name);
 	}
 	
+	public void setDouble(double value) throws OdaException {
+		throw new OdaException("Numeric values not supported for parameter " + name);
+	}
+	
 }
\ No newline at end of file
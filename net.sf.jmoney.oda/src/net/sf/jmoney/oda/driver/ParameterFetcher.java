@@ -118,4 +118,8 @@ public class ParameterFetcher implements IFetcher {
 	public void buildParameterList(Vector<Parameter> parameters) {
 		parameters.add(parameterData);
 	}
+
+	public void addRestriction(String columnName, String fromParameterName, String toParameterName) throws OdaException {
+		throw new OdaException("error in query: a parameter cannot be restricted by column " + columnName + ".");
+	}
 }
@@ -115,7 +115,25 @@ public class Query implements IQuery
 			throw new OdaException(Messages.getString("query.commandIsEmpty")); //$NON-NLS-1$
 		}
 
-		fetcher = parseQueryText(queryText);
+		Reader reader = new StringReader(queryText);
+		IMemento memento;
+		try {
+			memento = XMLMemento.createReadRoot(reader);
+		} catch (WorkbenchException e) {
+			/*
+			 * As we don't know the likely causes of this, pass on the
+			 * exception.
+			 */
+			throw new OdaException(e);
+		}
+
+		fetcher = parseQueryText(memento);
+		
+		/*
+		 * Restrictions must be added before the parameter meta data is
+		 * built because the restrictions add parameters.
+		 */
+		addRestrictions(memento);
 		
 		resultSetMetaData = new ResultSetMetaData(fetcher);
 		parameterMetaData = new ParameterMetaData(fetcher);
@@ -130,19 +148,7 @@ public class Query implements IQuery
 		}
 	}
 
-	private IFetcher parseQueryText(String queryText) throws OdaException {
-        Reader reader = new StringReader(queryText);
-		IMemento memento;
-        try {
-			memento = XMLMemento.createReadRoot(reader);
-		} catch (WorkbenchException e) {
-			/*
-			 * As we don't know the likely causes of this, pass on the
-			 * exception.
-			 */
-			throw new OdaException(e);
-		}
-		
+	private IFetcher parseQueryText(IMemento memento) throws OdaException {
 		IMemento tableMemento;
 		
 		tableMemento = memento.getChild("listProperty");
@@ -166,6 +172,29 @@ public class Query implements IQuery
 		return new SessionFetcher();
 	}
 	
+	/**
+	 * Passes on to the fetcher the restrictions in the query text. Each
+	 * restriction is a 'restriction' element with a 'column' attribute and
+	 * optional 'from' and 'to' attributes that give the names of the
+	 * parameters containing the bounds. For example:
+	 * 
+	 * <pre>
+	 * &lt;restriction column="net.sf.jmoney.transaction.date" from="StartDate" to="EndDate"/&gt;
+	 * </pre>
+	 * 
+	 * The fetcher passes the restrictions on to the datastore where it can,
+	 * which is much faster than having the report engine filter the rows.
+	 */
+	private void addRestrictions(IMemento memento) throws OdaException {
+		for (IMemento restrictionMemento : memento.getChildren("restriction")) {
+			String columnName = restrictionMemento.getString("column");
+			if (columnName == null) {
+				throw new OdaException("error in query: restriction with no column.");
+			}
+			fetcher.addRestriction(columnName, restrictionMemento.getString("from"), restrictionMemento.getString("to"));
+		}
+	}
+
 	/*
 	 * @see org.eclipse.datatools.connectivity.oda.IQuery#setAppContext(java.lang.Object)
 	 */
@@ -232,7 +261,9 @@ public class Query implements IQuery
 		 * we cannot re-use the IFetcher objects.
 		 */
 		fetcher.reset();
-		return new ResultSet(fetcher, resultSetMetaData);
+		ResultSet resultSet = new ResultSet(fetcher, resultSetMetaData);
+		resultSet.setMaxRows(maxRows);
+		return resultSet;
 	}
 
 	/*
@@ -241,7 +272,7 @@ public class Query implements IQuery
 	 */
 	public void setInt(String parameterName, int value) throws OdaException
 	{
-        int parameterIndex = findInParameter(parameterName) - 1;
+        int parameterIndex = findInParameter(parameterName);
         setInt(parameterIndex, value);
 	}
 
@@ -260,7 +291,7 @@ public class Query implements IQuery
 	public void setDouble(String parameterName, double value)
 			throws OdaException
 	{
-        int parameterIndex = findInParameter(parameterName) - 1;
+        int parameterIndex = findInParameter(parameterName);
         setDouble(parameterIndex, value);
 	}
 
@@ -269,7 +300,8 @@ public class Query implements IQuery
 	 */
 	public void setDouble(int parameterId, double value) throws OdaException
 	{
-		throw new UnsupportedOperationException( );
+		Parameter paramData = parameterMetaData.parameters.get(parameterId - 1);
+		paramData.setDouble(value);
 	}
 
 	/*
@@ -279,7 +311,7 @@ public class Query implements IQuery
 	public void setBigDecimal(String parameterName, BigDecimal value)
 			throws OdaException
 	{
-        int parameterIndex = findInParameter(parameterName) - 1;
+        int parameterIndex = findInParameter(parameterName);
         setBigDecimal(parameterIndex, value);
 	}
 
@@ -290,7 +322,7 @@ public class Query implements IQuery
 	public void setBigDecimal(int parameterId, BigDecimal value)
 			throws OdaException
 	{
-		throw new UnsupportedOperationException();
+		setDouble(parameterId, value.doubleValue());
 	}
 
 	/*
@@ -300,7 +332,7 @@ public class Query implements IQuery
 	public void setString(String parameterName, String value)
 			throws OdaException
 	{
-        int parameterIndex = findInParameter(parameterName) - 1;
+        int parameterIndex = findInParameter(parameterName);
         setString(parameterIndex, value);
 	}
 
@@ -320,7 +352,7 @@ public class Query implements IQuery
 	 */
 	public void setDate(String parameterName, Date value) throws OdaException
 	{
-        int parameterIndex = findInParameter(parameterName) - 1;
+        int parameterIndex = findInParameter(parameterName);
         setDate(parameterIndex, value);
 	}
 
@@ -373,7 +405,7 @@ public class Query implements IQuery
 	}
 
 	public void setBoolean(String parameterName, boolean value) throws OdaException {
-        int parameterIndex = findInParameter(parameterName) - 1;
+        int parameterIndex = findInParameter(parameterName);
         setBoolean(parameterIndex, value);
 	}
 
@@ -382,7 +414,7 @@ public class Query implements IQuery
 	}
 
 	public void setNull(String parameterName) throws OdaException {
-        int parameterIndex = findInParameter(parameterName) - 1;
+        int parameterIndex = findInParameter(parameterName);
         setNull(parameterIndex);
 	}
 
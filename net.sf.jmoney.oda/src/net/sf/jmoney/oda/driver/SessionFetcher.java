@@ -30,6 +30,8 @@ import net.sf.jmoney.model2.ExtendablePropertySet;
 import net.sf.jmoney.model2.ScalarPropertyAccessor;
 import net.sf.jmoney.model2.SessionInfo;
 
+import org.eclipse.datatools.connectivity.oda.OdaException;
+
 /**
  * This class implements a fetcher that fetches the session
  * object.  There is only a single session object, and it is
@@ -87,4 +89,8 @@ public class SessionFetcher implements IFetcher {
 	public void buildParameterList(Vector<Parameter> parameters) {
 		// This object does not use any parameters
 	}
+
+	public void addRestriction(String columnName, String fromParameterName, String toParameterName) throws OdaException {
+		throw new OdaException("error in query: the session cannot be restricted by column " + columnName + ".");
+	}
 }
@@ -47,6 +47,7 @@ import org.eclipse.ui.IWorkbenchWindow;
 
 import net.sf.jmoney.fields.IAmountFormatter;
 import net.sf.jmoney.importer.MatchingEntryFinder;
+import net.sf.jmoney.importer.MatchingEntryIndex;
 import net.sf.jmoney.importer.matcher.EntryData;
 import net.sf.jmoney.importer.matcher.ImportEntryProperty;
 import net.sf.jmoney.importer.matcher.ImportMatcher;
@@ -68,7 +69,7 @@ import net.sf.jmoney.model2.Session.SeveralAccountsFoundException;
 import net.sf.jmoney.model2.Transaction;
 import net.sf.jmoney.model2.TransactionManagerForAccounts;
 import net.sf.jmoney.ofx.model.OfxEntryInfo;
-import net.sf.jmoney.ofx.parser.SimpleDOMParser;
+import net.sf.jmoney.ofx.parser.OfxReader;
 import net.sf.jmoney.ofx.parser.SimpleElement;
 import net.sf.jmoney.ofx.parser.TagNotFoundException;
 import net.sf.jmoney.stocks.model.SecurityInfo;
@@ -118,46 +119,70 @@ public class OfxImporter {
 
 			buffer = new BufferedReader(new FileReader(file));
 
-			SimpleDOMParser parser = new SimpleDOMParser();
-			SimpleElement rootElement = null;
-			rootElement = parser.parse(buffer);
-
-//			FileWriter fw = new FileWriter(new File("c:\\xml.xml"));
-//			String xml = rootElement.toXMLString(0);
-//			fw.append(xml);
-//			fw.close();
+			/*
+			 * The file is read as a stream of elements, with only each
+			 * transaction being read into a tree, so the file is never held
+			 * in memory as a whole.  Each transaction is matched and imported
+			 * as soon as it is read.  The memory used still grows with the
+			 * number of transactions, because the imported entries are kept
+			 * for the pattern matching dialog and all the changes are held
+			 * in the one transaction manager until the import is committed.
+			 */
+			OfxReader reader = new OfxReader(buffer);
 
 			Session session = transactionManager.getSession();
 
 			Session sessionOutsideTransaction = sessionManager.getSession();
 
-			SimpleElement statementResultElement = rootElement.getDescendant("BANKMSGSRSV1", "STMTTRNRS", "STMTRS");
-			if (statementResultElement != null) {
-				boolean doImport = importBankStatement(transactionManager, rootElement, session,
-						sessionOutsideTransaction, statementResultElement, false);
-				if (!doImport) {
-					return false;
-				}
-			} else {
-				statementResultElement = rootElement.getDescendant("CREDITCARDMSGSRSV1", "CCSTMTTRNRS", "CCSTMTRS");
-				if (statementResultElement != null) {
-					boolean doImport = importBankStatement(transactionManager, rootElement, session,
-							sessionOutsideTransaction, statementResultElement, true);
-					if (!doImport) {
-						return false;
+			boolean bankStatementImported = false;
+			boolean stockStatementFound = false;
+			SimpleElement secListElement = null;
+			int event;
+			while (!bankStatementImported && (event = reader.next()) != OfxReader.END_DOCUMENT) {
+				if (event == OfxReader.START_ELEMENT) {
+					String tagName = reader.getTagName();
+					if (tagName.equals("STMTRS") || tagName.equals("CCSTMTRS")) {
+						boolean doImport = importBankStatement(transactionManager, reader, session,
+								sessionOutsideTransaction, tagName.equals("CCSTMTRS"));
+						if (!doImport) {
+							return false;
+						}
+						bankStatementImported = true;
+					} else if (tagName.equals("INVSTMTRS")) {
+						stockStatementFound = true;
+						reader.skipElement();
+					} else if (tagName.equals("SECLIST")) {
+						secListElement = reader.readElement();
 					}
+				}
+			}
+
+			if (!bankStatementImported) {
+				if (stockStatementFound) {
+					/*
+					 * The securities list comes after the statement in the
+					 * file, but we need the securities before we import the
+					 * stock transactions.  The securities list has been read
+					 * so now read the file a second time to import the
+					 * transactions.
+					 */
+					buffer.close();
+					buffer = new BufferedReader(new FileReader(file));
+					reader = new OfxReader(buffer);
+
+					do {
+						event = reader.next();
+					} while (event != OfxReader.END_DOCUMENT
+							&& !(event == OfxReader.START_ELEMENT && reader.getTagName().equals("INVSTMTRS")));
+
+					importStockStatement(transactionManager, reader, secListElement, session,
+							sessionOutsideTransaction);
 				} else {
-					statementResultElement = rootElement.getDescendant("INVSTMTMSGSRSV1", "INVSTMTTRNRS", "INVSTMTRS");
-					if (statementResultElement != null) {
-						importStockStatement(transactionManager, rootElement, session,
-								sessionOutsideTransaction, statementResultElement);
-					} else {
-						MessageDialog.openWarning(window.getShell(), "OFX file not imported",
-								MessageFormat.format(
-										"{0} did not contain expected nodes for either a bank or a stock account.",
-										file.getName()));
-						return false;
-					}
+					MessageDialog.openWarning(window.getShell(), "OFX file not imported",
+							MessageFormat.format(
+									"{0} did not contain expected nodes for either a bank or a stock account.",
+									file.getName()));
+					return false;
 				}
 			}
 
@@ -202,24 +227,48 @@ public class OfxImporter {
 	/**
 	 *
 	 * @param transactionManager
-	 * @param rootElement
+	 * @param reader the reader, positioned at the start of the STMTRS or
+	 *            CCSTMTRS element
 	 * @param session
 	 * @param sessionOutsideTransaction
-	 * @param statementResultElement
 	 * @param isCreditCard
 	 * @return true if all the entries were imported, false if entries were not imported
 	 * @throws TagNotFoundException
+	 * @throws IOException
 	 */
 	// TODO change first parameter to be IDataManagerForAccounts and quit all this in and out
 	// of transaction stuff.
 	private boolean importBankStatement(TransactionManagerForAccounts transactionManager,
-			SimpleElement rootElement, Session session,
+			OfxReader reader, Session session,
 			Session sessionOutsideTransaction,
-			SimpleElement statementResultElement,
-			boolean isCreditCard) throws TagNotFoundException {
+			boolean isCreditCard) throws TagNotFoundException, IOException {
+
+		String statementTagName = reader.getTagName();
+		String accountFromTagName = isCreditCard ? "CCACCTFROM" : "BANKACCTFROM";
+
+		/*
+		 * Read up to the start of the transaction list.  The currency and
+		 * account come before the transaction list.
+		 */
+		String currencyCode = null;
+		SimpleElement accountFromElement = null;
+		boolean transListFound = false;
+		while (!transListFound && reader.next() == OfxReader.START_ELEMENT) {
+			if (reader.getTagName().equals("CURDEF")) {
+				currencyCode = reader.getText();
+				reader.skipElement();
+			} else if (reader.getTagName().equals(accountFromTagName)) {
+				accountFromElement = reader.readElement();
+			} else if (reader.getTagName().equals("BANKTRANLIST")) {
+				transListFound = true;
+			} else {
+				reader.skipElement();
+			}
+		}
 
-		SimpleElement accountFromElement =
-				statementResultElement.getDescendant(isCreditCard ? "CCACCTFROM" : "BANKACCTFROM");
+		if (accountFromElement == null) {
+			throw new TagNotFoundException(statementTagName, accountFromTagName);
+		}
 		String accountNumber = accountFromElement.getString("ACCTID");
 
 		BankAccount account = null;
@@ -247,9 +296,7 @@ public class OfxImporter {
 		 * that the currency matches the currency configured in JMoney for
 		 * the account.
 		 */
-		SimpleElement currencyElement = rootElement.findElement("CURDEF");
-		if (currencyElement != null) {
-			String currencyCode = currencyElement.getTrimmedText();
+		if (currencyCode != null) {
 			if (!account.getCurrency().getCode().equals(currencyCode)) {
 				MessageDialog.openError(
 						window.getShell(),
@@ -276,11 +323,17 @@ public class OfxImporter {
 			}
 		}
 
-		SimpleElement transListElement = statementResultElement.getDescendant("BANKTRANLIST");
+		/*
+		 * Index the entries by amount and date so that each imported
+		 * transaction does not have to look at every entry in the account
+		 * when looking for a match.
+		 */
+		MatchingEntryIndex matchingEntryIndex = new MatchingEntryIndex(accountOutsideTransaction);
 
 		Collection<OfxEntryData> importedEntries = new ArrayList<OfxEntryData>();
 
-		for (SimpleElement transactionElement : transListElement.getChildElements()) {
+		while (transListFound && reader.next() == OfxReader.START_ELEMENT) {
+			SimpleElement transactionElement = reader.readElement();
 			if (transactionElement.getTagName().equals("DTSTART")) {
 				// ignore
 			} else if (transactionElement.getTagName().equals("DTEND")) {
@@ -416,7 +469,7 @@ public class OfxImporter {
 				 * transaction at all. We just update a few properties in the
 				 * existing entry.
 				 */
-				Entry match = matchFinder.findMatch(accountOutsideTransaction, amount, transactionDate);
+				Entry match = matchFinder.findMatch(matchingEntryIndex, amount, transactionDate);
 				if (match != null) {
 					Entry entryInTrans = transactionManager.getCopyInTransaction(match);
 					entryInTrans.setValuta(postedDate);
@@ -477,11 +530,38 @@ public class OfxImporter {
 		}
 	}
 
+	/**
+	 * @param reader the reader, positioned at the start of the INVSTMTRS
+	 *            element
+	 * @param secList the SECLIST element, or null if the file does not
+	 *            contain a list of securities
+	 */
 	private void importStockStatement(TransactionManager transactionManager,
-			SimpleElement rootElement, Session session,
-			Session sessionOutsideTransaction,
-			SimpleElement statementResultElement) throws TagNotFoundException {
-		SimpleElement accountFromElement = statementResultElement.getDescendant("INVACCTFROM");
+			OfxReader reader, SimpleElement secList, Session session,
+			Session sessionOutsideTransaction) throws TagNotFoundException, IOException {
+		/*
+		 * Read up to the start of the transaction list.  The currency and
+		 * account come before the transaction list.
+		 */
+		String currencyCode = null;
+		SimpleElement accountFromElement = null;
+		boolean transListFound = false;
+		while (!transListFound && reader.next() == OfxReader.START_ELEMENT) {
+			if (reader.getTagName().equals("CURDEF")) {
+				currencyCode = reader.getText();
+				reader.skipElement();
+			} else if (reader.getTagName().equals("INVACCTFROM")) {
+				accountFromElement = reader.readElement();
+			} else if (reader.getTagName().equals("INVTRANLIST")) {
+				transListFound = true;
+			} else {
+				reader.skipElement();
+			}
+		}
+
+		if (accountFromElement == null) {
+			throw new TagNotFoundException("INVSTMTRS", "INVACCTFROM");
+		}
 		String accountNumber = accountFromElement.getString("ACCTID");
 
 		StockAccount account = null;
@@ -519,9 +599,7 @@ public class OfxImporter {
 		 * that the currency matches the currency configured in JMoney for
 		 * the account.
 		 */
-		SimpleElement currencyElement = rootElement.findElement("CURDEF");
-		if (currencyElement != null) {
-			String currencyCode = currencyElement.getTrimmedText();
+		if (currencyCode != null) {
 			if (!account.getCurrency().getCode().equals(currencyCode)) {
 				MessageDialog.openError(
 						window.getShell(),
@@ -579,30 +657,31 @@ public class OfxImporter {
 		 * stock name and ticker when we import the transactions.  Hence, to save a second pass
 		 * through the transactions, we import the securities first.
 		 */
-		SimpleElement secList = rootElement.getDescendant("SECLISTMSGSRSV1", "SECLIST");
-		for (SimpleElement securityElement : secList.getChildElements()) {
-			if (securityElement.getTagName().equals("STOCKINFO")
-					|| securityElement.getTagName().equals("MFINFO")) {
-				SimpleElement secInfoElement = securityElement.findElement("SECINFO");
-				SimpleElement secIdElement = securityElement.findElement("SECID");
+		if (secList != null) {
+			for (SimpleElement securityElement : secList.getChildElements()) {
+				if (securityElement.getTagName().equals("STOCKINFO")
+						|| securityElement.getTagName().equals("MFINFO")) {
+					SimpleElement secInfoElement = securityElement.findElement("SECINFO");
+					SimpleElement secIdElement = securityElement.findElement("SECID");
 
-				String name = toTitleCase(secInfoElement.getString("SECNAME"));
-				String symbol = secInfoElement.getString("TICKER");
+					String name = toTitleCase(secInfoElement.getString("SECNAME"));
+					String symbol = secInfoElement.getString("TICKER");
 
-				Stock stock = findStock(session, secIdElement);
+					Stock stock = findStock(session, secIdElement);
 
-				String defaultName = secIdElement.getString("UNIQUEIDTYPE") + ": " + secIdElement.getString("UNIQUEID");
-				if (stock.getName().equals(defaultName)) {
-					stock.setName(name);
-				}
+					String defaultName = secIdElement.getString("UNIQUEIDTYPE") + ": " + secIdElement.getString("UNIQUEID");
+					if (stock.getName().equals(defaultName)) {
+						stock.setName(name);
+					}
 
-				if (stock.getSymbol() == null) {
-					stock.setSymbol(symbol);
+					if (stock.getSymbol() == null) {
+						stock.setSymbol(symbol);
+					}
+				} else {
+					System.out.println("unknown element in SECLIST");
+					String elementXml = securityElement.toXMLString(0);
+					System.out.println(elementXml);
 				}
-			} else {
-				System.out.println("unknown element in SECLIST");
-				String elementXml = securityElement.toXMLString(0);
-				System.out.println(elementXml);
 			}
 		}
 
@@ -617,11 +696,17 @@ public class OfxImporter {
 			}
 		}
 
-		SimpleElement transListElement = statementResultElement.getDescendant("INVTRANLIST");
+		/*
+		 * Index the entries by amount and date so that each imported
+		 * transaction does not have to look at every entry in the account
+		 * when looking for a match.
+		 */
+		MatchingEntryIndex matchingEntryIndex = new MatchingEntryIndex(accountOutsideTransaction);
 
 		ImportMatcher matcher = new ImportMatcher(account.getExtension(PatternMatcherAccountInfo.getPropertySet(), true), getImportEntryProperties(), getApplicableTransactionTypes(), null);
 
-		for (SimpleElement transactionElement : transListElement.getChildElements()) {
+		while (transListFound && reader.next() == OfxReader.START_ELEMENT) {
+			SimpleElement transactionElement = reader.readElement();
 			if (transactionElement.getTagName().equals("DTSTART")) {
 				// ignore
 			} else if (transactionElement.getTagName().equals("DTEND")) {
@@ -681,7 +766,7 @@ public class OfxImporter {
 					}
 				};
 
-				Entry matchedEntryOutsideTransaction = matchFinder.findMatch(accountOutsideTransaction, amount, postedDate);
+				Entry matchedEntryOutsideTransaction = matchFinder.findMatch(matchingEntryIndex, amount, postedDate);
 				if (matchedEntryOutsideTransaction != null) {
 					Entry matchedEntry = transactionManager.getCopyInTransaction(matchedEntryOutsideTransaction);
 					matchedEntry.setValuta(postedDate);
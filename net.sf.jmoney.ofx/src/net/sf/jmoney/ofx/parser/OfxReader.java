@@ -0,0 +1,388 @@
+/*
+ *
+ *  JMoney - A Personal Finance Manager
+ *  Copyright (c) 2009 Nigel Westbury <westbury@users.sourceforge.net>
+ *
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ */
+
+package net.sf.jmoney.ofx.parser;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Stack;
+
+/**
+ * A pull parser for OFX files. This reads both OFX 1.x files, which are SGML
+ * and so have no close tags for elements that contain a value, and OFX 2.x
+ * files, which are XML.
+ * <P>
+ * The caller pulls one event at a time by calling {@link #next()}. Only the
+ * names of the open elements are kept, so the memory used does not depend on
+ * the size of the file. Where it is convenient to work with a small part of
+ * the file as a tree, such as a single STMTTRN element, the caller can read
+ * the current element and its descendants into a <code>SimpleElement</code>
+ * by calling {@link #readElement()}.
+ * <P>
+ * The usual pattern, when positioned at the start of an element, is:
+ * <pre>
+ * while (reader.next() == OfxReader.START_ELEMENT) {
+ *     // process the child element, consuming it completely
+ *     // by calling readElement or skipElement
+ * }
+ * </pre>
+ * Attributes are not used in OFX and are ignored.
+ */
+public class OfxReader {
+
+	/**
+	 * The start of an element. If the element contains a value then the
+	 * value is available from {@link OfxReader#getText()}.
+	 */
+	public static final int START_ELEMENT = 1;
+
+	public static final int END_ELEMENT = 2;
+
+	public static final int END_DOCUMENT = 3;
+
+	private static final String CDATA_START = "![CDATA[";
+
+	private Reader reader;
+
+	/**
+	 * The next character in the stream, or -1 if the end of the stream has
+	 * been reached.
+	 */
+	private int nextChar;
+
+	/**
+	 * The names of the elements that have been started but not ended.
+	 */
+	private Stack<String> openElements = new Stack<String>();
+
+	/**
+	 * The tag read when looking for the optional close tag of an element
+	 * that contains a value. If it was not the close tag then it is kept here
+	 * to be processed on the next call to <code>next</code>.
+	 */
+	private String pendingTag = null;
+
+	/**
+	 * Set when the current element has no content that is still to be read,
+	 * being an element that contains a value or an empty-element tag. The
+	 * next event will then be the end of this element.
+	 */
+	private boolean pendingEnd = false;
+
+	private String tagName;
+
+	private String text;
+
+	/**
+	 * Creates a reader positioned before the root element. Any headers,
+	 * such as the OFX 1.x header lines, the XML declaration, and the
+	 * processing instructions of OFX 2.x, are skipped.
+	 */
+	public OfxReader(Reader reader) throws IOException {
+		// mark and reset are used when looking for CDATA sections
+		this.reader = reader.markSupported() ? reader : new BufferedReader(reader);
+		read();
+
+		while (true) {
+			// Skip anything before the first tag
+			while (nextChar != -1 && nextChar != '<') {
+				read();
+			}
+
+			String tag = readTag();
+			if (tag == null) {
+				throw new IOException("No OFX elements found.");
+			}
+			if (!tag.startsWith("?") && !tag.startsWith("!")) {
+				pendingTag = tag;
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Moves to the next start or end of an element.
+	 *
+	 * @return START_ELEMENT, END_ELEMENT, or END_DOCUMENT
+	 * @throws IOException if the file cannot be read or the elements are
+	 *             not properly nested
+	 */
+	public int next() throws IOException {
+		text = null;
+
+		if (pendingEnd) {
+			pendingEnd = false;
+			tagName = openElements.pop();
+			return END_ELEMENT;
+		}
+
+		String tag;
+		do {
+			if (pendingTag != null) {
+				tag = pendingTag;
+				pendingTag = null;
+			} else {
+				skipWhitespace();
+				tag = readTag();
+			}
+			// Skip comments and processing instructions
+		} while (tag != null && (tag.startsWith("!") || tag.startsWith("?")));
+
+		if (tag == null) {
+			if (!openElements.isEmpty()) {
+				throw new IOException("End of file reached but '" + openElements.peek() + "' was not closed.");
+			}
+			tagName = null;
+			return END_DOCUMENT;
+		}
+
+		if (tag.startsWith("/")) {
+			tagName = tag.substring(1).trim();
+			if (openElements.isEmpty()) {
+				throw new IOException("Got close tag '" + tagName + "' without open tag.");
+			}
+			if (!tagName.equals(openElements.peek())) {
+				if (openElements.contains(tagName)) {
+					/*
+					 * An element that contained no value and had no close
+					 * tag, which SGML allows, so end it here and process the
+					 * close tag next time.
+					 */
+					pendingTag = tag;
+					tagName = openElements.pop();
+					return END_ELEMENT;
+				}
+				throw new IOException("Expected close tag for '" + openElements.peek() + "' but got '" + tagName + "'.");
+			}
+			openElements.pop();
+			return END_ELEMENT;
+		}
+
+		boolean isEmptyElementTag = tag.endsWith("/");
+		if (isEmptyElementTag) {
+			tag = tag.substring(0, tag.length() - 1);
+		}
+
+		// Ignore any attributes
+		int index = 0;
+		while (index < tag.length() && !Character.isWhitespace(tag.charAt(index))) {
+			index++;
+		}
+		tagName = tag.substring(0, index);
+		openElements.push(tagName);
+
+		if (isEmptyElementTag) {
+			pendingEnd = true;
+		} else {
+			String value = readText();
+			if (value.trim().length() != 0) {
+				/*
+				 * The element contains a value. In OFX 1.x there may or may
+				 * not be a close tag.
+				 */
+				text = value;
+				pendingEnd = true;
+
+				skipWhitespace();
+				String nextTag = readTag();
+				if (nextTag != null && !nextTag.equals("/" + tagName)) {
+					pendingTag = nextTag;
+				}
+			}
+		}
+
+		return START_ELEMENT;
+	}
+
+	/**
+	 * @return the name of the element started or ended by the last call to
+	 *         <code>next</code>
+	 */
+	public String getTagName() {
+		return tagName;
+	}
+
+	/**
+	 * @return the value contained in the element started by the last call to
+	 *         <code>next</code>, trimmed of whitespace, or null if the
+	 *         element does not contain a value
+	 */
+	public String getText() {
+		return text == null ? null : text.trim();
+	}
+
+	/**
+	 * Reads the element just started, and all its descendants, into a tree.
+	 * This must be called immediately after <code>next</code> has returned
+	 * START_ELEMENT. On return, the end of the element has been read.
+	 */
+	public SimpleElement readElement() throws IOException {
+		SimpleElement element = new SimpleElement(tagName);
+		element.setText(text);
+
+		while (next() == START_ELEMENT) {
+			element.addChildElement(readElement());
+		}
+
+		return element;
+	}
+
+	/**
+	 * Skips the element just started, and all its descendants. This must be
+	 * called immediately after <code>next</code> has returned START_ELEMENT.
+	 * On return, the end of the element has been read.
+	 */
+	public void skipElement() throws IOException {
+		int depth = 1;
+		while (depth != 0) {
+			switch (next()) {
+			case START_ELEMENT:
+				depth++;
+				break;
+			case END_ELEMENT:
+				depth--;
+				break;
+			default:
+				throw new IOException("End of file reached inside an element.");
+			}
+		}
+	}
+
+	private void read() throws IOException {
+		nextChar = reader.read();
+	}
+
+	private void skipWhitespace() throws IOException {
+		while (nextChar != -1 && Character.isWhitespace(nextChar)) {
+			read();
+		}
+	}
+
+	/**
+	 * Reads a tag, the stream being positioned at the '<'.
+	 *
+	 * @return the contents of the tag between the '<' and the '>', or null
+	 *         if the end of the stream has been reached
+	 * @throws IOException if the next character is not '<'
+	 */
+	private String readTag() throws IOException {
+		if (nextChar == -1) {
+			return null;
+		}
+		if (nextChar != '<') {
+			throw new IOException("Expected < but got " + (char)nextChar);
+		}
+		read();
+
+		StringBuffer sb = new StringBuffer();
+		while (nextChar != '>') {
+			if (nextChar == -1) {
+				throw new IOException("End of file reached inside a tag.");
+			}
+			sb.append((char)nextChar);
+			read();
+		}
+		read();
+
+		return sb.toString();
+	}
+
+	/**
+	 * Reads the text up to the next tag, replacing the predefined entities
+	 * and removing any CDATA delimiters.
+	 */
+	private String readText() throws IOException {
+		StringBuffer sb = new StringBuffer();
+		while (nextChar != -1) {
+			if (nextChar == '<') {
+				if (!readCData(sb)) {
+					break;
+				}
+			} else if (nextChar == '&') {
+				read();
+				StringBuffer entity = new StringBuffer();
+				while (nextChar != -1 && nextChar != ';' && entity.length() < 5
+						&& Character.isLetter(nextChar)) {
+					entity.append((char)nextChar);
+					read();
+				}
+				if (nextChar == ';' && replaceEntity(entity.toString(), sb)) {
+					read();
+				} else {
+					// Not an entity, so leave the text as it was
+					sb.append('&').append(entity);
+				}
+			} else {
+				sb.append((char)nextChar);
+				read();
+			}
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * If the stream, positioned at a '<', is at the start of a CDATA section
+	 * then the section is read and its contents appended to the given buffer.
+	 *
+	 * @return true if a CDATA section was read, false if the stream is at a
+	 *         tag, in which case the stream is not moved
+	 */
+	private boolean readCData(StringBuffer sb) throws IOException {
+		reader.mark(CDATA_START.length());
+		for (int i = 0; i < CDATA_START.length(); i++) {
+			if (reader.read() != CDATA_START.charAt(i)) {
+				reader.reset();
+				return false;
+			}
+		}
+
+		read();
+		while (nextChar != -1) {
+			sb.append((char)nextChar);
+			read();
+			int length = sb.length();
+			if (length >= 3 && sb.substring(length - 3).equals("]]>")) {
+				sb.setLength(length - 3);
+				break;
+			}
+		}
+		return true;
+	}
+
+	private static boolean replaceEntity(String entity, StringBuffer sb) {
+		if (entity.equals("amp")) {
+			sb.append('&');
+		} else if (entity.equals("lt")) {
+			sb.append('<');
+		} else if (entity.equals("gt")) {
+			sb.append('>');
+		} else if (entity.equals("quot")) {
+			sb.append('"');
+		} else if (entity.equals("apos")) {
+			sb.append('\'');
+		} else {
+			return false;
+		}
+		return true;
+	}
+}
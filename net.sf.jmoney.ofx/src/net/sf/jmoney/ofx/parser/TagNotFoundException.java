@@ -6,4 +6,8 @@ public class TagNotFoundException extends Exception {
 	public TagNotFoundException(SimpleElement parentElement, String tagName) {
 		super(tagName + " was not found but was expected in " + parentElement.getTagName());
 	}
+
+	public TagNotFoundException(String parentTagName, String tagName) {
+		super(tagName + " was not found but was expected in " + parentTagName);
+	}
 }
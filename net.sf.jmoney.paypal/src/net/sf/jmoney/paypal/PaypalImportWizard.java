@@ -29,8 +29,10 @@ import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
 import org.eclipse.jface.dialogs.IDialogSettings;
 import org.eclipse.jface.dialogs.MessageDialog;
@@ -42,6 +44,7 @@ import org.eclipse.ui.IWorkbenchWizard;
 
 import net.sf.jmoney.associations.AssociationMetadata;
 import net.sf.jmoney.importer.MatchingEntryFinder;
+import net.sf.jmoney.importer.MatchingEntryIndex;
 import net.sf.jmoney.importer.model.TransactionType;
 import net.sf.jmoney.importer.wizards.CsvImportToAccountWizard;
 import net.sf.jmoney.importer.wizards.CsvTransactionReader;
@@ -103,6 +106,14 @@ public class PaypalImportWizard extends CsvImportToAccountWizard implements IWor
 	
 	private Session session;
 
+	/**
+	 * Indexes of the entries in each charge account, used to find existing
+	 * entries matching the Paypal charges. Each index is built when first
+	 * needed and kept for the rest of the import so that matched entries
+	 * are not matched again.
+	 */
+	private Map<CapitalAccount, MatchingEntryIndex> matchingEntryIndexes = new HashMap<CapitalAccount, MatchingEntryIndex>();
+
 	public PaypalImportWizard() {
 		// TODO check these dialog settings are used by the base class
 		// so the default filename location is separate for each import type.
@@ -164,6 +175,8 @@ public class PaypalImportWizard extends CsvImportToAccountWizard implements IWor
 
 		currency = paypalAccount.getCurrency();
 
+		matchingEntryIndexes.clear();
+
 //		try {
 //			interestAccount = session.getAccountByShortName("Interest - Ameritrade");
 //		} catch (NoAccountFoundException e) {
@@ -751,7 +764,12 @@ public class PaypalImportWizard extends CsvImportToAccountWizard implements IWor
 					return isDateInRange(dateInImport, dateOfExistingTransaction, 2);
 			}
 		};
-		Entry matchedEntryInChargeAccount = matchFinder.findMatch(otherAccount, -column_grossAmount.getAmount(), column_date.getDate());
+		MatchingEntryIndex matchingEntryIndex = matchingEntryIndexes.get(otherAccount);
+		if (matchingEntryIndex == null) {
+			matchingEntryIndex = new MatchingEntryIndex(otherAccount);
+			matchingEntryIndexes.put(otherAccount, matchingEntryIndex);
+		}
+		Entry matchedEntryInChargeAccount = matchFinder.findMatch(matchingEntryIndex, -column_grossAmount.getAmount(), column_date.getDate());
 
 		/*
 		 * Create an entry for the amount charged to the charge account.
@@ -45,6 +45,11 @@ public class CommodityPricing extends CommodityExtension {
 	public IObjectKey currencyKey = null; 
 	
 	protected IListManager<Price> prices;
+
+	/**
+	 * The prices sorted by date, or null if not yet requested
+	 */
+	private PriceSeries priceSeries = null;
 	
 	/**
 	 * A default constructor is mandatory for all extension objects.
@@ -100,4 +105,16 @@ public class CommodityPricing extends CommodityExtension {
 	public ObjectCollection<Price> getPriceCollection() {
 		return new ObjectCollection<Price>(prices, getBaseObject(), CommodityPricingInfo.getPricesAccessor());
 	}
+
+	/**
+	 * Returns the prices of this commodity sorted by date. The series is
+	 * built the first time it is requested and is then kept up to date as
+	 * prices are added, changed, or removed.
+	 */
+	public PriceSeries getPriceSeries() {
+		if (priceSeries == null) {
+			priceSeries = new PriceSeries(getBaseObject(), this);
+		}
+		return priceSeries;
+	}
 }
@@ -0,0 +1,344 @@
+/*
+ *
+ *  JMoney - A Personal Finance Manager
+ *  Copyright (c) 2010 Nigel Westbury <westbury@users.sourceforge.net>
+ *
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ */
+
+package net.sf.jmoney.pricehistory;
+
+import java.util.Arrays;
+import java.util.Date;
+
+import net.sf.jmoney.isolation.IModelObject;
+import net.sf.jmoney.isolation.IScalarPropertyAccessor;
+import net.sf.jmoney.isolation.SessionChangeAdapter;
+import net.sf.jmoney.isolation.SessionChangeListener;
+import net.sf.jmoney.model2.Commodity;
+
+/**
+ * The prices of a commodity, sorted by date.
+ * <P>
+ * The dates and prices are held in primitive arrays so that lookups are a
+ * binary search and a run through a range of dates is a loop over the arrays,
+ * with no iteration over the <code>Price</code> objects. This matters when,
+ * for example, a portfolio of many securities is valued each day over many
+ * years.
+ * <P>
+ * An instance is obtained from {@link CommodityPricing#getPriceSeries()}. It is
+ * built from the price objects when first requested and from then on is kept
+ * up to date by listening to the data manager for the creation, deletion and
+ * change of prices. Prices without a date are not included.
+ * <P>
+ * Where more than one price has the same date, the price that was added first
+ * is the one returned by the lookups.
+ *
+ * @author Nigel Westbury
+ */
+public class PriceSeries {
+
+	private final Commodity commodity;
+
+	/**
+	 * The dates of the prices, as milliseconds, in ascending order. Only the
+	 * first <code>size</code> elements are used.
+	 */
+	private long [] dates = new long[16];
+
+	/**
+	 * The prices, each element corresponding to the same element in the dates
+	 * array.
+	 */
+	private long [] prices = new long[16];
+
+	/**
+	 * The price objects, each element corresponding to the same element in
+	 * the dates array.
+	 */
+	private Price [] priceObjects = new Price[16];
+
+	private int size = 0;
+
+	/**
+	 * The data manager keeps only a weak reference to this listener, so it
+	 * is referenced from here to keep it alive for as long as this series is
+	 * alive.
+	 */
+	private final SessionChangeListener listener = new SessionChangeAdapter() {
+		@Override
+		public void objectCreated(IModelObject newObject) {
+			if (isOurPrice(newObject)) {
+				Price price = (Price)newObject;
+				if (price.getDate() != null) {
+					insert(price, price.getDate().getTime(), price.getPrice());
+				}
+			}
+		}
+
+		@Override
+		public void objectDestroyed(IModelObject deletedObject) {
+			if (isOurPrice(deletedObject)) {
+				Price price = (Price)deletedObject;
+				if (price.getDate() != null) {
+					remove(price, price.getDate().getTime());
+				}
+			}
+		}
+
+		@Override
+		public void objectChanged(IModelObject changedObject, IScalarPropertyAccessor changedProperty, Object oldValue, Object newValue) {
+			if (isOurPrice(changedObject)) {
+				Price price = (Price)changedObject;
+				if (changedProperty == PriceInfo.getDateAccessor()) {
+					if (oldValue != null) {
+						remove(price, ((Date)oldValue).getTime());
+					}
+					if (newValue != null) {
+						insert(price, ((Date)newValue).getTime(), price.getPrice());
+					}
+				} else if (changedProperty == PriceInfo.getPriceAccessor()
+						&& price.getDate() != null) {
+					int index = indexOf(price, price.getDate().getTime());
+					if (index >= 0) {
+						prices[index] = price.getPrice();
+					}
+				}
+			}
+		}
+	};
+
+	PriceSeries(Commodity commodity, CommodityPricing pricing) {
+		this.commodity = commodity;
+
+		for (Price price : pricing.getPriceCollection()) {
+			if (price.getDate() != null) {
+				insert(price, price.getDate().getTime(), price.getPrice());
+			}
+		}
+
+		commodity.getDataManager().addChangeListenerWeakly(listener);
+	}
+
+	private boolean isOurPrice(IModelObject object) {
+		return object instanceof Price
+				&& commodity.getObjectKey().equals(((Price)object).getParentKey());
+	}
+
+	/**
+	 * Inserts a price after any prices already in the series with the same
+	 * date.
+	 */
+	private void insert(Price price, long date, long amount) {
+		int index = ceilingIndex(date + 1);
+		if (index == -1) {
+			index = size;
+		}
+
+		if (size == dates.length) {
+			dates = Arrays.copyOf(dates, size * 2);
+			prices = Arrays.copyOf(prices, size * 2);
+			priceObjects = Arrays.copyOf(priceObjects, size * 2);
+		}
+
+		System.arraycopy(dates, index, dates, index + 1, size - index);
+		System.arraycopy(prices, index, prices, index + 1, size - index);
+		System.arraycopy(priceObjects, index, priceObjects, index + 1, size - index);
+
+		dates[index] = date;
+		prices[index] = amount;
+		priceObjects[index] = price;
+		size++;
+	}
+
+	private void remove(Price price, long date) {
+		int index = indexOf(price, date);
+		if (index >= 0) {
+			System.arraycopy(dates, index + 1, dates, index, size - index - 1);
+			System.arraycopy(prices, index + 1, prices, index, size - index - 1);
+			System.arraycopy(priceObjects, index + 1, priceObjects, index, size - index - 1);
+			size--;
+			priceObjects[size] = null;
+		}
+	}
+
+	/**
+	 * @return the index of the given price object, which is in the series
+	 *         under the given date, or -1 if it is not in the series
+	 */
+	private int indexOf(Price price, long date) {
+		int index = ceilingIndex(date);
+		if (index != -1) {
+			while (index < size && dates[index] == date) {
+				if (priceObjects[index] == price) {
+					return index;
+				}
+				index++;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @return the number of prices in the series
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return the date of the price at the given index, as milliseconds
+	 */
+	public long getDate(int index) {
+		return dates[index];
+	}
+
+	/**
+	 * @return the price at the given index
+	 */
+	public long getPrice(int index) {
+		return prices[index];
+	}
+
+	/**
+	 * @return the price object at the given index
+	 */
+	public Price getPriceObject(int index) {
+		return priceObjects[index];
+	}
+
+	/**
+	 * @return the index of the first price on or after the given date, or -1
+	 *         if all prices are before the given date
+	 */
+	public int ceilingIndex(long date) {
+		int low = 0;
+		int high = size;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (dates[middle] < date) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low == size ? -1 : low;
+	}
+
+	/**
+	 * @return the index of the last price on or before the given date, or -1
+	 *         if all prices are after the given date. Where there is more than
+	 *         one price on the date, this is the first of them.
+	 */
+	public int floorIndex(long date) {
+		int index = ceilingIndex(date);
+		if (index == -1) {
+			index = size;
+		}
+		if (index < size && dates[index] == date) {
+			return index;
+		}
+		if (index == 0) {
+			return -1;
+		}
+
+		// Move back to the first of the prices on the previous date
+		index--;
+		while (index > 0 && dates[index - 1] == dates[index]) {
+			index--;
+		}
+		return index;
+	}
+
+	/**
+	 * @return the price object for the given date, or null if there is no
+	 *         price for exactly the given date
+	 */
+	public Price getPriceObject(Date date) {
+		int index = ceilingIndex(date.getTime());
+		if (index != -1 && dates[index] == date.getTime()) {
+			return priceObjects[index];
+		}
+		return null;
+	}
+
+	/**
+	 * Gets the last known price on or before the given date.
+	 *
+	 * @return the price, or null if there are no prices on or before the
+	 *         given date
+	 */
+	public Long getLastKnownPrice(Date date) {
+		int index = floorIndex(date.getTime());
+		return index == -1 ? null : prices[index];
+	}
+
+	/**
+	 * Gets the price objects with dates in the given range.
+	 *
+	 * @param startDate the first date, inclusive
+	 * @param endDate the last date, inclusive
+	 * @return the price objects, in date order
+	 */
+	public Price[] getPriceObjects(Date startDate, Date endDate) {
+		int fromIndex = ceilingIndex(startDate.getTime());
+		int toIndex = ceilingIndex(endDate.getTime() + 1);
+		if (fromIndex == -1) {
+			return new Price[0];
+		}
+		if (toIndex == -1) {
+			toIndex = size;
+		}
+		return Arrays.copyOfRange(priceObjects, fromIndex, toIndex);
+	}
+
+	/**
+	 * Gets the last known price for each of a list of dates. This is a single
+	 * pass through both the given dates and the prices, so should be used
+	 * rather than looking up each date separately when prices are needed for
+	 * many dates.
+	 *
+	 * @param dates the dates, as milliseconds, which must be in ascending
+	 *            order
+	 * @param result an array at least as long as the dates array, into which
+	 *            is put the last known price on or before each date
+	 * @return the number of dates, at the start of the dates array, for which
+	 *         there is no known price. The elements of the result array for
+	 *         these dates are set to zero.
+	 */
+	public int getLastKnownPrices(long [] dates, long [] result) {
+		int priceIndex = 0;
+		int datesWithoutPrice = 0;
+		for (int i = 0; i < dates.length; i++) {
+			while (priceIndex < size && this.dates[priceIndex] <= dates[i]) {
+				priceIndex++;
+			}
+			if (priceIndex == 0) {
+				result[i] = 0;
+				datesWithoutPrice++;
+			} else {
+				// Step back to the first price with the matching date
+				int index = priceIndex - 1;
+				while (index > 0 && this.dates[index - 1] == this.dates[index]) {
+					index--;
+				}
+				result[i] = prices[index];
+			}
+		}
+		return datesWithoutPrice;
+	}
+}
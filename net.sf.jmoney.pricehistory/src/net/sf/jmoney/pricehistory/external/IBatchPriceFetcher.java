@@ -0,0 +1,51 @@
+/*
+*
+*  JMoney - A Personal Finance Manager
+*  Copyright (c) 2010 Nigel Westbury <westbury@users.sourceforge.net>
+*
+*
+*  This program is free software; you can redistribute it and/or modify
+*  it under the terms of the GNU General Public License as published by
+*  the Free Software Foundation; either version 2 of the License, or
+*  (at your option) any later version.
+*
+*  This program is distributed in the hope that it will be useful,
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*  GNU General Public License for more details.
+*
+*  You should have received a copy of the GNU General Public License
+*  along with this program; if not, write to the Free Software
+*  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+*
+*/
+
+package net.sf.jmoney.pricehistory.external;
+
+import java.util.Date;
+import java.util.Map;
+
+/**
+ * A price fetcher that can fetch the prices for a range of dates in a single
+ * request.
+ * <P>
+ * Sources registered with the <code>net.sf.jmoney.pricehistory.sources</code>
+ * extension point may implement this interface rather than just
+ * <code>IPriceFetcher</code>. Where a source does, the prices for a range of
+ * dates are fetched with one call instead of one call per date.
+ * <P>
+ * Fetchers may be called from a background thread. A fetcher instance is
+ * used for only one commodity and is never called from two threads at the
+ * same time, but it must not access the model.
+ */
+public interface IBatchPriceFetcher extends IPriceFetcher {
+
+	/**
+	 * @param startDate the first date, inclusive
+	 * @param endDate the last date, inclusive
+	 * @return a map of date to price containing the prices that are available
+	 *         for dates in the given range. Dates for which no price is
+	 *         available are omitted.
+	 */
+	Map<Date, Long> getPrices(Date startDate, Date endDate);
+}
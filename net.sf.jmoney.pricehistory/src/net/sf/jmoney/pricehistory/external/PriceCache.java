@@ -0,0 +1,211 @@
+/*
+*
+*  JMoney - A Personal Finance Manager
+*  Copyright (c) 2010 Nigel Westbury <westbury@users.sourceforge.net>
+*
+*
+*  This program is free software; you can redistribute it and/or modify
+*  it under the terms of the GNU General Public License as published by
+*  the Free Software Foundation; either version 2 of the License, or
+*  (at your option) any later version.
+*
+*  This program is distributed in the hope that it will be useful,
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*  GNU General Public License for more details.
+*
+*  You should have received a copy of the GNU General Public License
+*  along with this program; if not, write to the Free Software
+*  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+*
+*/
+
+package net.sf.jmoney.pricehistory.external;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+import net.sf.jmoney.pricehistory.Activator;
+
+/**
+ * A cache of the results of previous requests to a price source for a
+ * commodity.
+ * <P>
+ * Both the prices found and the dates for which the source had no price are
+ * remembered, so that a date that the source could not price (a weekend, for
+ * example) is not requested again. However a source may not yet have the
+ * price for a recent date, so a date for which the source had no price is
+ * only remembered if the date is more than {@link #MISS_SETTLE_DAYS} days
+ * before the time of the request. The cache is kept in a file in the state
+ * location of this plug-in, one file for each source and commodity, so it
+ * survives between sessions. Each result is appended to the file as it is
+ * added to the cache.
+ * <P>
+ * If the plug-in is not running, so there is no state location, then the
+ * cache is kept in memory only.
+ * <P>
+ * There is only one instance for each source and commodity, obtained from
+ * {@link #getCache(String, String)}. Instances may be used from more than one
+ * thread.
+ */
+class PriceCache {
+
+	/**
+	 * The value written to the file for a date that has no price.
+	 */
+	private static final String NO_PRICE = "-"; //$NON-NLS-1$
+
+	/**
+	 * The number of days after a date before the lack of a price for the date
+	 * is taken to be permanent.
+	 */
+	static final int MISS_SETTLE_DAYS = 7;
+
+	/**
+	 * Map of date, as milliseconds, to the price, or to null if the source
+	 * has no price for the date.
+	 */
+	private Map<Long, Long> results = new HashMap<Long, Long>();
+
+	private File file;
+
+	/**
+	 * The caches that have been loaded, keyed by the name of the cache file
+	 */
+	private static Map<String, PriceCache> caches = new HashMap<String, PriceCache>();
+
+	/**
+	 * @param sourceId an id that identifies the price source
+	 * @param commodityName the name of the commodity
+	 */
+	static synchronized PriceCache getCache(String sourceId, String commodityName) {
+		String fileName;
+		try {
+			fileName = URLEncoder.encode(sourceId + "_" + commodityName, "UTF-8"); //$NON-NLS-1$ //$NON-NLS-2$
+		} catch (UnsupportedEncodingException e) {
+			throw new RuntimeException(e);
+		}
+
+		PriceCache cache = caches.get(fileName);
+		if (cache == null) {
+			cache = new PriceCache(fileName);
+			caches.put(fileName, cache);
+		}
+		return cache;
+	}
+
+	private PriceCache(String fileName) {
+		if (Activator.getDefault() != null) {
+			File directory = Activator.getDefault().getStateLocation().append("priceCache").toFile(); //$NON-NLS-1$
+			directory.mkdirs();
+			file = new File(directory, fileName);
+			if (file.exists()) {
+				load();
+			}
+		}
+	}
+
+	private void load() {
+		long now = System.currentTimeMillis();
+		try {
+			BufferedReader reader = new BufferedReader(new FileReader(file));
+			try {
+				String line;
+				while ((line = reader.readLine()) != null) {
+					int separator = line.indexOf(' ');
+					if (separator != -1) {
+						try {
+							long date = Long.parseLong(line.substring(0, separator));
+							String price = line.substring(separator + 1);
+							if (!price.equals(NO_PRICE)) {
+								results.put(date, Long.valueOf(price));
+							} else if (isSettled(date, now)) {
+								results.put(date, null);
+							}
+						} catch (NumberFormatException e) {
+							// Ignore corrupt lines, the date will just be fetched again
+						}
+					}
+				}
+			} finally {
+				reader.close();
+			}
+		} catch (IOException e) {
+			// The cache is only an optimization, so carry on without it
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * @return true if the date is long enough before the given time that a
+	 *         source without a price for the date will never have one
+	 */
+	private static boolean isSettled(long date, long now) {
+		return date < now - MISS_SETTLE_DAYS * 24L * 60 * 60 * 1000;
+	}
+
+	/**
+	 * @return true if a previous request to the source was made for the given
+	 *         date, whether or not the source had a price
+	 */
+	synchronized boolean contains(Date date) {
+		return results.containsKey(date.getTime());
+	}
+
+	/**
+	 * @return the price, or null if the source has no price for the date or
+	 *         if the date is not in the cache
+	 */
+	synchronized Long getPrice(Date date) {
+		return results.get(date.getTime());
+	}
+
+	/**
+	 * Adds the results of a request to the source.
+	 *
+	 * @param prices map of date to price, where the price is null if the
+	 *            source had no price for the date. Recent dates with no price
+	 *            are not added, so they will be requested again.
+	 */
+	synchronized void addAll(Map<Date, Long> prices) {
+		if (prices.isEmpty()) {
+			return;
+		}
+
+		long now = System.currentTimeMillis();
+
+		PrintWriter writer = null;
+		try {
+			if (file != null) {
+				writer = new PrintWriter(new FileWriter(file, true));
+			}
+			for (Map.Entry<Date, Long> mapEntry : prices.entrySet()) {
+				long date = mapEntry.getKey().getTime();
+				Long price = mapEntry.getValue();
+				if (price == null && !isSettled(date, now)) {
+					continue;
+				}
+				results.put(date, price);
+				if (writer != null) {
+					writer.println(date + " " + (price == null ? NO_PRICE : price.toString())); //$NON-NLS-1$
+				}
+			}
+		} catch (IOException e) {
+			// The cache is only an optimization, so carry on without it
+			e.printStackTrace();
+		} finally {
+			if (writer != null) {
+				writer.close();
+			}
+		}
+	}
+}
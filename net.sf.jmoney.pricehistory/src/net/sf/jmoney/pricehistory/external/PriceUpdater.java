@@ -0,0 +1,293 @@
+/*
+*
+*  JMoney - A Personal Finance Manager
+*  Copyright (c) 2010 Nigel Westbury <westbury@users.sourceforge.net>
+*
+*
+*  This program is free software; you can redistribute it and/or modify
+*  it under the terms of the GNU General Public License as published by
+*  the Free Software Foundation; either version 2 of the License, or
+*  (at your option) any later version.
+*
+*  This program is distributed in the hope that it will be useful,
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*  GNU General Public License for more details.
+*
+*  You should have received a copy of the GNU General Public License
+*  along with this program; if not, write to the Free Software
+*  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+*
+*/
+
+package net.sf.jmoney.pricehistory.external;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import net.sf.jmoney.model2.Commodity;
+import net.sf.jmoney.model2.IDataManagerForAccounts;
+import net.sf.jmoney.model2.TransactionManagerForAccounts;
+import net.sf.jmoney.pricehistory.CommodityPricing;
+import net.sf.jmoney.pricehistory.CommodityPricingInfo;
+import net.sf.jmoney.pricehistory.Price;
+import net.sf.jmoney.pricehistory.PriceInfo;
+import net.sf.jmoney.pricehistory.PriceSeries;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.OperationCanceledException;
+
+/**
+ * Fetches the prices of many commodities over a range of dates.
+ * <P>
+ * The work is done in three steps. First, on the calling thread, the dates
+ * for which each commodity has no stored price are found. Then the prices for
+ * those dates are fetched, with the commodities fetched in parallel by a
+ * bounded pool of threads. Each commodity's dates are requested in a single
+ * call if the source implements <code>IBatchPriceFetcher</code>. Dates that
+ * have been requested from the source before are taken from the
+ * <code>PriceCache</code> and not requested again. Finally, back on the
+ * calling thread, all the prices fetched are added to the model in a single
+ * transaction.
+ * <P>
+ * The model is accessed only from the calling thread.
+ *
+ * @author Nigel Westbury
+ */
+public class PriceUpdater {
+
+	/**
+	 * The default number of threads. Fetching prices is limited by the
+	 * response time of the sources, not by the processor, so this does not
+	 * depend on the number of processors.
+	 */
+	public static final int DEFAULT_THREAD_COUNT = 4;
+
+	private int threadCount;
+
+	public PriceUpdater() {
+		this(DEFAULT_THREAD_COUNT);
+	}
+
+	/**
+	 * @param threadCount the maximum number of sources to be queried at the
+	 *            same time
+	 */
+	public PriceUpdater(int threadCount) {
+		this.threadCount = threadCount;
+	}
+
+	/**
+	 * The fetch for one commodity, to be run on a pool thread. This does not
+	 * access the model.
+	 */
+	private static class FetchTask implements Callable<Map<Date, Long>> {
+		private final IPriceFetcher fetcher;
+		private final PriceCache cache;
+		private final List<Date> dates;
+
+		FetchTask(IPriceFetcher fetcher, PriceCache cache, List<Date> dates) {
+			this.fetcher = fetcher;
+			this.cache = cache;
+			this.dates = dates;
+		}
+
+		/**
+		 * @return the prices found for the dates, which does not include the
+		 *         dates for which no price could be found
+		 */
+		@Override
+		public Map<Date, Long> call() {
+			Map<Date, Long> prices = new HashMap<Date, Long>();
+
+			List<Date> datesToFetch = new ArrayList<Date>();
+			for (Date date : dates) {
+				if (cache.contains(date)) {
+					Long price = cache.getPrice(date);
+					if (price != null) {
+						prices.put(date, price);
+					}
+				} else {
+					datesToFetch.add(date);
+				}
+			}
+
+			if (!datesToFetch.isEmpty()) {
+				/*
+				 * Every date requested goes into the cache, with a null price
+				 * if the source did not have a price for it.
+				 */
+				Map<Date, Long> results = new HashMap<Date, Long>();
+				if (fetcher instanceof IBatchPriceFetcher) {
+					Map<Date, Long> fetchedPrices = ((IBatchPriceFetcher)fetcher).getPrices(datesToFetch.get(0), datesToFetch.get(datesToFetch.size() - 1));
+					for (Date date : datesToFetch) {
+						results.put(date, fetchedPrices.get(date));
+					}
+				} else {
+					for (Date date : datesToFetch) {
+						results.put(date, fetcher.getPrice(date));
+					}
+				}
+				cache.addAll(results);
+
+				for (Map.Entry<Date, Long> mapEntry : results.entrySet()) {
+					if (mapEntry.getValue() != null) {
+						prices.put(mapEntry.getKey(), mapEntry.getValue());
+					}
+				}
+			}
+
+			return prices;
+		}
+	}
+
+	/**
+	 * Fetches and stores the prices for the given commodities for every day
+	 * in the given range for which there is not already a price. Commodities
+	 * for which there is no source of prices are ignored.
+	 *
+	 * @param commodities the commodities, which must all be in the same data
+	 *            manager
+	 * @param startDate the first date, inclusive
+	 * @param endDate the last date, inclusive
+	 * @param monitor the progress monitor, which is checked for
+	 *            cancellation. If cancelled then nothing is stored.
+	 * @return the number of prices added
+	 * @throws OperationCanceledException if the monitor is cancelled
+	 */
+	public int updatePrices(Collection<? extends Commodity> commodities, Date startDate, Date endDate, IProgressMonitor monitor) {
+		if (commodities.isEmpty()) {
+			return 0;
+		}
+
+		IDataManagerForAccounts dataManager = commodities.iterator().next().getDataManager();
+
+		List<Commodity> fetchedCommodities = new ArrayList<Commodity>();
+		List<FetchTask> tasks = new ArrayList<FetchTask>();
+		for (Commodity commodity : commodities) {
+			IPriceFetcher fetcher = findFetcher(commodity);
+			if (fetcher != null) {
+				List<Date> dates = getDatesWithoutPrices(commodity, startDate, endDate);
+				if (!dates.isEmpty()) {
+					PriceCache cache = PriceCache.getCache(fetcher.getClass().getName(), commodity.getName());
+					fetchedCommodities.add(commodity);
+					tasks.add(new FetchTask(fetcher, cache, dates));
+				}
+			}
+		}
+
+		monitor.beginTask("Fetching prices", tasks.size() + 1);
+
+		List<Map<Date, Long>> results = new ArrayList<Map<Date, Long>>();
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(threadCount, tasks.size())));
+		try {
+			List<Future<Map<Date, Long>>> futures = new ArrayList<Future<Map<Date, Long>>>();
+			for (FetchTask task : tasks) {
+				futures.add(executor.submit(task));
+			}
+
+			for (Future<Map<Date, Long>> future : futures) {
+				results.add(waitFor(future, monitor));
+				monitor.worked(1);
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+
+		/*
+		 * Add all the prices in a single transaction, so there is one
+		 * commit, and one set of change notifications, however many prices
+		 * were fetched.
+		 */
+		TransactionManagerForAccounts transactionManager = new TransactionManagerForAccounts(dataManager);
+		int count = 0;
+		for (int i = 0; i < fetchedCommodities.size(); i++) {
+			Commodity commodityInTransaction = transactionManager.getCopyInTransaction(fetchedCommodities.get(i));
+			CommodityPricing pricing = commodityInTransaction.getExtension(CommodityPricingInfo.getPropertySet(), true);
+			for (Map.Entry<Date, Long> mapEntry : results.get(i).entrySet()) {
+				Price newPrice = pricing.getPriceCollection().createNewElement(PriceInfo.getPropertySet());
+				newPrice.setDate(mapEntry.getKey());
+				newPrice.setPrice(mapEntry.getValue());
+				count++;
+			}
+		}
+		if (count != 0) {
+			transactionManager.commit("Fetch Prices");
+		}
+		monitor.done();
+
+		return count;
+	}
+
+	/**
+	 * Finds a source for the prices of the given commodity. By default the
+	 * sources registered with the <code>net.sf.jmoney.pricehistory.sources</code>
+	 * extension point are used. Tests may override this to supply a source
+	 * that does not need a network connection.
+	 *
+	 * @return a fetcher for the given commodity, or null if no source can
+	 *         provide prices for the commodity
+	 */
+	protected IPriceFetcher findFetcher(Commodity commodity) {
+		return Prices.findFetcher(commodity);
+	}
+
+	/**
+	 * Waits for a fetch to complete, checking the monitor for cancellation
+	 * while waiting.
+	 */
+	private Map<Date, Long> waitFor(Future<Map<Date, Long>> future, IProgressMonitor monitor) {
+		while (true) {
+			if (monitor.isCanceled()) {
+				throw new OperationCanceledException();
+			}
+			try {
+				return future.get(100, TimeUnit.MILLISECONDS);
+			} catch (TimeoutException e) {
+				// Check the monitor again
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new OperationCanceledException();
+			} catch (ExecutionException e) {
+				throw new RuntimeException("Price fetch failed", e.getCause());
+			}
+		}
+	}
+
+	/**
+	 * @return the days in the given range on which there is no price for the
+	 *         commodity, in date order
+	 */
+	private static List<Date> getDatesWithoutPrices(Commodity commodity, Date startDate, Date endDate) {
+		CommodityPricing pricing = commodity.getExtension(CommodityPricingInfo.getPropertySet(), true);
+		PriceSeries priceSeries = pricing.getPriceSeries();
+
+		List<Date> dates = new ArrayList<Date>();
+		Calendar calendar = Calendar.getInstance();
+		calendar.setTime(startDate);
+		int priceIndex = priceSeries.ceilingIndex(startDate.getTime());
+		while (!calendar.getTime().after(endDate)) {
+			long date = calendar.getTimeInMillis();
+			while (priceIndex != -1 && priceIndex < priceSeries.size() && priceSeries.getDate(priceIndex) < date) {
+				priceIndex++;
+			}
+			if (priceIndex == -1 || priceIndex == priceSeries.size() || priceSeries.getDate(priceIndex) != date) {
+				dates.add(calendar.getTime());
+			}
+			calendar.add(Calendar.DAY_OF_MONTH, 1);
+		}
+		return dates;
+	}
+}
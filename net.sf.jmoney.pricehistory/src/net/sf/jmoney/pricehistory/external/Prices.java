@@ -23,16 +23,16 @@
 package net.sf.jmoney.pricehistory.external;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
 import net.sf.jmoney.model2.Commodity;
 import net.sf.jmoney.pricehistory.CommodityPricing;
 import net.sf.jmoney.pricehistory.CommodityPricingInfo;
 import net.sf.jmoney.pricehistory.Price;
 import net.sf.jmoney.pricehistory.PriceInfo;
+import net.sf.jmoney.pricehistory.PriceSeries;
 
 import org.eclipse.core.runtime.CoreException;
 import org.eclipse.core.runtime.IConfigurationElement;
@@ -45,9 +45,27 @@ public class Prices {
 	
 	private IPriceFetcher fetcher;
 	
+	private PriceCache cache;
+	
 	public Prices(Commodity commodity) {
 		this.commodity = commodity;
 
+		fetcher = findFetcher(commodity);
+		if (fetcher == null) {
+			// TODO: How do we want to handle this?
+			throw new RuntimeException("no source for prices for commodity available");
+		}
+		
+		cache = PriceCache.getCache(fetcher.getClass().getName(), commodity.getName());
+	}
+
+	/**
+	 * Finds a source for the prices of the given commodity.
+	 * 
+	 * @return a fetcher for the given commodity, or null if no source can
+	 * 		provide prices for the commodity
+	 */
+	static IPriceFetcher findFetcher(Commodity commodity) {
 		IExtensionRegistry registry = Platform.getExtensionRegistry();
 		
 		/**
@@ -55,16 +73,18 @@ public class Prices {
 		 * is the 'instanceOf' attribute.  If this attribute is specified, the extension
 		 * will be loaded only if the commodity is of that type.
 		 */
-		final Map<String, IConfigurationElement> extensionMap = new HashMap<String, IConfigurationElement>();
-		
 		List<IPriceFetcher> allFetchers = new ArrayList<IPriceFetcher>();
 		
 		for (IConfigurationElement element: registry.getConfigurationElementsFor("net.sf.jmoney.pricehistory.sources")) { //$NON-NLS-1$
 			if (element.getName().equals("source")) { //$NON-NLS-1$
 				String commodityClass = element.getAttribute("instanceOf"); //$NON-NLS-1$
 				try {
+					/*
+					 * The commodity class is usually in the plug-in that
+					 * contributes the source, so it is loaded by that plug-in.
+					 */
 					if (commodityClass == null
-							|| Class.forName(commodityClass).isAssignableFrom(commodity.getClass())) {
+							|| Platform.getBundle(element.getContributor().getName()).loadClass(commodityClass).isAssignableFrom(commodity.getClass())) {
 						IPriceFetcher eachFetcher = (IPriceFetcher)element.createExecutableExtension("class");
 						if (eachFetcher.canProcess(commodity)) {
 							allFetchers.add(eachFetcher);
@@ -81,30 +101,43 @@ public class Prices {
 		}
 		
 		if (allFetchers.size() == 0) {
-			// TODO: How do we want to handle this?
-			throw new RuntimeException("no source for prices for commodity available");
-		} else if (allFetchers.size() == 1) {
-			fetcher = allFetchers.get(0);
+			return null;
 		} else {
 			// TODO: Open a dialog box to ask the user for
 			// the preferred source and think about how or where
 			// we want to remember the user's choice.
 			
 			// For time being, just use the first one found.
-			fetcher = allFetchers.get(0);
+			return allFetchers.get(0);
 		}
 	}
 	
+	/**
+	 * Gets the price on the given date. If there is no price stored for the
+	 * date then the price is fetched from the source and stored.
+	 *
+	 * @return the price, or null if there is no price stored and none could
+	 *         be fetched
+	 */
 	public Price getPrice(Date date) {
 		CommodityPricing pricing = commodity.getExtension(CommodityPricingInfo.getPropertySet(), true);
 		
-		for (Price price : pricing.getPriceCollection()) {
-			if (price.getDate().equals(date)) {
-				return price;
-			}
+		Price price = pricing.getPriceSeries().getPriceObject(date);
+		if (price != null) {
+			return price;
 		}
 
-		Long priceAmount = fetcher.getPrice(date);
+		/*
+		 * If the source has been asked for this date before then the cached
+		 * result is used, even if that was that there is no price.
+		 */
+		Long priceAmount;
+		if (cache.contains(date)) {
+			priceAmount = cache.getPrice(date);
+		} else {
+			priceAmount = fetcher.getPrice(date);
+			cache.addAll(Collections.singletonMap(date, priceAmount));
+		}
 		
 		if (priceAmount != null) {
 			Price newPrice = pricing.getPriceCollection().createNewElement(PriceInfo.getPropertySet());
@@ -116,7 +149,17 @@ public class Prices {
 		return null;
 	}
 	
+	/**
+	 * Gets the stored prices with dates in the given range. No prices are
+	 * fetched from the source. Callers that need a price for every date
+	 * should use {@link PriceSeries#getLastKnownPrices(long[], long[])}.
+	 *
+	 * @param startDate the first date, inclusive
+	 * @param endDate the last date, inclusive
+	 * @return the prices, in date order
+	 */
 	public Price[] getPrices(Date startDate, Date endDate) {
-		throw new RuntimeException("not implemented");
+		CommodityPricing pricing = commodity.getExtension(CommodityPricingInfo.getPropertySet(), true);
+		return pricing.getPriceSeries().getPriceObjects(startDate, endDate);
 	}
 }
@@ -4,7 +4,6 @@ import java.math.BigDecimal;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 
 import net.sf.jmoney.isolation.ReferenceViolationException;
@@ -27,7 +26,9 @@ import net.sf.jmoney.qif.parser.QifDate;
 import net.sf.jmoney.qif.parser.QifFile;
 import net.sf.jmoney.qif.parser.QifImportException;
 import net.sf.jmoney.qif.parser.QifInvstTransaction;
+import net.sf.jmoney.qif.parser.QifSecurityPrices;
 import net.sf.jmoney.qif.parser.QifSplitTransaction;
+import net.sf.jmoney.qif.parser.QifTransaction;
 import net.sf.jmoney.stocks.model.Stock;
 import net.sf.jmoney.stocks.model.StockAccount;
 import net.sf.jmoney.stocks.model.StockAccountInfo;
@@ -92,16 +93,43 @@ public class InvestmentImporter implements IQifImporter {
 		}
 	}
 
+	/**
+	 * The session into which the current batch is being imported.
+	 */
+	private Session session;
+
+	/**
+	 * The account selected by the user, in the session of the current batch,
+	 * or null if no account was selected.
+	 */
+	private Account selectedAccount;
+
+	private int transactionCount = 0;
+
 	@Override
-	public String importData(QifFile qifFile, Session session, Account selectedAccount) throws QifImportException {
+	public void startBatch(QifFile qifFile, Session session, Account selectedAccount) {
+		this.session = session;
+		this.selectedAccount = selectedAccount;
 
+		// The maps must contain the accounts in the session for this batch.
+		accountMap.clear();
+		categoryMap.clear();
 		buildAccountMap(session);
 		buildCategoryMap(session);
+	}
+
+	@Override
+	public void transactionFound(QifAccount qifAccount, QifTransaction qifTransaction) {
+		// Transactions in bank and cash accounts are imported by the basic importer
+	}
 
-		/*
-		 * Import transactions that have no account information.
-		 */
-		if (!qifFile.invstTransactions.isEmpty()) {
+	@Override
+	public void investmentTransactionFound(QifAccount qifAccount, QifInvstTransaction qifTransaction) throws QifImportException {
+		StockAccount account;
+		if (qifAccount == null) {
+			/*
+			 * Import transactions that have no account information.
+			 */
 			if (selectedAccount == null) {
 				throw new QifImportException("No account selected and transactions are listed in the QIF file with no account information.");
 			}
@@ -110,33 +138,33 @@ public class InvestmentImporter implements IQifImporter {
 				throw new QifImportException("The selected account is not a stock account.  This QIF file contains investment transactions and no account information exists in the QIF file for those transactions.  You must therefore select an investment account before importing this QIF file.");
 			}
 
-			StockAccount stockAccount = (StockAccount)selectedAccount;
+			account = (StockAccount)selectedAccount;
+		} else {
+			/*
+			 * Import transactions that do have account information.
+			 */
+			account = getStockAccount(qifAccount.getName(), session);
 
-			importAccount(session, stockAccount, qifFile.invstTransactions);
+//			account.setStartBalance(qifAccount.startBalance);
 		}
 
-		/*
-		 * Import transactions that do have account information.
-		 */
-		for (QifAccount qifAccount : qifFile.accountList) {
-
-			if (qifAccount.getInvstTransactions().size() == 0) {
-				// No investment transactions, so don't process
-				continue;
-			}
-
-			StockAccount account = getStockAccount(qifAccount.getName(), session);
+		importTransaction(session, account, qifTransaction);
 
-//			account.setStartBalance(qifAccount.startBalance);
+		transactionCount++;
+	}
 
-			importAccount(session, account, qifAccount.getInvstTransactions());
-		}
+	@Override
+	public void securityPricesFound(QifSecurityPrices securityPrices) {
+		// Security prices are not imported
+	}
 
-		return "some investment transactions";
+	@Override
+	public String getResult() {
+		return transactionCount == 0 ? null : transactionCount + " investment transactions";
 	}
 
 	/**
-	 * Imports an account from a QIF-file.
+	 * Imports an investment transaction from a QIF-file.
 	 * <P>
 	 * As soon as a split category, memo, or amount is found when one has
 	 * already been specified for the split, a new split is created. If split
@@ -164,8 +192,8 @@ public class InvestmentImporter implements IQifImporter {
 	 * in this account.  All of those entries and their transactions must be deleted.
 	 * @throws QifImportException
 	 */
-	private void importAccount(Session session, StockAccount account,
-			List<QifInvstTransaction> transactions) throws QifImportException {
+	private void importTransaction(Session session, StockAccount account,
+			QifInvstTransaction qifTransaction) throws QifImportException {
 
 		// TODO: This should come from the account????
 		Currency currency = session.getDefaultCurrency();
@@ -174,104 +202,103 @@ public class InvestmentImporter implements IQifImporter {
 		Account interestIncomeAccount = getCategory("Interest - Merrill Lynch", session);
 		Account stockSplitAccount = getStockAccount("Stock Split - Merrill Lynch", session);
 
-		for (QifInvstTransaction qifTransaction : transactions) {
-			// Create a new transaction
-			Transaction transaction = session.createTransaction();
+		// Create a new transaction
+		Transaction transaction = session.createTransaction();
 
-			System.out.println("Processing " + qifTransaction.getAction());
-			if (qifTransaction.getAction().equals("MargInt")) {
-			System.out.println("Processing " + qifTransaction.getAction());
-			}
+		System.out.println("Processing " + qifTransaction.getAction());
+		if (qifTransaction.getAction().equals("MargInt")) {
+		System.out.println("Processing " + qifTransaction.getAction());
+		}
 
-			// Add the first entry for this transaction and set the account
-			QIFEntry firstEntry = transaction.createEntry().getExtension(QIFEntryInfo.getPropertySet(), true);
-			firstEntry.setAccount(account);
+		// Add the first entry for this transaction and set the account
+		QIFEntry firstEntry = transaction.createEntry().getExtension(QIFEntryInfo.getPropertySet(), true);
+		firstEntry.setAccount(account);
 
-			transaction.setDate(convertDate(qifTransaction.getDate()));
+		transaction.setDate(convertDate(qifTransaction.getDate()));
 
-			// Get amount for all cases except script issues, which don't have amounts.
-			long amount = 0;
+		// Get amount for all cases except script issues, which don't have amounts.
+		long amount = 0;
 //			if (!qifTransaction.getAction().equals("ScrIssue")
 //					&& !qifTransaction.getAction().equals("ShrsIn")
 //					&& !qifTransaction.getAction().equals("ShrsOut")) {
-				// There will be no amount if the sale is really because the shares
-				// are deemed worthless.
-				if (qifTransaction.getAmount() != null) {
-					amount = adjustAmount(qifTransaction.getAmount(), currency);
-					System.out.println("amount: " + amount);
-					if (amount == 1787092) {
-						System.out.println("here");
-					}
+			// There will be no amount if the sale is really because the shares
+			// are deemed worthless.
+			if (qifTransaction.getAmount() != null) {
+				amount = adjustAmount(qifTransaction.getAmount(), currency);
+				System.out.println("amount: " + amount);
+				if (amount == 1787092) {
+					System.out.println("here");
 				}
+			}
 //			}
 
-			firstEntry.setReconcilingState(qifTransaction.getStatus());
-			firstEntry.setMemo(qifTransaction.getMemo());
+		firstEntry.setReconcilingState(qifTransaction.getStatus());
+		firstEntry.setMemo(qifTransaction.getMemo());
 
-			if (qifTransaction.getAction().equals("ShrsIn") || qifTransaction.getAction().equals("ShrsOut")) {
-				// There may be a non-zero amount, so use the given amount
-				if (qifTransaction.getAction().equals("ShrsOut")) {
-					firstEntry.setAmount(amount);
-				} else {
-					firstEntry.setAmount(-amount);
-				}
+		if (qifTransaction.getAction().equals("ShrsIn") || qifTransaction.getAction().equals("ShrsOut")) {
+			// There may be a non-zero amount, so use the given amount
+			if (qifTransaction.getAction().equals("ShrsOut")) {
+				firstEntry.setAmount(amount);
+			} else {
+				firstEntry.setAmount(-amount);
+			}
 
-				firstEntry.setCommodity(account.getCurrency());
+			firstEntry.setCommodity(account.getCurrency());
 
-		        // Find the security
-		        String security = qifTransaction.getSecurity();
-		        Stock stock = findStock(session, security);
+	        // Find the security
+	        String security = qifTransaction.getSecurity();
+	        Stock stock = findStock(session, security);
 
-		        Long quantity = stock.parse(qifTransaction.getQuantity());
+	        Long quantity = stock.parse(qifTransaction.getQuantity());
 
-	        	StockEntry saleEntry = transaction.createEntry().getExtension(StockEntryInfo.getPropertySet(), true);
-	        	saleEntry.setAccount(account);
+        	StockEntry saleEntry = transaction.createEntry().getExtension(StockEntryInfo.getPropertySet(), true);
+        	saleEntry.setAccount(account);
 
-	        	if (qifTransaction.getAction().equals("ShrsIn")) {
-	        		saleEntry.setAmount(quantity);
-	        	} else {
-	        		saleEntry.setAmount(-quantity);
-	        	}
+        	if (qifTransaction.getAction().equals("ShrsIn")) {
+        		saleEntry.setAmount(quantity);
+        	} else {
+        		saleEntry.setAmount(-quantity);
+        	}
 
-	        	saleEntry.setCommodity(stock);
-			} else if (qifTransaction.getAction().equals("Buy") || qifTransaction.getAction().equals("Sell")) {
-				if (qifTransaction.getAction().equals("Sell")) {
-					firstEntry.setAmount(amount);
-				} else {
-					firstEntry.setAmount(-amount);
-				}
+        	saleEntry.setCommodity(stock);
+		} else if (qifTransaction.getAction().equals("Buy") || qifTransaction.getAction().equals("Sell")) {
+			if (qifTransaction.getAction().equals("Sell")) {
+				firstEntry.setAmount(amount);
+			} else {
+				firstEntry.setAmount(-amount);
+			}
 
-				firstEntry.setCommodity(account.getCurrency());
+			firstEntry.setCommodity(account.getCurrency());
 
-		        // Find the security
-		        String security = qifTransaction.getSecurity();
-		        Stock stock = findStock(session, security);
+	        // Find the security
+	        String security = qifTransaction.getSecurity();
+	        Stock stock = findStock(session, security);
 
-		        Long quantity = stock.parse(qifTransaction.getQuantity());
+	        Long quantity = stock.parse(qifTransaction.getQuantity());
 
-	        	StockEntry saleEntry = transaction.createEntry().getExtension(StockEntryInfo.getPropertySet(), true);
-	        	saleEntry.setAccount(account);
+        	StockEntry saleEntry = transaction.createEntry().getExtension(StockEntryInfo.getPropertySet(), true);
+        	saleEntry.setAccount(account);
 
-	        	if (qifTransaction.getAction().equals("Buy")) {
-	        		saleEntry.setAmount(quantity);
-	        	} else {
-	        		saleEntry.setAmount(-quantity);
-	        	}
+        	if (qifTransaction.getAction().equals("Buy")) {
+        		saleEntry.setAmount(quantity);
+        	} else {
+        		saleEntry.setAmount(-quantity);
+        	}
 
-	        	saleEntry.setCommodity(stock);
+        	saleEntry.setCommodity(stock);
 
 //	        	BigDecimal c = new BigDecimal(9.99);
 
-				if (qifTransaction.getCommission() != null) {
-					if (account.getCommissionAccount() == null) {
-						throw new QifImportException("The file contains commission entries.  However no category has been set to hold the commission payments.");
-					}
-
-	        		StockEntry commissionEntry = transaction.createEntry().getExtension(StockEntryInfo.getPropertySet(), true);
-	        		commissionEntry.setAccount(account.getCommissionAccount());
-					commissionEntry.setAmount(adjustAmount(qifTransaction.getCommission(), currency));
-	        		commissionEntry.setSecurity(stock);
+			if (qifTransaction.getCommission() != null) {
+				if (account.getCommissionAccount() == null) {
+					throw new QifImportException("The file contains commission entries.  However no category has been set to hold the commission payments.");
 				}
+
+        		StockEntry commissionEntry = transaction.createEntry().getExtension(StockEntryInfo.getPropertySet(), true);
+        		commissionEntry.setAccount(account.getCommissionAccount());
+				commissionEntry.setAmount(adjustAmount(qifTransaction.getCommission(), currency));
+        		commissionEntry.setSecurity(stock);
+			}
 //				if (qifTransaction.getCommission() != null) {
 //	        		StockEntry commissionEntry = transaction.createEntry().getExtension(StockEntryInfo.getPropertySet(), true);
 //	        		commissionEntry.setAccount(account.getCommissionAccount());
@@ -286,142 +313,142 @@ public class InvestmentImporter implements IQifImporter {
 //		        	}
 //	        	}
 
-			} else if (qifTransaction.getAction().equals("Div")) {
-				if (account.getDividendAccount() == null) {
-					throw new QifImportException("The file contains dividend entries.  However no category has been set to hold dividend payments");
-				}
+		} else if (qifTransaction.getAction().equals("Div")) {
+			if (account.getDividendAccount() == null) {
+				throw new QifImportException("The file contains dividend entries.  However no category has been set to hold dividend payments");
+			}
 
-				firstEntry.setAmount(amount);
-				firstEntry.setCommodity(account.getCurrency());
-
-				StockEntry dividendEntry = transaction.createEntry().getExtension(StockEntryInfo.getPropertySet(), true);
-				dividendEntry.setAccount(account.getDividendAccount());
-				dividendEntry.setAmount(-amount);
-
-		        // Find the security
-		        String security = qifTransaction.getSecurity();
-		        Stock stock = findStock(session, security);
-				dividendEntry.setSecurity(stock);
-			} else if (qifTransaction.getAction().equals("DivX")) {
-				if (account.getDividendAccount() == null) {
-					throw new QifImportException("The file contains dividend entries.  However no category has been set to hold dividend payments");
-				}
+			firstEntry.setAmount(amount);
+			firstEntry.setCommodity(account.getCurrency());
 
-				// Create a zero entry so they appear in this account.  Otherwise there would be absolutely nothing to
-				// associate the dividend with this account.  It would be associated with the stock, but we would not
-				// know it is the particular instance of stock that is held in this account (the same stock could be held
-				// in more than one account).
-				firstEntry.setAmount(0);
-				firstEntry.setCommodity(account.getCurrency());
+			StockEntry dividendEntry = transaction.createEntry().getExtension(StockEntryInfo.getPropertySet(), true);
+			dividendEntry.setAccount(account.getDividendAccount());
+			dividendEntry.setAmount(-amount);
 
-		        // Find the security
-		        String security = qifTransaction.getSecurity();
-		        Stock stock = findStock(session, security);
+	        // Find the security
+	        String security = qifTransaction.getSecurity();
+	        Stock stock = findStock(session, security);
+			dividendEntry.setSecurity(stock);
+		} else if (qifTransaction.getAction().equals("DivX")) {
+			if (account.getDividendAccount() == null) {
+				throw new QifImportException("The file contains dividend entries.  However no category has been set to hold dividend payments");
+			}
 
-		        Entry transferEntry = transaction.createEntry();
-				if (qifTransaction.getTransferAccount() == null) {
-					throw new QifImportException("DivX transaction but no transfer account is in the QIF file.");
-				}
-				transferEntry.setAccount(findCategory(session, qifTransaction.getTransferAccount()));
-				transferEntry.setAmount(amount);
-				transferEntry.setCommodity(account.getCurrency());
-				transferEntry.setMemo("dividend - " + stock.getName());
-
-				StockEntry dividendEntry = transaction.createEntry().getExtension(StockEntryInfo.getPropertySet(), true);
-				dividendEntry.setAccount(account.getDividendAccount());
-				dividendEntry.setAmount(-amount);
-				dividendEntry.setSecurity(stock);
-			} else if (qifTransaction.getAction().equals("RtrnCap")) {
-				if (account.getReturnOfCapitalAccount() == null) {
-					throw new QifImportException("The file contains entries representing return of capital.  However no category has been set to hold these amounts.");
-				}
+			// Create a zero entry so they appear in this account.  Otherwise there would be absolutely nothing to
+			// associate the dividend with this account.  It would be associated with the stock, but we would not
+			// know it is the particular instance of stock that is held in this account (the same stock could be held
+			// in more than one account).
+			firstEntry.setAmount(0);
+			firstEntry.setCommodity(account.getCurrency());
 
-				firstEntry.setAmount(amount);
-				firstEntry.setCommodity(account.getCurrency());
+	        // Find the security
+	        String security = qifTransaction.getSecurity();
+	        Stock stock = findStock(session, security);
 
-				StockEntry otherEntry = transaction.createEntry().getExtension(StockEntryInfo.getPropertySet(), true);
-				otherEntry.setAccount(account.getReturnOfCapitalAccount());
-				otherEntry.setAmount(-amount);
+	        Entry transferEntry = transaction.createEntry();
+			if (qifTransaction.getTransferAccount() == null) {
+				throw new QifImportException("DivX transaction but no transfer account is in the QIF file.");
+			}
+			transferEntry.setAccount(findCategory(session, qifTransaction.getTransferAccount()));
+			transferEntry.setAmount(amount);
+			transferEntry.setCommodity(account.getCurrency());
+			transferEntry.setMemo("dividend - " + stock.getName());
+
+			StockEntry dividendEntry = transaction.createEntry().getExtension(StockEntryInfo.getPropertySet(), true);
+			dividendEntry.setAccount(account.getDividendAccount());
+			dividendEntry.setAmount(-amount);
+			dividendEntry.setSecurity(stock);
+		} else if (qifTransaction.getAction().equals("RtrnCap")) {
+			if (account.getReturnOfCapitalAccount() == null) {
+				throw new QifImportException("The file contains entries representing return of capital.  However no category has been set to hold these amounts.");
+			}
 
-		        // Find the security
-		        String security = qifTransaction.getSecurity();
-		        Stock stock = findStock(session, security);
-				otherEntry.setSecurity(stock);
+			firstEntry.setAmount(amount);
+			firstEntry.setCommodity(account.getCurrency());
 
-				firstEntry.setMemo("return of capital - " + qifTransaction.getMemo());
+			StockEntry otherEntry = transaction.createEntry().getExtension(StockEntryInfo.getPropertySet(), true);
+			otherEntry.setAccount(account.getReturnOfCapitalAccount());
+			otherEntry.setAmount(-amount);
 
-			} else if (qifTransaction.getAction().equals("IntInc")) {
-				firstEntry.setAmount(amount);
-				firstEntry.setCommodity(account.getCurrency());
+	        // Find the security
+	        String security = qifTransaction.getSecurity();
+	        Stock stock = findStock(session, security);
+			otherEntry.setSecurity(stock);
 
-				Entry interestEntry = transaction.createEntry();
-				interestEntry.setAccount(interestIncomeAccount);
-				interestEntry.setAmount(-amount);
-			} else if (qifTransaction.getAction().equals("MiscInc") || qifTransaction.getAction().equals("XIn")) {
-				firstEntry.setAmount(amount);
-				firstEntry.setCommodity(account.getCurrency());
+			firstEntry.setMemo("return of capital - " + qifTransaction.getMemo());
 
-				Entry transferEntry = transaction.createEntry();
-				if (qifTransaction.getTransferAccount() == null) {
-					transferEntry.setAccount(miscIncAccount);
-				} else {
-					transferEntry.setAccount(findCategory(session, qifTransaction.getTransferAccount()));
-				}
-				transferEntry.setAmount(-amount);
-				if (transferEntry.getAccount() instanceof StockAccount) {
-					transferEntry.setCommodity(account.getCurrency());
-				}
+		} else if (qifTransaction.getAction().equals("IntInc")) {
+			firstEntry.setAmount(amount);
+			firstEntry.setCommodity(account.getCurrency());
 
-			} else if (qifTransaction.getAction().equals("MiscExp") || qifTransaction.getAction().equals("MargInt") || qifTransaction.getAction().equals("XOut")) {
-				firstEntry.setAmount(-amount);
-				firstEntry.setCommodity(account.getCurrency());
+			Entry interestEntry = transaction.createEntry();
+			interestEntry.setAccount(interestIncomeAccount);
+			interestEntry.setAmount(-amount);
+		} else if (qifTransaction.getAction().equals("MiscInc") || qifTransaction.getAction().equals("XIn")) {
+			firstEntry.setAmount(amount);
+			firstEntry.setCommodity(account.getCurrency());
 
-				Entry transferEntry = transaction.createEntry();
-				if (qifTransaction.getTransferAccount() == null) {
-					transferEntry.setAccount(interestIncomeAccount);
-				} else {
-					transferEntry.setAccount(findCategory(session, qifTransaction.getTransferAccount()));
-				}
-				if (qifTransaction.getAction().equals("MargInt")) {
-					transferEntry.setMemo("margin interest");
-				} else if (qifTransaction.getAction().equals("MiscExp")) {
-					transferEntry.setMemo(qifTransaction.getMemo());
-				} else if (qifTransaction.getAction().equals("XOut")) {
-					transferEntry.setMemo(qifTransaction.getMemo());
-				}
-				transferEntry.setAmount(amount);
-				if (transferEntry.getAccount() instanceof StockAccount) {
-					// Same currency is transferred.
-					transferEntry.setCommodity(account.getCurrency());
-				}
-			} else if (qifTransaction.getAction().equals("ScrIssue")) {
-				// For a stock split, the share arrive as though income paid as share
-				// for an income account.  The entry for the source of the shares is
-				// associated with the shares already in this account.
-		        // Find the security
-		        String security = qifTransaction.getSecurity();
-		        Stock stock = findStock(session, security);
+			Entry transferEntry = transaction.createEntry();
+			if (qifTransaction.getTransferAccount() == null) {
+				transferEntry.setAccount(miscIncAccount);
+			} else {
+				transferEntry.setAccount(findCategory(session, qifTransaction.getTransferAccount()));
+			}
+			transferEntry.setAmount(-amount);
+			if (transferEntry.getAccount() instanceof StockAccount) {
+				transferEntry.setCommodity(account.getCurrency());
+			}
 
-		        Long quantity = stock.parse(qifTransaction.getQuantity());
+		} else if (qifTransaction.getAction().equals("MiscExp") || qifTransaction.getAction().equals("MargInt") || qifTransaction.getAction().equals("XOut")) {
+			firstEntry.setAmount(-amount);
+			firstEntry.setCommodity(account.getCurrency());
+
+			Entry transferEntry = transaction.createEntry();
+			if (qifTransaction.getTransferAccount() == null) {
+				transferEntry.setAccount(interestIncomeAccount);
+			} else {
+				transferEntry.setAccount(findCategory(session, qifTransaction.getTransferAccount()));
+			}
+			if (qifTransaction.getAction().equals("MargInt")) {
+				transferEntry.setMemo("margin interest");
+			} else if (qifTransaction.getAction().equals("MiscExp")) {
+				transferEntry.setMemo(qifTransaction.getMemo());
+			} else if (qifTransaction.getAction().equals("XOut")) {
+				transferEntry.setMemo(qifTransaction.getMemo());
+			}
+			transferEntry.setAmount(amount);
+			if (transferEntry.getAccount() instanceof StockAccount) {
+				// Same currency is transferred.
+				transferEntry.setCommodity(account.getCurrency());
+			}
+		} else if (qifTransaction.getAction().equals("ScrIssue")) {
+			// For a stock split, the share arrive as though income paid as share
+			// for an income account.  The entry for the source of the shares is
+			// associated with the shares already in this account.
+	        // Find the security
+	        String security = qifTransaction.getSecurity();
+	        Stock stock = findStock(session, security);
+
+	        Long quantity = stock.parse(qifTransaction.getQuantity());
 
 //		        int ratio = 1;
 //		        if (qifTransaction.getMemo().equals("2:1 stock split")) {
 //		        	ratio = 2;
 //		        }
 
-		        StockEntry firstEntryAsStock = firstEntry.getExtension(StockEntryInfo.getPropertySet(), true);
-	        	firstEntryAsStock.setCommodity(stock);
-	        	firstEntryAsStock.setAmount(quantity);
+	        StockEntry firstEntryAsStock = firstEntry.getExtension(StockEntryInfo.getPropertySet(), true);
+        	firstEntryAsStock.setCommodity(stock);
+        	firstEntryAsStock.setAmount(quantity);
 
-	        	StockEntry otherEntry = transaction.createEntry().getExtension(StockEntryInfo.getPropertySet(), true);
-	        	otherEntry.setAccount(stockSplitAccount);
+        	StockEntry otherEntry = transaction.createEntry().getExtension(StockEntryInfo.getPropertySet(), true);
+        	otherEntry.setAccount(stockSplitAccount);
         		otherEntry.setAmount(-quantity);
-	        	otherEntry.setCommodity(stock);
-			} else {
-				throw new QifImportException("Unknown transaction type: " + qifTransaction.getAction());
-			}
+        	otherEntry.setCommodity(stock);
+		} else {
+			throw new QifImportException("Unknown transaction type: " + qifTransaction.getAction());
+		}
 
-			// Process the category
+		// Process the category
 //			if (qifTransaction.getSplits().size() == 0) {
 //				// Add the second entry for this transaction
 //				Entry secondEntry = transaction.createEntry();
@@ -464,79 +491,62 @@ public class InvestmentImporter implements IQifImporter {
 //			}
 
 
-			// Split transactions.
-			for (QifSplitTransaction qifSplit : qifTransaction.getSplits()) {
-				Entry splitEntry = transaction.createEntry();
-				splitEntry.setAccount(findCategory(session, qifSplit.getCategory()));
-				splitEntry.setMemo(qifSplit.getMemo());
-				splitEntry.setAmount(-adjustAmount(qifSplit.getAmount(), currency));
-			}
+		// Split transactions.
+		for (QifSplitTransaction qifSplit : qifTransaction.getSplits()) {
+			Entry splitEntry = transaction.createEntry();
+			splitEntry.setAccount(findCategory(session, qifSplit.getCategory()));
+			splitEntry.setMemo(qifSplit.getMemo());
+			splitEntry.setAmount(-adjustAmount(qifSplit.getAmount(), currency));
+		}
 
-			// If we have a transfer then we need to search through the other
-			// account to see if a matching entry exists and then keep only one
-			// (if one is a split transaction, we should keep that one, otherwise
-			// it does not matter which we keep so keep the old one).
+		// If we have a transfer then we need to search through the other
+		// account to see if a matching entry exists and then keep only one
+		// (if one is a split transaction, we should keep that one, otherwise
+		// it does not matter which we keep so keep the old one).
 
-			for (Entry entry : transaction.getEntryCollection()) {
-				if (!entry.equals(firstEntry)) {
+		for (Entry entry : transaction.getEntryCollection()) {
+			if (!entry.equals(firstEntry)) {
 
-					// Force a category in each account.
-					// This is required by the JMoney data model.
-					if (entry.getAccount() == null) {
-						entry.setAccount(getCategory("Unknown Category", session));
-					}
+				// Force a category in each account.
+				// This is required by the JMoney data model.
+				if (entry.getAccount() == null) {
+					entry.setAccount(getCategory("Unknown Category", session));
+				}
 
-					if (entry.getAccount() instanceof IncomeExpenseAccount) {
-						// If this entry is for a multi-currency account,
-						// set the currency to be the same as the currency for this
-						// bank account.
-						if (((IncomeExpenseAccount)entry.getAccount()).isMultiCurrency()) {
-							entry.setIncomeExpenseCurrency(currency);
-						}
+				if (entry.getAccount() instanceof IncomeExpenseAccount) {
+					// If this entry is for a multi-currency account,
+					// set the currency to be the same as the currency for this
+					// bank account.
+					if (((IncomeExpenseAccount)entry.getAccount()).isMultiCurrency()) {
+						entry.setIncomeExpenseCurrency(currency);
 					}
+				}
 
-					if (entry.getAccount() instanceof CapitalAccount) {
-						Entry oldEntry = findMatch(account, transaction.getDate(), -entry.getAmount(), transaction);
-						if (oldEntry != null) {
-							if (transaction.hasMoreThanTwoEntries()) {
-								// Our transaction is split.  The other should
-								// not be, so delete the other transaction,
-								// leaving only our transaction.
-								Transaction  oldTransaction = oldEntry.getTransaction();
-								if (oldTransaction.hasMoreThanTwoEntries()) {
-									// We have problems.  Both are split.
-									// For time being, leave both, but we should
-									// alert the user or something.  Actually, this
-									// should not happen (at least MS-Money does not seem
-									// to allow this to happen), so perhaps it does not
-									// really matter what we do.
-								} else {
-									// Copy some of the properties across from the old
-									// before we delete it.
-
-									Entry oldOtherEntry = oldTransaction.getOther(oldEntry);
-									entry.setCheck(oldOtherEntry.getCheck());
-									entry.setValuta(oldOtherEntry.getValuta());
-
-									try {
-										session.deleteTransaction(oldTransaction);
-									} catch (ReferenceViolationException e) {
-										/*
-										 * Neither transactions nor entries or any other object type
-										 * contained in a transaction can have references to them. Therefore
-										 * this exception should not happen. It is possible that third-party
-										 * plug-ins might extend the model in a way that could cause this
-										 * exception, in which case we probably will need to think about how
-										 * we can be more user-friendly.
-										 */
-										throw new RuntimeException("This is an unlikely error and should not happen unless plug-ins are doing something complicated.", e);
-									}
-								}
+				if (entry.getAccount() instanceof CapitalAccount) {
+					Entry oldEntry = findMatch(account, transaction.getDate(), -entry.getAmount(), transaction);
+					if (oldEntry != null) {
+						if (transaction.hasMoreThanTwoEntries()) {
+							// Our transaction is split.  The other should
+							// not be, so delete the other transaction,
+							// leaving only our transaction.
+							Transaction  oldTransaction = oldEntry.getTransaction();
+							if (oldTransaction.hasMoreThanTwoEntries()) {
+								// We have problems.  Both are split.
+								// For time being, leave both, but we should
+								// alert the user or something.  Actually, this
+								// should not happen (at least MS-Money does not seem
+								// to allow this to happen), so perhaps it does not
+								// really matter what we do.
 							} else {
-								// Delete the transaction that we have created,
-								// leaving only the existing transaction.
+								// Copy some of the properties across from the old
+								// before we delete it.
+
+								Entry oldOtherEntry = oldTransaction.getOther(oldEntry);
+								entry.setCheck(oldOtherEntry.getCheck());
+								entry.setValuta(oldOtherEntry.getValuta());
+
 								try {
-									session.deleteTransaction(transaction);
+									session.deleteTransaction(oldTransaction);
 								} catch (ReferenceViolationException e) {
 									/*
 									 * Neither transactions nor entries or any other object type
@@ -548,11 +558,27 @@ public class InvestmentImporter implements IQifImporter {
 									 */
 									throw new RuntimeException("This is an unlikely error and should not happen unless plug-ins are doing something complicated.", e);
 								}
-
-								// We must stop processing because this transaction
-								// is now dead.
-								break;
 							}
+						} else {
+							// Delete the transaction that we have created,
+							// leaving only the existing transaction.
+							try {
+								session.deleteTransaction(transaction);
+							} catch (ReferenceViolationException e) {
+								/*
+								 * Neither transactions nor entries or any other object type
+								 * contained in a transaction can have references to them. Therefore
+								 * this exception should not happen. It is possible that third-party
+								 * plug-ins might extend the model in a way that could cause this
+								 * exception, in which case we probably will need to think about how
+								 * we can be more user-friendly.
+								 */
+								throw new RuntimeException("This is an unlikely error and should not happen unless plug-ins are doing something complicated.", e);
+							}
+
+							// We must stop processing because this transaction
+							// is now dead.
+							break;
 						}
 					}
 				}
@@ -34,6 +34,7 @@ import net.sf.jmoney.qif.parser.InvalidQifFileException;
 import net.sf.jmoney.qif.parser.QifDateFormat;
 import net.sf.jmoney.qif.parser.QifFile;
 import net.sf.jmoney.qif.parser.QifImportException;
+import net.sf.jmoney.qif.parser.QifInvstTransaction;
 import net.sf.jmoney.stocks.model.StockAccount;
 
 import org.eclipse.jface.dialogs.IDialogSettings;
@@ -160,12 +161,15 @@ public class QifBrokerageDownloadImportWizard extends Wizard implements IImportW
 			 * Import transactions that have no account information.
 			 */
 			if (!qifFile.invstTransactions.isEmpty()) {
-				// TODO: This does not work well.  The importData method is designed to import QIF files
+				// TODO: This does not work well.  The importer is designed to import QIF files
 				// that are exported from another accounting program.  There may need to be a different form,
 				// though most of the code will be the same, to import down-loads from brokerages.
 				InvestmentImporter importer = new InvestmentImporter();
 				int transactionCount = 0;
-				importer.importData(qifFile, sessionInTransaction, accountInTransaction);
+				importer.startBatch(qifFile, sessionInTransaction, accountInTransaction);
+				for (QifInvstTransaction qifTransaction : qifFile.invstTransactions) {
+					importer.investmentTransactionFound(null, qifTransaction);
+				}
 
 				/*
 				 * All entries have been imported and all the properties
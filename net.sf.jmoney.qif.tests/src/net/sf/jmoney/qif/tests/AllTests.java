@@ -5,7 +5,7 @@ import org.junit.runners.Suite;
 import org.junit.runners.Suite.SuiteClasses;
 
 @RunWith(Suite.class)
-@SuiteClasses( { FinanceQIFTests.class, jGnashTests.class })
+@SuiteClasses( { FinanceQIFTests.class, jGnashTests.class, BatchedImportTests.class })
 public class AllTests {
 
 }
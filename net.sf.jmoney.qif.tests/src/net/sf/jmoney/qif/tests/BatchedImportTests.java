@@ -0,0 +1,320 @@
+package net.sf.jmoney.qif.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import net.sf.jmoney.JMoneyPlugin;
+import net.sf.jmoney.model2.Account;
+import net.sf.jmoney.model2.Session;
+import net.sf.jmoney.qif.BasicImporter;
+import net.sf.jmoney.qif.BatchingRecordHandler;
+import net.sf.jmoney.qif.IQifImporter;
+import net.sf.jmoney.qif.parser.IQifRecordHandler;
+import net.sf.jmoney.qif.parser.QifAccount;
+import net.sf.jmoney.qif.parser.QifDate;
+import net.sf.jmoney.qif.parser.QifDateFormat;
+import net.sf.jmoney.qif.parser.QifFile;
+import net.sf.jmoney.qif.parser.QifImportException;
+import net.sf.jmoney.qif.parser.QifInvstTransaction;
+import net.sf.jmoney.qif.parser.QifSecurityPrices;
+import net.sf.jmoney.qif.parser.QifTransaction;
+import net.sf.jmoney.serializeddatastore.SessionManager;
+import net.sf.jmoney.serializeddatastore.SimpleObjectKey;
+
+import org.eclipse.core.runtime.NullProgressMonitor;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the import of a QIF file in batches: the file is scanned for the
+ * definitions and the date format, then the records are read a second time
+ * and passed to the importers a batch at a time, each batch being committed
+ * in its own transaction.
+ */
+public class BatchedImportTests {
+
+	/**
+	 * An account with five transactions. The first date could be in either
+	 * format, and only the fourth date shows that the dates are in EU format.
+	 */
+	private static final String[] EU_FILE = {
+		"!Account",
+		"NChecking",
+		"TBank",
+		"^",
+		"!Type:Bank",
+		"D03/04/2010",
+		"T-10.00",
+		"PPayee 1",
+		"LGroceries",
+		"^",
+		"D05/04/2010",
+		"T-20.00",
+		"PPayee 2",
+		"LGroceries",
+		"^",
+		"D10/04/2010",
+		"T-30.00",
+		"PPayee 3",
+		"LRent",
+		"^",
+		"D25/04/2010",
+		"T-40.00",
+		"PPayee 4",
+		"LGroceries",
+		"^",
+		"D26/04/2010",
+		"T50.00",
+		"PPayee 5",
+		"LSalary",
+		"^",
+	};
+
+	/**
+	 * Runs each batch in the thread that commits the batch, as the tests
+	 * have no UI thread.
+	 */
+	private static final Executor DIRECT = new Executor() {
+		public void execute(Runnable runnable) {
+			runnable.run();
+		}
+	};
+
+	private File file;
+
+	private Session session;
+
+	@Before
+	public void setUp() throws Exception {
+		file = writeQifFile(EU_FILE);
+
+		// A session manager that has no file associated with it
+		SessionManager sessionManager = new SessionManager(null, null, null);
+		SimpleObjectKey sessionKey = new SimpleObjectKey(sessionManager);
+		session = new Session(sessionKey, null);
+		sessionKey.setObject(session);
+		sessionManager.setSession(session);
+
+		JMoneyPlugin.initSystemCurrency(session);
+	}
+
+	@After
+	public void tearDown() {
+		file.delete();
+	}
+
+	private static File writeQifFile(String[] lines) throws IOException {
+		File qifFile = File.createTempFile("jmoney", ".qif");
+		Writer writer = new OutputStreamWriter(new FileOutputStream(qifFile), "US-ASCII");
+		try {
+			for (String line : lines) {
+				writer.write(line);
+				writer.write("\r\n");
+			}
+		} finally {
+			writer.close();
+		}
+		return qifFile;
+	}
+
+	/**
+	 * Checks that a date read before the date that showed the format is read
+	 * in the format found by the scan, not in the format guessed before that
+	 * date was seen.
+	 */
+	@Test
+	public void dateFormatFromScanUsedForEarlierDates() throws Exception {
+		QifFile qifFile = QifFile.scan(file, QifDateFormat.DetermineFromFile, null);
+		List<QifDate> dates = readDates(qifFile);
+
+		assertEquals(5, dates.size());
+		assertDate(2010, 4, 3, dates.get(0));
+		assertDate(2010, 4, 25, dates.get(3));
+	}
+
+	@Test
+	public void usDateFormatFromScan() throws Exception {
+		File usFile = writeQifFile(new String[] {
+				"!Type:Bank",
+				"D04/03/2010",
+				"T-10.00",
+				"^",
+				"D04/25/2010",
+				"T-20.00",
+				"^",
+		});
+		try {
+			QifFile qifFile = QifFile.scan(usFile, QifDateFormat.DetermineFromFile, null);
+			List<QifDate> dates = readDates(qifFile);
+
+			assertEquals(2, dates.size());
+			assertDate(2010, 4, 3, dates.get(0));
+			assertDate(2010, 4, 25, dates.get(1));
+		} finally {
+			usFile.delete();
+		}
+	}
+
+	private static List<QifDate> readDates(QifFile qifFile) throws Exception {
+		final List<QifDate> dates = new ArrayList<QifDate>();
+		qifFile.readRecords(new IQifRecordHandler() {
+			public void transactionFound(QifAccount account, QifTransaction transaction) {
+				dates.add(transaction.getDate());
+			}
+
+			public void investmentTransactionFound(QifAccount account, QifInvstTransaction transaction) {
+				fail("No investment transactions in file");
+			}
+
+			public void securityPricesFound(QifSecurityPrices prices) {
+				fail("No prices in file");
+			}
+		}, null);
+		return dates;
+	}
+
+	private static void assertDate(int year, int month, int day, QifDate date) {
+		assertEquals(year, date.getYear());
+		assertEquals(month, date.getMonth());
+		assertEquals(day, date.getDay());
+	}
+
+	/**
+	 * Checks that the records are passed on in the order in which they are
+	 * in the file, in batches of the given size with the last batch being a
+	 * part batch, and that each batch is committed before the next starts.
+	 */
+	@Test
+	public void batchBoundaries() throws Exception {
+		RecordingImporter recorder = new RecordingImporter();
+		BasicImporter basicImporter = new BasicImporter();
+		importFile(2, recorder, basicImporter);
+
+		assertEquals(Arrays.asList(2, 2, 1), recorder.batchSizes);
+		assertEquals(Arrays.asList(0, 2, 4), recorder.committedTransactionCounts);
+		assertEquals(Arrays.asList("Payee 1", "Payee 2", "Payee 3", "Payee 4", "Payee 5"), recorder.payees);
+
+		// The account passed with the records is the same across batches
+		assertEquals(1, recorder.accounts.size());
+		assertEquals("Checking", recorder.accounts.get(0).getName());
+	}
+
+	/**
+	 * Checks that the accounts and categories created in one batch are found,
+	 * not created again, in later batches, and that the result counts the
+	 * records in all the batches.
+	 */
+	@Test
+	public void basicImporterResultAcrossBatches() throws Exception {
+		BasicImporter importer = new BasicImporter();
+		importFile(2, importer);
+
+		assertEquals("5 transactions", importer.getResult());
+		assertEquals(5, session.getTransactionCollection().size());
+
+		List<String> accountNames = new ArrayList<String>();
+		for (Account account : session.getAccountCollection()) {
+			accountNames.add(account.getName());
+		}
+		assertEquals(4, accountNames.size());
+		assertEquals(1, count(accountNames, "Checking"));
+		assertEquals(1, count(accountNames, "Groceries"));
+		assertEquals(1, count(accountNames, "Rent"));
+		assertEquals(1, count(accountNames, "Salary"));
+	}
+
+	private static int count(List<String> names, String name) {
+		int count = 0;
+		for (String eachName : names) {
+			if (eachName.equals(name)) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Checks that the batches committed before an importer fails are kept,
+	 * and the failing batch is not committed.
+	 */
+	@Test
+	public void failedBatchNotCommitted() throws Exception {
+		RecordingImporter failingImporter = new RecordingImporter() {
+			@Override
+			public void transactionFound(QifAccount account, QifTransaction transaction) throws QifImportException {
+				super.transactionFound(account, transaction);
+				if (payees.size() == 4) {
+					throw new QifImportException("Cannot import " + transaction.getPayee());
+				}
+			}
+		};
+
+		try {
+			importFile(2, new BasicImporter(), failingImporter);
+			fail("Exception from importer not passed on");
+		} catch (QifImportException e) {
+			assertEquals("Cannot import Payee 4", e.getMessage());
+		}
+
+		assertEquals(2, session.getTransactionCollection().size());
+		assertEquals(Arrays.asList(0, 2), failingImporter.committedTransactionCounts);
+	}
+
+	private void importFile(int batchSize, IQifImporter... importers) throws Exception {
+		QifFile qifFile = QifFile.scan(file, QifDateFormat.DetermineFromFile, null);
+		BatchingRecordHandler handler = new BatchingRecordHandler(qifFile, Arrays.asList(importers), session.getDataManager(), batchSize, DIRECT, new NullProgressMonitor(), "Import");
+		qifFile.readRecords(handler, null);
+		handler.commitBatch();
+	}
+
+	/**
+	 * Records the records passed to it and, at the start of each batch, the
+	 * number of transactions already committed.
+	 */
+	private static class RecordingImporter implements IQifImporter {
+		final List<Integer> batchSizes = new ArrayList<Integer>();
+		final List<Integer> committedTransactionCounts = new ArrayList<Integer>();
+		final List<String> payees = new ArrayList<String>();
+		final List<QifAccount> accounts = new ArrayList<QifAccount>();
+
+		public void startBatch(QifFile qifFile, Session batchSession, Account selectedAccount) {
+			batchSizes.add(0);
+			committedTransactionCounts.add(batchSession.getTransactionCollection().size());
+		}
+
+		public void transactionFound(QifAccount account, QifTransaction transaction) throws QifImportException {
+			int last = batchSizes.size() - 1;
+			batchSizes.set(last, batchSizes.get(last) + 1);
+			payees.add(transaction.getPayee());
+			if (accounts.isEmpty()) {
+				accounts.add(account);
+			} else {
+				assertSame(accounts.get(0), account);
+			}
+		}
+
+		public void investmentTransactionFound(QifAccount account, QifInvstTransaction transaction) {
+			fail("No investment transactions in file");
+		}
+
+		public void securityPricesFound(QifSecurityPrices prices) {
+			fail("No prices in file");
+		}
+
+		public String getResult() {
+			return null;
+		}
+	}
+}
@@ -6,7 +6,6 @@ import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Iterator;
-import java.util.List;
 import java.util.Map;
 
 import net.sf.jmoney.isolation.ReferenceViolationException;
@@ -24,6 +23,8 @@ import net.sf.jmoney.qif.parser.QifAccount;
 import net.sf.jmoney.qif.parser.QifCategoryLine;
 import net.sf.jmoney.qif.parser.QifDate;
 import net.sf.jmoney.qif.parser.QifFile;
+import net.sf.jmoney.qif.parser.QifInvstTransaction;
+import net.sf.jmoney.qif.parser.QifSecurityPrices;
 import net.sf.jmoney.qif.parser.QifSplitTransaction;
 import net.sf.jmoney.qif.parser.QifTransaction;
 
@@ -69,15 +70,41 @@ public class BasicImporter implements IQifImporter {
 		}
 	}
 
-	public String importData(QifFile qifFile, Session session, Account selectedAccount) {
+	/**
+	 * The session into which the current batch is being imported.
+	 */
+	private Session session;
+
+	/**
+	 * The account selected by the user, in the session of the current batch,
+	 * or null if no account was selected.
+	 */
+	private Account selectedAccount;
+
+	/**
+	 * The QIF account containing the last transaction imported. This is used
+	 * to set the start balance once for each account.
+	 */
+	private QifAccount lastQifAccount = null;
+
+	private int transactionCount = 0;
 
+	public void startBatch(QifFile qifFile, Session session, Account selectedAccount) {
+		this.session = session;
+		this.selectedAccount = selectedAccount;
+
+		// The maps must contain the accounts in the session for this batch.
+		accountMap.clear();
+		categoryMap.clear();
 		buildAccountMap(session);
 		buildCategoryMap(session);
+	}
 
-		/*
-		 * Import transactions that have no account information.
-		 */
-		if (!qifFile.transactions.isEmpty()) {
+	public void transactionFound(QifAccount qifAccount, QifTransaction qifTransaction) {
+		if (qifAccount == null) {
+			/*
+			 * Import transactions that have no account information.
+			 */
 			if (selectedAccount == null) {
 				throw new RuntimeException("No account selected and transactions are listed in the QIF file with no account information.");
 			}
@@ -90,24 +117,11 @@ public class BasicImporter implements IQifImporter {
 
 			CurrencyAccount currencyAccount = (CurrencyAccount)selectedAccount;
 
-			importAccount(session, currencyAccount, qifFile.transactions, false);
-		}
-		
-		/*
-		 * Import transactions that do have account information.
-		 */
-		for (QifAccount qifAccount : qifFile.accountList) {
-
-			if (qifAccount.getTransactions().size() == 0) {
-				/*
-				 * This account has no normal (non-investment) transactions. It
-				 * may be an account definition that does not include
-				 * transactions, or it may be an investment account. Either way,
-				 * we don't process it because here we are only importing normal
-				 * transactions.
-				 */
-				continue;
-			}
+			importTransaction(session, currencyAccount, qifTransaction, false);
+		} else {
+			/*
+			 * Import transactions that do have account information.
+			 */
 			CapitalAccount account = getAccount(qifAccount.getName(), session);
 			if (!(account instanceof CurrencyAccount)) {
 				// TODO: process error properly
@@ -116,16 +130,31 @@ public class BasicImporter implements IQifImporter {
 			}
 
 			CurrencyAccount currencyAccount = (CurrencyAccount)account;
-			currencyAccount.setStartBalance(qifAccount.startBalance);
+			if (qifAccount != lastQifAccount) {
+				currencyAccount.setStartBalance(qifAccount.startBalance);
+				lastQifAccount = qifAccount;
+			}
 
-			importAccount(session, currencyAccount, qifAccount.getTransactions(), true);
+			importTransaction(session, currencyAccount, qifTransaction, true);
 		}
 
-		return "some transactions";
+		transactionCount++;
+	}
+
+	public void investmentTransactionFound(QifAccount qifAccount, QifInvstTransaction qifTransaction) {
+		// Investment transactions are imported by the stocks plug-in
+	}
+
+	public void securityPricesFound(QifSecurityPrices securityPrices) {
+		// Security prices are not imported
+	}
+
+	public String getResult() {
+		return transactionCount == 0 ? null : transactionCount + " transactions";
 	}
 
 	/**
-	 * Imports an account from a QIF-file.
+	 * Imports a transaction from a QIF-file.
 	 * <P>
 	 * As soon as a split category, memo, or amount is found when one has
 	 * already been specified for the split, a new split is created. If split
@@ -157,177 +186,159 @@ public class BasicImporter implements IQifImporter {
 	 * 			this is an import of entries downloaded from a bank with no account information
 	 * 			in which case no category is expected and auto-matching will be used
 	 */
-	private void importAccount(Session session, CurrencyAccount account,
-			List<QifTransaction> transactions, boolean useQuickenCategories) {
+	private void importTransaction(Session session, CurrencyAccount account,
+			QifTransaction qifTransaction, boolean useQuickenCategories) {
 		
 		// TODO: This should come from the account????
 		Currency currency = session.getDefaultCurrency();
 
-		for (QifTransaction qifTransaction : transactions) {
-			// Create a new transaction
-			Transaction transaction = session.createTransaction();
+		// Create a new transaction
+		Transaction transaction = session.createTransaction();
 
-			// Add the first entry for this transaction and set the account
-			QIFEntry firstEntry = transaction.createEntry().getExtension(QIFEntryInfo.getPropertySet(), true);
-			firstEntry.setAccount(account);
+		// Add the first entry for this transaction and set the account
+		QIFEntry firstEntry = transaction.createEntry().getExtension(QIFEntryInfo.getPropertySet(), true);
+		firstEntry.setAccount(account);
 
-			transaction.setDate(convertDate(qifTransaction.getDate()));
-			long amount = adjustAmount(qifTransaction.getAmount(), currency);
-			firstEntry.setAmount(amount);
-			firstEntry.setReconcilingState(qifTransaction.getStatus());
-			firstEntry.setCheck(qifTransaction.getCheckNumber());
-			firstEntry.setMemo(qifTransaction.getPayee());
+		transaction.setDate(convertDate(qifTransaction.getDate()));
+		long amount = adjustAmount(qifTransaction.getAmount(), currency);
+		firstEntry.setAmount(amount);
+		firstEntry.setReconcilingState(qifTransaction.getStatus());
+		firstEntry.setCheck(qifTransaction.getCheckNumber());
+		firstEntry.setMemo(qifTransaction.getPayee());
 
-			// Process the category
-			if (qifTransaction.getSplits().size() == 0) {
-				// Add the second entry for this transaction
-				Entry secondEntry = transaction.createEntry();
+		// Process the category
+		if (qifTransaction.getSplits().size() == 0) {
+			// Add the second entry for this transaction
+			Entry secondEntry = transaction.createEntry();
 
-				secondEntry.setAmount(-amount);
+			secondEntry.setAmount(-amount);
 
-				if (useQuickenCategories) {
-					QifCategoryLine categoryLine = qifTransaction.getCategory();
-					if (categoryLine == null) {
-						throw new RuntimeException("When transactions are listed in the QIF file with account information, there must be category information.");
-					}
-					Account category = findCategory(session, categoryLine);
-					secondEntry.setAccount(category);
+			if (useQuickenCategories) {
+				QifCategoryLine categoryLine = qifTransaction.getCategory();
+				if (categoryLine == null) {
+					throw new RuntimeException("When transactions are listed in the QIF file with account information, there must be category information.");
+				}
+				Account category = findCategory(session, categoryLine);
+				secondEntry.setAccount(category);
 
-					if (category instanceof CapitalAccount) {
-						// isTransfer = true;
+				if (category instanceof CapitalAccount) {
+					// isTransfer = true;
+				} else {
+					IncomeExpenseAccount incomeExpenseCategory = (IncomeExpenseAccount)category;
+					if (incomeExpenseCategory.isMultiCurrency()) {
+						secondEntry.setIncomeExpenseCurrency(currency);
 					} else {
-						IncomeExpenseAccount incomeExpenseCategory = (IncomeExpenseAccount)category;
-						if (incomeExpenseCategory.isMultiCurrency()) {
-							secondEntry.setIncomeExpenseCurrency(currency);
-						} else {
-							/*
-							 * Quicken categories are (I think) always
-							 * multi-currency. This means that under the quicken
-							 * model, all expenses are in the same currency as the
-							 * account from which the expense came. For example, I
-							 * am visiting a customer in Europe and I incur a
-							 * business expense in Euro, but I charge to my US
-							 * dollar billed credit card. Under the JMoney model,
-							 * the expense category for the client can be set to
-							 * 'Euro only' and the actual cost in Euro may be
-							 * entered, resulting in an expense report for the European
-							 * client that has all amounts in Euro exactly matching
-							 * the receipts. The Quicken model, however, is
-							 * problematic. The expense shows up in US dollars. The
-							 * report may translate at some exchange rate, but the
-							 * amounts on the expense report will then not match the
-							 * receipts.
-							 * 
-							 * This gives us a problem in this import. If the
-							 * currency of the bank account does not match the
-							 * currency of the category then we do not have
-							 * sufficient information. Quicken only gives us the
-							 * amount in the currency of the bank account.
-							 */
-							if (!incomeExpenseCategory.getCurrency().equals(currency)) {
-								// TODO: resolve this.  For time being, the amount is set even though
-								// the currency is different, thus assuming an exchange rate of
-								// one to one.
-							}
+						/*
+						 * Quicken categories are (I think) always
+						 * multi-currency. This means that under the quicken
+						 * model, all expenses are in the same currency as the
+						 * account from which the expense came. For example, I
+						 * am visiting a customer in Europe and I incur a
+						 * business expense in Euro, but I charge to my US
+						 * dollar billed credit card. Under the JMoney model,
+						 * the expense category for the client can be set to
+						 * 'Euro only' and the actual cost in Euro may be
+						 * entered, resulting in an expense report for the European
+						 * client that has all amounts in Euro exactly matching
+						 * the receipts. The Quicken model, however, is
+						 * problematic. The expense shows up in US dollars. The
+						 * report may translate at some exchange rate, but the
+						 * amounts on the expense report will then not match the
+						 * receipts.
+						 * 
+						 * This gives us a problem in this import. If the
+						 * currency of the bank account does not match the
+						 * currency of the category then we do not have
+						 * sufficient information. Quicken only gives us the
+						 * amount in the currency of the bank account.
+						 */
+						if (!incomeExpenseCategory.getCurrency().equals(currency)) {
+							// TODO: resolve this.  For time being, the amount is set even though
+							// the currency is different, thus assuming an exchange rate of
+							// one to one.
 						}
 					}
-				} else {
-					if (qifTransaction.getCategory() != null) {
-						throw new RuntimeException("When transactions are listed in the QIF file with no account information (downloaded from bank), there must not be any category information.");
-					}
-					// TODO: Auto-import here
-					IncomeExpenseAccount category = getCategory("Unknown Category", session);
 				}
-			}	
+			} else {
+				if (qifTransaction.getCategory() != null) {
+					throw new RuntimeException("When transactions are listed in the QIF file with no account information (downloaded from bank), there must not be any category information.");
+				}
+				// TODO: Auto-import here
+				IncomeExpenseAccount category = getCategory("Unknown Category", session);
+			}
+		}	
 
 
-			firstEntry.setMemo(qifTransaction.getMemo());
+		firstEntry.setMemo(qifTransaction.getMemo());
 
-			String address = null;
-			for (String line : qifTransaction.getAddressLines()) {
-				if (address == null) {
-					address = line;
-				} else {
-					address = address + '\n' + line; 
-				}
+		String address = null;
+		for (String line : qifTransaction.getAddressLines()) {
+			if (address == null) {
+				address = line;
+			} else {
+				address = address + '\n' + line; 
 			}
-			firstEntry.setAddress(address);
+		}
+		firstEntry.setAddress(address);
 
 
-			// Split transactions.
-			for (QifSplitTransaction qifSplit : qifTransaction.getSplits()) {					
-				Entry splitEntry = transaction.createEntry();
-				splitEntry.setAccount(findCategory(session, qifSplit.getCategory()));
-				splitEntry.setMemo(qifSplit.getMemo());
-				splitEntry.setAmount(-adjustAmount(qifSplit.getAmount(), currency));
-			}
+		// Split transactions.
+		for (QifSplitTransaction qifSplit : qifTransaction.getSplits()) {					
+			Entry splitEntry = transaction.createEntry();
+			splitEntry.setAccount(findCategory(session, qifSplit.getCategory()));
+			splitEntry.setMemo(qifSplit.getMemo());
+			splitEntry.setAmount(-adjustAmount(qifSplit.getAmount(), currency));
+		}
 
-			// If we have a transfer then we need to search through the other
-			// account to see if a matching entry exists and then keep only one
-			// (if one is a split transaction, we should keep that one, otherwise
-			// it does not matter which we keep so keep the old one).
+		// If we have a transfer then we need to search through the other
+		// account to see if a matching entry exists and then keep only one
+		// (if one is a split transaction, we should keep that one, otherwise
+		// it does not matter which we keep so keep the old one).
 
-			for (Iterator<Entry> iter = transaction.getEntryCollection().iterator(); iter.hasNext(); ) {
-				Entry entry = iter.next();
-				if (!entry.equals(firstEntry.getBaseObject())) {
+		for (Iterator<Entry> iter = transaction.getEntryCollection().iterator(); iter.hasNext(); ) {
+			Entry entry = iter.next();
+			if (!entry.equals(firstEntry.getBaseObject())) {
 
-					// Force a category in each account.
-					// This is required by the JMoney data model.
-					if (entry.getAccount() == null) {
-						entry.setAccount(getCategory("Unknown Category", session));
-					}
+				// Force a category in each account.
+				// This is required by the JMoney data model.
+				if (entry.getAccount() == null) {
+					entry.setAccount(getCategory("Unknown Category", session));
+				}
 
-					if (entry.getAccount() instanceof IncomeExpenseAccount) {
-						// If this entry is for a multi-currency account,
-						// set the currency to be the same as the currency for this
-						// bank account.
-						if (((IncomeExpenseAccount)entry.getAccount()).isMultiCurrency()) {
-							entry.setIncomeExpenseCurrency(currency);
-						}
+				if (entry.getAccount() instanceof IncomeExpenseAccount) {
+					// If this entry is for a multi-currency account,
+					// set the currency to be the same as the currency for this
+					// bank account.
+					if (((IncomeExpenseAccount)entry.getAccount()).isMultiCurrency()) {
+						entry.setIncomeExpenseCurrency(currency);
 					}
+				}
 
-					if (entry.getAccount() instanceof CapitalAccount) {
-						Entry oldEntry = findMatch(account, transaction.getDate(), -entry.getAmount(), transaction);
-						if (oldEntry != null) {
-							if (transaction.hasMoreThanTwoEntries()) {
-								// Our transaction is split.  The other should
-								// not be, so delete the other transaction,
-								// leaving only our transaction.
-								Transaction  oldTransaction = oldEntry.getTransaction(); 
-								if (oldTransaction.hasMoreThanTwoEntries()) {
-									// We have problems.  Both are split.
-									// For time being, leave both, but we should
-									// alert the user or something.  Actually, this
-									// should not happen (at least MS-Money does not seem
-									// to allow this to happen), so perhaps it does not
-									// really matter what we do.
-								} else {
-									// Copy some of the properties across from the old
-									// before we delete it.
-
-									Entry oldOtherEntry = oldTransaction.getOther(oldEntry);									
-									entry.setCheck(oldOtherEntry.getCheck());
-									entry.setValuta(oldOtherEntry.getValuta());
-
-									try {
-										session.deleteTransaction(oldTransaction);
-									} catch (ReferenceViolationException e) {
-										/*
-										 * Neither transactions nor entries or any other object type
-										 * contained in a transaction can have references to them. Therefore
-										 * this exception should not happen. It is possible that third-party
-										 * plug-ins might extend the model in a way that could cause this
-										 * exception, in which case we probably will need to think about how
-										 * we can be more user-friendly.
-										 */
-										throw new RuntimeException("This is an unlikely error and should not happen unless plug-ins are doing something complicated.", e);
-									}
-								}
+				if (entry.getAccount() instanceof CapitalAccount) {
+					Entry oldEntry = findMatch(account, transaction.getDate(), -entry.getAmount(), transaction);
+					if (oldEntry != null) {
+						if (transaction.hasMoreThanTwoEntries()) {
+							// Our transaction is split.  The other should
+							// not be, so delete the other transaction,
+							// leaving only our transaction.
+							Transaction  oldTransaction = oldEntry.getTransaction(); 
+							if (oldTransaction.hasMoreThanTwoEntries()) {
+								// We have problems.  Both are split.
+								// For time being, leave both, but we should
+								// alert the user or something.  Actually, this
+								// should not happen (at least MS-Money does not seem
+								// to allow this to happen), so perhaps it does not
+								// really matter what we do.
 							} else {
-								// Delete the transaction that we have created,
-								// leaving only the existing transaction.
+								// Copy some of the properties across from the old
+								// before we delete it.
+
+								Entry oldOtherEntry = oldTransaction.getOther(oldEntry);									
+								entry.setCheck(oldOtherEntry.getCheck());
+								entry.setValuta(oldOtherEntry.getValuta());
+
 								try {
-									session.deleteTransaction(transaction);
+									session.deleteTransaction(oldTransaction);
 								} catch (ReferenceViolationException e) {
 									/*
 									 * Neither transactions nor entries or any other object type
@@ -339,11 +350,27 @@ public class BasicImporter implements IQifImporter {
 									 */
 									throw new RuntimeException("This is an unlikely error and should not happen unless plug-ins are doing something complicated.", e);
 								}
-
-								// We must stop processing because this transaction
-								// is now dead.
-								break;
 							}
+						} else {
+							// Delete the transaction that we have created,
+							// leaving only the existing transaction.
+							try {
+								session.deleteTransaction(transaction);
+							} catch (ReferenceViolationException e) {
+								/*
+								 * Neither transactions nor entries or any other object type
+								 * contained in a transaction can have references to them. Therefore
+								 * this exception should not happen. It is possible that third-party
+								 * plug-ins might extend the model in a way that could cause this
+								 * exception, in which case we probably will need to think about how
+								 * we can be more user-friendly.
+								 */
+								throw new RuntimeException("This is an unlikely error and should not happen unless plug-ins are doing something complicated.", e);
+							}
+
+							// We must stop processing because this transaction
+							// is now dead.
+							break;
 						}
 					}
 				}
@@ -0,0 +1,169 @@
+/*
+ *
+ *  JMoney - A Personal Finance Manager
+ *  Copyright (c) 2004 Nigel Westbury <westbury@users.sourceforge.net>
+ *
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ */
+
+package net.sf.jmoney.qif;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import net.sf.jmoney.model2.IDataManagerForAccounts;
+import net.sf.jmoney.model2.TransactionManagerForAccounts;
+import net.sf.jmoney.qif.parser.IQifRecordHandler;
+import net.sf.jmoney.qif.parser.QifAccount;
+import net.sf.jmoney.qif.parser.QifFile;
+import net.sf.jmoney.qif.parser.QifImportException;
+import net.sf.jmoney.qif.parser.QifInvstTransaction;
+import net.sf.jmoney.qif.parser.QifSecurityPrices;
+import net.sf.jmoney.qif.parser.QifTransaction;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.OperationCanceledException;
+
+/**
+ * Collects the records read from a QIF file into batches and passes each
+ * batch to all the importers.
+ * <P>
+ * The records may be read in a background thread, but the importers change
+ * the model, so each batch is passed to the importers by the given executor,
+ * which must run it in the thread in which the model may be changed. A
+ * transaction is used for each batch of records. This allows the entries to
+ * be more efficiently written to the back-end datastore. The import of each
+ * batch is a single change for undo/redo purposes.
+ * <P>
+ * {@link #commitBatch()} must be called after the last record has been read
+ * so that the last batch, which is usually a part batch, is imported.
+ */
+public class BatchingRecordHandler implements IQifRecordHandler {
+
+	/**
+	 * A record read from the QIF file that has not yet been passed to the
+	 * importers.
+	 */
+	private interface IPendingRecord {
+		void passTo(IQifImporter importer) throws QifImportException;
+	}
+
+	private final QifFile qifFile;
+	private final List<IQifImporter> importers;
+	private final IDataManagerForAccounts dataManager;
+	private final int batchSize;
+	private final Executor modelExecutor;
+	private final IProgressMonitor monitor;
+	private final String transactionDescription;
+
+	private List<IPendingRecord> pendingRecords = new ArrayList<IPendingRecord>();
+
+	/**
+	 * @param qifFile the file, as returned by <code>QifFile.scan</code>
+	 * @param dataManager the data manager into which the records are imported
+	 * @param batchSize the number of records imported in each transaction
+	 * @param modelExecutor runs each batch, waiting until it has been run,
+	 *            in the thread in which the model may be changed
+	 * @param monitor checked for cancellation before each record is added
+	 * @param transactionDescription the description of each transaction, as
+	 *            shown in the undo and redo menu items
+	 */
+	public BatchingRecordHandler(QifFile qifFile, List<IQifImporter> importers, IDataManagerForAccounts dataManager, int batchSize, Executor modelExecutor, IProgressMonitor monitor, String transactionDescription) {
+		this.qifFile = qifFile;
+		this.importers = importers;
+		this.dataManager = dataManager;
+		this.batchSize = batchSize;
+		this.modelExecutor = modelExecutor;
+		this.monitor = monitor;
+		this.transactionDescription = transactionDescription;
+	}
+
+	public void transactionFound(final QifAccount account, final QifTransaction transaction) throws QifImportException {
+		addRecord(new IPendingRecord() {
+			public void passTo(IQifImporter importer) throws QifImportException {
+				importer.transactionFound(account, transaction);
+			}
+		});
+	}
+
+	public void investmentTransactionFound(final QifAccount account, final QifInvstTransaction transaction) throws QifImportException {
+		addRecord(new IPendingRecord() {
+			public void passTo(IQifImporter importer) throws QifImportException {
+				importer.investmentTransactionFound(account, transaction);
+			}
+		});
+	}
+
+	public void securityPricesFound(final QifSecurityPrices prices) throws QifImportException {
+		addRecord(new IPendingRecord() {
+			public void passTo(IQifImporter importer) throws QifImportException {
+				importer.securityPricesFound(prices);
+			}
+		});
+	}
+
+	private void addRecord(IPendingRecord record) throws QifImportException {
+		if (monitor.isCanceled()) {
+			throw new OperationCanceledException();
+		}
+		pendingRecords.add(record);
+		if (pendingRecords.size() == batchSize) {
+			commitBatch();
+		}
+	}
+
+	/**
+	 * Passes the pending records to the importers and commits the imported
+	 * entries to the datastore, in the thread in which the model may be
+	 * changed. All the properties have then been set and should be in a valid
+	 * state, so the batch can be committed.
+	 */
+	public void commitBatch() throws QifImportException {
+		if (pendingRecords.isEmpty()) {
+			return;
+		}
+
+		final List<IPendingRecord> batch = pendingRecords;
+		pendingRecords = new ArrayList<IPendingRecord>();
+
+		final QifImportException[] failure = new QifImportException[1];
+		modelExecutor.execute(new Runnable() {
+			public void run() {
+				TransactionManagerForAccounts transactionManager = new TransactionManagerForAccounts(dataManager);
+				try {
+					for (IQifImporter importer : importers) {
+						importer.startBatch(qifFile, transactionManager.getSession(), null);
+					}
+					for (IPendingRecord record : batch) {
+						for (IQifImporter importer : importers) {
+							record.passTo(importer);
+						}
+					}
+				} catch (QifImportException e) {
+					failure[0] = e;
+					return;
+				}
+				transactionManager.commit(transactionDescription);
+			}
+		});
+
+		if (failure[0] != null) {
+			throw failure[0];
+		}
+	}
+}
@@ -2,34 +2,57 @@ package net.sf.jmoney.qif;
 
 import net.sf.jmoney.model2.Account;
 import net.sf.jmoney.model2.Session;
+import net.sf.jmoney.qif.parser.IQifRecordHandler;
 import net.sf.jmoney.qif.parser.QifFile;
 import net.sf.jmoney.qif.parser.QifImportException;
 
-public interface IQifImporter {
+/**
+ * Implemented by plug-ins that import part of the contents of a QIF file.
+ * <P>
+ * When the user imports a QIF file, the file is first read to get the
+ * accounts, categories, classes, and securities, and to determine the date
+ * format. The file is then read a second time and the transactions and
+ * security prices are passed to all extensions, one record at a time, using
+ * the methods in {@link IQifRecordHandler}. The records are not kept in memory,
+ * so very large files can be imported.
+ * <P>
+ * The records are imported in batches. Each batch is imported in its own
+ * transaction which is committed before the next batch is started. Objects
+ * obtained from the session given for one batch must not be used in the next
+ * batch.
+ * <P>
+ * For example, if a plug-in is written to implement memorized transactions
+ * then that plug-in should provide an implementation of this interface
+ * that imports the memorized transactions.
+ */
+public interface IQifImporter extends IQifRecordHandler {
 
 	/**
-	 * When the user imports a QIF file, the file is first parsed into
-	 * an object that contains the complete contents of the QIF file.
-	 * This object is then passed to all extensions that know how to import
-	 * a part of the QIF file.
-	 * <P>
-	 * For example, if a plug-in is written to implement memorized transactions
-	 * then that plug-in should provide an implementation of this interface
-	 * that imports the memorized transactions.
+	 * Called before the first batch of records and after each batch has
+	 * been committed.
+	 * 
+	 * @param qifFile the file being imported, which contains the accounts,
+	 *      categories, classes and securities but not the transactions or
+	 *      prices
+	 * @param session the session into which this batch of records is to be
+	 *      imported
+	 * @param account the selected account or null if no single account was selected,
+	 *      may be null but then the import will only succeed if the QIF file contains
+	 *      account information before each transaction list
+	 */
+	void startBatch(QifFile qifFile, Session session, Account account) throws QifImportException;
+
+	/**
+	 * Called after all records have been passed.
 	 * <P>
 	 * A string is then returned to indicate what was imported.  For example, the
 	 * memorized transaction plug-in may return something like "6 memorized transactions".
 	 * The messages from all extensions are combined into a list and used to confirm
 	 * to the user what was imported.
 	 * 
-	 * @param qifFile
-	 * @param session
-	 * @param account the selected account or null if no single account was selected,
-	 *      may be null but then the import will only succeed if the QIF file contains
-	 *      account information before each transaction list
 	 * @return a string describing what was imported, or null if
 	 * 		nothing was in the file that could be imported by this
 	 * 		implementation.
 	 */
-	String importData(QifFile qifFile, Session session, Account account) throws QifImportException;
+	String getResult();
 }
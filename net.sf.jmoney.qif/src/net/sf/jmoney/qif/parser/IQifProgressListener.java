@@ -0,0 +1,37 @@
+/*
+ *
+ *  JMoney - A Personal Finance Manager
+ *  Copyright (c) 2008 Nigel Westbury <westbury@users.sourceforge.net>
+ *
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ */
+package net.sf.jmoney.qif.parser;
+
+/**
+ * Told how far through a QIF file the parser has read. This is used to show
+ * progress when reading large files.
+ */
+public interface IQifProgressListener {
+
+	/**
+	 * Called after each record has been read.
+	 * 
+	 * @param bytesRead the number of bytes of the file read so far
+	 * @param length the length of the file in bytes
+	 */
+	void bytesRead(long bytesRead, long length);
+}
@@ -0,0 +1,49 @@
+/*
+ *
+ *  JMoney - A Personal Finance Manager
+ *  Copyright (c) 2008 Nigel Westbury <westbury@users.sourceforge.net>
+ *
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ */
+package net.sf.jmoney.qif.parser;
+
+/**
+ * Receives the records in a QIF file as they are read by
+ * {@link QifFile#readRecords(IQifRecordHandler, IQifProgressListener)}.
+ * <P>
+ * Records are passed in the order in which they appear in the file. A record
+ * is not kept by the parser once it has been passed to the handler, so the
+ * memory needed to read a file does not depend on the size of the file.
+ */
+public interface IQifRecordHandler {
+
+	/**
+	 * @param account the account that preceded the list containing this
+	 *            transaction, or null if the list was not preceded by
+	 *            account information
+	 */
+	void transactionFound(QifAccount account, QifTransaction transaction) throws QifImportException;
+
+	/**
+	 * @param account the account that preceded the list containing this
+	 *            transaction, or null if the list was not preceded by
+	 *            account information
+	 */
+	void investmentTransactionFound(QifAccount account, QifInvstTransaction transaction) throws QifImportException;
+
+	void securityPricesFound(QifSecurityPrices securityPrices) throws QifImportException;
+}
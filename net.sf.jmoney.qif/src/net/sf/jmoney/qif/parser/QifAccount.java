@@ -105,6 +105,11 @@ public class QifAccount {
 			line = in.readLine();
 		}
 
+		/*
+		 * If a list of transactions follows then it is for this account.
+		 * The transactions themselves are read by the caller, which passes
+		 * them on as they are read, so here we only look at the type.
+		 */
 		line = in.peekLine();
 		if (line != null
 				&& QifFile.startsWith(line, "!Type:")) {
@@ -117,24 +122,19 @@ public class QifAccount {
 					|| typeString.equals("Invst")) {
 
 				acc.transactionType = typeString;
-
-				// must be transactions that follow
-
-				line = in.readLine();    // Move onto line following !Type
-				do {
-					if (typeString.equals("Invst")) {
-						QifInvstTransaction transaction = QifInvstTransaction.parseTransaction(in, qifFile);
-						acc.invstTransactions.add(transaction);
-					} else {
-						QifTransaction transaction = QifTransaction.parseTransaction(in, qifFile);
-						acc.transactions.add(transaction);
-					}
-				} while (in.peekLine() != null && !in.peekLine().startsWith("!"));
 			}
 		}
 		return acc;
 	}
 
+	void addTransaction(QifTransaction transaction) {
+		transactions.add(transaction);
+	}
+
+	void addInvstTransaction(QifInvstTransaction transaction) {
+		invstTransactions.add(transaction);
+	}
+
 	public String getName() {
 		return name;
 	}
@@ -186,6 +186,13 @@ public class QifAccount {
 		return transactionType;
 	}
 
+	/**
+	 * Returns the transactions that followed this account in the QIF file.
+	 * These are kept only if the file was read into memory using the
+	 * <code>QifFile</code> constructor. If the records were read using
+	 * <code>QifFile.readRecords</code> then the list is empty and the
+	 * transactions were instead passed to the record handler.
+	 */
 	public List<QifTransaction> getTransactions() {
 		return Collections.unmodifiableList(transactions);
 	}
@@ -22,8 +22,11 @@
 package net.sf.jmoney.qif.parser;
 
 import java.io.File;
-import java.io.FileReader;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.math.BigDecimal;
 import java.text.DateFormat;
 import java.text.NumberFormat;
@@ -66,12 +69,25 @@ public class QifFile {
 
 	private List<QifMemorized> memorized = new ArrayList<QifMemorized>();
 
+	/**
+	 * The stream from which the file is being read, set only while the file
+	 * is being read.
+	 */
+	private CountingInputStream input = null;
+
 	// Fields used to guess date format from date order
 	private int lastDateIfUS = 0;
 	private int lastDateIfEU = 0;
 	private boolean usDatesInOrder = true;
 	private boolean euDatesInOrder = true;
 	
+	/**
+	 * Reads the entire QIF file into memory.
+	 * <P>
+	 * This is suitable only for files that are not too large. Large files
+	 * should be read using {@link #scan(File, QifDateFormat, IQifProgressListener)}
+	 * and {@link #readRecords(IQifRecordHandler, IQifProgressListener)}.
+	 */
 	public QifFile(File file, QifDateFormat dateFormat) throws InvalidQifFileException, AmbiguousDateException, IOException {
 		this.file = file;
 
@@ -109,107 +125,263 @@ public class QifFile {
 	
 		*/
 
-		
-			this.dateFormat = dateFormat;
-
-			FileReader reader = null;
-			QifReader in = null;
-			try {
-				reader = new FileReader(file);
-				in = new QifReader(reader);
-				String line = in.readLine();
-				while (line != null) {
-					if (startsWith(line, "!Type:Class")) {
-						parseClassList(in);
-					} else if (startsWith(line, "!Type:Cat")) {
-						parseCategoryList(in);
-					} else if (startsWith(line, "!Account")) {
-						parseAccounts(in);
-					} else if (startsWith(line, "!Type:Memorized")) {
-						parseMemorizedTransactions(in);
-					} else if (startsWith(line, "!Type:Security")) {
-						parseSecurities(in);
-					} else if (startsWith(line, "!Type:Prices")) {
-						parseSecuritiesPrices(in);
-					} else if (startsWith(line, "!Type:Bank")) { // QIF from an online bank statement... assumes the account is known
-						parseAccountTransactions(in);
-					} else if (startsWith(line, "!Type:CCard")) { // QIF from an online credit card statement
-						parseAccountTransactions(in);
-					} else if (startsWith(line, "!Type:Oth")) { // QIF from an online credit card statement
-						parseAccountTransactions(in);
-					} else if (startsWith(line, "!Type:Cash")) { // Partial QIF export
-						parseAccountTransactions(in);
-					} else if (startsWith(line, "!Type:Invst")) { // investment transactions follow
-						parseInvestmentAccountTransactions(in);
-					} else if (startsWith(line, "!Type:")) { // unknown type - ignore
-						parseUnknownType(in);
-					} else if (startsWith(line, "!Option:AutoSwitch")) {
-						autoSwitch = true;
-					} else if (startsWith(line, "!Clear:AutoSwitch")) {
-						autoSwitch = false;
+		this.dateFormat = dateFormat;
+
+		try {
+			parse(new IQifRecordHandler() {
+				public void transactionFound(QifAccount account, QifTransaction transaction) {
+					if (account == null) {
+						transactions.add(transaction);
 					} else {
-						throw new InvalidQifFileException("Unexpected data: " + line, in);
+						account.addTransaction(transaction);
 					}
-					line = in.readLine();
 				}
-			} finally {
-				if (in != null) in.close();
-				if (reader != null) reader.close();
-			}
-			
-			/*
-			 * No month or day above 12, but if the dates are in order only when
-			 * interpreted as EU or in order only when interpreted as US then assume the date order
-			 * that puts the dates in order.
-			 */
-			if (this.dateFormat == QifDateFormat.DetermineFromFile || dateFormat == QifDateFormat.DetermineFromFileAndSystem) {
-				if (usDatesInOrder && !euDatesInOrder) {
-					this.dateFormat = QifDateFormat.UsDateOrder;
+
+				public void investmentTransactionFound(QifAccount account, QifInvstTransaction transaction) {
+					if (account == null) {
+						invstTransactions.add(transaction);
+					} else {
+						account.addInvstTransaction(transaction);
+					}
 				}
 
-				if (euDatesInOrder && !usDatesInOrder) {
-					this.dateFormat = QifDateFormat.EuDateOrder;
+				public void securityPricesFound(QifSecurityPrices prices) {
+					securityPrices.add(prices);
 				}
+			}, null, true);
+		} catch (QifImportException e) {
+			// Our handler does not throw this exception
+			throw new RuntimeException(e);
+		}
+
+		determineDateFormat(dateFormat);
+	}
+
+	private QifFile(File file) {
+		this.file = file;
+	}
+
+	/**
+	 * Reads a QIF file without keeping the transactions or the security
+	 * prices. The accounts, categories, classes, and securities are kept, and
+	 * the date format is determined. The transactions and prices can then be
+	 * read by calling {@link #readRecords(IQifRecordHandler, IQifProgressListener)}.
+	 * <P>
+	 * The file is read twice, once by this method and once when the records
+	 * are read. The first read is needed because the date format may not be
+	 * known until the last date in the file has been seen. In return, the
+	 * memory needed does not depend on the number of transactions or prices in
+	 * the file.
+	 * 
+	 * @param progressListener told how far through the file this method has
+	 *            read, or null if progress is not needed
+	 */
+	public static QifFile scan(File file, QifDateFormat dateFormat, IQifProgressListener progressListener) throws InvalidQifFileException, AmbiguousDateException, IOException {
+		QifFile qifFile = new QifFile(file);
+		qifFile.dateFormat = dateFormat;
+
+		IQifRecordHandler ignoreRecords = new IQifRecordHandler() {
+			public void transactionFound(QifAccount account, QifTransaction transaction) {
+				// Dates have been checked by the parser, nothing else to do
 			}
 
-			// TODO better than looking to the locale, get the currency of the account
-			// and find a locale that uses that currency.  I don't know if we can use
-			// the Java currency and locale data or if we need to just hard-code a few
-			// currencies and date formats.
-			
-			if (this.dateFormat == QifDateFormat.DetermineFromFileAndSystem) {
-				// The file contains dates but none have a day more
-				// than 12.  So look to the locale.
-
-				// Is there a more direct way of getting the date order
-				// from the default locale?
-
-				DateFormat localFormatter = DateFormat.getDateInstance(DateFormat.SHORT);
-				Calendar calendar = Calendar.getInstance(localFormatter.getTimeZone());
-				calendar.clear();
-				calendar.set(2008, Calendar.NOVEMBER, 23);
-				String formatted = localFormatter.format(calendar.getTime());
-
-				QifDateFormat qifDateFormat;
-				if (formatted.startsWith("11")) {
-					// Month first
-					this.dateFormat = QifDateFormat.UsDateOrder;
-				} else if (formatted.startsWith("23")) {
-					// Day first
-					this.dateFormat = QifDateFormat.EuDateOrder;
+			public void investmentTransactionFound(QifAccount account, QifInvstTransaction transaction) {
+				// Dates have been checked by the parser, nothing else to do
+			}
+
+			public void securityPricesFound(QifSecurityPrices prices) {
+				// Not needed until the records are read
+			}
+		};
+
+		try {
+			qifFile.parse(ignoreRecords, progressListener, true);
+		} catch (QifImportException e) {
+			// Our handler does not throw this exception
+			throw new RuntimeException(e);
+		}
+
+		qifFile.determineDateFormat(dateFormat);
+		return qifFile;
+	}
+
+	/**
+	 * Reads the transactions and security prices in the file, passing each
+	 * to the given handler as it is read. The date format must have been
+	 * determined, so this may be called only on a <code>QifFile</code>
+	 * obtained from {@link #scan(File, QifDateFormat, IQifProgressListener)}.
+	 * <P>
+	 * The accounts passed to the handler are not the same objects as those in
+	 * <code>accountList</code>, and they do not contain the transactions.
+	 * 
+	 * @param progressListener told how far through the file this method has
+	 *            read, or null if progress is not needed
+	 * @throws QifImportException if thrown by the handler, in which case no
+	 *             further records are read
+	 */
+	public void readRecords(IQifRecordHandler handler, IQifProgressListener progressListener) throws IOException, InvalidQifFileException, QifImportException {
+		parse(handler, progressListener, false);
+	}
+
+	/**
+	 * Reads the file, passing the records to the given handler.
+	 * 
+	 * @param keepDefinitions true if the accounts, categories, classes,
+	 *            securities and memorized transactions are to be kept, false if
+	 *            they have already been kept by a previous read
+	 */
+	private void parse(IQifRecordHandler handler, IQifProgressListener progressListener, boolean keepDefinitions) throws IOException, InvalidQifFileException, QifImportException {
+		input = new CountingInputStream(new FileInputStream(file));
+		QifReader in = new QifReader(new InputStreamReader(input));
+		try {
+			String line = in.readLine();
+			while (line != null) {
+				if (startsWith(line, "!Type:Class")) {
+					parseClassList(in, keepDefinitions);
+				} else if (startsWith(line, "!Type:Cat")) {
+					parseCategoryList(in, keepDefinitions);
+				} else if (startsWith(line, "!Account")) {
+					parseAccounts(in, handler, progressListener, keepDefinitions);
+				} else if (startsWith(line, "!Type:Memorized")) {
+					parseMemorizedTransactions(in, keepDefinitions);
+				} else if (startsWith(line, "!Type:Security")) {
+					parseSecurities(in, keepDefinitions);
+				} else if (startsWith(line, "!Type:Prices")) {
+					parseSecuritiesPrices(in, handler, progressListener);
+				} else if (startsWith(line, "!Type:Bank")) { // QIF from an online bank statement... assumes the account is known
+					parseAccountTransactions(in, null, handler, progressListener);
+				} else if (startsWith(line, "!Type:CCard")) { // QIF from an online credit card statement
+					parseAccountTransactions(in, null, handler, progressListener);
+				} else if (startsWith(line, "!Type:Oth")) { // QIF from an online credit card statement
+					parseAccountTransactions(in, null, handler, progressListener);
+				} else if (startsWith(line, "!Type:Cash")) { // Partial QIF export
+					parseAccountTransactions(in, null, handler, progressListener);
+				} else if (startsWith(line, "!Type:Invst")) { // investment transactions follow
+					parseInvestmentAccountTransactions(in, null, handler, progressListener);
+				} else if (startsWith(line, "!Type:")) { // unknown type - ignore
+					parseUnknownType(in);
+				} else if (startsWith(line, "!Option:AutoSwitch")) {
+					autoSwitch = true;
+				} else if (startsWith(line, "!Clear:AutoSwitch")) {
+					autoSwitch = false;
 				} else {
-					// Some other order, Asian perhaps?
-					throw new AmbiguousDateException();
+					throw new InvalidQifFileException("Unexpected data: " + line, in);
 				}
+				reportProgress(progressListener);
+				line = in.readLine();
 			}
-			
-			/*
-			 * If we have not by now determined the date order then we throw
-			 * an exception.
-			 */
-			if (this.dateFormat == QifDateFormat.DetermineFromFile) {
+		} finally {
+			in.close();
+			input = null;
+		}
+	}
+
+	private void reportProgress(IQifProgressListener progressListener) {
+		if (progressListener != null) {
+			progressListener.bytesRead(input.getCount(), file.length());
+		}
+	}
+
+	/**
+	 * Sets the date format from the dates seen while reading the file, if the
+	 * date format was to be determined from the file.
+	 * 
+	 * @param requestedDateFormat the date format passed by the caller
+	 */
+	private void determineDateFormat(QifDateFormat requestedDateFormat) throws AmbiguousDateException {
+		/*
+		 * No month or day above 12, but if the dates are in order only when
+		 * interpreted as EU or in order only when interpreted as US then assume the date order
+		 * that puts the dates in order.
+		 */
+		if (this.dateFormat == QifDateFormat.DetermineFromFile || requestedDateFormat == QifDateFormat.DetermineFromFileAndSystem) {
+			if (usDatesInOrder && !euDatesInOrder) {
+				this.dateFormat = QifDateFormat.UsDateOrder;
+			}
+
+			if (euDatesInOrder && !usDatesInOrder) {
+				this.dateFormat = QifDateFormat.EuDateOrder;
+			}
+		}
+
+		// TODO better than looking to the locale, get the currency of the account
+		// and find a locale that uses that currency.  I don't know if we can use
+		// the Java currency and locale data or if we need to just hard-code a few
+		// currencies and date formats.
+		
+		if (this.dateFormat == QifDateFormat.DetermineFromFileAndSystem) {
+			// The file contains dates but none have a day more
+			// than 12.  So look to the locale.
+
+			// Is there a more direct way of getting the date order
+			// from the default locale?
+
+			DateFormat localFormatter = DateFormat.getDateInstance(DateFormat.SHORT);
+			Calendar calendar = Calendar.getInstance(localFormatter.getTimeZone());
+			calendar.clear();
+			calendar.set(2008, Calendar.NOVEMBER, 23);
+			String formatted = localFormatter.format(calendar.getTime());
+
+			QifDateFormat qifDateFormat;
+			if (formatted.startsWith("11")) {
+				// Month first
+				this.dateFormat = QifDateFormat.UsDateOrder;
+			} else if (formatted.startsWith("23")) {
+				// Day first
+				this.dateFormat = QifDateFormat.EuDateOrder;
+			} else {
+				// Some other order, Asian perhaps?
 				throw new AmbiguousDateException();
 			}
+		}
+		
+		/*
+		 * If we have not by now determined the date order then we throw
+		 * an exception.
+		 */
+		if (this.dateFormat == QifDateFormat.DetermineFromFile) {
+			throw new AmbiguousDateException();
+		}
+	}
+
+	/**
+	 * Counts the bytes read from the file, so progress can be shown.
+	 */
+	private static class CountingInputStream extends FilterInputStream {
+		private long count = 0;
+
+		CountingInputStream(InputStream in) {
+			super(in);
+		}
+
+		@Override
+		public int read() throws IOException {
+			int result = super.read();
+			if (result != -1) {
+				count++;
+			}
+			return result;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int result = super.read(b, off, len);
+			if (result != -1) {
+				count += result;
+			}
+			return result;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			long result = super.skip(n);
+			count += result;
+			return result;
+		}
+
+		long getCount() {
+			return count;
+		}
 	}
 
     /** Tests if the source string starts with the prefix string. Case is
@@ -274,30 +446,45 @@ public class QifFile {
 
 	/**
 	 * Called when !Account is found.
-	 * A list of accounts is expected to follow.
+	 * A list of accounts is expected to follow.  Each account may be
+	 * followed by a list of transactions in the account.
 	 * @throws IOException 
 	 * @throws InvalidQifFileException 
+	 * @throws QifImportException 
 	 */
-    private void parseAccounts(QifReader in) throws IOException, InvalidQifFileException {
+    private void parseAccounts(QifReader in, IQifRecordHandler handler, IQifProgressListener progressListener, boolean keepDefinitions) throws IOException, InvalidQifFileException, QifImportException {
     	do {
     		QifAccount account = QifAccount.parseAccount(in, this);
-    		accountList.add(account);
+    		if (keepDefinitions) {
+    			accountList.add(account);
+    		}
+
+    		if (account.getTransactionType() != null) {
+    			in.readLine();    // Move onto line following !Type
+    			if (account.getTransactionType().equals("Invst")) {
+    				parseInvestmentAccountTransactions(in, account, handler, progressListener);
+    			} else {
+    				parseAccountTransactions(in, account, handler, progressListener);
+    			}
+    		}
     	} while (in.peekLine() != null && !in.peekLine().startsWith("!"));
     }
 
     // TODO strip out investment account transaction checks
-    private void parseAccountTransactions(QifReader in) throws IOException, InvalidQifFileException {
-    	do {
+    private void parseAccountTransactions(QifReader in, QifAccount account, IQifRecordHandler handler, IQifProgressListener progressListener) throws IOException, InvalidQifFileException, QifImportException {
+    	while (in.peekLine() != null && !in.peekLine().startsWith("!")) {
     		QifTransaction transaction = QifTransaction.parseTransaction(in, this);
-    		transactions.add(transaction);
-    	} while (in.peekLine() != null && !in.peekLine().startsWith("!"));
+    		handler.transactionFound(account, transaction);
+    		reportProgress(progressListener);
+    	}
     }
 
-    private void parseInvestmentAccountTransactions(QifReader in) throws IOException, InvalidQifFileException {
-    	do {
+    private void parseInvestmentAccountTransactions(QifReader in, QifAccount account, IQifRecordHandler handler, IQifProgressListener progressListener) throws IOException, InvalidQifFileException, QifImportException {
+    	while (in.peekLine() != null && !in.peekLine().startsWith("!")) {
     		QifInvstTransaction transaction = QifInvstTransaction.parseTransaction(in, this);
-    		invstTransactions.add(transaction);
-    	} while (in.peekLine() != null && !in.peekLine().startsWith("!"));
+    		handler.investmentTransactionFound(account, transaction);
+    		reportProgress(progressListener);
+    	}
     }
 
     /**
@@ -305,24 +492,30 @@ public class QifFile {
      * @throws IOException 
      * @throws InvalidQifFileException 
      */
-    private void parseMemorizedTransactions(QifReader in) throws IOException, InvalidQifFileException {
+    private void parseMemorizedTransactions(QifReader in, boolean keepDefinitions) throws IOException, InvalidQifFileException {
     	do {
     		QifMemorized transaction = QifMemorized.parseMemorized(in, this);
-    		memorized .add(transaction);
+    		if (keepDefinitions) {
+    			memorized.add(transaction);
+    		}
     	} while (in.peekLine() != null && !in.peekLine().startsWith("!"));
     }
 
-    private void parseCategoryList(QifReader in) throws IOException, InvalidQifFileException {
+    private void parseCategoryList(QifReader in, boolean keepDefinitions) throws IOException, InvalidQifFileException {
     	do {
     		QifCategory category = QifCategory.parseCategory(in);
-    		categories.add(category);
+    		if (keepDefinitions) {
+    			categories.add(category);
+    		}
     	} while (in.peekLine() != null && !in.peekLine().startsWith("!"));
     }
 
-    private void parseClassList(QifReader in) throws IOException, InvalidQifFileException {
+    private void parseClassList(QifReader in, boolean keepDefinitions) throws IOException, InvalidQifFileException {
     	do {
     		QifClassItem category = QifClassItem.parseClass(in);
-    		classes.add(category);
+    		if (keepDefinitions) {
+    			classes.add(category);
+    		}
     	} while (in.peekLine() != null && !in.peekLine().startsWith("!"));
     }
 
@@ -332,17 +525,20 @@ public class QifFile {
      * @throws IOException 
      * @throws InvalidQifFileException 
      */
-    private void parseSecurities(QifReader in) throws IOException, InvalidQifFileException {
+    private void parseSecurities(QifReader in, boolean keepDefinitions) throws IOException, InvalidQifFileException {
     	do {
     		QifSecurity security = QifSecurity.parseSecurity(in);
-    		securities .add(security);
+    		if (keepDefinitions) {
+    			securities.add(security);
+    		}
     	} while (in.peekLine() != null && !in.peekLine().startsWith("!"));
     }
 
-    private void parseSecuritiesPrices(QifReader in) throws IOException, InvalidQifFileException {
+    private void parseSecuritiesPrices(QifReader in, IQifRecordHandler handler, IQifProgressListener progressListener) throws IOException, InvalidQifFileException, QifImportException {
     	do {
-    		QifSecurityPrices security = QifSecurityPrices.parseSecurityPrices(in);
-    		securityPrices.add(security);
+    		QifSecurityPrices prices = QifSecurityPrices.parseSecurityPrices(in);
+    		handler.securityPricesFound(prices);
+    		reportProgress(progressListener);
     	} while (in.peekLine() != null && !in.peekLine().startsWith("!"));
     }
 
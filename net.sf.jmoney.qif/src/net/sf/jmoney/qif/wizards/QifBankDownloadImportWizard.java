@@ -44,6 +44,7 @@ import org.eclipse.ui.IWorkbench;
 import org.eclipse.ui.IWorkbenchWindow;
 
 import net.sf.jmoney.importer.MatchingEntryFinder;
+import net.sf.jmoney.importer.MatchingEntryIndex;
 import net.sf.jmoney.importer.matcher.EntryData;
 import net.sf.jmoney.importer.matcher.IPatternMatcher;
 import net.sf.jmoney.importer.matcher.ImportEntryProperty;
@@ -200,6 +201,13 @@ public class QifBankDownloadImportWizard extends Wizard implements IImportWizard
 
 						Collection<EntryData> importedEntries = new ArrayList<EntryData>();
 
+						/*
+						 * Index the entries by amount and date so that each imported
+						 * transaction does not have to look at every entry in the account
+						 * when looking for a match.
+						 */
+						MatchingEntryIndex matchingEntryIndex = new MatchingEntryIndex(currencyAccount);
+
 						for (QifTransaction qifTransaction : qifFile.transactions) {
 							
 							if (!qifTransaction.getSplits().isEmpty()) {
@@ -238,7 +246,7 @@ public class QifBankDownloadImportWizard extends Wizard implements IImportWizard
 								}
 							};
 							
-							Entry match = matchFinder.findMatch(currencyAccount, amount, date);
+							Entry match = matchFinder.findMatch(matchingEntryIndex, amount, date);
 							if (match != null) {
 								Entry entryInTrans = transactionManager.getCopyInTransaction(match);
 								entryInTrans.setValuta(date);
@@ -24,17 +24,20 @@ package net.sf.jmoney.qif.wizards;
 
 import java.io.File;
 import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
 import java.text.MessageFormat;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Executor;
 
 import net.sf.jmoney.model2.IDataManagerForAccounts;
 import net.sf.jmoney.model2.MalformedPluginException;
 import net.sf.jmoney.model2.Session;
-import net.sf.jmoney.model2.TransactionManagerForAccounts;
+import net.sf.jmoney.qif.BatchingRecordHandler;
 import net.sf.jmoney.qif.IQifImporter;
 import net.sf.jmoney.qif.QIFPlugin;
 import net.sf.jmoney.qif.parser.AmbiguousDateException;
+import net.sf.jmoney.qif.parser.IQifProgressListener;
 import net.sf.jmoney.qif.parser.InvalidQifFileException;
 import net.sf.jmoney.qif.parser.QifDateFormat;
 import net.sf.jmoney.qif.parser.QifFile;
@@ -43,11 +46,16 @@ import net.sf.jmoney.qif.parser.QifImportException;
 import org.eclipse.core.runtime.CoreException;
 import org.eclipse.core.runtime.IConfigurationElement;
 import org.eclipse.core.runtime.IExtensionRegistry;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.OperationCanceledException;
 import org.eclipse.core.runtime.Platform;
 import org.eclipse.jface.dialogs.IDialogSettings;
 import org.eclipse.jface.dialogs.MessageDialog;
+import org.eclipse.jface.dialogs.ProgressMonitorDialog;
+import org.eclipse.jface.operation.IRunnableWithProgress;
 import org.eclipse.jface.viewers.IStructuredSelection;
 import org.eclipse.jface.wizard.Wizard;
+import org.eclipse.swt.widgets.Display;
 import org.eclipse.ui.IImportWizard;
 import org.eclipse.ui.IWorkbench;
 import org.eclipse.ui.IWorkbenchWindow;
@@ -60,6 +68,12 @@ import org.eclipse.ui.IWorkbenchWindow;
  * action requires all import implementations to be wizards.
  */
 public class QifFullImportWizard extends Wizard implements IImportWizard {
+	/**
+	 * The number of records imported in each transaction if no batch size is
+	 * set in the dialog settings.
+	 */
+	private static final int DEFAULT_BATCH_SIZE = 500;
+
 	private IWorkbenchWindow window;
 
 	private QifImportWizardPage mainPage;
@@ -112,66 +126,66 @@ public class QifFullImportWizard extends Wizard implements IImportWizard {
 	}
 
 
-	public void importFile(File file) {
-		try {
-			QifFile qifFile = new QifFile(file, QifDateFormat.DetermineFromFileAndSystem);
-
-			List<String> results = new ArrayList<String>();
-
-			/*
-			 * Create a transaction to be used to import the entries.  This allows the entries to
-			 * be more efficiently written to the back-end datastore and it also groups
-			 * the entire import as a single change for undo/redo purposes.
-			 */
-			TransactionManagerForAccounts transactionManager = new TransactionManagerForAccounts(session.getDataManager());
-			Session sessionInTransaction = transactionManager.getSession();
-			
-			IExtensionRegistry registry = Platform.getExtensionRegistry();
-			for (IConfigurationElement element: registry.getConfigurationElementsFor("net.sf.jmoney.qif.importers")) {
-				if (element.getName().equals("importer")) {
-					try {
-						Object listener = element.createExecutableExtension("class");
-						if (!(listener instanceof IQifImporter)) {
-							throw new MalformedPluginException(
-									"Plug-in " + element.getContributor().getName()
-									+ " extends the net.sf.jmoney.qif.importers extension point. "
-									+ "However, the class specified by the class attribute "
-									+ "(" + listener.getClass().getName() + ") "
-									+ "does not implement the IQifImporter interface. "
-									+ "This interface must be implemented by all classes referenced "
-									+ "by the class attribute.");
-						}
+	/**
+	 * Imports a QIF file.
+	 * <P>
+	 * The file is read twice. The first pass reads the account, category,
+	 * class, and security definitions and determines the date format. The
+	 * second pass reads the transactions in batches, the number of records in
+	 * each batch being given by the "batchSize" dialog setting, so the
+	 * transactions in the file are never all held in memory. If the user
+	 * cancels the import then the batches already committed are kept. Each
+	 * batch can be undone.
+	 * <P>
+	 * The file is read in a background thread so that the progress dialog
+	 * stays responsive. The model may only be changed in the UI thread, so
+	 * each batch of records is passed to the importers, and committed, in the
+	 * UI thread.
+	 */
+	public void importFile(final File file) {
+		final List<IQifImporter> importers = getImporters();
+		final List<String> results = new ArrayList<String>();
+		final Display display = window.getShell().getDisplay();
 
-						IQifImporter importer = (IQifImporter)listener;
+		IRunnableWithProgress importRunnable = new IRunnableWithProgress() {
+			public void run(IProgressMonitor monitor)
+					throws InvocationTargetException, InterruptedException {
+				// Set the number of work units in the monitor where
+				// one work unit is reading 1 Kbyte in one of the two passes.
+				int workUnits = (int) (file.length() / 1024) * 2;
 
-						String result = importer.importData(qifFile, sessionInTransaction, null);
-						if (result != null) {
-							results.add(result);
-						}
-					} catch (CoreException e) {
-						if (e.getStatus().getException() instanceof ClassNotFoundException) {
-							ClassNotFoundException e2 = (ClassNotFoundException)e.getStatus().getException();
-							throw new MalformedPluginException(
-									"Plug-in " + element.getContributor().getName()
-									+ " extends the net.sf.jmoney.qif.importers extension point. "
-									+ "However, the class specified by the class attribute "
-									+ "(" + e2.getMessage() + ") "
-									+ "could not be found. "
-									+ "The class attribute must specify a class that implements the "
-									+ "IQifImporter interface.");
-						}
-					}
+				monitor.beginTask(MessageFormat.format("Importing {0}", file.getName()), workUnits);
 
+				try {
+					importFile(file, importers, display, monitor);
+				} catch (OperationCanceledException e) {
+					throw new InterruptedException();
+				} catch (Exception e) {
+					throw new InvocationTargetException(e);
+				} finally {
+					monitor.done();
 				}
+
+				display.syncExec(new Runnable() {
+					public void run() {
+						for (IQifImporter importer : importers) {
+							String result = importer.getResult();
+							if (result != null) {
+								results.add(result);
+							}
+						}
+					}
+				});
 			}
+		};
 
-			/*
-			 * All entries have been imported and all the properties
-			 * have been set and should be in a valid state, so we
-			 * can now commit the imported entries to the datastore.
-			 */
-			String transactionDescription = MessageFormat.format("Import {0}", file.getName());
-			transactionManager.commit(transactionDescription);									
+		try {
+			ProgressMonitorDialog progressDialog = new ProgressMonitorDialog(window.getShell());
+			try {
+				progressDialog.run(true, true, importRunnable);
+			} catch (InvocationTargetException e) {
+				throw e.getCause();
+			}
 
 			if (!results.isEmpty()) {
 				StringBuffer combined = new StringBuffer();
@@ -189,6 +203,8 @@ public class QifFullImportWizard extends Wizard implements IImportWizard {
 			} else {
 				MessageDialog.openError(window.getShell(), "Unable to import QIF file", "No data was found that could be imported by any of the installed plug-ins.");
 			}
+		} catch (InterruptedException e) {
+			MessageDialog.openInformation(window.getShell(), "QIF import cancelled", "The import was cancelled.  Any data that had already been committed has been kept and can be undone.");
 		} catch (IOException e) {
 			MessageDialog.openError(window.getShell(), "Unable to read QIF file", e.getLocalizedMessage());
 		} catch (InvalidQifFileException e) {
@@ -197,6 +213,99 @@ public class QifFullImportWizard extends Wizard implements IImportWizard {
 			MessageDialog.openError(window.getShell(), "Unable to import QIF file", e.getLocalizedMessage());
 		} catch (AmbiguousDateException e) {
 			MessageDialog.openError(window.getShell(), "QIF file has an ambiguous date format that cannot be guessed from your locale.", e.getLocalizedMessage());
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Throwable e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private void importFile(File file, List<IQifImporter> importers, final Display display, IProgressMonitor monitor)
+			throws IOException, InvalidQifFileException, QifImportException, AmbiguousDateException {
+		QifFile qifFile = QifFile.scan(file, QifDateFormat.DetermineFromFileAndSystem, new MonitorProgressListener(monitor));
+
+		if (monitor.isCanceled()) {
+			throw new OperationCanceledException();
+		}
+
+		Executor uiThreadExecutor = new Executor() {
+			public void execute(Runnable runnable) {
+				display.syncExec(runnable);
+			}
+		};
+		BatchingRecordHandler handler = new BatchingRecordHandler(qifFile, importers, session.getDataManager(), getBatchSize(), uiThreadExecutor, monitor, MessageFormat.format("Import {0}", file.getName()));
+		qifFile.readRecords(handler, new MonitorProgressListener(monitor));
+		handler.commitBatch();
+	}
+
+	/**
+	 * @return the importers that extend the net.sf.jmoney.qif.importers
+	 *         extension point
+	 */
+	private List<IQifImporter> getImporters() {
+		List<IQifImporter> importers = new ArrayList<IQifImporter>();
+
+		IExtensionRegistry registry = Platform.getExtensionRegistry();
+		for (IConfigurationElement element: registry.getConfigurationElementsFor("net.sf.jmoney.qif.importers")) {
+			if (element.getName().equals("importer")) {
+				try {
+					Object listener = element.createExecutableExtension("class");
+					if (!(listener instanceof IQifImporter)) {
+						throw new MalformedPluginException(
+								"Plug-in " + element.getContributor().getName()
+								+ " extends the net.sf.jmoney.qif.importers extension point. "
+								+ "However, the class specified by the class attribute "
+								+ "(" + listener.getClass().getName() + ") "
+								+ "does not implement the IQifImporter interface. "
+								+ "This interface must be implemented by all classes referenced "
+								+ "by the class attribute.");
+					}
+
+					importers.add((IQifImporter)listener);
+				} catch (CoreException e) {
+					if (e.getStatus().getException() instanceof ClassNotFoundException) {
+						ClassNotFoundException e2 = (ClassNotFoundException)e.getStatus().getException();
+						throw new MalformedPluginException(
+								"Plug-in " + element.getContributor().getName()
+								+ " extends the net.sf.jmoney.qif.importers extension point. "
+								+ "However, the class specified by the class attribute "
+								+ "(" + e2.getMessage() + ") "
+								+ "could not be found. "
+								+ "The class attribute must specify a class that implements the "
+								+ "IQifImporter interface.");
+					}
+				}
+			}
+		}
+
+		return importers;
+	}
+
+	/**
+	 * @return the number of records to import in each transaction, from the
+	 *         "batchSize" dialog setting if set
+	 */
+	private int getBatchSize() {
+		String batchSize = getDialogSettings().get("batchSize"); //$NON-NLS-1$
+		return (batchSize == null) ? DEFAULT_BATCH_SIZE : Integer.parseInt(batchSize);
+	}
+
+	/**
+	 * Reports the bytes read from the QIF file to a progress monitor, one work
+	 * unit for each Kbyte.
+	 */
+	private static class MonitorProgressListener implements IQifProgressListener {
+		private final IProgressMonitor monitor;
+		private int kilobytesReported = 0;
+
+		MonitorProgressListener(IProgressMonitor monitor) {
+			this.monitor = monitor;
+		}
+
+		public void bytesRead(long bytesRead, long length) {
+			int kilobytes = (int) (bytesRead / 1024);
+			monitor.worked(kilobytes - kilobytesReported);
+			kilobytesReported = kilobytes;
 		}
 	}
 }
\ No newline at end of file
@@ -0,0 +1,150 @@
+/*
+ *
+ *  JMoney - A Personal Finance Manager
+ *  Copyright (c) 2010 Nigel Westbury <westbury@users.sourceforge.net>
+ *
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ */
+package net.sf.jmoney.reconciliation;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.sql.SQLException;
+import java.util.ArrayList;
+
+import junit.framework.TestCase;
+import net.sf.jmoney.isolation.ReferenceViolationException;
+import net.sf.jmoney.model2.BankAccount;
+import net.sf.jmoney.model2.BankAccountInfo;
+import net.sf.jmoney.model2.Entry;
+import net.sf.jmoney.model2.Session;
+import net.sf.jmoney.model2.Transaction;
+import net.sf.jmoney.model2.TransactionInfo;
+import net.sf.jmoney.reconciliation.IReconciliationQueries.BankStatementAndBalance;
+import net.sf.jmoney.serializeddatastore.formats.JMoneyXmlFormat;
+
+import org.eclipse.core.runtime.FileLocator;
+import org.eclipse.core.runtime.Platform;
+import org.osgi.framework.Bundle;
+
+/**
+ * Tests the statements and balances given by the reconciliation queries in
+ * both the serialized datastore and the JDBC datastore. The same changes are
+ * made in each, and the queries must give the same results.
+ */
+public class ReconciliationQueriesTest extends TestCase {
+
+	private Session session;
+
+	private BankAccount account;
+
+	private BankAccount otherAccount;
+
+	public void testSerializedDatastore() throws IOException, ReferenceViolationException {
+		Bundle bundle = Platform.getBundle("net.sf.jmoney.reconciliation.tests");
+		URL url = bundle.getEntry("resources/new_empty_session.jmx");
+		File file = new File(FileLocator.toFileURL(url).getFile());
+
+		JMoneyXmlFormat reader = new JMoneyXmlFormat();
+		net.sf.jmoney.serializeddatastore.SessionManager manager = new net.sf.jmoney.serializeddatastore.SessionManager(JMoneyXmlFormat.ID_FILE_FORMAT, reader, file);
+		reader.readSessionQuietly(file, manager, null);
+		session = manager.getSession();
+
+		checkStatements((IReconciliationQueries)manager.getAdapter(IReconciliationQueries.class));
+	}
+
+	public void testJdbcDatastore() throws ClassNotFoundException, SQLException, ReferenceViolationException {
+		/*
+		 * The HSQLDB driver is on the class path of the JDBC datastore plug-in
+		 * but is not exported, so it is loaded, and so registered, through
+		 * that plug-in.
+		 */
+		Platform.getBundle("net.sf.jmoney.jdbcdatastore").loadClass("org.hsqldb.jdbcDriver");
+		net.sf.jmoney.jdbcdatastore.SessionManager manager = new net.sf.jmoney.jdbcdatastore.SessionManager("jdbc:hsqldb:mem:" + getName(), "sa", "");
+		try {
+			session = manager.getSession();
+
+			checkStatements((IReconciliationQueries)manager.getAdapter(IReconciliationQueries.class));
+		} finally {
+			manager.close();
+		}
+	}
+
+	private Entry addEntry(BankAccount entryAccount, long amount, String statement) {
+		Transaction transaction = session.getTransactionCollection().createNewElement(TransactionInfo.getPropertySet());
+		Entry entry = transaction.createEntry();
+		entry.setAccount(entryAccount);
+		entry.setAmount(amount);
+		if (statement != null) {
+			ReconciliationEntryInfo.getStatementAccessor().setValue(entry, new BankStatement(statement));
+		}
+		return entry;
+	}
+
+	private void checkStatements(IReconciliationQueries queries) throws ReferenceViolationException {
+		assertNotNull(queries);
+
+		account = session.getAccountCollection().createNewElement(BankAccountInfo.getPropertySet());
+		account.setName("Checking");
+		account.setStartBalance(1000);
+		otherAccount = session.getAccountCollection().createNewElement(BankAccountInfo.getPropertySet());
+		otherAccount.setName("Savings");
+
+		Entry entry1 = addEntry(account, 100, "9");
+		addEntry(account, 20, "9");
+		Entry entry3 = addEntry(account, 5, "10");
+		addEntry(account, 7, null);
+		addEntry(otherAccount, 50000, "9");
+
+		// Statement 10 must sort after statement 9
+		assertStatements(queries.getStatements(account), new String[] { "9", "10" }, new long[] { 1120, 1125 });
+
+		BankAccount emptyAccount = session.getAccountCollection().createNewElement(BankAccountInfo.getPropertySet());
+		assertEquals(0, queries.getStatements(emptyAccount).length);
+
+		// Change of amount
+		entry1.setAmount(200);
+		assertStatements(queries.getStatements(account), new String[] { "9", "10" }, new long[] { 1220, 1225 });
+
+		// Change of statement
+		ReconciliationEntryInfo.getStatementAccessor().setValue(entry1, new BankStatement("10"));
+		assertStatements(queries.getStatements(account), new String[] { "9", "10" }, new long[] { 1020, 1225 });
+
+		// Change of account
+		entry3.setAccount(otherAccount);
+		assertStatements(queries.getStatements(account), new String[] { "9", "10" }, new long[] { 1020, 1220 });
+
+		// Deletion, leaving no entries on statement 10
+		session.getTransactionCollection().deleteElement(entry1.getTransaction());
+		assertStatements(queries.getStatements(account), new String[] { "9" }, new long[] { 1020 });
+
+		// Un-reconciling the last entry on a statement
+		for (Entry entry : new ArrayList<Entry>(account.getEntries())) {
+			ReconciliationEntryInfo.getStatementAccessor().setValue(entry, null);
+		}
+		assertStatements(queries.getStatements(account), new String[0], new long[0]);
+	}
+
+	private void assertStatements(BankStatementAndBalance[] statements, String[] expectedStatements, long[] expectedBalances) {
+		assertEquals(expectedStatements.length, statements.length);
+		for (int i = 0; i < statements.length; i++) {
+			assertEquals(new BankStatement(expectedStatements[i]), statements[i].bankStatement);
+			assertEquals(expectedBalances[i], statements[i].balance);
+		}
+	}
+}
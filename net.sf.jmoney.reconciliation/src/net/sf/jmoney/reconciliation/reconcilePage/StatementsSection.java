@@ -164,8 +164,22 @@ public class StatementsSection extends SectionPart {
 
 			IReconciliationQueries queries = (IReconciliationQueries)account.getSession().getAdapter(IReconciliationQueries.class);
 			if (queries != null) {
-				// TODO: change this method
-				//return queries.getStatements(fPage.getAccount());
+				/*
+				 * The datastore gives us the closing balance of each
+				 * statement. The opening balance is the closing balance of
+				 * the previous statement.
+				 */
+				long balance = account.getStartBalance();
+				for (IReconciliationQueries.BankStatementAndBalance statementAndBalance : queries.getStatements(account)) {
+					statementDetailsMap.put(
+							statementAndBalance.bankStatement,
+							new StatementDetails(
+									statementAndBalance.bankStatement,
+									balance,
+									statementAndBalance.balance - balance)
+					);
+					balance = statementAndBalance.balance;
+				}
 			} else {
 				// IReconciliationQueries has not been implemented in the datastore.
 				// We must therefore provide our own implementation.
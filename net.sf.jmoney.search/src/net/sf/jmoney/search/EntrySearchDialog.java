@@ -7,7 +7,6 @@ import net.sf.jmoney.JMoneyPlugin;
 import net.sf.jmoney.fields.DateControl;
 import net.sf.jmoney.model2.Currency;
 import net.sf.jmoney.search.views.EntrySearch;
-import net.sf.jmoney.search.views.SearchException;
 import net.sf.jmoney.search.views.SearchView;
 
 import org.eclipse.core.runtime.CoreException;
@@ -83,13 +82,10 @@ public class EntrySearchDialog extends Dialog {
 			IEntrySearch search = new EntrySearch(startDate, endDate, amount, memo);
 
 			try {
-				search.executeSearch();
 				SearchView view = (SearchView)workbenchPage.showView(SearchView.ID, null, IWorkbenchPage.VIEW_ACTIVATE);
 				view.showSearch(search);
 			} catch (PartInitException e) {
 				throw new RuntimeException(e);
-			} catch (SearchException e) {
-				throw new RuntimeException(e);
 			}
 		}
 
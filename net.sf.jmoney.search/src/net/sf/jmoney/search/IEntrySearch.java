@@ -3,7 +3,6 @@ package net.sf.jmoney.search;
 import java.util.List;
 
 import net.sf.jmoney.model2.Entry;
-import net.sf.jmoney.search.views.SearchException;
 
 import org.eclipse.jface.resource.ImageDescriptor;
 
@@ -18,8 +17,30 @@ public interface IEntrySearch {
 
 	boolean isQueryRunning();
 
+	/**
+	 * @return the entries found so far. If the search is not running then
+	 *         these are all the entries found by the last run of the search.
+	 */
 	List<Entry> getEntries();
 
-	void executeSearch() throws SearchException;
-
+	/**
+	 * Runs the search in a background job. The entries are passed to the
+	 * listener, in batches, as they are found.
+	 * <P>
+	 * If the search has been run before, and no entries or transactions have
+	 * changed since, then the search is not run again. The entries found by
+	 * the previous run are passed to the listener immediately.
+	 * <P>
+	 * Only one listener is notified at a time. If the search is already
+	 * running then it is cancelled and started again.
+	 * 
+	 * @param listener the listener to be notified, on the UI thread
+	 */
+	void executeSearch(IEntrySearchListener listener);
+
+	/**
+	 * Cancels the search if it is running. The listener is not notified of
+	 * any further entries, and the results are not kept for reuse.
+	 */
+	void cancel();
 }
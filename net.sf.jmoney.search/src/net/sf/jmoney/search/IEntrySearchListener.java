@@ -0,0 +1,27 @@
+package net.sf.jmoney.search;
+
+import java.util.List;
+
+import net.sf.jmoney.model2.Entry;
+
+/**
+ * Listener that is notified as an entry search finds entries. All methods
+ * are called on the UI thread.
+ * 
+ * @see IEntrySearch#executeSearch(IEntrySearchListener)
+ */
+public interface IEntrySearchListener {
+
+	/**
+	 * Called when a batch of entries has been found.
+	 * 
+	 * @param entries the entries found since the last call
+	 */
+	void entriesFound(List<Entry> entries);
+
+	/**
+	 * Called when the search has finished. This is not called if the search
+	 * is cancelled.
+	 */
+	void searchDone();
+}
@@ -1,23 +1,124 @@
 package net.sf.jmoney.search.views;
 
 import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 
 import net.sf.jmoney.JMoneyPlugin;
 import net.sf.jmoney.VerySimpleDateFormat;
+import net.sf.jmoney.isolation.IListPropertyAccessor;
+import net.sf.jmoney.isolation.IModelObject;
+import net.sf.jmoney.isolation.IObjectKey;
+import net.sf.jmoney.isolation.IScalarPropertyAccessor;
+import net.sf.jmoney.isolation.SessionChangeAdapter;
+import net.sf.jmoney.isolation.SessionChangeListener;
 import net.sf.jmoney.model2.Currency;
 import net.sf.jmoney.model2.Entry;
-import net.sf.jmoney.model2.Session;
+import net.sf.jmoney.model2.IDataManagerForAccounts;
+import net.sf.jmoney.model2.IEntryCollector;
+import net.sf.jmoney.model2.IEntrySearchTask;
+import net.sf.jmoney.model2.Transaction;
+import net.sf.jmoney.search.Activator;
 import net.sf.jmoney.search.IEntrySearch;
+import net.sf.jmoney.search.IEntrySearchListener;
 
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
 import org.eclipse.jface.resource.ImageDescriptor;
+import org.eclipse.swt.widgets.Display;
 
+/**
+ * A search for entries by date, amount, and memo.
+ * <P>
+ * The search is prepared by the datastore on the UI thread and then run in a
+ * background job. The keys of the entries found are passed back to the UI
+ * thread in batches, and the entries are obtained from the keys on the UI
+ * thread, so the search view can show the first entries while the search is
+ * still running, and the search can be cancelled.
+ * <P>
+ * The entries found are kept so that, when a search is selected again from
+ * the search history, the search need not be run again. The entries are kept
+ * only for as long as no entries or transactions change. Any change to an
+ * entry or transaction may change the entries that match, so any such change
+ * means the search must be run again.
+ */
 public class EntrySearch implements IEntrySearch {
+
+	/**
+	 * The maximum time in milliseconds between batches of entries being
+	 * passed to the listener.
+	 */
+	private static final int BATCH_TIME = 100;
+
 	private String fSingularLabel;
 	private String fPluralLabelPattern;
 	private ImageDescriptor fImageDescriptor;
-	private List<Entry> entries;
+	private List<Entry> entries = new ArrayList<Entry>();
+
+	/**
+	 * True if the entries are the complete results of the search and no
+	 * entries or transactions have changed since the search was run.
+	 */
+	private boolean resultsValid = false;
+
+	/**
+	 * Set if an entry or transaction changes while the search is running,
+	 * in which case the results may not be accurate and are not kept for
+	 * reuse.
+	 */
+	private boolean changedWhileRunning;
+
+	/**
+	 * The running job, or null if the search is not running. Batches of
+	 * entries from any other job are ignored.
+	 */
+	private SearchJob job = null;
+
+	private IEntrySearchListener listener = null;
+
+	/**
+	 * The data manager to which the change listener has been added, or null
+	 * if the search has never been run.
+	 */
+	private IDataManagerForAccounts dataManager = null;
+
+	/**
+	 * The data manager keeps only a weak reference to this listener, so it
+	 * is referenced from here. A search is no longer listening once it has
+	 * been removed from the search history and garbage collected.
+	 */
+	private final SessionChangeListener changeListener = new SessionChangeAdapter() {
+		@Override
+		public void objectCreated(IModelObject newObject) {
+			checkObject(newObject);
+		}
+
+		@Override
+		public void objectDestroyed(IModelObject deletedObject) {
+			checkObject(deletedObject);
+		}
+
+		@Override
+		public void objectChanged(IModelObject changedObject, IScalarPropertyAccessor changedProperty, Object oldValue, Object newValue) {
+			checkObject(changedObject);
+		}
+
+		@Override
+		public void objectMoved(IModelObject movedObject, IModelObject originalParent, IModelObject newParent, IListPropertyAccessor<?,?> originalParentListProperty, IListPropertyAccessor<?,?> newParentListProperty) {
+			checkObject(movedObject);
+		}
+
+		private void checkObject(IModelObject object) {
+			if (object instanceof Entry || object instanceof Transaction) {
+				resultsValid = false;
+				changedWhileRunning = true;
+			}
+		}
+	};
 
 	private Date startDate;
 	private Date endDate;
@@ -108,41 +209,143 @@ public class EntrySearch implements IEntrySearch {
 	}
 
 	public List<Entry> getEntries() {
-		return entries;
+		return Collections.unmodifiableList(entries);
 	}
 
-	public void executeSearch() throws SearchException {
-		/*
-		 * This plug-in has an optional dependency on both
-		 * the JDBC and the serialized XML plug-ins.
-		 * (Should really be an optional dependency on two packages,
-		 * in case others decide to write different storage plug-ins).
-		 * 
-		 * It may be that both plug-ins are present.  We look at
-		 * the session to see which plug-in is supporting the session.
-		 */
+	public void executeSearch(IEntrySearchListener listener) {
+		cancel();
+		this.listener = listener;
 
-		Session session = JMoneyPlugin.getDefault().getSession();
-		
-		entries = session.getDataManager().getEntries(startDate, endDate, amount, memo);
-		
-		/*
-		 * We should be able to get the package needed for SQL
-		 * direct access.  The datastore plug-in is not compliant
-		 * if we can't.
-		 */
+		IDataManagerForAccounts currentDataManager = JMoneyPlugin.getDefault().getSession().getDataManager();
+		if (currentDataManager != dataManager) {
+			if (dataManager != null) {
+				dataManager.removeChangeListener(changeListener);
+			}
+			currentDataManager.addChangeListenerWeakly(changeListener);
+			dataManager = currentDataManager;
+			resultsValid = false;
+		}
+
+		if (resultsValid) {
+			listener.entriesFound(getEntries());
+			listener.searchDone();
+			return;
+		}
+
+		IEntrySearchTask task;
 		try {
+			task = dataManager.prepareEntrySearch(startDate, endDate, amount, memo);
 		} catch (RuntimeException e) {
-			// TODO clean this
-			throw new SearchException("An SQL Exception has occured.", e);
-		} catch (NoClassDefFoundError e) {
-			/*
-			 * Search the long way, which is the correct way if the entire
-			 * session has been read into memory (such as is done by the
-			 * Serialized datastore plug-in), and is the best we can do if some
-			 * other storage mechanism.
-			 */
-			throw new SearchException("Query Failed.  This query has been implemented only for SQL databases.  You are not using an SQL database.  Please implement this feature and try again.", null);
+			JMoneyPlugin.log(e);
+			listener.searchDone();
+			return;
+		}
+
+		entries = new ArrayList<Entry>();
+		changedWhileRunning = false;
+		job = new SearchJob(task, Display.getCurrent());
+		job.schedule();
+	}
+
+	public void cancel() {
+		if (job != null) {
+			job.cancel();
+			job = null;
+		}
+	}
+
+	/**
+	 * The job that runs the search. The keys of the entries found are
+	 * collected by the datastore's threads into a list of pending keys, and
+	 * the pending keys are passed to the UI thread no more often than every
+	 * BATCH_TIME milliseconds.
+	 */
+	private class SearchJob extends Job {
+
+		private final IEntrySearchTask task;
+
+		private final Display display;
+
+		private List<IObjectKey> pendingKeys = new ArrayList<IObjectKey>();
+
+		private long nextBatchTime = System.currentTimeMillis() + BATCH_TIME;
+
+		SearchJob(IEntrySearchTask task, Display display) {
+			super("Searching entries");
+			this.task = task;
+			this.display = display;
+		}
+
+		@Override
+		protected IStatus run(IProgressMonitor monitor) {
+			try {
+				task.run(new IEntryCollector() {
+					@Override
+					public void entryFound(IObjectKey entryKey) {
+						synchronized (SearchJob.this) {
+							pendingKeys.add(entryKey);
+							if (System.currentTimeMillis() >= nextBatchTime) {
+								postPendingEntries(false, false);
+								nextBatchTime = System.currentTimeMillis() + BATCH_TIME;
+							}
+						}
+					}
+				}, monitor);
+			} catch (RuntimeException e) {
+				/*
+				 * Post any entries found so far and the end of the search so
+				 * that the view is not left showing a search in progress.
+				 */
+				synchronized (this) {
+					postPendingEntries(true, false);
+				}
+				return new Status(IStatus.ERROR, Activator.PLUGIN_ID, "The entry search failed.", e);
+			}
+
+			if (monitor.isCanceled()) {
+				return Status.CANCEL_STATUS;
+			}
+
+			synchronized (this) {
+				postPendingEntries(true, true);
+			}
+			return Status.OK_STATUS;
+		}
+
+		/**
+		 * Passes the pending keys to the UI thread, where the entries are
+		 * obtained from the keys. Must be called while synchronized on this
+		 * job.
+		 * 
+		 * @param isLastBatch true if the search has ended
+		 * @param isComplete true if the search ran to completion, so the
+		 *            entries found are all the matching entries
+		 */
+		private void postPendingEntries(final boolean isLastBatch, final boolean isComplete) {
+			final List<IObjectKey> keys = pendingKeys;
+			pendingKeys = new ArrayList<IObjectKey>();
+
+			display.asyncExec(new Runnable() {
+				@Override
+				public void run() {
+					if (job != SearchJob.this) {
+						// This search has been cancelled or run again.
+						return;
+					}
+
+					List<Entry> batch = task.getEntries(keys);
+					entries.addAll(batch);
+					if (!batch.isEmpty()) {
+						listener.entriesFound(batch);
+					}
+
+					if (isLastBatch) {
+						job = null;
+						resultsValid = isComplete && !changedWhileRunning;
+						listener.searchDone();
+					}
+				}
+			});
 		}
 	}
 	
@@ -197,8 +400,7 @@ public class EntrySearch implements IEntrySearch {
 
 	@Override
 	public boolean isQueryRunning() {
-		// TODO: Should we just remove this?
-		return false;
+		return job != null;
 	}
 }
 
@@ -4,7 +4,6 @@ import net.sf.jmoney.search.Activator;
 import net.sf.jmoney.search.IEntrySearch;
 
 import org.eclipse.jface.action.Action;
-import org.eclipse.jface.dialogs.MessageDialog;
 
 class SearchAgainAction extends Action {
 	private SearchView fView;
@@ -18,11 +17,6 @@ class SearchAgainAction extends Action {
 	public void run() {
 		// This action should not be enabled if there is no search.
 		final IEntrySearch search = fView.getCurrentSearch();
-		try {
-			search.executeSearch();
-			fView.showSearch(search);
-		} catch (SearchException e) {
-			MessageDialog.openError(fView.getSite().getShell(), "Search Error", e.getLocalizedMessage());
-		}
+		fView.showSearch(search);
 	}
 }
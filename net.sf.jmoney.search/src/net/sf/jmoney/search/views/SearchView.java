@@ -47,6 +47,7 @@ import net.sf.jmoney.model2.Session;
 import net.sf.jmoney.model2.TransactionInfo;
 import net.sf.jmoney.resources.Messages;
 import net.sf.jmoney.search.IEntrySearch;
+import net.sf.jmoney.search.IEntrySearchListener;
 
 public class SearchView extends ViewPart {
 	public static String ID = "net.sf.jmoney.search.EntrySearchView";
@@ -74,6 +75,15 @@ public class SearchView extends ViewPart {
 
 	private Label noSearchLabel;
 
+	private ICompositeTable<EntryData, EntryRowControl> tableWrapper;
+
+	/**
+	 * The listener for the search currently being shown, or null if no
+	 * search is being shown. Each search shown gets a new listener, so
+	 * results from a previous search are ignored.
+	 */
+	private IEntrySearchListener searchListener = null;
+
 	public SearchView() {
 		fSearchAgainAction= new SearchAgainAction(this);
 		fSearchAgainAction.setEnabled(false);
@@ -247,7 +257,7 @@ public class SearchView extends ViewPart {
 	private void createTableControls(Block<EntryRowControl> rootBlock) {
 		new Header<EntryRowControl>(tableComposite, SWT.NONE, rootBlock).setLayoutData(new GridData(SWT.FILL, SWT.TOP, true, false));
 
-		ICompositeTable<EntryData, EntryRowControl> tableWrapper = new ICompositeTable<EntryData, EntryRowControl>() {
+		tableWrapper = new ICompositeTable<EntryData, EntryRowControl>() {
 
 			@Override
 			public void rowDeselected(EntryRowControl rowControl) {
@@ -269,7 +279,11 @@ public class SearchView extends ViewPart {
 			}
 		};
 
-		for (Entry entry: entries) {
+		addRows(entries);
+	}
+
+	private void addRows(List<Entry> entriesToAdd) {
+		for (Entry entry: entriesToAdd) {
 			EntryData entryData = new EntryData(entry, entry.getDataManager());
 			EntryRowControl row = new EntryRowControl(tableComposite, tableWrapper, rootBlock, rowTracker, cellTracker);
 			row.setRowInput(entryData);
@@ -283,8 +297,12 @@ public class SearchView extends ViewPart {
 
 	}
 
-	private void setEntries(List<Entry> entries) {
-		this.entries = entries;
+	/**
+	 * @return true if the entries were set, false if the user has unsaved
+	 *         changes in the selected row, in which case the previous entries
+	 *         are left in the table
+	 */
+	private boolean setEntries(List<Entry> entries) {
 		if (tableComposite != null) {
 
 			/*
@@ -297,36 +315,73 @@ public class SearchView extends ViewPart {
 			 * it would be better if this check were done before the user
 			 * entered the new search, but never mind.
 			 */
-			if (rowTracker.setSelection(null, null)) {
-				for (Control child : tableComposite.getChildren()) {
-					child.dispose();
-				}
-				createTableControls(rootBlock);
-				sc.setMinSize(tableComposite.computeSize(SWT.DEFAULT, SWT.DEFAULT));
-				tableComposite.layout(true);  // Seems to be needed - following line does not seem to layout the table for us.  Probably because of new child controls.
-				sc.layout(true);
+			if (!rowTracker.setSelection(null, null)) {
+				return false;
+			}
+			this.entries = entries;
+			for (Control child : tableComposite.getChildren()) {
+				child.dispose();
 			}
+			createTableControls(rootBlock);
+			sc.setMinSize(tableComposite.computeSize(SWT.DEFAULT, SWT.DEFAULT));
+			tableComposite.layout(true);  // Seems to be needed - following line does not seem to layout the table for us.  Probably because of new child controls.
+			sc.layout(true);
+		} else {
+			this.entries = entries;
 		}
+		return true;
 	}
 
-	public void showSearch(IEntrySearch search) {
+	public void showSearch(final IEntrySearch search) {
+		if (!setEntries(new ArrayList<Entry>())) {
+			return;
+		}
+
+		if (!searchHistory.isEmpty()) {
+			getCurrentSearch().cancel();
+		}
+
 		/*
 		 * Add to the end of the past search list, removing
 		 * it first from the list if it is already somewhere
-		 * in the list.
+		 * in the list.  If an equal search is already in the list
+		 * then we use that one because it may have results that
+		 * can be reused.
 		 */
-		searchHistory.remove(search);
-		searchHistory.add(0, search);
-
-		setEntries(search.getEntries());
+		int index = searchHistory.indexOf(search);
+		final IEntrySearch searchToShow = (index == -1) ? search : searchHistory.remove(index);
+		searchHistory.add(0, searchToShow);
 
 		fSearchAgainAction.setEnabled(true);
 		fSearchHistoryDropDownAction.setEnabled(true);
 
-		this.setContentDescription(search.getTooltip());
+		this.setContentDescription("Searching...");
 
 		stackLayout.topControl = sc;
 		parent.layout(false);
+
+		searchListener = new IEntrySearchListener() {
+			@Override
+			public void entriesFound(List<Entry> foundEntries) {
+				if (searchListener != this || tableComposite.isDisposed()) {
+					return;
+				}
+				entries.addAll(foundEntries);
+				addRows(foundEntries);
+				sc.setMinSize(tableComposite.computeSize(SWT.DEFAULT, SWT.DEFAULT));
+				tableComposite.layout(true);
+				setContentDescription(searchToShow.getTooltip() + " (searching...)");
+			}
+
+			@Override
+			public void searchDone() {
+				if (searchListener != this || tableComposite.isDisposed()) {
+					return;
+				}
+				setContentDescription(searchToShow.getTooltip());
+			}
+		};
+		searchToShow.executeSearch(searchListener);
 	}
 
 	public boolean hasQueries() {
@@ -342,6 +397,10 @@ public class SearchView extends ViewPart {
 	}
 
 	public void removeAllSearches() {
+		if (!searchHistory.isEmpty()) {
+			getCurrentSearch().cancel();
+		}
+		searchListener = null;
 		searchHistory.clear();
 
 		/*
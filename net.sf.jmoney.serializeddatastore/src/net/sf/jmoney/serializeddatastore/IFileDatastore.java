@@ -53,7 +53,11 @@ public interface IFileDatastore {
 	boolean readSession(File sessionFile, SessionManager sessionManager, IWorkbenchWindow window) throws OpenSessionException;
     
     /**
-     * Write data to a file
+     * Write data to a file. If the file cannot be written then this method
+     * must display an appropriate error message.
+     * 
+     * @return true if the session was written to the file, false if the file
+     *         could not be written or the user canceled the operation
      */
-    void writeSession(SessionManager sessionManager, File sessionFile, IWorkbenchWindow window);
+    boolean writeSession(SessionManager sessionManager, File sessionFile, IWorkbenchWindow window);
 }
@@ -28,6 +28,8 @@ public class Messages extends NLS {
 	public static String SessionManager_UnknownFileExtension;
 	public static String SessionManager_FileNotDefined;
 	public static String SessionManager_InvalidFileName;
+	public static String SessionManager_JournalErrorMessage;
+	public static String SessionManager_JournalErrorTitle;
 	public static String SessionManager_OverwriteExistingFile;
 	public static String SessionManager_OverwriteTitle;
 	public static String SessionManager_SaveQuestion;
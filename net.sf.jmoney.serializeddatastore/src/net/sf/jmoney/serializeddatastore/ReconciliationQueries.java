@@ -0,0 +1,180 @@
+/*
+ *
+ *  JMoney - A Personal Finance Manager
+ *  Copyright (c) 2004 Nigel Westbury <westbury@users.sourceforge.net>
+ *
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ */
+
+package net.sf.jmoney.serializeddatastore;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import net.sf.jmoney.isolation.IModelObject;
+import net.sf.jmoney.isolation.IScalarPropertyAccessor;
+import net.sf.jmoney.isolation.SessionChangeAdapter;
+import net.sf.jmoney.model2.Account;
+import net.sf.jmoney.model2.CurrencyAccount;
+import net.sf.jmoney.model2.Entry;
+import net.sf.jmoney.model2.EntryInfo;
+import net.sf.jmoney.reconciliation.BankStatement;
+import net.sf.jmoney.reconciliation.IReconciliationQueries;
+import net.sf.jmoney.reconciliation.ReconciliationEntryInfo;
+
+/**
+ * Implementation of the reconciliation queries for the serialized datastore.
+ * <P>
+ * The total of the entries on each statement is kept for each account. The
+ * totals for an account are calculated from the entries the first time the
+ * statements for the account are requested, and from then on the totals are
+ * kept up to date by listening for changes to the entries. The statements can
+ * therefore be listed without looking at every entry in the account each time.
+ * <P>
+ * The reconciliation plug-in is an optional dependency of this plug-in. This
+ * class is loaded only when the adapter is requested, which can only happen if
+ * the reconciliation plug-in is present.
+ *
+ * @author Nigel Westbury
+ */
+public class ReconciliationQueries implements IReconciliationQueries {
+
+	/**
+	 * The total of the amounts of the entries on a statement, and the number
+	 * of entries. The number of entries is needed so we know when a
+	 * statement no longer has any entries and so should no longer be listed.
+	 */
+	private static class StatementTotal {
+		long total = 0;
+		int entryCount = 0;
+	}
+
+	private SessionManager sessionManager;
+
+	/**
+	 * The statement totals for each account for which statements have been
+	 * requested. The statements are sorted into order.
+	 */
+	private Map<CurrencyAccount, SortedMap<BankStatement, StatementTotal>> accountStatements = new HashMap<CurrencyAccount, SortedMap<BankStatement, StatementTotal>>();
+
+	public ReconciliationQueries(SessionManager sessionManager) {
+		this.sessionManager = sessionManager;
+
+		sessionManager.addChangeListener(new SessionChangeAdapter() {
+			@Override
+			public void objectCreated(IModelObject newObject) {
+				if (newObject instanceof Entry) {
+					Entry newEntry = (Entry)newObject;
+					adjustStatement(newEntry.getAccount(), ReconciliationEntryInfo.getStatementAccessor().getValue(newEntry), newEntry.getAmount(), 1);
+				}
+			}
+
+			@Override
+			public void objectDestroyed(IModelObject deletedObject) {
+				if (deletedObject instanceof Entry) {
+					Entry deletedEntry = (Entry)deletedObject;
+					adjustStatement(deletedEntry.getAccount(), ReconciliationEntryInfo.getStatementAccessor().getValue(deletedEntry), -deletedEntry.getAmount(), -1);
+				}
+			}
+
+			@Override
+			public void objectChanged(IModelObject changedObject, IScalarPropertyAccessor changedProperty, Object oldValue, Object newValue) {
+				if (changedObject instanceof Entry) {
+					Entry entry = (Entry)changedObject;
+					BankStatement statement = ReconciliationEntryInfo.getStatementAccessor().getValue(entry);
+
+					if (changedProperty == EntryInfo.getAccountAccessor()) {
+						adjustStatement((Account)oldValue, statement, -entry.getAmount(), -1);
+						adjustStatement((Account)newValue, statement, entry.getAmount(), 1);
+					} else if (changedProperty == EntryInfo.getAmountAccessor()) {
+						long oldAmount = ((Long)oldValue).longValue();
+						long newAmount = ((Long)newValue).longValue();
+						adjustStatement(entry.getAccount(), statement, newAmount - oldAmount, 0);
+					} else if (changedProperty == ReconciliationEntryInfo.getStatementAccessor()) {
+						adjustStatement(entry.getAccount(), (BankStatement)oldValue, -entry.getAmount(), -1);
+						adjustStatement(entry.getAccount(), (BankStatement)newValue, entry.getAmount(), 1);
+					}
+				}
+			}
+		});
+	}
+
+	/**
+	 * Adjusts the total for a statement in an account, if the totals for the
+	 * account have already been calculated. If they have not then there is
+	 * nothing to do because the change will be picked up when they are.
+	 *
+	 * @param account the account, which may be null in which case this
+	 *            method does nothing
+	 * @param statement the statement, which may be null in which case this
+	 *            method does nothing
+	 * @param amount the amount by which the total is to be adjusted
+	 * @param entryCountChange the change in the number of entries on the
+	 *            statement
+	 */
+	private void adjustStatement(Account account, BankStatement statement, long amount, int entryCountChange) {
+		if (account == null || statement == null) {
+			return;
+		}
+
+		SortedMap<BankStatement, StatementTotal> statementTotals = accountStatements.get(account);
+		if (statementTotals != null) {
+			StatementTotal statementTotal = statementTotals.get(statement);
+			if (statementTotal == null) {
+				statementTotal = new StatementTotal();
+				statementTotals.put(statement, statementTotal);
+			}
+			statementTotal.total += amount;
+			statementTotal.entryCount += entryCountChange;
+			if (statementTotal.entryCount == 0) {
+				statementTotals.remove(statement);
+			}
+		}
+	}
+
+	@Override
+	public BankStatementAndBalance[] getStatements(CurrencyAccount account) {
+		SortedMap<BankStatement, StatementTotal> statementTotals = accountStatements.get(account);
+		if (statementTotals == null) {
+			statementTotals = new TreeMap<BankStatement, StatementTotal>();
+			for (Entry entry : sessionManager.getEntries(account)) {
+				BankStatement statement = ReconciliationEntryInfo.getStatementAccessor().getValue(entry);
+				if (statement != null) {
+					StatementTotal statementTotal = statementTotals.get(statement);
+					if (statementTotal == null) {
+						statementTotal = new StatementTotal();
+						statementTotals.put(statement, statementTotal);
+					}
+					statementTotal.total += entry.getAmount();
+					statementTotal.entryCount++;
+				}
+			}
+			accountStatements.put(account, statementTotals);
+		}
+
+		BankStatementAndBalance[] result = new BankStatementAndBalance[statementTotals.size()];
+		long balance = account.getStartBalance();
+		int i = 0;
+		for (Map.Entry<BankStatement, StatementTotal> mapEntry : statementTotals.entrySet()) {
+			balance += mapEntry.getValue().total;
+			result[i++] = new BankStatementAndBalance(mapEntry.getKey(), balance);
+		}
+		return result;
+	}
+}
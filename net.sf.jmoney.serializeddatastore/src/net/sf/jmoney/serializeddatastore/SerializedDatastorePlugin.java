@@ -48,6 +48,8 @@ import org.osgi.framework.BundleContext;
  */
 public class SerializedDatastorePlugin extends AbstractUIPlugin {
 
+	public static final String PLUGIN_ID = "net.sf.jmoney.serializeddatastore"; //$NON-NLS-1$
+
 	public static final boolean DEBUG = "true".equalsIgnoreCase(Platform.getDebugOption("net.sf.jmoney.serializeddatastore/debug")); //$NON-NLS-1$ //$NON-NLS-2$
 
 	//The shared instance.
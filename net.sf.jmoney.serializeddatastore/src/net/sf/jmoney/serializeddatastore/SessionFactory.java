@@ -66,13 +66,14 @@ public class SessionFactory implements IElementFactory {
 			try {
 				boolean isGoodFileRead = fileDatastore.readSession(sessionFile,
 						sessionManager, window);
-				if (isGoodFileRead) {
+				if (isGoodFileRead && sessionManager.openJournal(window)) {
 					return sessionManager;
 				} else {
 					/*
 					 * A false return value indicates the operation was canceled
-					 * by the user. In that case, we return null which will
-					 * simply mean the session is not restored.
+					 * by the user or the journal could not be applied. In that
+					 * case, we return null which will simply mean the session
+					 * is not restored.
 					 */
 					return null;
 				}
@@ -0,0 +1,856 @@
+/*
+ *
+ *  JMoney - A Personal Finance Manager
+ *  Copyright (c) 2010 Nigel Westbury <westbury@users.sourceforge.net>
+ *
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ */
+package net.sf.jmoney.serializeddatastore;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Constructor;
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import net.sf.jmoney.JMoneyPlugin;
+import net.sf.jmoney.isolation.IListPropertyAccessor;
+import net.sf.jmoney.isolation.IModelObject;
+import net.sf.jmoney.isolation.IScalarPropertyAccessor;
+import net.sf.jmoney.isolation.ListKey;
+import net.sf.jmoney.isolation.ReferenceViolationException;
+import net.sf.jmoney.isolation.SessionChangeAdapter;
+import net.sf.jmoney.isolation.SessionChangeListener;
+import net.sf.jmoney.model2.ExtendableObject;
+import net.sf.jmoney.model2.ExtendablePropertySet;
+import net.sf.jmoney.model2.ExtensionPropertySet;
+import net.sf.jmoney.model2.ListPropertyAccessor;
+import net.sf.jmoney.model2.PropertyAccessor;
+import net.sf.jmoney.model2.PropertySet;
+import net.sf.jmoney.model2.PropertySetNotFoundException;
+import net.sf.jmoney.model2.ScalarPropertyAccessor;
+
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+
+/**
+ * A journal of the changes made to a session since the session was last
+ * written in full to its file.
+ * <P>
+ * Writing a large session in full takes time in proportion to the size of the
+ * session, however small the change. So once a session has been written in
+ * full, the changes committed to the session are recorded as they happen, and
+ * a save appends the changes made since the previous save to a journal file
+ * kept alongside the session file. The journal is forced to the disk before
+ * the save returns. When the session is next opened, the changes in the
+ * journal are applied to the session read from the session file.
+ * <P>
+ * The session manager writes the session file in full again, and starts a
+ * new journal, when the journal becomes large compared to the session file
+ * and when the session is closed with no unsaved changes.
+ * <P>
+ * Objects are identified in the journal by number. The objects read from the
+ * session file are numbered in a pre-order traversal of the session, taking
+ * the list properties of each object in order of name and the elements of
+ * each list grouped by property set, keeping the order of the list within
+ * each property set. Objects created later are given the following numbers in
+ * the order they are created.
+ * <P>
+ * The journal header holds a hash of the property set, the values and the
+ * list sizes of each object, taken in the order the objects are numbered. If
+ * the session read from the session file does not number its objects in the
+ * same way as the session against which the journal was started, for example
+ * because two elements of a list are read in a different order, then the hash
+ * will not match and the journal is not applied.
+ * <P>
+ * The changes appended at each save form a block that is written with a
+ * checksum. If JMoney stops while a block is being written then that block is
+ * ignored when the journal is read, so only the changes from that save are
+ * lost.
+ */
+public class SessionJournal {
+
+	private static final int MAGIC = 0x4A4D4A00; // 'JMJ\0'
+
+	private static final int VERSION = 1;
+
+	private static final int HEADER_SIZE = 32;
+
+	/**
+	 * The session file is written in full, instead of the changes being
+	 * appended to the journal, once the journal is larger than the session
+	 * file divided by this number.
+	 */
+	private static final int COMPACTION_RATIO = 4;
+
+	private static final byte RECORD_CREATE = 1;
+	private static final byte RECORD_CHANGE = 2;
+	private static final byte RECORD_DELETE = 3;
+	private static final byte RECORD_MOVE = 4;
+
+	private static final byte VALUE_NULL = 0;
+	private static final byte VALUE_INTEGER = 1;
+	private static final byte VALUE_LONG = 2;
+	private static final byte VALUE_BOOLEAN = 3;
+	private static final byte VALUE_CHARACTER = 4;
+	private static final byte VALUE_DATE = 5;
+	private static final byte VALUE_STRING = 6;
+	private static final byte VALUE_REFERENCE = 7;
+	private static final byte VALUE_OTHER = 8;
+
+	private final SessionManager sessionManager;
+
+	private final File journalFile;
+
+	/**
+	 * The length and the time of last modification of the session file at the
+	 * time the journal was started. A journal is applied only to the session
+	 * file against which it was started.
+	 */
+	private final long snapshotLength;
+	private final long snapshotLastModified;
+
+	/**
+	 * The number of objects in the session file, and a hash of the objects in
+	 * the order they are numbered. These are checked when the journal is
+	 * applied, so that a journal is not applied to a session with differently
+	 * numbered objects, as may happen if the installed plug-ins have changed
+	 * or a file format does not keep the order of a list.
+	 */
+	private int snapshotObjectCount;
+	private int snapshotHash;
+
+	private final DateFormat dayFormat = new SimpleDateFormat("yyyy.MM.dd"); //$NON-NLS-1$
+
+	/**
+	 * The number of each object in the session. Objects that are deleted are
+	 * removed from this map, but their numbers are not used again.
+	 */
+	private Map<IModelObject, Integer> objectIds = new IdentityHashMap<IModelObject, Integer>();
+
+	/**
+	 * The objects, indexed by number. This is needed only while the journal
+	 * is being applied and is null at other times.
+	 */
+	private List<ExtendableObject> objects = new ArrayList<ExtendableObject>();
+
+	private int nextId = 0;
+
+	/**
+	 * The length of the valid part of the journal file, being zero if the
+	 * file does not exist or does not belong to the current session file.
+	 */
+	private long journalLength = 0;
+
+	/**
+	 * The changes recorded since the last save.
+	 */
+	private ByteArrayOutputStream pendingBytes = new ByteArrayOutputStream();
+
+	private DataOutputStream pending = new DataOutputStream(pendingBytes);
+
+	/**
+	 * Set if a change could not be recorded. The session must then be written
+	 * in full at the next save.
+	 */
+	private boolean isBroken = false;
+
+	/**
+	 * The objects for which <code>objectDestroyed</code> has been fired, held
+	 * until <code>objectRemoved</code> is fired so the numbers of all the
+	 * objects in a deleted tree can be released.
+	 */
+	private List<IModelObject> destroyedObjects = new ArrayList<IModelObject>();
+
+	/**
+	 * The list properties of each property set, sorted by name.
+	 */
+	private Map<ExtendablePropertySet<?>, List<ListPropertyAccessor<?,?>>> sortedListProperties = new HashMap<ExtendablePropertySet<?>, List<ListPropertyAccessor<?,?>>>();
+
+	private SessionChangeListener listener = new SessionChangeAdapter() {
+		@Override
+		public void objectInserted(IModelObject newObject) {
+			recordInsert((ExtendableObject)newObject);
+		}
+
+		@Override
+		public void objectDestroyed(IModelObject deletedObject) {
+			destroyedObjects.add(deletedObject);
+		}
+
+		@Override
+		public void objectRemoved(IModelObject deletedObject) {
+			recordDelete(deletedObject);
+		}
+
+		@Override
+		public void objectChanged(IModelObject changedObject, IScalarPropertyAccessor changedProperty, Object oldValue, Object newValue) {
+			recordChange(changedObject, (ScalarPropertyAccessor)changedProperty, newValue);
+		}
+
+		@Override
+		public void objectMoved(IModelObject movedObject, IModelObject originalParent, IModelObject newParent, IListPropertyAccessor<?,?> originalParentListProperty, IListPropertyAccessor<?,?> newParentListProperty) {
+			recordMove(movedObject, newParent, (ListPropertyAccessor)newParentListProperty);
+		}
+	};
+
+	private SessionJournal(SessionManager sessionManager, File sessionFile) {
+		this.sessionManager = sessionManager;
+		this.journalFile = getJournalFile(sessionFile);
+		this.snapshotLength = sessionFile.length();
+		this.snapshotLastModified = sessionFile.lastModified();
+
+		numberObjects(sessionManager.getSession());
+		snapshotObjectCount = nextId;
+	}
+
+	/**
+	 * @return the file in which the journal for the given session file is
+	 *         kept
+	 */
+	public static File getJournalFile(File sessionFile) {
+		return new File(sessionFile.getPath() + ".journal"); //$NON-NLS-1$
+	}
+
+	/**
+	 * Starts a new journal for a session that has just been written in full
+	 * to the given file. Any existing journal for the file is deleted.
+	 */
+	public static SessionJournal start(SessionManager sessionManager, File sessionFile) {
+		SessionJournal journal = new SessionJournal(sessionManager, sessionFile);
+		journal.journalFile.delete();
+		journal.startRecording();
+		return journal;
+	}
+
+	/**
+	 * Opens the journal for a session that has just been read from the given
+	 * file, applying the changes in the journal to the session.
+	 *
+	 * @throws IOException
+	 *             if there is a journal for the session file but the changes
+	 *             in it cannot be applied
+	 */
+	public static SessionJournal open(SessionManager sessionManager, File sessionFile) throws IOException {
+		SessionJournal journal = new SessionJournal(sessionManager, sessionFile);
+		if (journal.journalFile.exists()) {
+			journal.replay();
+		}
+		journal.startRecording();
+		return journal;
+	}
+
+	private void startRecording() {
+		objects = null;
+		sessionManager.addChangeListener(listener);
+	}
+
+	/**
+	 * Stops recording changes. This journal cannot be used after this method
+	 * is called.
+	 */
+	public void dispose() {
+		sessionManager.removeChangeListener(listener);
+	}
+
+	/**
+	 * @return the length of the journal file, being zero if nothing has yet
+	 *         been written to the journal
+	 */
+	public long getLength() {
+		return journalLength;
+	}
+
+	/**
+	 * @return true if the changes since the last save can be appended to the
+	 *         journal, false if the session should instead be written in full,
+	 *         either because a change could not be recorded or because the
+	 *         journal has become large compared to the session file
+	 */
+	public synchronized boolean canAppend() {
+		return !isBroken
+				&& journalLength + pendingBytes.size() <= snapshotLength / COMPACTION_RATIO;
+	}
+
+	/**
+	 * Appends the changes made since the last save to the journal file, and
+	 * forces the file to the disk.
+	 */
+	public synchronized void save() throws IOException {
+		if (pendingBytes.size() == 0) {
+			return;
+		}
+
+		byte [] block = pendingBytes.toByteArray();
+		CRC32 checksum = new CRC32();
+		checksum.update(block);
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		if (journalLength == 0) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(snapshotLength);
+			out.writeLong(snapshotLastModified);
+			out.writeInt(snapshotObjectCount);
+			out.writeInt(snapshotHash);
+		}
+		out.writeInt(block.length);
+		out.writeLong(checksum.getValue());
+		out.write(block);
+		out.flush();
+
+		RandomAccessFile file = new RandomAccessFile(journalFile, "rw"); //$NON-NLS-1$
+		try {
+			/*
+			 * Setting the length removes any part of a block that was left
+			 * from an earlier failed save, or a stale journal that belongs to
+			 * an earlier version of the session file.
+			 */
+			file.setLength(journalLength);
+			file.seek(journalLength);
+			file.write(bytes.toByteArray());
+			file.getFD().sync();
+		} finally {
+			file.close();
+		}
+
+		journalLength += bytes.size();
+		pendingBytes.reset();
+	}
+
+	/**
+	 * Numbers the given object and its descendants, in the order used for the
+	 * objects read from the session file.
+	 */
+	private void numberObjects(ExtendableObject object) {
+		ExtendablePropertySet<?> propertySet = PropertySet.getPropertySet(object.getClass());
+		addObject(object);
+		addToHash(propertySet.getId());
+
+		/*
+		 * The values are included in the hash so that the hash changes if two
+		 * elements of the same property set are numbered in the other order.
+		 * References are left out, as they would be hashed by identity.
+		 */
+		for (ScalarPropertyAccessor<?,?> propertyAccessor : propertySet.getScalarProperties3()) {
+			if (!isReference(propertyAccessor) && isPropertyPresent(object, propertyAccessor)) {
+				addToHash(getValue(propertyAccessor, object));
+			}
+		}
+
+		for (ListPropertyAccessor<?,?> listAccessor : getSortedListProperties(propertySet)) {
+			if (isPropertyPresent(object, listAccessor)) {
+				List<ExtendableObject> elements = new ArrayList<ExtendableObject>();
+				for (Object element : getElements(listAccessor, object)) {
+					elements.add((ExtendableObject)element);
+				}
+				addToHash(elements.size());
+
+				// The sort is stable, so the order within a property set is kept.
+				Collections.sort(elements, new Comparator<ExtendableObject>() {
+					@Override
+					public int compare(ExtendableObject object1, ExtendableObject object2) {
+						return PropertySet.getPropertySet(object1.getClass()).getId().compareTo(
+								PropertySet.getPropertySet(object2.getClass()).getId());
+					}
+				});
+				for (ExtendableObject element : elements) {
+					numberObjects(element);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Adds a value to the hash of the objects in the session file. Empty
+	 * strings are hashed as null, as the file formats read empty strings as
+	 * null, dates are hashed by day, as the XML file format does not keep the
+	 * time of day, and values of other classes are hashed by their text.
+	 */
+	private void addToHash(Object value) {
+		int valueHash;
+		if (value == null || "".equals(value)) { //$NON-NLS-1$
+			valueHash = 0;
+		} else if (value instanceof Date) {
+			valueHash = dayFormat.format((Date)value).hashCode();
+		} else {
+			valueHash = value.toString().hashCode();
+		}
+		snapshotHash = 31 * snapshotHash + valueHash;
+	}
+
+	private List<ListPropertyAccessor<?,?>> getSortedListProperties(ExtendablePropertySet<?> propertySet) {
+		List<ListPropertyAccessor<?,?>> listProperties = sortedListProperties.get(propertySet);
+		if (listProperties == null) {
+			listProperties = new ArrayList<ListPropertyAccessor<?,?>>(propertySet.getListProperties3());
+			Collections.sort(listProperties, new Comparator<ListPropertyAccessor<?,?>>() {
+				@Override
+				public int compare(ListPropertyAccessor<?,?> accessor1, ListPropertyAccessor<?,?> accessor2) {
+					return accessor1.getName().compareTo(accessor2.getName());
+				}
+			});
+			sortedListProperties.put(propertySet, listProperties);
+		}
+		return listProperties;
+	}
+
+	private void addObject(ExtendableObject object) {
+		objectIds.put(object, nextId++);
+		if (objects != null) {
+			objects.add(object);
+		}
+	}
+
+	/**
+	 * @return true if the given property is in the base property set or in an
+	 *         extension that the given object has
+	 */
+	@SuppressWarnings("unchecked")
+	private static boolean isPropertyPresent(ExtendableObject object, PropertyAccessor<?> propertyAccessor) {
+		PropertySet<?,?> propertySet = propertyAccessor.getPropertySet();
+		return !propertySet.isExtension()
+				|| object.getExtension((ExtensionPropertySet)propertySet, false) != null;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Iterable<?> getElements(ListPropertyAccessor listAccessor, ExtendableObject parent) {
+		return listAccessor.getElements(parent);
+	}
+
+	private static boolean isReference(ScalarPropertyAccessor<?,?> propertyAccessor) {
+		return ExtendableObject.class.isAssignableFrom(propertyAccessor.getClassOfValueObject());
+	}
+
+	/**
+	 * Records the creation of the given object, with its descendants, and the
+	 * values of their properties. References are recorded after all the
+	 * objects have been recorded, as the objects may reference each other.
+	 */
+	private synchronized void recordInsert(ExtendableObject newObject) {
+		List<ExtendableObject> newObjects = new ArrayList<ExtendableObject>();
+		collectObjects(newObject, newObjects);
+
+		try {
+			for (ExtendableObject object : newObjects) {
+				ListKey<?,?> listKey = object.getParentListKey();
+				Integer parentId = objectIds.get(listKey.getParentKey().getObject());
+				if (parentId == null) {
+					throw new IOException("The parent of a new object is not in the journal."); //$NON-NLS-1$
+				}
+				addObject(object);
+
+				pending.writeByte(RECORD_CREATE);
+				pending.writeInt(parentId);
+				pending.writeUTF(((ListPropertyAccessor<?,?>)listKey.getListPropertyAccessor()).getName());
+				pending.writeUTF(PropertySet.getPropertySet(object.getClass()).getId());
+
+				List<ScalarPropertyAccessor<?,?>> properties = new ArrayList<ScalarPropertyAccessor<?,?>>();
+				for (ScalarPropertyAccessor<?,?> propertyAccessor : PropertySet.getPropertySet(object.getClass()).getScalarProperties3()) {
+					if (!isReference(propertyAccessor) && isPropertyPresent(object, propertyAccessor)) {
+						properties.add(propertyAccessor);
+					}
+				}
+				pending.writeInt(properties.size());
+				for (ScalarPropertyAccessor<?,?> propertyAccessor : properties) {
+					pending.writeUTF(propertyAccessor.getName());
+					writeValue(getValue(propertyAccessor, object));
+				}
+			}
+
+			for (ExtendableObject object : newObjects) {
+				for (ScalarPropertyAccessor<?,?> propertyAccessor : PropertySet.getPropertySet(object.getClass()).getScalarProperties3()) {
+					if (isReference(propertyAccessor) && isPropertyPresent(object, propertyAccessor)) {
+						Object value = getValue(propertyAccessor, object);
+						if (value != null) {
+							writeChange(objectIds.get(object), propertyAccessor, value);
+						}
+					}
+				}
+			}
+		} catch (IOException e) {
+			journalFailed(e);
+		}
+	}
+
+	/**
+	 * Adds the given object and its descendants to the given list, parents
+	 * before children.
+	 */
+	private void collectObjects(ExtendableObject object, List<ExtendableObject> objectList) {
+		objectList.add(object);
+		for (ListPropertyAccessor<?,?> listAccessor : PropertySet.getPropertySet(object.getClass()).getListProperties3()) {
+			if (isPropertyPresent(object, listAccessor)) {
+				for (Object element : getElements(listAccessor, object)) {
+					collectObjects((ExtendableObject)element, objectList);
+				}
+			}
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Object getValue(ScalarPropertyAccessor propertyAccessor, ExtendableObject object) {
+		return propertyAccessor.getValue(object);
+	}
+
+	private synchronized void recordChange(IModelObject object, ScalarPropertyAccessor<?,?> propertyAccessor, Object newValue) {
+		Integer id = objectIds.get(object);
+		if (id == null) {
+			/*
+			 * The object has not yet been inserted. Its values will be
+			 * recorded when it is.
+			 */
+			return;
+		}
+
+		try {
+			writeChange(id, propertyAccessor, newValue);
+		} catch (IOException e) {
+			journalFailed(e);
+		}
+	}
+
+	private void writeChange(int id, ScalarPropertyAccessor<?,?> propertyAccessor, Object value) throws IOException {
+		pending.writeByte(RECORD_CHANGE);
+		pending.writeInt(id);
+		pending.writeUTF(propertyAccessor.getName());
+		writeValue(value);
+	}
+
+	private synchronized void recordDelete(IModelObject deletedObject) {
+		Integer id = objectIds.get(deletedObject);
+		if (id == null) {
+			journalFailed(new IOException("A deleted object is not in the journal.")); //$NON-NLS-1$
+		} else {
+			try {
+				pending.writeByte(RECORD_DELETE);
+				pending.writeInt(id);
+			} catch (IOException e) {
+				journalFailed(e);
+			}
+		}
+
+		objectIds.remove(deletedObject);
+		for (IModelObject destroyedObject : destroyedObjects) {
+			objectIds.remove(destroyedObject);
+		}
+		destroyedObjects.clear();
+	}
+
+	private synchronized void recordMove(IModelObject movedObject, IModelObject newParent, ListPropertyAccessor<?,?> newListProperty) {
+		Integer id = objectIds.get(movedObject);
+		Integer newParentId = objectIds.get(newParent);
+		try {
+			if (id == null || newParentId == null) {
+				throw new IOException("A moved object is not in the journal."); //$NON-NLS-1$
+			}
+			pending.writeByte(RECORD_MOVE);
+			pending.writeInt(id);
+			pending.writeInt(newParentId);
+			pending.writeUTF(newListProperty.getName());
+		} catch (IOException e) {
+			journalFailed(e);
+		}
+	}
+
+	/**
+	 * Called when a change cannot be recorded. The session will be written in
+	 * full at the next save, so no change is lost.
+	 */
+	private void journalFailed(IOException e) {
+		if (!isBroken) {
+			JMoneyPlugin.log(new Status(IStatus.WARNING, SerializedDatastorePlugin.PLUGIN_ID, IStatus.WARNING, "Change not recorded in journal, so the session will be written in full at the next save.", e)); //$NON-NLS-1$
+			isBroken = true;
+		}
+	}
+
+	private void writeValue(Object value) throws IOException {
+		if (value == null) {
+			pending.writeByte(VALUE_NULL);
+		} else if (value instanceof Integer) {
+			pending.writeByte(VALUE_INTEGER);
+			pending.writeInt((Integer)value);
+		} else if (value instanceof Long) {
+			pending.writeByte(VALUE_LONG);
+			pending.writeLong((Long)value);
+		} else if (value instanceof Boolean) {
+			pending.writeByte(VALUE_BOOLEAN);
+			pending.writeBoolean((Boolean)value);
+		} else if (value instanceof Character) {
+			pending.writeByte(VALUE_CHARACTER);
+			pending.writeChar((Character)value);
+		} else if (value instanceof Date) {
+			pending.writeByte(VALUE_DATE);
+			pending.writeLong(((Date)value).getTime());
+		} else if (value instanceof String) {
+			pending.writeByte(VALUE_STRING);
+			writeString((String)value);
+		} else if (value instanceof IModelObject) {
+			Integer id = objectIds.get(value);
+			if (id == null) {
+				throw new IOException("A referenced object is not in the journal."); //$NON-NLS-1$
+			}
+			pending.writeByte(VALUE_REFERENCE);
+			pending.writeInt(id);
+		} else {
+			/*
+			 * Other value classes are written the same way as in the XML
+			 * file format, using toString and a constructor that takes a
+			 * String.
+			 */
+			pending.writeByte(VALUE_OTHER);
+			writeString(value.toString());
+		}
+	}
+
+	/**
+	 * Writes a string of any length. <code>writeUTF</code> is limited to
+	 * strings that encode to less than 64K bytes, which is enough for names
+	 * but may not be enough for property values such as memos.
+	 */
+	private void writeString(String value) throws IOException {
+		byte [] bytes = value.getBytes("UTF-8"); //$NON-NLS-1$
+		pending.writeInt(bytes.length);
+		pending.write(bytes);
+	}
+
+	private static String readString(DataInputStream in) throws IOException {
+		byte [] bytes = new byte[in.readInt()];
+		in.readFully(bytes);
+		return new String(bytes, "UTF-8"); //$NON-NLS-1$
+	}
+
+	/**
+	 * Reads the journal file and applies the changes in each complete block
+	 * to the session.
+	 */
+	private void replay() throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(journalFile)));
+		try {
+			if (in.readInt() != MAGIC) {
+				throw new IOException("Not a JMoney journal file."); //$NON-NLS-1$
+			}
+			if (in.readInt() > VERSION) {
+				throw new IOException("The journal was written by a later version of JMoney."); //$NON-NLS-1$
+			}
+			long length = in.readLong();
+			long lastModified = in.readLong();
+			int objectCount = in.readInt();
+			int hash = in.readInt();
+
+			if (length != snapshotLength || lastModified != snapshotLastModified) {
+				/*
+				 * The session file has been written since the journal was
+				 * started, perhaps by a version of JMoney that does not keep a
+				 * journal, so the changes in the journal are already in the
+				 * session file or have been superseded. The journal is
+				 * replaced at the next save.
+				 */
+				JMoneyPlugin.log(new Status(IStatus.WARNING, SerializedDatastorePlugin.PLUGIN_ID, IStatus.WARNING, "Ignoring out of date journal " + journalFile.getPath(), null)); //$NON-NLS-1$
+				return;
+			}
+
+			if (objectCount != snapshotObjectCount || hash != snapshotHash) {
+				throw new IOException("The objects in the session file do not match the objects in the journal."); //$NON-NLS-1$
+			}
+
+			journalLength = HEADER_SIZE;
+
+			while (true) {
+				int blockLength;
+				long expectedChecksum;
+				byte [] block;
+				try {
+					blockLength = in.readInt();
+					expectedChecksum = in.readLong();
+					if (blockLength < 0 || blockLength > journalFile.length()) {
+						break;
+					}
+					block = new byte[blockLength];
+					in.readFully(block);
+				} catch (EOFException e) {
+					// The last block was not completely written.
+					break;
+				}
+
+				CRC32 checksum = new CRC32();
+				checksum.update(block);
+				if (checksum.getValue() != expectedChecksum) {
+					break;
+				}
+
+				applyBlock(block);
+				journalLength += 12 + blockLength;
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+	private void applyBlock(byte [] block) throws IOException {
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(block));
+		try {
+			while (in.available() != 0) {
+				byte recordType = in.readByte();
+				switch (recordType) {
+				case RECORD_CREATE:
+					applyCreate(in);
+					break;
+				case RECORD_CHANGE:
+					ExtendableObject object = getObject(in.readInt());
+					ScalarPropertyAccessor<?,?> propertyAccessor = getScalarProperty(object, in.readUTF());
+					setValue(propertyAccessor, object, readValue(in, propertyAccessor));
+					break;
+				case RECORD_DELETE:
+					applyDelete(getObject(in.readInt()));
+					break;
+				case RECORD_MOVE:
+					ExtendableObject movedObject = getObject(in.readInt());
+					ExtendableObject newParent = getObject(in.readInt());
+					moveElement(getListProperty(newParent, in.readUTF()), newParent, movedObject);
+					break;
+				default:
+					throw new IOException("Unknown record type in journal: " + recordType); //$NON-NLS-1$
+				}
+			}
+		} catch (RuntimeException e) {
+			throw new IOException("A change in the journal could not be applied to the session.", e); //$NON-NLS-1$
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private void applyCreate(DataInputStream in) throws IOException {
+		ExtendableObject parent = getObject(in.readInt());
+		ListPropertyAccessor listAccessor = getListProperty(parent, in.readUTF());
+		String propertySetId = in.readUTF();
+		ExtendablePropertySet propertySet;
+		try {
+			propertySet = PropertySet.getExtendablePropertySet(propertySetId);
+		} catch (PropertySetNotFoundException e) {
+			throw new IOException("Unknown property set in journal: " + propertySetId); //$NON-NLS-1$
+		}
+
+		ExtendableObject object = (ExtendableObject)listAccessor.getElements(parent).createNewElement(propertySet);
+		addObject(object);
+
+		/*
+		 * All the properties are set, including those that were null, as the
+		 * new object was constructed with default values.
+		 */
+		int propertyCount = in.readInt();
+		for (int i = 0; i < propertyCount; i++) {
+			ScalarPropertyAccessor<?,?> propertyAccessor = getScalarProperty(object, in.readUTF());
+			setValue(propertyAccessor, object, readValue(in, propertyAccessor));
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private void applyDelete(ExtendableObject object) throws IOException {
+		ListKey listKey = object.getParentListKey();
+		IModelObject parent = listKey.getParentKey().getObject();
+		try {
+			listKey.getListPropertyAccessor().getElements(parent).deleteElement(object);
+		} catch (ReferenceViolationException e) {
+			throw new IOException("An object deleted in the journal is referenced by other objects."); //$NON-NLS-1$
+		}
+		objectIds.remove(object);
+	}
+
+	@SuppressWarnings("unchecked")
+	private static void moveElement(ListPropertyAccessor listAccessor, ExtendableObject newParent, ExtendableObject object) {
+		listAccessor.getElements(newParent).moveElement(object);
+	}
+
+	@SuppressWarnings("unchecked")
+	private static void setValue(ScalarPropertyAccessor propertyAccessor, ExtendableObject object, Object value) {
+		propertyAccessor.setValue(object, value);
+	}
+
+	private ExtendableObject getObject(int id) throws IOException {
+		if (id < 0 || id >= objects.size()) {
+			throw new IOException("Unknown object number in journal: " + id); //$NON-NLS-1$
+		}
+		return objects.get(id);
+	}
+
+	private static ScalarPropertyAccessor<?,?> getScalarProperty(ExtendableObject object, String name) throws IOException {
+		for (ScalarPropertyAccessor<?,?> propertyAccessor : PropertySet.getPropertySet(object.getClass()).getScalarProperties3()) {
+			if (propertyAccessor.getName().equals(name)) {
+				return propertyAccessor;
+			}
+		}
+		throw new IOException("Unknown property in journal: " + name); //$NON-NLS-1$
+	}
+
+	private static ListPropertyAccessor<?,?> getListProperty(ExtendableObject object, String name) throws IOException {
+		for (ListPropertyAccessor<?,?> listAccessor : PropertySet.getPropertySet(object.getClass()).getListProperties3()) {
+			if (listAccessor.getName().equals(name)) {
+				return listAccessor;
+			}
+		}
+		throw new IOException("Unknown list property in journal: " + name); //$NON-NLS-1$
+	}
+
+	private Object readValue(DataInputStream in, ScalarPropertyAccessor<?,?> propertyAccessor) throws IOException {
+		byte valueType = in.readByte();
+		switch (valueType) {
+		case VALUE_NULL:
+			return null;
+		case VALUE_INTEGER:
+			return in.readInt();
+		case VALUE_LONG:
+			return in.readLong();
+		case VALUE_BOOLEAN:
+			return in.readBoolean();
+		case VALUE_CHARACTER:
+			return in.readChar();
+		case VALUE_DATE:
+			return new Date(in.readLong());
+		case VALUE_STRING:
+			return readString(in);
+		case VALUE_REFERENCE:
+			return getObject(in.readInt());
+		case VALUE_OTHER:
+			String text = readString(in);
+			try {
+				Constructor<?> constructor = propertyAccessor.getClassOfValueObject().getConstructor(String.class);
+				return constructor.newInstance(text);
+			} catch (Exception e) {
+				throw new IOException("Value of " + propertyAccessor.getName() + " cannot be constructed from '" + text + "'."); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+			}
+		default:
+			throw new IOException("Unknown value type in journal: " + valueType); //$NON-NLS-1$
+		}
+	}
+}
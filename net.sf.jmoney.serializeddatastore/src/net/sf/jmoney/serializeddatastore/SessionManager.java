@@ -25,23 +25,42 @@ package net.sf.jmoney.serializeddatastore;
 
 import java.io.File;
 import java.io.IOException;
+import java.text.MessageFormat;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Vector;
-
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import net.sf.jmoney.JMoneyPlugin;
 import net.sf.jmoney.isolation.AbstractDataManager;
+import net.sf.jmoney.isolation.IObjectKey;
 import net.sf.jmoney.model2.Account;
 import net.sf.jmoney.model2.Entry;
 import net.sf.jmoney.model2.IDatastoreManager;
+import net.sf.jmoney.model2.EntryTextIndex;
+import net.sf.jmoney.model2.IEntryCollector;
+import net.sf.jmoney.model2.IEntrySearchTask;
 import net.sf.jmoney.model2.Session;
 
 import org.eclipse.core.runtime.Assert;
 import org.eclipse.core.runtime.CoreException;
 import org.eclipse.core.runtime.IConfigurationElement;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.NullProgressMonitor;
 import org.eclipse.core.runtime.Platform;
 import org.eclipse.jface.dialogs.IDialogConstants;
 import org.eclipse.jface.dialogs.MessageDialog;
@@ -68,7 +87,46 @@ public class SessionManager extends AbstractDataManager implements IDatastoreMan
 
 	boolean modified = false;
 
-	Map<Account, Collection<Entry>> accountEntriesListsMap = new HashMap<Account, Collection<Entry>>();
+	/**
+	 * The journal of the changes made since the session was last written in
+	 * full to the session file, or null if the session has never been saved
+	 * to a file.
+	 */
+	private SessionJournal journal = null;
+
+	/**
+	 * The lists of entries in each account. The lists are built as the
+	 * session is read and are kept up to date as entries are added, removed
+	 * and moved between accounts. They are used only on the thread that owns
+	 * the session; entry searches copy the values they need before running on
+	 * other threads.
+	 */
+	private Map<Account, Collection<Entry>> accountEntriesListsMap = new HashMap<Account, Collection<Entry>>();
+
+	/**
+	 * The number of threads used to scan the accounts when searching for
+	 * entries.
+	 */
+	private static final int SEARCH_THREAD_COUNT = Math.max(1, Runtime.getRuntime().availableProcessors());
+
+	/**
+	 * The pool of threads used to scan the accounts when searching for
+	 * entries, created when first needed and shared by all searches.
+	 */
+	private ExecutorService searchExecutor = null;
+
+	/**
+	 * The index of the words in the entry memos, built the first time a
+	 * search by memo is made.
+	 */
+	private EntryTextIndex textIndex = null;
+
+	/**
+	 * The implementation of IReconciliationQueries, created when first
+	 * requested. The type is Object because the reconciliation plug-in may
+	 * not be present.
+	 */
+	private Object reconciliationQueries = null;
 
 	/**
 	 * Construct the session manager.
@@ -129,6 +187,33 @@ public class SessionManager extends AbstractDataManager implements IDatastoreMan
 		return modified;
 	}
 
+	/**
+	 * Applies the changes in the journal for the session file to the session.
+	 * This must be called after the session has been read from the session
+	 * file.
+	 * 
+	 * @return true if the journal was applied or there was no journal, false
+	 *         if the journal could not be applied, in which case an error
+	 *         message has been displayed and the session must not be opened
+	 */
+	public boolean openJournal(IWorkbenchWindow window) {
+		try {
+			journal = SessionJournal.open(this, sessionFile);
+		} catch (IOException e) {
+			JMoneyPlugin.log(e);
+			String message = MessageFormat.format(
+					Messages.SessionManager_JournalErrorMessage,
+					SessionJournal.getJournalFile(sessionFile).getPath());
+			MessageDialog.openError(window.getShell(),
+					Messages.SessionManager_JournalErrorTitle, message);
+			return false;
+		}
+
+		// Applying the journal does not count as a change to the session.
+		modified = false;
+		return true;
+	}
+
 	/**
 	 * This plug-in needs to know if a session has been modified so that it
 	 * knows whether to save the session. This method must be called whenever
@@ -164,14 +249,47 @@ public class SessionManager extends AbstractDataManager implements IDatastoreMan
 
 	/**
 	 * Saves the session in the selected file.
+	 * <P>
+	 * The changes made since the last save are appended to the journal. The
+	 * session is instead written in full if the journal has become large
+	 * compared to the session file or the changes could not be recorded in
+	 * the journal.
 	 */
 	public void saveSession(IWorkbenchWindow window) {
 		if (getFile() == null) {
 			saveSessionAs(window);
+		} else if (journal != null && journal.canAppend()) {
+			try {
+				journal.save();
+				modified = false;
+			} catch (IOException e) {
+				JMoneyPlugin.log(e);
+				writeSession(getFile(), window);
+			}
 		} else {
-			fileDatastore.writeSession(this, getFile(), window);
-			modified = false;
+			writeSession(getFile(), window);
+		}
+	}
+
+	/**
+	 * Writes the session in full to the given file and starts a new journal
+	 * of the changes made after this write. If the write fails then an error
+	 * message will have been displayed and the previous journal, if any, is
+	 * kept.
+	 * 
+	 * @return true if the session was written, false if it was not
+	 */
+	private boolean writeSession(File file, IWorkbenchWindow window) {
+		if (!fileDatastore.writeSession(this, file, window)) {
+			return false;
+		}
+
+		if (journal != null) {
+			journal.dispose();
 		}
+		journal = SessionJournal.start(this, file);
+		modified = false;
+		return true;
 	}
 
 	/**
@@ -219,13 +337,12 @@ public class SessionManager extends AbstractDataManager implements IDatastoreMan
 			// Note that we do not set the new session file until the file is
 			// successfully written. If the file cannot be written to the new
 			// file then we must leave the old file as the current file.
-			fileDatastore.writeSession(this, newSessionFile, window);
-			this.sessionFile = newSessionFile;
-			//Update the title
-			String productName = Platform.getProduct().getName();
-			window.getShell().setText(productName+" - "+getBriefDescription()); //$NON-NLS-1$
-
-			modified = false;
+			if (writeSession(newSessionFile, window)) {
+				this.sessionFile = newSessionFile;
+				//Update the title
+				String productName = Platform.getProduct().getName();
+				window.getShell().setText(productName+" - "+getBriefDescription()); //$NON-NLS-1$
+			}
 		}
 	}
 
@@ -270,17 +387,37 @@ public class SessionManager extends AbstractDataManager implements IDatastoreMan
 
 	@Override
 	public boolean canClose(IWorkbenchWindow window) {
-		if (isModified()) {
-			return requestSave(window);
-		} else {
-			return true;
+		if (isModified() && !requestSave(window)) {
+			return false;
 		}
+
+		/*
+		 * If all changes have been saved then the session is written in full,
+		 * so the session is next opened from the session file alone. If the
+		 * user chose not to save the changes then the journal is left as it
+		 * is, because writing the session now would save the changes.
+		 */
+		if (!isModified() && journal != null && journal.getLength() != 0) {
+			writeSession(getFile(), window);
+		}
+		return true;
 	}
 
 	@Override
 	public void close() {
-		// There is nothing to do here. No files, connections or other resources
-		// are kept open so there is nothing to close.
+		// No files or connections are kept open, so there is nothing to
+		// close other than to stop recording changes and to stop the
+		// threads used by searches.
+		if (journal != null) {
+			journal.dispose();
+			journal = null;
+		}
+		synchronized (this) {
+			if (searchExecutor != null) {
+				searchExecutor.shutdownNow();
+				searchExecutor = null;
+			}
+		}
 	}
 
 	@Override
@@ -330,6 +467,18 @@ public class SessionManager extends AbstractDataManager implements IDatastoreMan
 		if (adapter == IPersistableElement.class) {
 			return persistableElement;
 		}
+
+		/*
+		 * The reconciliation plug-in is optional so we compare by name.
+		 * Comparing against the class would fail if the plug-in is not
+		 * present.
+		 */
+		if (adapter.getName().equals("net.sf.jmoney.reconciliation.IReconciliationQueries")) {
+			if (reconciliationQueries == null) {
+				reconciliationQueries = new ReconciliationQueries(this);
+			}
+			return reconciliationQueries;
+		}
 		return null;
 	}
 
@@ -396,7 +545,229 @@ public class SessionManager extends AbstractDataManager implements IDatastoreMan
 	@Override
 	public List<Entry> getEntries(Date startDate, Date endDate, Long amount,
 			String memo) {
-		// TODO Auto-generated method stub
-		throw new UnsupportedOperationException("Search not supported for serialized datastores");
+		IEntrySearchTask search = prepareEntrySearch(startDate, endDate, amount, memo);
+		final List<IObjectKey> entryKeys = Collections.synchronizedList(new ArrayList<IObjectKey>());
+		search.run(new IEntryCollector() {
+			@Override
+			public void entryFound(IObjectKey entryKey) {
+				entryKeys.add(entryKey);
+			}
+		}, new NullProgressMonitor());
+		List<Entry> entries = search.getEntries(entryKeys);
+
+		// Give the same order as the database datastores.
+		Collections.sort(entries, new Comparator<Entry>() {
+			@Override
+			public int compare(Entry entry1, Entry entry2) {
+				Date date1 = entry1.getTransaction().getDate();
+				Date date2 = entry2.getTransaction().getDate();
+				if (date1 == null || date2 == null) {
+					return (date1 == null ? 0 : 1) - (date2 == null ? 0 : 1);
+				}
+				return date1.compareTo(date2);
+			}
+		});
+		return entries;
+	}
+
+	/**
+	 * All entries are in memory, so the search is a scan of the entries. If
+	 * the search is by memo then only the entries found in the memo index are
+	 * scanned.
+	 * <P>
+	 * The model may only be read on the thread that owns the session, so the
+	 * values used by the search are copied from the entries here. When the
+	 * search is run, the copy for each account is scanned by a separate task
+	 * on a pool of threads that is shared by all searches.
+	 */
+	@Override
+	public IEntrySearchTask prepareEntrySearch(Date startDate, Date endDate, Long amount,
+			String memo) {
+		List<EntryValues> entryValuesList = new ArrayList<EntryValues>();
+		List<Entry> candidates = (memo == null) ? null : getTextIndex().findEntries(memo);
+		if (candidates != null) {
+			entryValuesList.add(new EntryValues(candidates));
+		} else {
+			for (Collection<Entry> entryList : accountEntriesListsMap.values()) {
+				entryValuesList.add(new EntryValues(entryList));
+			}
+		}
+		return new EntrySearchTask(entryValuesList, startDate, endDate, amount, memo);
+	}
+
+	/**
+	 * A copy of the values used by a search, taken from a list of entries.
+	 */
+	private static class EntryValues {
+
+		/**
+		 * The value in the dates array for an entry in a transaction with no
+		 * date.
+		 */
+		private static final long NO_DATE = Long.MIN_VALUE;
+
+		final IObjectKey [] keys;
+		final long [] dates;
+		final long [] amounts;
+		final String [] memos;
+
+		/**
+		 * Must be called on the thread that owns the session. Entries that
+		 * are not in an account are not copied.
+		 */
+		EntryValues(Collection<Entry> entries) {
+			List<Entry> entriesInAccounts = new ArrayList<Entry>(entries.size());
+			for (Entry entry : entries) {
+				if (entry.getAccount() != null) {
+					entriesInAccounts.add(entry);
+				}
+			}
+
+			int size = entriesInAccounts.size();
+			keys = new IObjectKey[size];
+			dates = new long[size];
+			amounts = new long[size];
+			memos = new String[size];
+			for (int i = 0; i < size; i++) {
+				Entry entry = entriesInAccounts.get(i);
+				Date date = entry.getTransaction().getDate();
+				keys[i] = entry.getObjectKey();
+				dates[i] = (date == null) ? NO_DATE : date.getTime();
+				amounts[i] = entry.getAmount();
+				memos[i] = entry.getMemo();
+			}
+		}
+	}
+
+	private class EntrySearchTask implements IEntrySearchTask {
+
+		private final List<EntryValues> entryValuesList;
+		private final long startDate;
+		private final long endDate;
+		private final Long amount;
+		private final String upperCaseMemo;
+
+		EntrySearchTask(List<EntryValues> entryValuesList, Date startDate, Date endDate, Long amount, String memo) {
+			this.entryValuesList = entryValuesList;
+			this.startDate = (startDate == null) ? EntryValues.NO_DATE : startDate.getTime();
+			this.endDate = (endDate == null) ? Long.MAX_VALUE : endDate.getTime();
+			this.amount = amount;
+			this.upperCaseMemo = (memo == null) ? null : memo.toUpperCase();
+		}
+
+		/**
+		 * Each list of entries is scanned in its own task. Progress is
+		 * reported as each task completes, and the monitor is checked for
+		 * cancellation while waiting.
+		 */
+		@Override
+		public void run(final IEntryCollector collector, final IProgressMonitor monitor) {
+			monitor.beginTask("Searching entries", entryValuesList.size());
+
+			CompletionService<Object> completionService = new ExecutorCompletionService<Object>(getSearchExecutor());
+			List<Future<Object>> futures = new ArrayList<Future<Object>>();
+			try {
+				for (final EntryValues entryValues : entryValuesList) {
+					futures.add(completionService.submit(new Callable<Object>() {
+						@Override
+						public Object call() {
+							for (int i = 0; i < entryValues.keys.length && !monitor.isCanceled(); i++) {
+								if (matches(entryValues, i)) {
+									collector.entryFound(entryValues.keys[i]);
+								}
+							}
+							return null;
+						}
+					}));
+				}
+
+				for (int i = 0; i < futures.size(); i++) {
+					Future<Object> future = completionService.poll(100, TimeUnit.MILLISECONDS);
+					while (future == null) {
+						if (monitor.isCanceled()) {
+							return;
+						}
+						future = completionService.poll(100, TimeUnit.MILLISECONDS);
+					}
+					future.get();
+					monitor.worked(1);
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} catch (ExecutionException e) {
+				throw new RuntimeException("Entry search failed", e.getCause());
+			} finally {
+				for (Future<Object> future : futures) {
+					future.cancel(true);
+				}
+				monitor.done();
+			}
+		}
+
+		private boolean matches(EntryValues entryValues, int index) {
+			// An entry with no date is excluded if the dates are restricted.
+			long date = entryValues.dates[index];
+			if (date == EntryValues.NO_DATE) {
+				if (startDate != EntryValues.NO_DATE || endDate != Long.MAX_VALUE) {
+					return false;
+				}
+			} else if (date < startDate || date > endDate) {
+				return false;
+			}
+			if (amount != null && Math.abs(entryValues.amounts[index]) != amount) {
+				return false;
+			}
+			String memo = entryValues.memos[index];
+			if (upperCaseMemo != null
+					&& (memo == null || !memo.toUpperCase().contains(upperCaseMemo))) {
+				return false;
+			}
+			return true;
+		}
+
+		@Override
+		public List<Entry> getEntries(List<IObjectKey> entryKeys) {
+			List<Entry> entries = new ArrayList<Entry>(entryKeys.size());
+			for (IObjectKey entryKey : entryKeys) {
+				entries.add((Entry)entryKey.getObject());
+			}
+			return entries;
+		}
+	}
+
+	/**
+	 * Gets the pool of threads used by searches, creating it if this is the
+	 * first search. The pool is shut down when the session is closed.
+	 */
+	private synchronized ExecutorService getSearchExecutor() {
+		if (searchExecutor == null) {
+			searchExecutor = Executors.newFixedThreadPool(SEARCH_THREAD_COUNT, new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "Entry search"); //$NON-NLS-1$
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return searchExecutor;
+	}
+
+	/**
+	 * Gets the index of the words in the entry memos, building it if this is
+	 * the first time it is needed. The index is built from the entries in the
+	 * accounts, which are the entries that a search can find.
+	 */
+	private synchronized EntryTextIndex getTextIndex() {
+		if (textIndex == null) {
+			EntryTextIndex newTextIndex = new EntryTextIndex(this);
+			List<Entry> entries = new ArrayList<Entry>();
+			for (Collection<Entry> entryList : accountEntriesListsMap.values()) {
+				entries.addAll(entryList);
+			}
+			newTextIndex.addEntries(entries);
+			textIndex = newTextIndex;
+		}
+		return textIndex;
 	}
 }
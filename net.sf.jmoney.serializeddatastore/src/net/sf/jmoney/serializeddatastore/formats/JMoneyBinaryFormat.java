@@ -0,0 +1,1059 @@
+/*
+ *
+ *  JMoney - A Personal Finance Manager
+ *  Copyright (c) 2010 Nigel Westbury <westbury@users.sourceforge.net>
+ *
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ */
+package net.sf.jmoney.serializeddatastore.formats;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TimeZone;
+
+import net.sf.jmoney.JMoneyPlugin;
+import net.sf.jmoney.isolation.IListManager;
+import net.sf.jmoney.isolation.IListPropertyAccessor;
+import net.sf.jmoney.isolation.IModelObject;
+import net.sf.jmoney.isolation.IObjectKey;
+import net.sf.jmoney.isolation.IReferencePropertyAccessor;
+import net.sf.jmoney.isolation.IScalarPropertyAccessor;
+import net.sf.jmoney.isolation.IValues;
+import net.sf.jmoney.isolation.ListKey;
+import net.sf.jmoney.model2.Account;
+import net.sf.jmoney.model2.Entry;
+import net.sf.jmoney.model2.ExtendableObject;
+import net.sf.jmoney.model2.ExtendablePropertySet;
+import net.sf.jmoney.model2.ExtensionPropertySet;
+import net.sf.jmoney.model2.ListPropertyAccessor;
+import net.sf.jmoney.model2.PropertySet;
+import net.sf.jmoney.model2.PropertySetNotFoundException;
+import net.sf.jmoney.model2.ScalarPropertyAccessor;
+import net.sf.jmoney.model2.Session;
+import net.sf.jmoney.serializeddatastore.IFileDatastore;
+import net.sf.jmoney.serializeddatastore.Messages;
+import net.sf.jmoney.serializeddatastore.SessionManager;
+import net.sf.jmoney.serializeddatastore.SimpleListManager;
+import net.sf.jmoney.serializeddatastore.SimpleObjectKey;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.jface.dialogs.MessageDialog;
+import org.eclipse.jface.dialogs.ProgressMonitorDialog;
+import org.eclipse.jface.operation.IRunnableWithProgress;
+import org.eclipse.ui.IWorkbenchWindow;
+
+/**
+ * Implementation of the IFileDatastore extension listener for the JMoney
+ * binary format.
+ * <P>
+ * This format holds the same data as the XML format but is much faster to
+ * read and write, and the files are smaller. The objects are put into tables,
+ * one table for each combination of list property and actual property set.
+ * So, for example, all the entries are in one table and all the transactions
+ * are in another. Each table is written column by column:
+ * <UL>
+ * <LI>integers and amounts are zig-zag encoded variable length integers</LI>
+ * <LI>dates are the number of days from the date in the previous row</LI>
+ * <LI>strings, such as memos, are indexes into a dictionary of all the
+ * distinct strings in the file</LI>
+ * <LI>references to other objects, and the parent of each object, are the
+ * index of the object in the file</LI>
+ * </UL>
+ * Each column starts with the name of the property and the length of the
+ * column, so columns for properties that are no longer known, perhaps because
+ * a plug-in has been uninstalled, are skipped. The file starts with a version
+ * number, and a file written by a later version than this class is refused.
+ * <P>
+ * Files are read through a memory mapped buffer, and are written to a
+ * temporary file which then replaces the session file, so the session file is
+ * never left partly written.
+ *
+ * @author Nigel Westbury
+ */
+public class JMoneyBinaryFormat implements IFileDatastore {
+
+	public static final String ID_FILE_FORMAT = "net.sf.jmoney.serializeddatastore.jmbFormat"; //$NON-NLS-1$
+
+	/**
+	 * The first four bytes of every file in this format, being 'JMB' followed
+	 * by a zero byte.
+	 */
+	private static final int MAGIC = 0x4A4D4200;
+
+	/**
+	 * The version of the format written by this class. This must be
+	 * incremented whenever the format is changed.
+	 */
+	private static final int VERSION = 1;
+
+	/**
+	 * The size of the header, being the magic number, the version, the number
+	 * of objects, the number of tables, and the position of the string
+	 * dictionary.
+	 */
+	private static final int HEADER_SIZE = 24;
+
+	private static final byte TYPE_INTEGER = 1;
+	private static final byte TYPE_LONG = 2;
+	private static final byte TYPE_BOOLEAN = 3;
+	private static final byte TYPE_CHARACTER = 4;
+	private static final byte TYPE_DATE = 5;
+	private static final byte TYPE_STRING = 6;
+	private static final byte TYPE_REFERENCE = 7;
+
+	/**
+	 * Values of any other class are written as the string returned by
+	 * <code>toString</code> and read using the string constructor of the
+	 * class, as is done in the XML format.
+	 */
+	private static final byte TYPE_OTHER = 8;
+
+	private static final long MILLISECONDS_PER_DAY = 24 * 60 * 60 * 1000L;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8"); //$NON-NLS-1$
+
+	/*
+	 * These calendars are used to convert dates to and from day numbers. Dates
+	 * are taken to be in the default time zone and any time in a date is not
+	 * written, as is the case in the XML format.
+	 */
+	private Calendar localCalendar = Calendar.getInstance();
+	private Calendar utcCalendar = Calendar.getInstance(TimeZone.getTimeZone("UTC")); //$NON-NLS-1$
+
+	/**
+	 * Read session from file. The session is set as the open session in the
+	 * given session manager.
+	 * <P>
+	 * If this method returns false then any previous session will be left open.
+	 * This method displays an appropriate error message if the file cannot be
+	 * read.
+	 *
+	 * @return true if the file was successfully read and the session was set in
+	 *         the given session manager, false if a failure occurred
+	 */
+	@Override
+	public boolean readSession(final File sessionFile,
+			final SessionManager sessionManager, final IWorkbenchWindow window) {
+		try {
+			if (sessionFile.length() < 2000000) {
+				// This format is read so quickly that a progress
+				// monitor would flash up and be gone before the user
+				// could read it.
+				readSessionQuietly(sessionFile, sessionManager, null);
+			} else {
+				IRunnableWithProgress readSessionRunnable = new IRunnableWithProgress() {
+
+					@Override
+					public void run(IProgressMonitor monitor)
+							throws InvocationTargetException {
+						// Set the number of work units in the monitor where
+						// one work unit is reading 100 Kbytes.
+						int workUnits = (int) (sessionFile.length() / 100000);
+
+						monitor.beginTask(MessageFormat.format(
+								Messages.JMoneyXmlFormat_OpeningFile,
+								sessionFile), workUnits);
+
+						try {
+							readSessionQuietly(sessionFile, sessionManager,
+									monitor);
+						} catch (Exception ex) {
+							throw new InvocationTargetException(ex);
+						} finally {
+							monitor.done();
+						}
+					}
+
+				};
+
+				ProgressMonitorDialog progressDialog = new ProgressMonitorDialog(
+						window.getShell());
+
+				try {
+					progressDialog.run(true, false, readSessionRunnable);
+				} catch (InvocationTargetException e) {
+					throw e.getCause();
+				}
+			}
+		} catch (InterruptedException e) {
+			// The cancel button is not enabled in the progress
+			// dialog, so this cannot happen.
+			return false;
+		} catch (Throwable ex) {
+			JMoneyPlugin.log(ex);
+
+			String message = MessageFormat.format(
+					Messages.JMoneyXmlFormat_ReadErrorMessage, sessionFile.getPath());
+			String title = Messages.JMoneyXmlFormat_ReadErrorTitle;
+			MessageDialog.openError(window.getShell(), title, message);
+
+			return false;
+		}
+
+		return true;
+	}
+
+	/**
+	 * Read session from file.
+	 *
+	 * @param monitor
+	 *            Monitor into which this method will update the progress, the
+	 *            caller having called beginTask with one work unit for each
+	 *            100 Kbytes of the file. This parameter may be null in which
+	 *            this method will read the session without feedback on the
+	 *            progress.
+	 */
+	public void readSessionQuietly(File sessionFile,
+			SessionManager sessionManager, IProgressMonitor monitor)
+			throws IOException {
+		/*
+		 * The file is mapped into memory only for the duration of the read.
+		 * The buffer is not kept by the session that is read, so the mapping
+		 * can be released as soon as the read is done.
+		 */
+		Session newSession;
+		FileInputStream in = new FileInputStream(sessionFile);
+		try {
+			FileChannel channel = in.getChannel();
+			ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			newSession = new SessionReader(sessionManager, buffer).read(monitor);
+		} finally {
+			in.close();
+		}
+
+		sessionManager.setSession(newSession);
+	}
+
+	/**
+	 * Write session to file.
+	 */
+	@Override
+	public boolean writeSession(final SessionManager sessionManager,
+			final File sessionFile, IWorkbenchWindow window) {
+		try {
+			IRunnableWithProgress writeSessionRunnable = new IRunnableWithProgress() {
+
+				@Override
+				public void run(IProgressMonitor monitor)
+						throws InvocationTargetException {
+					monitor.beginTask(MessageFormat.format(
+							Messages.JMoneyXmlFormat_SavingFile,
+							sessionFile), IProgressMonitor.UNKNOWN);
+
+					try {
+						writeSessionQuietly(sessionManager, sessionFile);
+					} catch (Exception ex) {
+						throw new InvocationTargetException(ex);
+					} finally {
+						monitor.done();
+					}
+				}
+
+			};
+
+			ProgressMonitorDialog progressDialog = new ProgressMonitorDialog(
+					window.getShell());
+
+			try {
+				progressDialog.run(true, false, writeSessionRunnable);
+			} catch (InvocationTargetException e) {
+				throw e.getCause();
+			}
+			return true;
+		} catch (InterruptedException e) {
+			// The cancel button is not enabled in the progress
+			// dialog, so this cannot happen.
+			return false;
+		} catch (Throwable ex) {
+			JMoneyPlugin.log(ex);
+
+			String message = MessageFormat.format(
+					Messages.JMoneyXmlFormat_WriteErrorMessage, sessionFile.getPath());
+			String title = Messages.JMoneyXmlFormat_WriteErrorTitle;
+			MessageDialog.openError(window.getShell(), title, message);
+			return false;
+		}
+	}
+
+	/**
+	 * Write session to file.
+	 */
+	public void writeSessionQuietly(SessionManager sessionManager,
+			File sessionFile) throws IOException {
+		SessionWriter writer = new SessionWriter();
+		writer.addObject(sessionManager.getSession(), null, -1);
+
+		/*
+		 * The session is written to a temporary file in the same directory,
+		 * which replaces the session file only when it has been completely
+		 * written.
+		 */
+		File directory = sessionFile.getAbsoluteFile().getParentFile();
+		File tempFile = File.createTempFile(sessionFile.getName(), ".tmp", directory); //$NON-NLS-1$
+		boolean succeeded = false;
+		try {
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+			long dictionaryPosition;
+			try {
+				dictionaryPosition = writer.write(out);
+			} finally {
+				out.close();
+			}
+
+			/*
+			 * The strings are not all known until the tables have been
+			 * written, so the string dictionary is written last and its
+			 * position set into the header now.
+			 */
+			RandomAccessFile file = new RandomAccessFile(tempFile, "rw"); //$NON-NLS-1$
+			try {
+				file.seek(HEADER_SIZE - 8);
+				file.writeLong(dictionaryPosition);
+			} finally {
+				file.close();
+			}
+
+			if (!replaceFile(tempFile, sessionFile)) {
+				/*
+				 * On some platforms a file cannot be deleted while it is
+				 * mapped into memory, and the mapping made when the file was
+				 * read is only released when the buffer is garbage collected.
+				 * So collect the garbage and try once more.
+				 */
+				System.gc();
+				System.runFinalization();
+				if (!replaceFile(tempFile, sessionFile)) {
+					throw new IOException(MessageFormat.format("Unable to replace {0} with {1}.", sessionFile, tempFile)); //$NON-NLS-1$
+				}
+			}
+			succeeded = true;
+		} finally {
+			if (!succeeded) {
+				tempFile.delete();
+			}
+		}
+	}
+
+	/**
+	 * Replaces a file by renaming another file to it. On some platforms a
+	 * file cannot be renamed over an existing file, in which case the file
+	 * being replaced is deleted first.
+	 *
+	 * @return true if the file was replaced, false if it could not be
+	 */
+	private static boolean replaceFile(File newFile, File file) {
+		if (newFile.renameTo(file)) {
+			return true;
+		}
+		return file.delete() && newFile.renameTo(file);
+	}
+
+	/**
+	 * The objects with the same actual property set that are contained in
+	 * the same list property. The session object is in a table of its own
+	 * with a null list property.
+	 */
+	private static class Table {
+		final int index;
+		final ExtendablePropertySet<?> propertySet;
+		final ListPropertyAccessor<?,?> listAccessor;
+
+		/**
+		 * true if objects in this table may be referenced by scalar properties
+		 * in other objects, false if they cannot be referenced
+		 */
+		final boolean isReferenceable;
+
+		List<ExtendableObject> objects = new ArrayList<ExtendableObject>();
+
+		/**
+		 * The position of the parent of each object, being the index of the
+		 * table in the upper 32 bits and the row in the lower 32 bits. Only
+		 * the first <code>objects.size()</code> elements are used.
+		 */
+		long [] parentPositions = new long[16];
+
+		Table(int index, ExtendablePropertySet<?> propertySet, ListPropertyAccessor<?,?> listAccessor, boolean isReferenceable) {
+			this.index = index;
+			this.propertySet = propertySet;
+			this.listAccessor = listAccessor;
+			this.isReferenceable = isReferenceable;
+		}
+
+		/**
+		 * @return the position of the added object, being the index of this
+		 *         table in the upper 32 bits and the row in the lower 32 bits
+		 */
+		long add(ExtendableObject object, long parentPosition) {
+			int row = objects.size();
+			objects.add(object);
+			if (row == parentPositions.length) {
+				parentPositions = Arrays.copyOf(parentPositions, row * 2);
+			}
+			parentPositions[row] = parentPosition;
+			return ((long)index << 32) | row;
+		}
+	}
+
+	private class SessionWriter {
+
+		private List<Table> tables = new ArrayList<Table>();
+
+		/**
+		 * Maps the list property name and the property set id to the table.
+		 */
+		private Map<String, Table> tableMap = new HashMap<String, Table>();
+
+		/**
+		 * The property sets of objects that may be referenced by scalar
+		 * properties. Objects in these property sets, or in property sets
+		 * derived from them, are put in the objectPositions map.
+		 */
+		private Set<ExtendablePropertySet<?>> referencedPropertySets = new HashSet<ExtendablePropertySet<?>>();
+
+		/**
+		 * The positions of the objects that may be referenced. Objects that
+		 * cannot be referenced, such as entries and transactions, are not put
+		 * in this map.
+		 */
+		private Map<ExtendableObject, Long> objectPositions = new HashMap<ExtendableObject, Long>();
+
+		/**
+		 * The index of the first object in each table.
+		 */
+		private int [] tableStarts;
+
+		private Map<String, Integer> stringIndexes = new HashMap<String, Integer>();
+
+		private List<String> strings = new ArrayList<String>();
+
+		@SuppressWarnings("unchecked")
+		SessionWriter() {
+			for (ExtendablePropertySet<?> propertySet : PropertySet.getAllExtendablePropertySets()) {
+				for (ScalarPropertyAccessor<?,?> propertyAccessor : propertySet.getScalarProperties3()) {
+					if (ExtendableObject.class.isAssignableFrom(propertyAccessor.getClassOfValueObject())) {
+						referencedPropertySets.add(PropertySet.getPropertySet((Class<ExtendableObject>)propertyAccessor.getClassOfValueObject()));
+					}
+				}
+			}
+		}
+
+		/**
+		 * Adds the given object, and all the objects in its list properties,
+		 * to the tables.
+		 */
+		@SuppressWarnings("unchecked")
+		void addObject(ExtendableObject object, ListPropertyAccessor<?,?> listAccessor, long parentPosition) {
+			ExtendablePropertySet<?> propertySet = PropertySet.getPropertySet(object.getClass());
+
+			String tableKey = (listAccessor == null ? "" : listAccessor.getName()) + ' ' + propertySet.getId(); //$NON-NLS-1$
+			Table table = tableMap.get(tableKey);
+			if (table == null) {
+				table = new Table(tables.size(), propertySet, listAccessor, isReferenced(propertySet));
+				tables.add(table);
+				tableMap.put(tableKey, table);
+			}
+
+			long position = table.add(object, parentPosition);
+			if (table.isReferenceable) {
+				objectPositions.put(object, position);
+			}
+
+			for (ListPropertyAccessor childListAccessor : propertySet.getListProperties3()) {
+				PropertySet<?,?> propertySet2 = childListAccessor.getPropertySet();
+				if (!propertySet2.isExtension()
+						|| object.getExtension((ExtensionPropertySet)propertySet2, false) != null) {
+					for (Object element : childListAccessor.getElements(object)) {
+						addObject((ExtendableObject)element, childListAccessor, position);
+					}
+				}
+			}
+		}
+
+		private boolean isReferenced(ExtendablePropertySet<?> propertySet) {
+			for (ExtendablePropertySet<?> basePropertySet = propertySet; basePropertySet != null; basePropertySet = basePropertySet.getBasePropertySet()) {
+				if (referencedPropertySets.contains(basePropertySet)) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		/**
+		 * Writes the header, the tables, and the string dictionary.
+		 *
+		 * @return the position of the string dictionary
+		 */
+		long write(DataOutputStream out) throws IOException {
+			tableStarts = new int[tables.size()];
+			int objectCount = 0;
+			for (Table table : tables) {
+				tableStarts[table.index] = objectCount;
+				objectCount += table.objects.size();
+			}
+
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(objectCount);
+			out.writeInt(tables.size());
+			// The position of the dictionary is set when it is known
+			out.writeLong(0);
+
+			for (Table table : tables) {
+				writeTable(out, table);
+			}
+
+			long dictionaryPosition = out.size();
+
+			writeVarLong(out, strings.size());
+			for (String string : strings) {
+				byte [] bytes = string.getBytes(UTF8);
+				writeVarLong(out, bytes.length);
+				out.write(bytes);
+			}
+
+			return dictionaryPosition;
+		}
+
+		@SuppressWarnings("unchecked")
+		private void writeTable(DataOutputStream out, Table table) throws IOException {
+			int rowCount = table.objects.size();
+
+			writeVarLong(out, getStringIndex(table.propertySet.getId()));
+			writeVarLong(out, getStringIndex(table.listAccessor == null ? null : table.listAccessor.getName()));
+			writeVarLong(out, rowCount);
+
+			// The parents, as the difference from the parent of the previous row
+			if (table.listAccessor != null) {
+				int previousParent = 0;
+				for (int row = 0; row < rowCount; row++) {
+					int parent = getObjectIndex(table.parentPositions[row]);
+					writeVarLong(out, zigZag(parent - previousParent));
+					previousParent = parent;
+				}
+			}
+
+			writeVarLong(out, table.propertySet.getScalarProperties3().size());
+			for (ScalarPropertyAccessor propertyAccessor : table.propertySet.getScalarProperties3()) {
+				PropertySet<?,?> propertySet2 = propertyAccessor.getPropertySet();
+				byte type = getType(propertyAccessor.getClassOfValueObject());
+
+				byte [] presentRows = new byte[(rowCount + 7) / 8];
+				ByteArrayOutputStream values = new ByteArrayOutputStream();
+				int previousDay = 0;
+
+				for (int row = 0; row < rowCount; row++) {
+					ExtendableObject object = table.objects.get(row);
+
+					Object value = null;
+					if (!propertySet2.isExtension()
+							|| object.getExtension((ExtensionPropertySet)propertySet2, false) != null) {
+						value = propertyAccessor.getValue(object);
+					}
+
+					// As in the XML format, empty strings are treated as null.
+					if (value instanceof String && ((String) value).length() == 0) {
+						value = null;
+					}
+
+					if (value != null) {
+						presentRows[row >> 3] |= 1 << (row & 7);
+
+						switch (type) {
+						case TYPE_INTEGER:
+							writeVarLong(values, zigZag((Integer)value));
+							break;
+						case TYPE_LONG:
+							writeVarLong(values, zigZag((Long)value));
+							break;
+						case TYPE_BOOLEAN:
+							values.write((Boolean)value ? 1 : 0);
+							break;
+						case TYPE_CHARACTER:
+							writeVarLong(values, (Character)value);
+							break;
+						case TYPE_DATE:
+							int day = toDay((Date)value);
+							writeVarLong(values, zigZag(day - previousDay));
+							previousDay = day;
+							break;
+						case TYPE_STRING:
+							writeVarLong(values, getStringIndex((String)value));
+							break;
+						case TYPE_REFERENCE:
+							Long position = objectPositions.get(value);
+							if (position == null) {
+								throw new RuntimeException("Object referenced by property '" + propertyAccessor.getName() + "' is not in the session."); //$NON-NLS-1$ //$NON-NLS-2$
+							}
+							writeVarLong(values, getObjectIndex(position));
+							break;
+						default:
+							writeVarLong(values, getStringIndex(value.toString()));
+							break;
+						}
+					}
+				}
+
+				writeVarLong(out, getStringIndex(propertyAccessor.getName()));
+				out.writeByte(type);
+				writeVarLong(out, presentRows.length + values.size());
+				out.write(presentRows);
+				values.writeTo(out);
+			}
+		}
+
+		private int getObjectIndex(long position) {
+			return tableStarts[(int)(position >>> 32)] + (int)position;
+		}
+
+		/**
+		 * @return the index of the string in the dictionary, the first string
+		 *         being at index 1, or 0 if the string is null
+		 */
+		private int getStringIndex(String string) {
+			if (string == null) {
+				return 0;
+			}
+			Integer index = stringIndexes.get(string);
+			if (index == null) {
+				strings.add(string);
+				index = strings.size();
+				stringIndexes.put(string, index);
+			}
+			return index;
+		}
+	}
+
+	private class SessionReader {
+
+		private SessionManager sessionManager;
+
+		private ByteBuffer buffer;
+
+		/**
+		 * The strings in the dictionary, the element at index 0 being null.
+		 */
+		private String [] strings;
+
+		private SimpleObjectKey [] objectKeys;
+
+		/**
+		 * The list managers for the list properties of each object. These are
+		 * created when first needed, which may be when an element of the list
+		 * is read or may be when the object itself is constructed.
+		 */
+		private Map<ListPropertyAccessor<?,?>, SimpleListManager<?>> [] listManagers;
+
+		/**
+		 * Maps the name of each list property to the property accessor.
+		 */
+		private Map<String, ListPropertyAccessor<?,?>> listAccessors = new HashMap<String, ListPropertyAccessor<?,?>>();
+
+		/**
+		 * The entries read, which are added to the lists of entries in each
+		 * account once all the accounts have been read.
+		 */
+		private List<Entry> entries = new ArrayList<Entry>();
+
+		SessionReader(SessionManager sessionManager, ByteBuffer buffer) {
+			this.sessionManager = sessionManager;
+			this.buffer = buffer;
+
+			for (ExtendablePropertySet<?> propertySet : PropertySet.getAllExtendablePropertySets()) {
+				for (ListPropertyAccessor<?,?> listAccessor : propertySet.getListProperties1()) {
+					listAccessors.put(listAccessor.getName(), listAccessor);
+				}
+			}
+			for (ExtensionPropertySet<?,?> propertySet : PropertySet.getAllExtensionPropertySets()) {
+				for (ListPropertyAccessor<?,?> listAccessor : propertySet.getListProperties1()) {
+					listAccessors.put(listAccessor.getName(), listAccessor);
+				}
+			}
+		}
+
+		@SuppressWarnings("unchecked")
+		Session read(IProgressMonitor monitor) {
+			if (buffer.getInt() != MAGIC) {
+				throw new RuntimeException("File is not a JMoney binary file."); //$NON-NLS-1$
+			}
+			if (buffer.getInt() > VERSION) {
+				throw new RuntimeException("File was written by a later version of JMoney."); //$NON-NLS-1$
+			}
+			int objectCount = buffer.getInt();
+			int tableCount = buffer.getInt();
+			long dictionaryPosition = buffer.getLong();
+
+			buffer.position((int)dictionaryPosition);
+			strings = new String[(int)readVarLong() + 1];
+			for (int i = 1; i < strings.length; i++) {
+				byte [] bytes = new byte[(int)readVarLong()];
+				buffer.get(bytes);
+				strings[i] = new String(bytes, UTF8);
+			}
+			buffer.position(HEADER_SIZE);
+
+			objectKeys = new SimpleObjectKey[objectCount];
+			listManagers = new Map[objectCount];
+
+			int firstIndex = 0;
+			int workDone = 0;
+			for (int i = 0; i < tableCount; i++) {
+				firstIndex += readTable(firstIndex);
+
+				if (monitor != null) {
+					int newWorkDone = buffer.position() / 100000;
+					monitor.worked(newWorkDone - workDone);
+					workDone = newWorkDone;
+				}
+			}
+
+			for (Entry entry : entries) {
+				if (entry.getAccount() != null) {
+					sessionManager.addEntryToList(entry.getAccount(), entry);
+				}
+			}
+
+			if (objectCount == 0 || !(objectKeys[0].getObject() instanceof Session)) {
+				throw new RuntimeException("File does not start with a session."); //$NON-NLS-1$
+			}
+			return (Session)objectKeys[0].getObject();
+		}
+
+		/**
+		 * Reads a table and constructs the objects in it.
+		 *
+		 * @return the number of objects in the table
+		 */
+		@SuppressWarnings("unchecked")
+		private <E extends ExtendableObject> int readTable(int firstIndex) {
+			ExtendablePropertySet<E> propertySet;
+			String propertySetId = readString();
+			try {
+				propertySet = PropertySet.getExtendablePropertySet(propertySetId);
+			} catch (PropertySetNotFoundException e) {
+				/*
+				 * The plug-in which defined the property set has probably been
+				 * uninstalled. The objects cannot simply be dropped because
+				 * other objects may be contained in them or may reference
+				 * them, so the file cannot be read.
+				 */
+				throw new RuntimeException("Property set '" + propertySetId + "' in file is not known. The plug-in that defined it may have been uninstalled."); //$NON-NLS-1$ //$NON-NLS-2$
+			}
+
+			String listName = readString();
+			ListPropertyAccessor<? super E,?> listAccessor = null;
+			if (listName != null) {
+				listAccessor = (ListPropertyAccessor<? super E,?>)listAccessors.get(listName);
+				if (listAccessor == null) {
+					throw new RuntimeException("Invalid list property '" + listName + "' in file."); //$NON-NLS-1$ //$NON-NLS-2$
+				}
+			}
+
+			int rowCount = (int)readVarLong();
+
+			int [] parents = null;
+			if (listAccessor != null) {
+				parents = new int[rowCount];
+				int parent = 0;
+				for (int row = 0; row < rowCount; row++) {
+					parent += (int)unZigZag(readVarLong());
+					parents[row] = parent;
+				}
+			}
+
+			final Map<IScalarPropertyAccessor<?,?>, Object[]> columns = new HashMap<IScalarPropertyAccessor<?,?>, Object[]>();
+			int columnCount = (int)readVarLong();
+			for (int i = 0; i < columnCount; i++) {
+				String propertyName = readString();
+				byte type = buffer.get();
+				int length = (int)readVarLong();
+				int end = buffer.position() + length;
+
+				/*
+				 * If the property no longer exists, or its type has changed,
+				 * then the values are dropped.
+				 */
+				for (ScalarPropertyAccessor<?,? super E> propertyAccessor : propertySet.getScalarProperties3()) {
+					if (propertyAccessor.getName().equals(propertyName)
+							&& getType(propertyAccessor.getClassOfValueObject()) == type) {
+						columns.put(propertyAccessor, readColumn(type, propertyAccessor.getClassOfValueObject(), rowCount));
+					}
+				}
+
+				buffer.position(end);
+			}
+
+			for (int row = 0; row < rowCount; row++) {
+				final int index = firstIndex + row;
+				final int currentRow = row;
+
+				SimpleObjectKey objectKey = getObjectKey(index);
+
+				ListKey<? super E,?> listKey = null;
+				if (listAccessor != null) {
+					listKey = (ListKey<? super E,?>)getListManager(parents[row], listAccessor).getListKey();
+				}
+
+				IValues<E> values = new IValues<E>() {
+
+					@Override
+					public <V> V getScalarValue(
+							IScalarPropertyAccessor<V, ? super E> propertyAccessor) {
+						Object [] column = columns.get(propertyAccessor);
+						if (column != null && column[currentRow] != null) {
+							return propertyAccessor.getClassOfValueObject().cast(column[currentRow]);
+						} else {
+							return ((ScalarPropertyAccessor<V,?>)propertyAccessor).getDefaultValue();
+						}
+					}
+
+					@Override
+					public IObjectKey getReferencedObjectKey(
+							IReferencePropertyAccessor<?,? super E> propertyAccessor) {
+						Object [] column = columns.get(propertyAccessor);
+						return column == null ? null : (IObjectKey)column[currentRow];
+					}
+
+					@Override
+					public <E2 extends IModelObject> IListManager<E2> getListManager(
+							IObjectKey listOwnerKey,
+							IListPropertyAccessor<E2,? super E> listAccessor) {
+						return (IListManager<E2>)SessionReader.this.getListManager(index, (ListPropertyAccessor<?,?>)listAccessor);
+					}
+				};
+
+				E extendableObject = propertySet
+						.constructImplementationObject(objectKey, listKey, values);
+
+				objectKey.setObject(extendableObject);
+
+				if (listAccessor != null) {
+					((SimpleListManager<E>)getListManager(parents[row], listAccessor)).add(extendableObject);
+				}
+
+				// The session manager keeps a list of the entries in each account
+				if (extendableObject instanceof Account) {
+					Account account = (Account) extendableObject;
+					sessionManager.addAccountList(account);
+				}
+				if (extendableObject instanceof Entry) {
+					entries.add((Entry)extendableObject);
+				}
+			}
+
+			return rowCount;
+		}
+
+		/**
+		 * Reads the values in a column.
+		 *
+		 * @return an array with the value for each row, or null in the rows
+		 *         that have no value
+		 */
+		private Object[] readColumn(byte type, Class<?> valueClass, int rowCount) {
+			byte [] presentRows = new byte[(rowCount + 7) / 8];
+			buffer.get(presentRows);
+
+			Constructor<?> constructor = null;
+			if (type == TYPE_OTHER) {
+				try {
+					constructor = valueClass.getConstructor(String.class);
+				} catch (NoSuchMethodException e) {
+					// The classes used in the data model are checked when the
+					// properties are registered, so this should not happen.
+					throw new RuntimeException("internal error", e); //$NON-NLS-1$
+				}
+			}
+
+			Object [] values = new Object[rowCount];
+			int day = 0;
+			Date date = null;
+			for (int row = 0; row < rowCount; row++) {
+				if ((presentRows[row >> 3] & (1 << (row & 7))) != 0) {
+					switch (type) {
+					case TYPE_INTEGER:
+						values[row] = Integer.valueOf((int)unZigZag(readVarLong()));
+						break;
+					case TYPE_LONG:
+						values[row] = Long.valueOf(unZigZag(readVarLong()));
+						break;
+					case TYPE_BOOLEAN:
+						values[row] = Boolean.valueOf(buffer.get() != 0);
+						break;
+					case TYPE_CHARACTER:
+						values[row] = Character.valueOf((char)readVarLong());
+						break;
+					case TYPE_DATE:
+						long difference = unZigZag(readVarLong());
+						if (date == null || difference != 0) {
+							day += difference;
+							date = fromDay(day);
+						}
+						// Each object must have its own Date object
+						values[row] = new Date(date.getTime());
+						break;
+					case TYPE_STRING:
+						values[row] = readString();
+						break;
+					case TYPE_REFERENCE:
+						values[row] = getObjectKey((int)readVarLong());
+						break;
+					default:
+						try {
+							values[row] = constructor.newInstance(readString());
+						} catch (Exception e) {
+							throw new RuntimeException("internal error", e); //$NON-NLS-1$
+						}
+						break;
+					}
+				}
+			}
+			return values;
+		}
+
+		/**
+		 * The keys are created when first needed, which may be before the
+		 * object is constructed if the object is referenced by an object
+		 * earlier in the file.
+		 */
+		private SimpleObjectKey getObjectKey(int index) {
+			if (objectKeys[index] == null) {
+				objectKeys[index] = new SimpleObjectKey(sessionManager);
+			}
+			return objectKeys[index];
+		}
+
+		@SuppressWarnings("unchecked")
+		private SimpleListManager<?> getListManager(int ownerIndex, ListPropertyAccessor<?,?> listAccessor) {
+			Map<ListPropertyAccessor<?,?>, SimpleListManager<?>> ownerListManagers = listManagers[ownerIndex];
+			if (ownerListManagers == null) {
+				ownerListManagers = new HashMap<ListPropertyAccessor<?,?>, SimpleListManager<?>>();
+				listManagers[ownerIndex] = ownerListManagers;
+			}
+			SimpleListManager<?> listManager = ownerListManagers.get(listAccessor);
+			if (listManager == null) {
+				listManager = new SimpleListManager(sessionManager, new ListKey(getObjectKey(ownerIndex), listAccessor));
+				ownerListManagers.put(listAccessor, listManager);
+			}
+			return listManager;
+		}
+
+		private String readString() {
+			return strings[(int)readVarLong()];
+		}
+
+		private long readVarLong() {
+			long value = 0;
+			int shift = 0;
+			byte b;
+			do {
+				b = buffer.get();
+				value |= (long)(b & 0x7F) << shift;
+				shift += 7;
+			} while (b < 0);
+			return value;
+		}
+	}
+
+	private static byte getType(Class<?> valueClass) {
+		if (valueClass == Integer.class) {
+			return TYPE_INTEGER;
+		} else if (valueClass == Long.class) {
+			return TYPE_LONG;
+		} else if (valueClass == Boolean.class) {
+			return TYPE_BOOLEAN;
+		} else if (valueClass == Character.class) {
+			return TYPE_CHARACTER;
+		} else if (valueClass == Date.class) {
+			return TYPE_DATE;
+		} else if (valueClass == String.class) {
+			return TYPE_STRING;
+		} else if (ExtendableObject.class.isAssignableFrom(valueClass)) {
+			return TYPE_REFERENCE;
+		} else {
+			return TYPE_OTHER;
+		}
+	}
+
+	/**
+	 * @return the number of days from 1 January 1970 to the given date in the
+	 *         default time zone
+	 */
+	private int toDay(Date date) {
+		localCalendar.setTime(date);
+		utcCalendar.clear();
+		utcCalendar.set(localCalendar.get(Calendar.YEAR), localCalendar.get(Calendar.MONTH), localCalendar.get(Calendar.DAY_OF_MONTH));
+		return (int)(utcCalendar.getTimeInMillis() / MILLISECONDS_PER_DAY);
+	}
+
+	/**
+	 * @return the start of the given day in the default time zone, the day
+	 *         being the number of days from 1 January 1970
+	 */
+	private Date fromDay(int day) {
+		utcCalendar.setTimeInMillis(day * MILLISECONDS_PER_DAY);
+		localCalendar.clear();
+		localCalendar.set(utcCalendar.get(Calendar.YEAR), utcCalendar.get(Calendar.MONTH), utcCalendar.get(Calendar.DAY_OF_MONTH));
+		return localCalendar.getTime();
+	}
+
+	/**
+	 * Maps signed values to unsigned values so that values close to zero,
+	 * whether positive or negative, are written in few bytes.
+	 */
+	private static long zigZag(long value) {
+		return (value << 1) ^ (value >> 63);
+	}
+
+	private static long unZigZag(long value) {
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	/**
+	 * Writes a value in seven bit groups, least significant group first, with
+	 * the top bit of each byte set if more bytes follow.
+	 */
+	private static void writeVarLong(OutputStream out, long value) throws IOException {
+		while ((value & ~0x7FL) != 0) {
+			out.write((int)(value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.write((int)value);
+	}
+}
@@ -35,15 +35,25 @@ import java.text.DateFormat;
 import java.text.MessageFormat;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Hashtable;
 import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 
@@ -170,6 +180,44 @@ public class JMoneyXmlFormat implements IFileDatastore {
 	 */
 	Map<ExtendablePropertySet, IdGenerator> idGenerators = new HashMap<ExtendablePropertySet, IdGenerator>();
 
+	/**
+	 * The number of threads that construct the transactions while the file is
+	 * read. The thread that reads the file is kept busy decompressing and
+	 * parsing, so this is one fewer than the number of processors. If there
+	 * is only one processor then all objects are constructed by the thread
+	 * that reads the file.
+	 */
+	private static final int WORKER_THREAD_COUNT = Runtime.getRuntime().availableProcessors() - 1;
+
+	/**
+	 * The number of transactions passed to a worker thread at a time.
+	 */
+	private static final int BATCH_SIZE = 200;
+
+	/**
+	 * The number of batches that may be waiting to be constructed or merged
+	 * before the thread that reads the file waits for the oldest batch. This
+	 * limits the memory used by the parsed but not yet constructed
+	 * transactions.
+	 */
+	private static final int MAX_PENDING_BATCHES = 4 * Math.max(1, WORKER_THREAD_COUNT);
+
+	/**
+	 * The number of worker threads used by this reader, being
+	 * WORKER_THREAD_COUNT unless set by <code>setWorkerThreadCount</code>.
+	 */
+	private int workerThreadCount = WORKER_THREAD_COUNT;
+
+	/**
+	 * Sets the number of threads that construct the transactions while a file
+	 * is read by this reader. If zero then all objects are constructed by the
+	 * thread that reads the file. This allows the tests to read a file both
+	 * ways, whatever the number of processors.
+	 */
+	public void setWorkerThreadCount(int workerThreadCount) {
+		this.workerThreadCount = workerThreadCount;
+	}
+
 	/**
 	 * Read session from file. The session is set as the open session in the
 	 * given session manager.
@@ -333,6 +381,14 @@ public class JMoneyXmlFormat implements IFileDatastore {
 
 	/**
 	 * Read a session from file, creating a session manager and a session.
+	 * <P>
+	 * The file is decompressed and parsed on the calling thread. The
+	 * transactions, which with their entries make up most of a session, are
+	 * passed in batches to worker threads that construct the objects while the
+	 * parsing continues. The batches are merged into the session in the order
+	 * in which the transactions appear in the file. Once all objects have been
+	 * constructed, the entries are added to the lists of entries in their
+	 * accounts.
 	 *
 	 * @param monitor
 	 *            Monitor into which this method will call the beginTask method
@@ -367,17 +423,34 @@ public class JMoneyXmlFormat implements IFileDatastore {
 		SAXParserFactory factory = SAXParserFactory.newInstance();
 		try {
 			try {
-				idToObjectMap = new HashMap<String, SimpleObjectKey>();
-				currentSAXEventProcessor = null;
+				idToObjectMap = new ConcurrentHashMap<String, SimpleObjectKey>();
 
 				factory.setValidating(false);
 				factory.setNamespaceAware(true);
 				SAXParser saxParser = factory.newSAXParser();
-				HandlerForObject handler = new HandlerForObject(sessionManager);
-				saxParser.parse(bin, handler);
-				Session newSession = handler.getSession();
 
-				sessionManager.setSession(newSession);
+				ExecutorService executor = null;
+				if (workerThreadCount > 0) {
+					initializePropertySets();
+					executor = Executors.newFixedThreadPool(workerThreadCount);
+				}
+				try {
+					HandlerForObject handler = new HandlerForObject(sessionManager, executor);
+					saxParser.parse(bin, handler);
+					Session newSession = handler.getSession();
+
+					sessionManager.setSession(newSession);
+
+					for (Entry entry : handler.entries) {
+						if (entry.getAccount() != null) {
+							sessionManager.addEntryToList(entry.getAccount(), entry);
+						}
+					}
+				} finally {
+					if (executor != null) {
+						executor.shutdownNow();
+					}
+				}
 			} catch (ParserConfigurationException e) {
 				throw new RuntimeException(
 						"Serious XML parser configuration error"); //$NON-NLS-1$
@@ -456,6 +529,12 @@ public class JMoneyXmlFormat implements IFileDatastore {
 		}
 	}
 
+	/**
+	 * Processes the SAX events. Each thread that constructs objects has its
+	 * own handler. The handler used by the parser may defer the construction
+	 * of objects to worker threads, in which case the objects are merged into
+	 * their lists when the session element ends.
+	 */
 	private class HandlerForObject extends DefaultHandler {
 
 		protected SessionManager sessionManager;
@@ -464,14 +543,108 @@ public class JMoneyXmlFormat implements IFileDatastore {
 		 */
 		private Session session;
 
-		HandlerForObject(SessionManager sessionManager) {
+		/**
+		 * Current event processor. A stack of event processors is maintained
+		 * as the XML is parsed. Each event processor has a reference to the
+		 * previous (next outer) event processor.
+		 */
+		SAXEventProcessor currentSAXEventProcessor = null;
+
+		/**
+		 * The date format is not thread safe, so each handler has its own.
+		 */
+		final DateFormat dateFormat = (DateFormat)JMoneyXmlFormat.dateFormat.clone();
+
+		/**
+		 * The entries constructed, in the order in which they appear in the
+		 * file. The entries are added to the lists of entries in their
+		 * accounts after all objects have been constructed, as an entry may
+		 * come before its account in the file.
+		 */
+		final List<Entry> entries = new ArrayList<Entry>();
+
+		/**
+		 * The executor for the worker threads, or null if all objects are to
+		 * be constructed on this thread.
+		 */
+		final ExecutorService executor;
+
+		private Batch pendingBatch;
+
+		/**
+		 * The batches submitted to the executor that have not yet been merged,
+		 * oldest first.
+		 */
+		private LinkedList<Future<Batch>> submittedBatches = new LinkedList<Future<Batch>>();
+
+		HandlerForObject(SessionManager sessionManager, ExecutorService executor) {
 			this.sessionManager = sessionManager;
+			this.executor = executor;
+			if (executor != null) {
+				pendingBatch = new Batch(sessionManager);
+			}
 		}
 
 		Session getSession() {
 			return session;
 		}
 
+		/**
+		 * Adds an object to be constructed on a worker thread.
+		 */
+		void defer(DeferredObject deferredObject) {
+			pendingBatch.deferredObjects.add(deferredObject);
+			if (pendingBatch.deferredObjects.size() == BATCH_SIZE) {
+				submitPendingBatch();
+			}
+		}
+
+		private void submitPendingBatch() {
+			if (!pendingBatch.deferredObjects.isEmpty()) {
+				submittedBatches.add(executor.submit(pendingBatch));
+				pendingBatch = new Batch(sessionManager);
+
+				if (submittedBatches.size() > MAX_PENDING_BATCHES) {
+					mergeOldestBatch();
+				}
+			}
+		}
+
+		/**
+		 * Waits for the oldest batch to be constructed and adds its objects
+		 * to their lists.
+		 */
+		@SuppressWarnings("unchecked")
+		private void mergeOldestBatch() {
+			Batch batch;
+			try {
+				batch = submittedBatches.removeFirst().get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException("Interrupted while reading session"); //$NON-NLS-1$
+			} catch (ExecutionException e) {
+				throw new RuntimeException("Object could not be constructed", e.getCause()); //$NON-NLS-1$
+			}
+
+			for (int i = 0; i < batch.objects.size(); i++) {
+				batch.deferredObjects.get(i).list.add(batch.objects.get(i));
+			}
+			entries.addAll(batch.handler.entries);
+		}
+
+		/**
+		 * Waits for all deferred objects to be constructed and adds them to
+		 * their lists, in the order in which they appear in the file.
+		 */
+		void completeDeferredObjects() {
+			if (executor != null) {
+				submitPendingBatch();
+				while (!submittedBatches.isEmpty()) {
+					mergeOldestBatch();
+				}
+			}
+		}
+
 		/**
 		 * Receive notification of the start of an element.
 		 *
@@ -506,7 +679,7 @@ public class JMoneyXmlFormat implements IFileDatastore {
 				// The session object is not likely to have an id, but pass
 				// it anyway just for completeness.
 				String id = attributes.getValue("id"); //$NON-NLS-1$
-				currentSAXEventProcessor = new ObjectProcessor(sessionManager,
+				currentSAXEventProcessor = new ObjectProcessor(this,
 						null, null, SessionInfo.getPropertySet(), id);
 			} else {
 				currentSAXEventProcessor.startElement(uri, localName,
@@ -575,6 +748,7 @@ public class JMoneyXmlFormat implements IFileDatastore {
 
 	abstract private class SAXEventProcessor {
 		protected SAXEventProcessor parent;
+		protected HandlerForObject handler;
 		protected SessionManager sessionManager;
 
 		/**
@@ -587,9 +761,10 @@ public class JMoneyXmlFormat implements IFileDatastore {
 		 *            is found then this original event processor must be
 		 *            restored as the active event processor.
 		 */
-		SAXEventProcessor(SessionManager sessionManager,
+		SAXEventProcessor(HandlerForObject handler,
 				SAXEventProcessor parent) {
-			this.sessionManager = sessionManager;
+			this.handler = handler;
+			this.sessionManager = handler.sessionManager;
 			this.parent = parent;
 		}
 
@@ -717,9 +892,9 @@ public class JMoneyXmlFormat implements IFileDatastore {
 		 *            restored as the active event processor.
 		 */
 		@SuppressWarnings("unchecked")
-		ObjectProcessor(SessionManager sessionManager, ObjectProcessor parent,
+		ObjectProcessor(HandlerForObject handler, ObjectProcessor parent,
 				ListKey<? super E,?> listKey, IExtendablePropertySet<E> propertySet, String id) {
-			super(sessionManager, parent);
+			super(handler, parent);
 			this.listKey = listKey;
 			this.propertySet = propertySet;
 
@@ -729,11 +904,7 @@ public class JMoneyXmlFormat implements IFileDatastore {
 			 *
 			 * Either way, the object will be set into the key later.
 			 */
-			objectKey = idToObjectMap.get(id);
-			if (objectKey == null) {
-				objectKey = new SimpleObjectKey(sessionManager);
-				idToObjectMap.put(id, objectKey);
-			}
+			objectKey = getObjectKey(id, sessionManager);
 
 			for (IListPropertyAccessor propertyAccessor : propertySet
 					.getListProperties3()) {
@@ -802,8 +973,8 @@ public class JMoneyXmlFormat implements IFileDatastore {
 				// for all obsoleted properties.
 				// We drop the value.
 				// Ignore content
-				currentSAXEventProcessor = new IgnoreElementProcessor(
-						sessionManager, this, null);
+				handler.currentSAXEventProcessor = new IgnoreElementProcessor(
+						handler, this, null);
 				return;
 			} catch (PropertyNotFoundException e) {
 				// The property no longer exists.
@@ -812,8 +983,8 @@ public class JMoneyXmlFormat implements IFileDatastore {
 				// for all obsoleted properties.
 				// We drop the value.
 				// Ignore content
-				currentSAXEventProcessor = new IgnoreElementProcessor(
-						sessionManager, this, null);
+				handler.currentSAXEventProcessor = new IgnoreElementProcessor(
+						handler, this, null);
 				return;
 			}
 
@@ -824,11 +995,7 @@ public class JMoneyXmlFormat implements IFileDatastore {
 				// See if the 'idref' attribute is specified.
 				String idref = atts.getValue("idref"); //$NON-NLS-1$
 				if (idref != null) {
-					SimpleObjectKey value = idToObjectMap.get(idref);
-					if (value == null) {
-						value = new SimpleObjectKey(sessionManager);
-						idToObjectMap.put(idref, value);
-					}
+					SimpleObjectKey value = getObjectKey(idref, sessionManager);
 
 					/*
 					 * Process this element.
@@ -844,15 +1011,15 @@ public class JMoneyXmlFormat implements IFileDatastore {
 					 * happens in the case of an idref that we know the value
 					 * before we even create the inner processor).
 					 */
-					currentSAXEventProcessor = new IgnoreElementProcessor(
-							sessionManager, this, value);
+					handler.currentSAXEventProcessor = new IgnoreElementProcessor(
+							handler, this, value);
 				} else {
 					Assert.isTrue(!ExtendableObject.class
 							.isAssignableFrom(propertyClass));
 
 					// Property class is primitive or primitive class
-					currentSAXEventProcessor = new PropertyProcessor(
-							sessionManager, this, propertyClass);
+					handler.currentSAXEventProcessor = new PropertyProcessor(
+							handler, this, propertyClass);
 				}
 			} else {
 				ListPropertyAccessor<?,?> listProperty = (ListPropertyAccessor<?,?>) propertyAccessor;
@@ -893,8 +1060,21 @@ public class JMoneyXmlFormat implements IFileDatastore {
 				SimpleListManager list = (SimpleListManager) propertyValueMap
 						.get(propertyAccessor);
 				String id = atts.getValue("id"); //$NON-NLS-1$
-				currentSAXEventProcessor = new ObjectProcessor(sessionManager,
-						this, list.getListKey(), actualPropertySet, id);
+				if (propertyAccessor == SessionInfo.getTransactionsAccessor()
+						&& handler.executor != null) {
+					/*
+					 * The transaction is recorded and constructed later on a
+					 * worker thread. Objects refer to each other through
+					 * object keys, which are created by whichever thread first
+					 * comes across the id, so the order in which objects are
+					 * constructed does not matter.
+					 */
+					handler.currentSAXEventProcessor = new RecordingProcessor(
+							handler, this, new DeferredObject(list, actualPropertySet, id));
+				} else {
+					handler.currentSAXEventProcessor = new ObjectProcessor(handler,
+							this, list.getListKey(), actualPropertySet, id);
+				}
 			}
 		}
 
@@ -924,6 +1104,11 @@ public class JMoneyXmlFormat implements IFileDatastore {
 		@SuppressWarnings("unchecked")
 		@Override
 		public SAXEventProcessor endElement() {
+			if (parent == null) {
+				// All objects in this object's lists must be constructed
+				// before this object is constructed.
+				handler.completeDeferredObjects();
+			}
 
 			IValues values = new IValues<E>() {
 
@@ -972,10 +1157,7 @@ public class JMoneyXmlFormat implements IFileDatastore {
 				sessionManager.addAccountList(account);
 			}
 			if (extendableObject instanceof Entry) {
-				Entry entry = (Entry) extendableObject;
-				if (entry.getAccount() != null) {
-					sessionManager.addEntryToList(entry.getAccount(), entry);
-				}
+				handler.entries.add((Entry) extendableObject);
 			}
 
 			// Pass the value back up to the outer element processor.
@@ -1078,9 +1260,9 @@ public class JMoneyXmlFormat implements IFileDatastore {
 		 *            is found then this original event processor must be
 		 *            restored as the active event processor.
 		 */
-		PropertyProcessor(SessionManager sessionManager,
+		PropertyProcessor(HandlerForObject handler,
 				SAXEventProcessor parent, Class<?> propertyClass) {
-			super(sessionManager, parent);
+			super(handler, parent);
 			this.propertyClass = propertyClass;
 		}
 
@@ -1136,7 +1318,7 @@ public class JMoneyXmlFormat implements IFileDatastore {
 				value = new Boolean(s);
 			} else if (propertyClass.equals(Date.class)) {
 				try {
-					value = dateFormat.parse(s);
+					value = handler.dateFormat.parse(s);
 				} catch (ParseException e) {
 					// If the date does not parse then the file is not
 					// valid, so throw an exception to cause a file read
@@ -1202,9 +1384,9 @@ public class JMoneyXmlFormat implements IFileDatastore {
 		 * @param elementName
 		 *            DOCUMENT ME!
 		 */
-		IgnoreElementProcessor(SessionManager sessionManager,
+		IgnoreElementProcessor(HandlerForObject handler,
 				SAXEventProcessor parent, Object value) {
-			super(sessionManager, parent);
+			super(handler, parent);
 			this.value = value;
 		}
 
@@ -1228,8 +1410,8 @@ public class JMoneyXmlFormat implements IFileDatastore {
 				throw new RuntimeException(
 						"Cannot have content inside an element with an idref"); //$NON-NLS-1$
 			}
-			currentSAXEventProcessor = new IgnoreElementProcessor(
-					sessionManager, this, null);
+			handler.currentSAXEventProcessor = new IgnoreElementProcessor(
+					handler, this, null);
 		}
 
 		/**
@@ -1264,6 +1446,202 @@ public class JMoneyXmlFormat implements IFileDatastore {
 		}
 	}
 
+	/**
+	 * An element read from the file, with its attributes and content, kept so
+	 * that the SAX events for the element can be replayed on another thread.
+	 */
+	private static class RecordedElement {
+		final String uri;
+		final String localName;
+		final Attributes attributes;
+
+		/**
+		 * The content of the element, being RecordedElement objects for the
+		 * child elements and String objects for the character data.
+		 */
+		final List<Object> content = new ArrayList<Object>();
+
+		RecordedElement(String uri, String localName, Attributes attributes) {
+			this.uri = uri;
+			this.localName = localName;
+			this.attributes = attributes;
+		}
+
+		/**
+		 * Passes the SAX events for the content of this element to the
+		 * current event processor of the given handler.
+		 */
+		void replayContent(HandlerForObject handler) throws SAXException {
+			for (Object item : content) {
+				if (item instanceof String) {
+					char [] ch = ((String)item).toCharArray();
+					handler.currentSAXEventProcessor.characters(ch, 0, ch.length);
+				} else {
+					RecordedElement child = (RecordedElement)item;
+					handler.currentSAXEventProcessor.startElement(child.uri, child.localName, child.attributes);
+					child.replayContent(handler);
+					handler.currentSAXEventProcessor = handler.currentSAXEventProcessor.endElement();
+				}
+			}
+		}
+	}
+
+	/**
+	 * An object that has been read from the file but is to be constructed on
+	 * a worker thread.
+	 */
+	private class DeferredObject {
+		/**
+		 * The list to which the object is added once constructed.
+		 */
+		final SimpleListManager list;
+
+		final ExtendablePropertySet<?> propertySet;
+
+		final String id;
+
+		/**
+		 * The element containing the object, with an empty name because only
+		 * the content is replayed.
+		 */
+		final RecordedElement element = new RecordedElement("", "", null); //$NON-NLS-1$ //$NON-NLS-2$
+
+		DeferredObject(SimpleListManager list, ExtendablePropertySet<?> propertySet, String id) {
+			this.list = list;
+			this.propertySet = propertySet;
+			this.id = id;
+		}
+
+		@SuppressWarnings("unchecked")
+		ExtendableObject construct(HandlerForObject handler) throws SAXException {
+			ObjectProcessor processor = new ObjectProcessor(handler, null, list.getListKey(), propertySet, id);
+			handler.currentSAXEventProcessor = processor;
+			element.replayContent(handler);
+			processor.endElement();
+			return (ExtendableObject)processor.getValue();
+		}
+	}
+
+	/**
+	 * A batch of objects to be constructed on a worker thread. The objects
+	 * are constructed using a handler of the batch's own, and the entries
+	 * constructed are collected in that handler.
+	 */
+	private class Batch implements Callable<Batch> {
+		final List<DeferredObject> deferredObjects = new ArrayList<DeferredObject>();
+
+		/**
+		 * The constructed objects, each element corresponding to the same
+		 * element in the list of deferred objects.
+		 */
+		final List<ExtendableObject> objects = new ArrayList<ExtendableObject>();
+
+		final HandlerForObject handler;
+
+		Batch(SessionManager sessionManager) {
+			handler = new HandlerForObject(sessionManager, null);
+		}
+
+		@Override
+		public Batch call() throws SAXException {
+			for (DeferredObject deferredObject : deferredObjects) {
+				objects.add(deferredObject.construct(handler));
+			}
+			return this;
+		}
+	}
+
+	/**
+	 * An event processor that records the content of an element containing an
+	 * object, so that the object can be constructed on a worker thread.
+	 */
+	private class RecordingProcessor extends SAXEventProcessor {
+		private DeferredObject deferredObject;
+
+		/**
+		 * The elements that have been started but not ended, the outermost
+		 * being the element containing the object.
+		 */
+		private LinkedList<RecordedElement> openElements = new LinkedList<RecordedElement>();
+
+		RecordingProcessor(HandlerForObject handler,
+				SAXEventProcessor parent, DeferredObject deferredObject) {
+			super(handler, parent);
+			this.deferredObject = deferredObject;
+			openElements.add(deferredObject.element);
+		}
+
+		@Override
+		public void startElement(String uri, String localName, Attributes atts) {
+			RecordedElement element = new RecordedElement(uri, localName, new AttributesImpl(atts));
+			openElements.getLast().content.add(element);
+			openElements.add(element);
+		}
+
+		@Override
+		public void characters(char ch[], int start, int length) {
+			openElements.getLast().content.add(new String(ch, start, length));
+		}
+
+		@Override
+		public SAXEventProcessor endElement() {
+			openElements.removeLast();
+			if (!openElements.isEmpty()) {
+				return this;
+			}
+
+			/*
+			 * The object is not passed back to the parent processor. It is
+			 * added to its list when the batch is merged.
+			 */
+			handler.defer(deferredObject);
+			return parent;
+		}
+
+		@Override
+		public Object getValue() {
+			return null;
+		}
+	}
+
+	/**
+	 * Gets the key for the object with the given id, creating it if no object
+	 * with the id, and no reference to the id, has yet been read.
+	 *
+	 * @param id
+	 *            the id, or null if the object has no id in which case a new
+	 *            key is always returned
+	 */
+	private SimpleObjectKey getObjectKey(String id, SessionManager sessionManager) {
+		if (id == null) {
+			return new SimpleObjectKey(sessionManager);
+		}
+		SimpleObjectKey objectKey = idToObjectMap.get(id);
+		if (objectKey == null) {
+			SimpleObjectKey newObjectKey = new SimpleObjectKey(sessionManager);
+			objectKey = idToObjectMap.putIfAbsent(id, newObjectKey);
+			if (objectKey == null) {
+				objectKey = newObjectKey;
+			}
+		}
+		return objectKey;
+	}
+
+	/**
+	 * The property sets build some of their lists of properties when first
+	 * asked for them. These are built now, before the worker threads start,
+	 * so they are not built by more than one thread at the same time.
+	 */
+	private static void initializePropertySets() {
+		for (ExtendablePropertySet<?> propertySet : PropertySet.getAllExtendablePropertySets()) {
+			propertySet.getProperties3();
+			propertySet.getScalarProperties2();
+			propertySet.getListProperties2();
+			propertySet.getScalarProperties3();
+			propertySet.getListProperties3();
+		}
+	}
+
 	// Used for writing
 
 	/**
@@ -1275,20 +1653,18 @@ public class JMoneyXmlFormat implements IFileDatastore {
 	Map<ExtendableObject, String> objectToIdMap;
 
 	// Used for reading
-	Map<String, SimpleObjectKey> idToObjectMap;
 
 	/**
-	 * Current event processor. A stack of event processors is maintained as the
-	 * XML is parsed. Each event processor has a reference to the previous (next
-	 * outer) event processor.
+	 * The keys of the objects that have ids. Objects are constructed on more
+	 * than one thread, so this map must be concurrent.
 	 */
-	public SAXEventProcessor currentSAXEventProcessor;
+	ConcurrentMap<String, SimpleObjectKey> idToObjectMap;
 
 	/**
 	 * Write session to file.
 	 */
 	@Override
-	public void writeSession(final SessionManager sessionManager,
+	public boolean writeSession(final SessionManager sessionManager,
 			final File sessionFile, IWorkbenchWindow window) {
 		// If there is any modified data in the controls in any of the
 		// views, then commit these to the database now.
@@ -1339,6 +1715,7 @@ public class JMoneyXmlFormat implements IFileDatastore {
 					throw e.getCause();
 				}
 			}
+			return true;
 		} catch (InterruptedException e) {
 			// If the user inturrupted the write then we do nothing.
 			// Currently this cannot happen because the cancel button is not
@@ -1347,9 +1724,11 @@ public class JMoneyXmlFormat implements IFileDatastore {
 			// then a message should perhaps be displayed here indicating that
 			// the
 			// file is unusable.
+			return false;
 		} catch (Throwable ex) {
 			JMoneyPlugin.log(ex);
 			fileWriteError(sessionFile, window);
+			return false;
 		}
 	}
 
@@ -212,7 +212,7 @@ public class OpenSessionHandler extends AbstractHandler {
 					fileDatastore, sessionFile);
 			boolean isGoodFileRead = fileDatastore.readSession(sessionFile,
 					sessionManager, window);
-			if (!isGoodFileRead) {
+			if (!isGoodFileRead || !sessionManager.openJournal(window)) {
 				throw new OperationCanceledException();
 			}
 
@@ -0,0 +1,108 @@
+/*
+ *
+ *  JMoney - A Personal Finance Manager
+ *  Copyright (c) 2010 Nigel Westbury <westbury@users.sourceforge.net>
+ *
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ */
+
+package net.sf.jmoney.stocks;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.List;
+
+import net.sf.jmoney.model2.Commodity;
+import net.sf.jmoney.model2.IDataManagerForAccounts;
+import net.sf.jmoney.pricehistory.external.PriceUpdater;
+import net.sf.jmoney.stocks.model.Security;
+
+import org.eclipse.core.commands.AbstractHandler;
+import org.eclipse.core.commands.ExecutionEvent;
+import org.eclipse.core.commands.ExecutionException;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.jface.dialogs.MessageDialog;
+import org.eclipse.jface.dialogs.ProgressMonitorDialog;
+import org.eclipse.jface.operation.IRunnableWithProgress;
+import org.eclipse.swt.widgets.Shell;
+import org.eclipse.ui.IWorkbenchWindow;
+import org.eclipse.ui.handlers.HandlerUtil;
+
+/**
+ * Fetches the prices of all the securities in the session for each day of
+ * the last year on which there is not already a price.
+ * <P>
+ * The prices are fetched by <code>PriceUpdater</code>, which queries the
+ * sources in parallel but accesses the model only on the thread that calls
+ * it. The progress dialog is therefore run without forking, so the prices are
+ * added to the model on the UI thread.
+ */
+public class FetchPricesHandler extends AbstractHandler {
+
+	/**
+	 * The number of days before today for which prices are fetched
+	 */
+	private static final int DAYS = 365;
+
+	@Override
+	public Object execute(ExecutionEvent event) throws ExecutionException {
+		Shell shell = HandlerUtil.getActiveShellChecked(event);
+		IWorkbenchWindow window = HandlerUtil.getActiveWorkbenchWindowChecked(event);
+
+		IDataManagerForAccounts sessionManager = (IDataManagerForAccounts)window.getActivePage().getInput();
+		if (sessionManager == null) {
+			MessageDialog.openInformation(shell, "Fetch Prices", "No session is open.");
+			return null;
+		}
+
+		final List<Security> securities = new ArrayList<Security>();
+		for (Commodity commodity : sessionManager.getSession().getCommodityCollection()) {
+			if (commodity instanceof Security) {
+				securities.add((Security)commodity);
+			}
+		}
+
+		Calendar calendar = Calendar.getInstance();
+		calendar.set(Calendar.HOUR_OF_DAY, 0);
+		calendar.set(Calendar.MINUTE, 0);
+		calendar.set(Calendar.SECOND, 0);
+		calendar.set(Calendar.MILLISECOND, 0);
+		final Date endDate = calendar.getTime();
+		calendar.add(Calendar.DAY_OF_MONTH, -DAYS);
+		final Date startDate = calendar.getTime();
+
+		final int [] count = new int[1];
+		try {
+			new ProgressMonitorDialog(shell).run(false, true, new IRunnableWithProgress() {
+				@Override
+				public void run(IProgressMonitor monitor) {
+					count[0] = new PriceUpdater().updatePrices(securities, startDate, endDate, monitor);
+				}
+			});
+		} catch (InvocationTargetException e) {
+			throw new ExecutionException("Prices could not be fetched", e.getCause());
+		} catch (InterruptedException e) {
+			// Cancelled, and nothing was stored
+			return null;
+		}
+
+		MessageDialog.openInformation(shell, "Fetch Prices", count[0] + " prices were added.");
+		return null;
+	}
+}
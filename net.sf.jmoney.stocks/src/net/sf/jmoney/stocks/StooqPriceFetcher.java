@@ -0,0 +1,133 @@
+/*
+ *
+ *  JMoney - A Personal Finance Manager
+ *  Copyright (c) 2010 Nigel Westbury <westbury@users.sourceforge.net>
+ *
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ */
+
+package net.sf.jmoney.stocks;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.text.MessageFormat;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+import net.sf.jmoney.model2.Commodity;
+import net.sf.jmoney.model2.Currency;
+import net.sf.jmoney.pricehistory.CommodityPricingInfo;
+import net.sf.jmoney.pricehistory.external.IBatchPriceFetcher;
+import net.sf.jmoney.stocks.model.Security;
+
+/**
+ * A source of the daily closing prices of securities, using the historical
+ * data download of stooq.com. The prices for a range of dates are fetched in
+ * a single request.
+ * <P>
+ * The security is identified by its symbol, which must be in the form used
+ * by stooq.com, for example 'ibm.us'. The prices are taken to be in the
+ * currency set in the price history of the security or, if none is set, in
+ * the default currency of the session.
+ */
+public class StooqPriceFetcher implements IBatchPriceFetcher {
+
+	private static final String URL_PATTERN = "https://stooq.com/q/d/l/?s={0}&d1={1}&d2={2}&i=d"; //$NON-NLS-1$
+
+	private String symbol;
+
+	/**
+	 * The scale factor of the currency of the prices, found when the
+	 * commodity is set because the model must not be accessed when fetching
+	 */
+	private int scaleFactor;
+
+	@Override
+	public boolean canProcess(Commodity commodity) {
+		if (!(commodity instanceof Security)) {
+			return false;
+		}
+		symbol = ((Security)commodity).getSymbol();
+		if (symbol == null || symbol.trim().length() == 0) {
+			return false;
+		}
+
+		Currency currency = CommodityPricingInfo.getCurrencyAccessor().getValue(commodity);
+		if (currency == null) {
+			currency = commodity.getSession().getDefaultCurrency();
+		}
+		scaleFactor = currency.getScaleFactor();
+		return true;
+	}
+
+	@Override
+	public Long getPrice(Date date) {
+		return getPrices(date, date).get(date);
+	}
+
+	@Override
+	public Map<Date, Long> getPrices(Date startDate, Date endDate) {
+		SimpleDateFormat requestDateFormat = new SimpleDateFormat("yyyyMMdd"); //$NON-NLS-1$
+		SimpleDateFormat responseDateFormat = new SimpleDateFormat("yyyy-MM-dd"); //$NON-NLS-1$
+
+		Map<Date, Long> prices = new HashMap<Date, Long>();
+		try {
+			URL url = new URL(MessageFormat.format(URL_PATTERN,
+					URLEncoder.encode(symbol.trim().toLowerCase(), "UTF-8"), //$NON-NLS-1$
+					requestDateFormat.format(startDate),
+					requestDateFormat.format(endDate)));
+			BufferedReader reader = new BufferedReader(new InputStreamReader(url.openStream(), "US-ASCII")); //$NON-NLS-1$
+			try {
+				/*
+				 * The first line is the header: Date,Open,High,Low,Close,Volume.
+				 * If there are no prices then a single line saying so is
+				 * returned instead, which is ignored in the same way.
+				 */
+				String line;
+				while ((line = reader.readLine()) != null) {
+					String [] fields = line.split(","); //$NON-NLS-1$
+					if (fields.length >= 5) {
+						try {
+							Date date = responseDateFormat.parse(fields[0].trim());
+							double closingPrice = Double.parseDouble(fields[4].trim());
+							prices.put(date, Math.round(closingPrice * scaleFactor));
+						} catch (ParseException e) {
+							// Not a line of prices
+						} catch (NumberFormatException e) {
+							// Not a line of prices
+						}
+					}
+				}
+			} finally {
+				reader.close();
+			}
+		} catch (IOException e) {
+			/*
+			 * Returning no prices would cause the dates to be remembered as
+			 * having no price, so the failure is passed on.
+			 */
+			throw new RuntimeException("Cannot get prices for " + symbol, e);
+		}
+		return prices;
+	}
+}
@@ -5,12 +5,15 @@ import java.math.BigDecimal;
 import java.text.DateFormat;
 import java.text.MessageFormat;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.TreeMap;
 
 import net.sf.jmoney.model2.Commodity;
@@ -29,8 +32,14 @@ public class CapitalGainsCalculator {
 
 	/**
 	 * Date format to be used when showing dates to the user in messages.
+	 * Messages may be built on more than one thread, so this must be used
+	 * only through formatUserDate.
 	 */
-	static DateFormat userDateFormat = new SimpleDateFormat("MMM/dd/yy");
+	private static DateFormat userDateFormat = new SimpleDateFormat("MMM/dd/yy");
+
+	static synchronized String formatUserDate(Date date) {
+		return userDateFormat.format(date);
+	}
 
 	public static IStatus exportCapitalGains(StockAccount account, Date startDate, Date endDate, Collection<StockPurchaseAndSale> matchedPurchaseAndSales) throws IOException {
 		MultiStatus result = new MultiStatus(StocksPlugin.PLUGIN_ID, IStatus.INFO, "Export Account: " + account.getName(), null);
@@ -149,6 +158,22 @@ public class CapitalGainsCalculator {
 		Collection<Entry> entries = account.getSortedEntries(TransactionInfo
 				.getDateAccessor(), entryComparator, false);
 
+		/*
+		 * Find the stocks that were disposed of in the period, and get the
+		 * cost bases of all disposals of those stocks. These are calculated
+		 * for all the stocks together, each stock in parallel, and are cached.
+		 */
+		Set<Stock> stocksDisposed = new HashSet<Stock>();
+		for (Entry entry : entries) {
+			if (!entry.getTransaction().getDate().before(startDate)
+					&& !entry.getTransaction().getDate().after(endDate)
+					&& entry.getCommodityInternal() instanceof Stock
+					&& entry.getAmount() < 0) {
+				stocksDisposed.add((Stock)entry.getCommodityInternal());
+			}
+		}
+		Map<Stock, SecurityGains> gains = CapitalGainsEngine.getEngine(account).getGains(account, stocksDisposed);
+
 		for (Entry entry : entries) {
 			if (!entry.getTransaction().getDate().before(startDate)
 					&& !entry.getTransaction().getDate().after(endDate)) {
@@ -164,22 +189,11 @@ public class CapitalGainsCalculator {
 							MessageFormat.format(
 									"Sale of {2} of {0} took place on {1}.",
 									stock.getName(),
-									userDateFormat.format(entry.getTransaction().getDate()),
+									formatUserDate(entry.getTransaction().getDate()),
 									formatQuantity(saleQuantity)
 							),
 							null);
 
-					System.out.println(MessageFormat.format(
-							"Sale of {2} of {0} took place on {1}.",
-							stock.getName(),
-							userDateFormat.format(entry.getTransaction().getDate()),
-							formatQuantity(saleQuantity)
-					));
-
-					if (stock.getName().startsWith("Laird")) {
-						System.out.println("Laird found");
-					}
-
 					try {
 
 						/*
@@ -270,12 +284,14 @@ public class CapitalGainsCalculator {
 						}
 
 						/*
-						 * Build the graph.
+						 * Get the cost bases, which were matched using a graph
+						 * of all the activity in the stock.
 						 */
-
-						Graph graph = new Graph(stock, account, entry.getTransaction().getDate(), disposalResult);
-
-						List<CostBasis> bases = graph.matchAndFetchTargetBasis(disposalResult);
+						SecurityGains securityGains = gains.get(stock);
+						for (IStatus status : securityGains.getStatuses(sellDate)) {
+							disposalResult.add(status);
+						}
+						List<CostBasis> bases = securityGains.getBases(sellDate);
 
 						for (CostBasis basis : bases) {
 
@@ -326,66 +342,77 @@ public class CapitalGainsCalculator {
 	static TreeMap<Date, StockActivity> getStockActivity(StockAccount account, Stock stock, Date dateOfTaxableEvent, MultiStatus result) throws UnsupportedDataException {
 		TreeMap<Date, StockActivity> stockEntries = new TreeMap<Date, StockActivity>();
 
-		/*
-		 * Total stock in account.  We initially accumulate all stock amounts here so we
-		 * get the balance of this stock at the time the sale was made.  We then adjust
-		 * it by reversing out the amounts as we go back through the history.
-		 */
-		long totalStock = 0;
-
-		for (Entry entry2 : account.getEntries()) {
-			if (entry2.getCommodityInternal() == stock && !entry2.getTransaction().getDate().after(dateOfTaxableEvent)) {
-				// Have an acquisition or disposal of this stock
-
-				long currencyAmount2 = 0;
-				for (Entry eachEntry : entry2.getTransaction().getEntryCollection()) {
-					if (eachEntry != entry2) {
-						if (eachEntry.getCommodityInternal() != account.getCurrency()) {
-							//											throw new ...
-						}
-						currencyAmount2 += eachEntry.getAmount();
-					}
+		List<IStatus> warnings = new ArrayList<IStatus>();
+		try {
+			for (Entry entry2 : account.getEntries()) {
+				if (entry2.getCommodityInternal() == stock && !entry2.getTransaction().getDate().after(dateOfTaxableEvent)) {
+					// Have an acquisition or disposal of this stock
+					addActivity(account, entry2, stockEntries, warnings);
 				}
+			}
+		} finally {
+			for (IStatus warning : warnings) {
+				result.add(warning);
+			}
+		}
 
-				/*
-				 * Put this into our tree. We also accumulate
-				 * purchases and sales that were performed on the
-				 * same day. We have no way of knowing the order of
-				 * transactions on a day, so we add them together.
-				 * This has the effect of using the average price.
-				 *
-				 * If there are purchases and sales on the same day
-				 * then we we don't know what order the sales were performed
-				 * but with FIFO the order does not matter.  All sales would be
-				 * matched to any earlier purchases and then to the average purchase on
-				 * that same day.
-				 */
-				Date date = entry2.getTransaction().getDate();
-				StockActivity activity = stockEntries.get(date);
-				if (activity == null) {
-					activity = new StockActivity(date);
-					stockEntries.put(date, activity);
-				}
+		return stockEntries;
+	}
 
-				if ((activity.securityPurchaseQuantity != 0 && entry2.getAmount() <= 0)
-						|| (activity.securitySaleQuantity != 0 && entry2.getAmount() >= 0)) {
-					Status status = new Status(IStatus.WARNING, StocksPlugin.PLUGIN_ID,
-							MessageFormat.format(
-									"Both purchases and sales of {0} took place on {1}.  This is supported but may indicate bad data.",
-									stock.getName(),
-									userDateFormat.format(entry2.getTransaction().getDate())
-							),
-							null);
-					result.add(status);
+	/**
+	 * Adds an acquisition or disposal of stock to the activity for that stock.
+	 *
+	 * @param entry an entry in the account for an acquisition or disposal of
+	 *            stock
+	 * @param stockEntries the activity for the stock, by date
+	 * @param warnings the list to which a warning is added if there were both
+	 *            purchases and sales of the stock on the same day
+	 * @throws UnsupportedDataException
+	 */
+	static void addActivity(StockAccount account, Entry entry2, TreeMap<Date, StockActivity> stockEntries, List<IStatus> warnings) throws UnsupportedDataException {
+		long currencyAmount2 = 0;
+		for (Entry eachEntry : entry2.getTransaction().getEntryCollection()) {
+			if (eachEntry != entry2) {
+				if (eachEntry.getCommodityInternal() != account.getCurrency()) {
+					//											throw new ...
 				}
+				currencyAmount2 += eachEntry.getAmount();
+			}
+		}
 
-				activity.addPurchaseOrSale(entry2.getAmount(), currencyAmount2);
+		/*
+		 * Put this into our tree. We also accumulate
+		 * purchases and sales that were performed on the
+		 * same day. We have no way of knowing the order of
+		 * transactions on a day, so we add them together.
+		 * This has the effect of using the average price.
+		 *
+		 * If there are purchases and sales on the same day
+		 * then we we don't know what order the sales were performed
+		 * but with FIFO the order does not matter.  All sales would be
+		 * matched to any earlier purchases and then to the average purchase on
+		 * that same day.
+		 */
+		Date date = entry2.getTransaction().getDate();
+		StockActivity activity = stockEntries.get(date);
+		if (activity == null) {
+			activity = new StockActivity(date);
+			stockEntries.put(date, activity);
+		}
 
-				totalStock += entry2.getAmount();
-			}
+		if ((activity.securityPurchaseQuantity != 0 && entry2.getAmount() <= 0)
+				|| (activity.securitySaleQuantity != 0 && entry2.getAmount() >= 0)) {
+			Status status = new Status(IStatus.WARNING, StocksPlugin.PLUGIN_ID,
+					MessageFormat.format(
+							"Both purchases and sales of {0} took place on {1}.  This is supported but may indicate bad data.",
+							entry2.getCommodityInternal().getName(),
+							formatUserDate(date)
+					),
+					null);
+			warnings.add(status);
 		}
 
-		return stockEntries;
+		activity.addPurchaseOrSale(entry2.getAmount(), currencyAmount2);
 	}
 
 	static private String formatQuantity(long quantity) {
@@ -0,0 +1,225 @@
+package net.sf.jmoney.stocks.gains;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import net.sf.jmoney.isolation.IListPropertyAccessor;
+import net.sf.jmoney.isolation.IModelObject;
+import net.sf.jmoney.isolation.IScalarPropertyAccessor;
+import net.sf.jmoney.isolation.SessionChangeAdapter;
+import net.sf.jmoney.isolation.SessionChangeListener;
+import net.sf.jmoney.model2.Entry;
+import net.sf.jmoney.model2.EntryInfo;
+import net.sf.jmoney.model2.Transaction;
+import net.sf.jmoney.model2.TransactionInfo;
+import net.sf.jmoney.stocks.StocksPlugin;
+import net.sf.jmoney.stocks.model.Stock;
+import net.sf.jmoney.stocks.model.StockAccount;
+
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.MultiStatus;
+
+/**
+ * Calculates and caches the cost bases of all disposals of stock in an
+ * account.
+ * <P>
+ * When the gains for some stocks are requested, one pass is made through the
+ * entries in the account to extract the activity in each of those stocks.
+ * This must be done on the calling thread because it accesses the model. The
+ * graph for each stock is then built and matched on the common fork-join
+ * pool, the stocks being independent of each other. Each graph is built and
+ * matched once, for all the disposals of the stock, rather than once for each
+ * disposal.
+ * <P>
+ * The results for each stock are cached. The cache for a stock is cleared
+ * when a transaction involving that stock is changed.
+ */
+class CapitalGainsEngine {
+
+	/**
+	 * The engine for each account. The engine does not reference the account,
+	 * so the engine is dropped when the account is no longer referenced.
+	 */
+	private static Map<StockAccount, CapitalGainsEngine> engines = new WeakHashMap<StockAccount, CapitalGainsEngine>();
+
+	static synchronized CapitalGainsEngine getEngine(StockAccount account) {
+		CapitalGainsEngine engine = engines.get(account);
+		if (engine == null) {
+			engine = new CapitalGainsEngine();
+			account.getDataManager().addChangeListenerWeakly(engine.listener);
+			engines.put(account, engine);
+		}
+		return engine;
+	}
+
+	private Map<Stock, SecurityGains> cachedGains = new HashMap<Stock, SecurityGains>();
+
+	/**
+	 * The data manager keeps only a weak reference to this listener, so the
+	 * listener lives only as long as this engine.
+	 */
+	private final SessionChangeListener listener = new SessionChangeAdapter() {
+		@Override
+		public void objectCreated(IModelObject newObject) {
+			if (newObject instanceof Entry) {
+				invalidate((Entry)newObject);
+			}
+		}
+
+		@Override
+		public void objectDestroyed(IModelObject deletedObject) {
+			if (deletedObject instanceof Entry) {
+				invalidate((Entry)deletedObject);
+			}
+		}
+
+		@Override
+		public void objectChanged(IModelObject changedObject, IScalarPropertyAccessor changedProperty, Object oldValue, Object newValue) {
+			if (changedObject instanceof Entry) {
+				if (changedProperty == EntryInfo.getAmountAccessor()
+						|| changedProperty == EntryInfo.getAccountAccessor()
+						|| changedProperty == EntryInfo.getCommodityAccessor()) {
+					invalidate((Entry)changedObject);
+				}
+				if (changedProperty == EntryInfo.getCommodityAccessor()
+						&& oldValue instanceof Stock) {
+					invalidate((Stock)oldValue);
+				}
+			} else if (changedObject instanceof Transaction) {
+				if (changedProperty == TransactionInfo.getDateAccessor()) {
+					for (Entry entry : ((Transaction)changedObject).getEntryCollection()) {
+						invalidate(entry);
+					}
+				}
+			}
+		}
+
+		@Override
+		public void objectMoved(IModelObject movedObject, IModelObject originalParent, IModelObject newParent, IListPropertyAccessor<?,?> originalParentListProperty, IListPropertyAccessor<?,?> newParentListProperty) {
+			if (movedObject instanceof Entry) {
+				invalidate((Entry)movedObject);
+				if (originalParent instanceof Transaction) {
+					for (Entry entry : ((Transaction)originalParent).getEntryCollection()) {
+						invalidate(entry);
+					}
+				}
+			}
+		}
+	};
+
+	/**
+	 * Clears the cached gains for all stocks involved in the transaction
+	 * containing the given entry. The other entries matter because they give
+	 * the cost or proceeds of the stock.
+	 */
+	private void invalidate(Entry entry) {
+		if (entry.getCommodity() instanceof Stock) {
+			invalidate((Stock)entry.getCommodity());
+		}
+		if (entry.getTransaction() != null) {
+			for (Entry eachEntry : entry.getTransaction().getEntryCollection()) {
+				if (eachEntry.getCommodity() instanceof Stock) {
+					invalidate((Stock)eachEntry.getCommodity());
+				}
+			}
+		}
+	}
+
+	private synchronized void invalidate(Stock stock) {
+		cachedGains.remove(stock);
+	}
+
+	/**
+	 * Gets the gains for each of the given stocks in the given account,
+	 * calculating those that are not cached.
+	 *
+	 * @param account the account, which must be the account for which this
+	 *            engine was obtained
+	 * @param stocks the stocks for which the gains are required
+	 * @return a map containing the gains for each of the given stocks
+	 */
+	synchronized Map<Stock, SecurityGains> getGains(StockAccount account, Collection<Stock> stocks) {
+		Map<Stock, SecurityGains> result = new HashMap<Stock, SecurityGains>();
+
+		/*
+		 * Extract the activity of each stock not already cached, in a single
+		 * pass through the account.
+		 */
+		final Map<Stock, TreeMap<Date, StockActivity>> activities = new HashMap<Stock, TreeMap<Date, StockActivity>>();
+		final Map<Stock, SecurityGains> newGains = new ConcurrentHashMap<Stock, SecurityGains>();
+		for (Stock stock : stocks) {
+			SecurityGains gains = cachedGains.get(stock);
+			if (gains != null) {
+				result.put(stock, gains);
+			} else {
+				activities.put(stock, new TreeMap<Date, StockActivity>());
+				newGains.put(stock, new SecurityGains());
+			}
+		}
+
+		if (activities.isEmpty()) {
+			return result;
+		}
+
+		List<IStatus> warnings = new ArrayList<IStatus>();
+		for (Entry entry : account.getEntries()) {
+			TreeMap<Date, StockActivity> stockEntries = activities.get(entry.getCommodityInternal());
+			if (stockEntries != null && entry.getTransaction().getDate() != null) {
+				Date date = entry.getTransaction().getDate();
+				SecurityGains gains = newGains.get(entry.getCommodityInternal());
+				try {
+					CapitalGainsCalculator.addActivity(account, entry, stockEntries, warnings);
+				} catch (UnsupportedDataException e) {
+					gains.addFailure(date, e.getStatus());
+				}
+				for (IStatus warning : warnings) {
+					gains.addStatus(date, warning);
+				}
+				warnings.clear();
+			}
+		}
+
+		/*
+		 * Build and match the graph for each stock. The graphs do not access
+		 * the model so can be processed in parallel.
+		 */
+		new ArrayList<Stock>(activities.keySet()).parallelStream().forEach(stock -> {
+			TreeMap<Date, StockActivity> stockEntries = activities.get(stock);
+			SecurityGains gains = newGains.get(stock);
+			if (!stockEntries.isEmpty()) {
+				Graph graph = new Graph(stock, stockEntries.lastKey(), stockEntries);
+
+				MultiStatus matchResult = new MultiStatus(StocksPlugin.PLUGIN_ID, IStatus.INFO, stock.getName(), null);
+				SortedMap<ActivityKey, List<CostBasis>> allBases = new TreeMap<ActivityKey, List<CostBasis>>();
+				ActivityKey failureKey = graph.matchAll(matchResult, allBases);
+				if (failureKey != null) {
+					for (IStatus status : matchResult.getChildren()) {
+						gains.addFailure(failureKey.date, status);
+					}
+				}
+
+				/*
+				 * Only the bases matched to disposals are kept. Bases matched
+				 * to purchases that close short positions are not needed.
+				 */
+				for (Map.Entry<ActivityKey, List<CostBasis>> mapEntry : allBases.entrySet()) {
+					if (graph.allActivityNodes.get(mapEntry.getKey()).iterator().next() instanceof SaleActivityNode) {
+						gains.addBases(mapEntry.getKey().date, mapEntry.getValue());
+					}
+				}
+			}
+		});
+
+		cachedGains.putAll(newGains);
+		result.putAll(newGains);
+		return result;
+	}
+}
@@ -6,6 +6,7 @@ import java.util.Collection;
 import java.util.Comparator;
 import java.util.Date;
 import java.util.List;
+import java.util.SortedMap;
 import java.util.TreeMap;
 import java.util.TreeSet;
 
@@ -36,6 +37,18 @@ public class Graph {
 	ActivityMap allActivityNodes = new ActivityMap();
 
 	public Graph(Stock stock, StockAccount account, Date date, MultiStatus result) throws UnsupportedDataException {
+		this(stock, date, CapitalGainsCalculator.getStockActivity(account, stock, date, result));
+	}
+
+	/**
+	 * Builds the graph from activity that has already been extracted from the
+	 * account. This constructor does not access the model, so may be used on
+	 * any thread.
+	 *
+	 * @param stockEntries the activity in the stock, by date, up to and
+	 *            including the given date
+	 */
+	Graph(Stock stock, Date date, TreeMap<Date, StockActivity> stockEntries) {
 		this.stock = stock;
 		this.date = date;
 
@@ -46,15 +59,12 @@ public class Graph {
 		 * object and a sale object.  This simplifies the processing because we can define the assumed order of transactions that
 		 * took place on the same day and then process one thing at a time.
 		 */
-		TreeMap<Date, StockActivity> stockEntries = CapitalGainsCalculator.getStockActivity(account, stock, date, result);
 		long newStockBalance = 0;
 
 		ActivityNode previousActivity = null;
 		for (Date eachDate : stockEntries.keySet()) {
 			StockActivity activityThisDay = stockEntries.get(eachDate);
 
-			System.out.println(eachDate + ": " + activityThisDay.toString());
-
 			newStockBalance += activityThisDay.securityPurchaseQuantity - activityThisDay.securitySaleQuantity;
 
 			// Security purchase
@@ -94,25 +104,55 @@ public class Graph {
 
 	}
 
+	/**
+	 * Matches all the activity in the graph and returns the cost bases for
+	 * the last activity in the graph.
+	 *
+	 * @return the cost bases, or an empty list if an error status was added
+	 *         to the given result
+	 */
 	public List<CostBasis> matchAndFetchTargetBasis(MultiStatus result) {
+		SortedMap<ActivityKey, List<CostBasis>> allBases = new TreeMap<ActivityKey, List<CostBasis>>();
+		if (matchAll(result, allBases) != null || allActivityNodes.isEmpty()) {
+			return new ArrayList<CostBasis>();
+		}
 
-		List<CostBasis> bases = new ArrayList<CostBasis>();
+		List<CostBasis> bases = allBases.get(allActivityNodes.lastKey());
+		return bases == null ? new ArrayList<CostBasis>() : bases;
+	}
 
+	/**
+	 * Matches all the activity in the graph, in date order, and puts the
+	 * cost bases of each taxable activity into the given map.
+	 * <P>
+	 * Matching an activity depends only on earlier activity, so the bases
+	 * put into the map for an activity are the same as would be found if the
+	 * graph ended at that activity.
+	 *
+	 * @param result the status to which an error is added if the matching
+	 *            cannot be completed
+	 * @param allBases the map into which the bases are put, keyed by the
+	 *            activity to which they were matched
+	 * @return null if all the activity was matched, or the key of the
+	 *         activity at which the matching stopped because of an error. In
+	 *         this case bases are put into the map only for earlier activity.
+	 */
+	ActivityKey matchAll(MultiStatus result, SortedMap<ActivityKey, List<CostBasis>> allBases) {
 		for (ActivityKey eachKey : allActivityNodes.keySet()) {
 			Collection<ActivityNode> activities = allActivityNodes.get(eachKey);
 
-			System.out.println(eachKey.date + "(" + eachKey.orderSequence + "):/n" + activities.toString());
+			List<CostBasis> bases = new ArrayList<CostBasis>();
 
 			if (activities.size() > 1) {
 				Status status = new Status(IStatus.ERROR, StocksPlugin.PLUGIN_ID,
 						MessageFormat.format(
 								"Two or more transactions involving {0} took place on {1} and these transactions took place in different but connected accounts.  This scenario is not currently supported.",
 								stock.getName(),
-								CapitalGainsCalculator.userDateFormat.format(eachKey)
+								CapitalGainsCalculator.formatUserDate(eachKey.date)
 						),
 						null);
 				result.add(status);
-				return new ArrayList<CostBasis>();
+				return eachKey;
 			}
 			ActivityNode activity = activities.iterator().next();
 
@@ -256,11 +296,11 @@ public class Graph {
 								MessageFormat.format(
 										"An internal error has occured.  A manual determination must be made for the cost basis for the sale of {0} which took place on {1}.",
 										stock.getName(),
-										CapitalGainsCalculator.userDateFormat.format(eachKey.date)
+										CapitalGainsCalculator.formatUserDate(eachKey.date)
 								),
 								null);
 						result.add(status);
-						return new ArrayList<CostBasis>();
+						return eachKey;
 					}
 
 					ActivityNode priorActivity = priorNodes.last();
@@ -352,13 +392,8 @@ public class Graph {
 							node = node.nextNodes.iterator().next();
 						}
 
-						/*
-						 * If there is no later activity then this activity is the one of interest.
-						 */
-						if (allActivityNodes.higherKey(eachKey) == null) {
-							// Add to the list of matches for this sale
-							bases.add(new CostBasis(quantityMatchedToThisPurchase, priorActivity.getKey().date, thisCostBasis));
-						}
+						// Add to the list of matches for this sale
+						bases.add(new CostBasis(quantityMatchedToThisPurchase, priorActivity.getKey().date, thisCostBasis));
 
 						/*
 						 * If the full sale has been matched to purchases, we are done matching
@@ -372,7 +407,11 @@ public class Graph {
 					activity = priorActivity;
 				} while (true);
 			}
+
+			if (!bases.isEmpty()) {
+				allBases.put(eachKey, bases);
+			}
 		}
-		return bases;
+		return null;
 	}
 }
\ No newline at end of file
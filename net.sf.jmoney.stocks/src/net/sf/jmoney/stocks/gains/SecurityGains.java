@@ -0,0 +1,85 @@
+package net.sf.jmoney.stocks.gains;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.eclipse.core.runtime.IStatus;
+
+/**
+ * The results of matching all the activity in a single stock in an account.
+ * <P>
+ * The cost bases are kept for each disposal. Statuses are kept with the date
+ * of the activity to which they relate, because a status relates to a disposal
+ * only if it relates to activity on or before the date of the disposal. A
+ * failure, being either bad data or an error in the matching, stops the
+ * matching, so there are no cost bases for disposals on or after the date of
+ * a failure.
+ */
+class SecurityGains {
+
+	/**
+	 * The cost bases matched to the disposals, keyed by the date of the
+	 * disposal
+	 */
+	private Map<Date, List<CostBasis>> bases = new HashMap<Date, List<CostBasis>>();
+
+	private TreeMap<Date, List<IStatus>> statuses = new TreeMap<Date, List<IStatus>>();
+
+	/**
+	 * The date of the first failure, or null if there were no failures
+	 */
+	private Date failureDate = null;
+
+	void addBases(Date date, List<CostBasis> basesOnDate) {
+		bases.put(date, basesOnDate);
+	}
+
+	void addStatus(Date date, IStatus status) {
+		List<IStatus> statusesOnDate = statuses.get(date);
+		if (statusesOnDate == null) {
+			statusesOnDate = new ArrayList<IStatus>();
+			statuses.put(date, statusesOnDate);
+		}
+		statusesOnDate.add(status);
+	}
+
+	/**
+	 * Adds a status that prevents the cost bases being found for disposals on
+	 * or after the given date.
+	 */
+	void addFailure(Date date, IStatus status) {
+		addStatus(date, status);
+		if (failureDate == null || date.before(failureDate)) {
+			failureDate = date;
+		}
+	}
+
+	/**
+	 * @return the statuses that relate to activity on or before the given
+	 *         date
+	 */
+	List<IStatus> getStatuses(Date saleDate) {
+		List<IStatus> result = new ArrayList<IStatus>();
+		for (List<IStatus> statusesOnDate : statuses.headMap(saleDate, true).values()) {
+			result.addAll(statusesOnDate);
+		}
+		return result;
+	}
+
+	/**
+	 * @return the cost bases matched to the disposal on the given date, or an
+	 *         empty list if there was no taxable disposal on that date or if
+	 *         a failure prevented the matching
+	 */
+	List<CostBasis> getBases(Date saleDate) {
+		List<CostBasis> basesOnDate = bases.get(saleDate);
+		if (basesOnDate == null || (failureDate != null && !saleDate.before(failureDate))) {
+			return new ArrayList<CostBasis>();
+		}
+		return basesOnDate;
+	}
+}
@@ -74,7 +74,7 @@ public class StockActivity implements Comparable<StockActivity> {
 			Status status = new Status(IStatus.WARNING, StocksPlugin.PLUGIN_ID,
 					MessageFormat.format(
 							"Bad data on {0}.",
-							CapitalGainsCalculator.userDateFormat.format(date)
+							CapitalGainsCalculator.formatUserDate(date)
 					),
 					null);
 			throw new UnsupportedDataException(status);
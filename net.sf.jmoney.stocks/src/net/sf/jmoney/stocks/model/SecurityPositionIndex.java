@@ -0,0 +1,346 @@
+/*
+ *
+ *  JMoney - A Personal Finance Manager
+ *  Copyright (c) 2009 Nigel Westbury <westbury@users.sourceforge.net>
+ *
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ */
+
+package net.sf.jmoney.stocks.model;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import net.sf.jmoney.isolation.IListPropertyAccessor;
+import net.sf.jmoney.isolation.IModelObject;
+import net.sf.jmoney.isolation.IScalarPropertyAccessor;
+import net.sf.jmoney.isolation.SessionChangeAdapter;
+import net.sf.jmoney.model2.Entry;
+import net.sf.jmoney.model2.EntryInfo;
+import net.sf.jmoney.model2.Transaction;
+import net.sf.jmoney.model2.TransactionInfo;
+import net.sf.jmoney.pricehistory.CommodityPricing;
+import net.sf.jmoney.pricehistory.CommodityPricingInfo;
+import net.sf.jmoney.pricehistory.PriceSeries;
+
+/**
+ * An index of the quantity of each security held in a stock account, by
+ * date.
+ * <P>
+ * For each security, the entries are summed by transaction date and the
+ * running totals kept in arrays sorted by date. The quantity held on a date
+ * is then found by a binary search. The index is built with one pass through
+ * the entries in the account and from then on is kept up to date by listening
+ * for changes to entries and transactions. A change to the entries
+ * invalidates only the running totals from the date of the change, and these
+ * are recalculated the next time a quantity is requested.
+ * <P>
+ * The index listens to the data manager of the account. The
+ * {@link #dispose()} method must be called when the index is no longer needed.
+ *
+ * @author Nigel Westbury
+ */
+public class SecurityPositionIndex {
+
+	/**
+	 * The security, date, and amount of an entry at the time it was added to
+	 * the index. These are the values that must be subtracted when the entry
+	 * changes or is removed.
+	 */
+	private static class IndexedEntry {
+		final Security security;
+		final long date;
+		final long amount;
+
+		IndexedEntry(Security security, long date, long amount) {
+			this.security = security;
+			this.date = date;
+			this.amount = amount;
+		}
+	}
+
+	/**
+	 * The quantities of one security, summed by date.
+	 */
+	private static class Position {
+		/**
+		 * The distinct dates on which there are entries, in ascending order,
+		 * as milliseconds. Only the first <code>size</code> elements are used.
+		 */
+		private long [] dates = new long[16];
+
+		/**
+		 * The sum of the amounts on each date.
+		 */
+		private long [] amounts = new long[16];
+
+		/**
+		 * The number of entries on each date. A date is removed when it no
+		 * longer has any entries.
+		 */
+		private int [] entryCounts = new int[16];
+
+		/**
+		 * The quantity held at the end of each date. Only the first
+		 * <code>validCount</code> elements are up to date.
+		 */
+		private long [] quantities = new long[16];
+
+		private int size = 0;
+
+		private int validCount = 0;
+
+		void add(long date, long amount) {
+			int index = Arrays.binarySearch(dates, 0, size, date);
+			if (index < 0) {
+				index = -index - 1;
+				if (size == dates.length) {
+					dates = Arrays.copyOf(dates, size * 2);
+					amounts = Arrays.copyOf(amounts, size * 2);
+					entryCounts = Arrays.copyOf(entryCounts, size * 2);
+					quantities = Arrays.copyOf(quantities, size * 2);
+				}
+				System.arraycopy(dates, index, dates, index + 1, size - index);
+				System.arraycopy(amounts, index, amounts, index + 1, size - index);
+				System.arraycopy(entryCounts, index, entryCounts, index + 1, size - index);
+				dates[index] = date;
+				amounts[index] = 0;
+				entryCounts[index] = 0;
+				size++;
+			}
+			amounts[index] += amount;
+			entryCounts[index]++;
+			validCount = Math.min(validCount, index);
+		}
+
+		void remove(long date, long amount) {
+			int index = Arrays.binarySearch(dates, 0, size, date);
+			amounts[index] -= amount;
+			entryCounts[index]--;
+			if (entryCounts[index] == 0) {
+				System.arraycopy(dates, index + 1, dates, index, size - index - 1);
+				System.arraycopy(amounts, index + 1, amounts, index, size - index - 1);
+				System.arraycopy(entryCounts, index + 1, entryCounts, index, size - index - 1);
+				size--;
+			}
+			validCount = Math.min(validCount, index);
+		}
+
+		boolean isEmpty() {
+			return size == 0;
+		}
+
+		/**
+		 * @return true if there are entries on or before the given date
+		 */
+		boolean hasEntriesOnOrBefore(long date) {
+			return size != 0 && dates[0] <= date;
+		}
+
+		/**
+		 * @return the quantity held at the end of the given date
+		 */
+		long getQuantity(long date) {
+			int index = Arrays.binarySearch(dates, 0, size, date);
+			index = (index < 0) ? -index - 2 : index;
+			if (index < 0) {
+				return 0;
+			}
+
+			if (index >= validCount) {
+				long quantity = (validCount == 0) ? 0 : quantities[validCount - 1];
+				for (int i = validCount; i < size; i++) {
+					quantity += amounts[i];
+					quantities[i] = quantity;
+				}
+				validCount = size;
+			}
+			return quantities[index];
+		}
+	}
+
+	private final StockAccount account;
+
+	private Map<Security, Position> positions = new HashMap<Security, Position>();
+
+	private Map<Entry, IndexedEntry> indexedEntries = new HashMap<Entry, IndexedEntry>();
+
+	private final SessionChangeAdapter listener = new SessionChangeAdapter() {
+		@Override
+		public void objectCreated(IModelObject newObject) {
+			if (newObject instanceof Entry) {
+				addEntry((Entry)newObject);
+			}
+		}
+
+		@Override
+		public void objectDestroyed(IModelObject deletedObject) {
+			if (deletedObject instanceof Entry) {
+				removeEntry((Entry)deletedObject);
+			}
+		}
+
+		@Override
+		public void objectChanged(IModelObject changedObject, IScalarPropertyAccessor changedProperty, Object oldValue, Object newValue) {
+			if (changedObject instanceof Entry) {
+				if (changedProperty == EntryInfo.getAmountAccessor()
+						|| changedProperty == EntryInfo.getAccountAccessor()
+						|| changedProperty == EntryInfo.getCommodityAccessor()) {
+					removeEntry((Entry)changedObject);
+					addEntry((Entry)changedObject);
+				}
+			} else if (changedObject instanceof Transaction) {
+				if (changedProperty == TransactionInfo.getDateAccessor()) {
+					for (Entry entry : ((Transaction)changedObject).getEntryCollection()) {
+						removeEntry(entry);
+						addEntry(entry);
+					}
+				}
+			}
+		}
+
+		@Override
+		public void objectMoved(IModelObject movedObject, IModelObject originalParent, IModelObject newParent, IListPropertyAccessor<?,?> originalParentListProperty, IListPropertyAccessor<?,?> newParentListProperty) {
+			if (movedObject instanceof Entry) {
+				// The entry is now in a transaction with a different date.
+				removeEntry((Entry)movedObject);
+				addEntry((Entry)movedObject);
+			}
+		}
+	};
+
+	public SecurityPositionIndex(StockAccount account) {
+		this.account = account;
+
+		for (Entry entry : account.getEntries()) {
+			addEntry(entry);
+		}
+
+		account.getDataManager().addChangeListener(listener);
+	}
+
+	public void dispose() {
+		account.getDataManager().removeChangeListener(listener);
+	}
+
+	private void addEntry(Entry entry) {
+		if (entry.getAccount() == account
+				&& entry.getCommodity() instanceof Security
+				&& entry.getTransaction().getDate() != null
+				&& !indexedEntries.containsKey(entry)) {
+			IndexedEntry indexedEntry = new IndexedEntry((Security)entry.getCommodity(), entry.getTransaction().getDate().getTime(), entry.getAmount());
+
+			Position position = positions.get(indexedEntry.security);
+			if (position == null) {
+				position = new Position();
+				positions.put(indexedEntry.security, position);
+			}
+			position.add(indexedEntry.date, indexedEntry.amount);
+
+			indexedEntries.put(entry, indexedEntry);
+		}
+	}
+
+	private void removeEntry(Entry entry) {
+		IndexedEntry indexedEntry = indexedEntries.remove(entry);
+		if (indexedEntry != null) {
+			Position position = positions.get(indexedEntry.security);
+			position.remove(indexedEntry.date, indexedEntry.amount);
+			if (position.isEmpty()) {
+				positions.remove(indexedEntry.security);
+			}
+		}
+	}
+
+	/**
+	 * @return the securities that have entries in the account
+	 */
+	public Set<Security> getSecurities() {
+		return positions.keySet();
+	}
+
+	/**
+	 * @return the securities that have entries in the account on or before
+	 *         the given date. This includes securities that were held before
+	 *         the date but of which none is held at the end of the date.
+	 */
+	public Set<Security> getSecurities(Date asOf) {
+		Set<Security> securities = new HashSet<Security>();
+		for (Map.Entry<Security, Position> mapEntry : positions.entrySet()) {
+			if (mapEntry.getValue().hasEntriesOnOrBefore(asOf.getTime())) {
+				securities.add(mapEntry.getKey());
+			}
+		}
+		return securities;
+	}
+
+	/**
+	 * @return the quantity of the given security held at the end of the given
+	 *         date
+	 */
+	public long getQuantity(Security security, Date asOf) {
+		Position position = positions.get(security);
+		return position == null ? 0 : position.getQuantity(asOf.getTime());
+	}
+
+	/**
+	 * @return a map of each security in the account to the quantity held at
+	 *         the end of the given date. Securities that have entries only
+	 *         after the given date are not included.
+	 */
+	public Map<Security, Long> getQuantities(Date asOf) {
+		Map<Security, Long> quantities = new HashMap<Security, Long>();
+		for (Map.Entry<Security, Position> mapEntry : positions.entrySet()) {
+			if (mapEntry.getValue().hasEntriesOnOrBefore(asOf.getTime())) {
+				quantities.put(mapEntry.getKey(), mapEntry.getValue().getQuantity(asOf.getTime()));
+			}
+		}
+		return quantities;
+	}
+
+	/**
+	 * Gets the market value of the holding of the given security at the end of
+	 * the given date. The value is the quantity multiplied by the last price
+	 * on or before the date in the price history of the security.
+	 *
+	 * @return the market value, in the currency of the price history, or null
+	 *         if there is no price on or before the given date
+	 */
+	public Long getMarketValue(Security security, Date asOf) {
+		long quantity = getQuantity(security, asOf);
+		if (quantity == 0) {
+			return 0L;
+		}
+
+		CommodityPricing pricing = security.getExtension(CommodityPricingInfo.getPropertySet(), false);
+		if (pricing == null) {
+			return null;
+		}
+
+		PriceSeries priceSeries = pricing.getPriceSeries();
+		Long price = priceSeries.getLastKnownPrice(asOf);
+		if (price == null) {
+			return null;
+		}
+
+		return Math.round((double)quantity * price / security.getScaleFactor());
+	}
+}
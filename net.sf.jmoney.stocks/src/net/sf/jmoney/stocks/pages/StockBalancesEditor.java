@@ -22,9 +22,9 @@
 
 package net.sf.jmoney.stocks.pages;
 
+import java.util.ArrayList;
 import java.util.Date;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.List;
 
 import net.sf.jmoney.JMoneyPlugin;
 import net.sf.jmoney.fields.DateControl;
@@ -32,12 +32,15 @@ import net.sf.jmoney.isolation.IListPropertyAccessor;
 import net.sf.jmoney.isolation.IModelObject;
 import net.sf.jmoney.isolation.IScalarPropertyAccessor;
 import net.sf.jmoney.isolation.SessionChangeAdapter;
+import net.sf.jmoney.model2.Currency;
 import net.sf.jmoney.model2.Entry;
 import net.sf.jmoney.model2.EntryInfo;
 import net.sf.jmoney.model2.IDataManagerForAccounts;
 import net.sf.jmoney.model2.IDatastoreManager;
+import net.sf.jmoney.pricehistory.CommodityPricingInfo;
 import net.sf.jmoney.stocks.ShowStockDetailsHandler;
 import net.sf.jmoney.stocks.model.Security;
+import net.sf.jmoney.stocks.model.SecurityPositionIndex;
 import net.sf.jmoney.stocks.model.Stock;
 import net.sf.jmoney.stocks.model.StockAccount;
 import net.sf.jmoney.views.AccountEditor;
@@ -93,13 +96,24 @@ public class StockBalancesEditor extends EditorPart {
 		private final Security stock;
 		public long total = 0;
 
+		/**
+		 * The market value, or null if there is no price for the stock
+		 */
+		public Long marketValue = null;
+
 		public StockWrapper(Security stock) {
 			this.stock = stock;
 		}
 
 	}
 
-	private Map<Security, StockWrapper> totals;
+	/**
+	 * The quantity of each security held in the account by date, so that
+	 * the totals can be found quickly each time the balance date is changed.
+	 */
+	private SecurityPositionIndex positionIndex;
+
+	private List<StockWrapper> totals;
 
 	private TableViewer balancesViewer;
 
@@ -187,6 +201,11 @@ public class StockBalancesEditor extends EditorPart {
 		IDataManagerForAccounts sessionManager = (IDataManagerForAccounts)site.getPage().getInput();
         account = (StockAccount)sessionManager.getSession().getAccountByFullName(input2.getFullAccountName());
 
+        /*
+         * The index must be created before our listener is added so that the
+         * index is up to date when our listener recalculates the totals.
+         */
+        positionIndex = new SecurityPositionIndex(account);
         sessionManager.addChangeListener(sessionListener);
 	}
 
@@ -194,6 +213,7 @@ public class StockBalancesEditor extends EditorPart {
 	public void dispose() {
         IDatastoreManager sessionManager = (IDatastoreManager)getSite().getPage().getInput();
         sessionManager.removeChangeListener(sessionListener);
+        positionIndex.dispose();
 	}
 
 	@Override
@@ -285,23 +305,28 @@ public class StockBalancesEditor extends EditorPart {
 	private void calculateTotals() {
 		Date asOf = balanceDateControl.getDate();
 
-		totals = new HashMap<Security, StockWrapper>();
-
-		for (Entry entry : account.getEntries()) {
-			if (!entry.getTransaction().getDate().after(asOf)
-					 && entry.getCommodity() instanceof Security) {
-				Security security = (Security)entry.getCommodity();
-				StockWrapper securityWrapper = totals.get(security);
-				if (securityWrapper == null) {
-					securityWrapper = new StockWrapper(security);
-					totals.put(security, securityWrapper);
-				}
+		totals = new ArrayList<StockWrapper>();
 
-				securityWrapper.total += entry.getAmount();
-			}
+		for (Security security : positionIndex.getSecurities(asOf)) {
+			StockWrapper securityWrapper = new StockWrapper(security);
+			securityWrapper.total = positionIndex.getQuantity(security, asOf);
+			securityWrapper.marketValue = positionIndex.getMarketValue(security, asOf);
+			totals.add(securityWrapper);
 		}
 
-		balancesViewer.setInput(totals.values());
+		balancesViewer.setInput(totals);
+	}
+
+	/**
+	 * @return the currency in which the prices of the given security are
+	 *         given in its price history
+	 */
+	private Currency getPriceCurrency(Security security) {
+		Currency currency = CommodityPricingInfo.getCurrencyAccessor().getValue(security);
+		if (currency == null) {
+			currency = account.getSession().getDefaultCurrency();
+		}
+		return currency;
 	}
 
 	private Control createConfigurationControls(Composite parent) {
@@ -382,6 +407,22 @@ public class StockBalancesEditor extends EditorPart {
 			}
 		});
 
+		TableViewerColumn marketValueColumn = new TableViewerColumn(balancesViewer, SWT.RIGHT);
+		marketValueColumn.getColumn().setText("Market Value");
+		marketValueColumn.getColumn().setWidth(100);
+
+		marketValueColumn.setLabelProvider(new CellLabelProvider() {
+			@Override
+			public void update(ViewerCell cell) {
+				StockWrapper stockWrapper = (StockWrapper)cell.getElement();
+				if (stockWrapper.marketValue == null) {
+					cell.setText("");
+				} else {
+					cell.setText(getPriceCurrency(stockWrapper.stock).format(stockWrapper.marketValue));
+				}
+			}
+		});
+
 		// Create the pop-up menu
 		MenuManager menuMgr = new MenuManager();
 		// TODO We are making assumptions about where this editor is placed when
@@ -33,6 +33,15 @@ public class AllTests {
     public static Test suite() {
         TestSuite suite = new TestSuite("General JMoney Test Suite");
         suite.addTestSuite(OpenSessionTest.class);
+        suite.addTestSuite(IntWeakValuedMapTest.class);
+        suite.addTestSuite(CurrencyAccountBalanceTest.class);
+        suite.addTestSuite(PatternPrefilterTest.class);
+        suite.addTestSuite(PriceSeriesTest.class);
+        suite.addTestSuite(PriceUpdaterTest.class);
+        suite.addTestSuite(OfxReaderTest.class);
+        suite.addTestSuite(JMoneyBinaryFormatTest.class);
+        suite.addTestSuite(SessionJournalTest.class);
+        suite.addTestSuite(JMoneyXmlFormatTest.class);
         return suite;
     }
 
@@ -0,0 +1,154 @@
+/*
+ *
+ *  JMoney - A Personal Finance Manager
+ *  Copyright (c) 2010 Nigel Westbury <westbury@users.sourceforge.net>
+ *
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ */
+package net.sf.jmoney.test;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.util.Calendar;
+import java.util.Date;
+
+import junit.framework.TestCase;
+import net.sf.jmoney.isolation.ReferenceViolationException;
+import net.sf.jmoney.model2.BankAccount;
+import net.sf.jmoney.model2.BankAccountInfo;
+import net.sf.jmoney.model2.Entry;
+import net.sf.jmoney.model2.Session;
+import net.sf.jmoney.model2.Transaction;
+import net.sf.jmoney.model2.TransactionInfo;
+import net.sf.jmoney.serializeddatastore.SessionManager;
+import net.sf.jmoney.serializeddatastore.formats.JMoneyXmlFormat;
+
+import org.eclipse.core.runtime.FileLocator;
+import org.eclipse.core.runtime.Platform;
+import org.osgi.framework.Bundle;
+
+/**
+ * Tests the account balances calculated by CurrencyAccount when the
+ * datastore does not provide IEntryQueries, as is the case for the
+ * serialized datastore. The balances come from an index that is kept up to
+ * date as entries change, so these tests check the balances after each kind
+ * of change.
+ */
+public class CurrencyAccountBalanceTest extends TestCase {
+
+	private Session session;
+
+	private BankAccount account;
+
+	@Override
+	public void setUp() throws IOException {
+        Bundle bundle = Platform.getBundle("net.sf.jmoney.test");
+        URL url = bundle.getEntry("resources/new_empty_session.jmx");
+        File file = new File(FileLocator.toFileURL(url).getFile());
+
+        JMoneyXmlFormat reader = new JMoneyXmlFormat();
+        SessionManager manager = new SessionManager(JMoneyXmlFormat.ID_FILE_FORMAT, reader, file);
+        reader.readSessionQuietly(file, manager, null);
+        session = manager.getSession();
+
+        account = session.getAccountCollection().createNewElement(BankAccountInfo.getPropertySet());
+        account.setName("Checking");
+	}
+
+	private Date day(int dayOfMonth) {
+		Calendar calendar = Calendar.getInstance();
+		calendar.clear();
+		calendar.set(2010, Calendar.MARCH, dayOfMonth);
+		return calendar.getTime();
+	}
+
+	private Entry addEntry(BankAccount entryAccount, int dayOfMonth, long amount) {
+        Transaction transaction = session.getTransactionCollection().createNewElement(TransactionInfo.getPropertySet());
+        transaction.setDate(day(dayOfMonth));
+        Entry entry = transaction.getEntryCollection().createEntry();
+        entry.setAccount(entryAccount);
+        entry.setAmount(amount);
+        return entry;
+	}
+
+	public void testBalanceBetweenDates() {
+		addEntry(account, 1, 100);
+		addEntry(account, 5, 20);
+		addEntry(account, 5, 3);
+		addEntry(account, 10, 4000);
+
+		assertEquals(4123, account.getBalance(session, day(1), day(31)));
+		assertEquals(23, account.getBalance(session, day(2), day(9)));
+		assertEquals(123, account.getBalance(session, day(1), day(5)));
+		assertEquals(0, account.getBalance(session, day(11), day(31)));
+
+		account.setStartBalance(1000000);
+		assertEquals(1000023, account.getBalance(session, day(5), day(5)));
+	}
+
+	public void testBalanceFollowsChanges() throws ReferenceViolationException {
+		BankAccount otherAccount = session.getAccountCollection().createNewElement(BankAccountInfo.getPropertySet());
+		otherAccount.setName("Savings");
+
+		Entry entry1 = addEntry(account, 1, 100);
+		Entry entry2 = addEntry(account, 5, 20);
+
+		// Build the index before making the changes
+		assertEquals(120, account.getBalance(session, day(1), day(31)));
+
+		// A new entry on a new date
+		Entry entry3 = addEntry(account, 3, 7);
+		assertEquals(127, account.getBalance(session, day(1), day(31)));
+		assertEquals(107, account.getBalance(session, day(1), day(4)));
+
+		// Change of amount
+		entry1.setAmount(200);
+		assertEquals(227, account.getBalance(session, day(1), day(31)));
+
+		// Change of date
+		entry2.getTransaction().setDate(day(20));
+		assertEquals(207, account.getBalance(session, day(1), day(10)));
+		assertEquals(20, account.getBalance(session, day(15), day(31)));
+
+		// Change of account
+		entry3.setAccount(otherAccount);
+		assertEquals(220, account.getBalance(session, day(1), day(31)));
+		assertEquals(7, otherAccount.getBalance(session, day(1), day(31)));
+
+		// Deletion
+		session.getTransactionCollection().deleteElement(entry1.getTransaction());
+		assertEquals(20, account.getBalance(session, day(1), day(31)));
+	}
+
+	public void testBalanceWithSubAccounts() {
+		BankAccount subAccount = account.getSubAccountCollection().createNewElement(BankAccountInfo.getPropertySet());
+		subAccount.setName("Sub-account");
+
+		addEntry(account, 1, 100);
+		Entry subEntry = addEntry(subAccount, 2, 30);
+
+		assertEquals(130, account.getBalanceWithSubAccounts(session, day(1), day(31)));
+
+		// The cached roll-up must be cleared when a sub-account entry changes
+		subEntry.setAmount(50);
+		assertEquals(150, account.getBalanceWithSubAccounts(session, day(1), day(31)));
+
+		addEntry(subAccount, 3, 1);
+		assertEquals(151, account.getBalanceWithSubAccounts(session, day(1), day(31)));
+	}
+}
@@ -0,0 +1,131 @@
+/*
+*
+*  JMoney - A Personal Finance Manager
+*  Copyright (c) 2010 Nigel Westbury <westbury@users.sourceforge.net>
+*
+*
+*  This program is free software; you can redistribute it and/or modify
+*  it under the terms of the GNU General Public License as published by
+*  the Free Software Foundation; either version 2 of the License, or
+*  (at your option) any later version.
+*
+*  This program is distributed in the hope that it will be useful,
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*  GNU General Public License for more details.
+*
+*  You should have received a copy of the GNU General Public License
+*  along with this program; if not, write to the Free Software
+*  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+*
+*/
+
+package net.sf.jmoney.test;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+import net.sf.jmoney.model2.Commodity;
+import net.sf.jmoney.pricehistory.external.IBatchPriceFetcher;
+
+/**
+ * A price source that reads prices from local files, used to test the
+ * fetching of prices without a network connection.
+ * <P>
+ * The prices for a commodity are in a file in the given directory, named
+ * after the commodity with the extension '.csv'. Each line contains a date in
+ * the form yyyy-MM-dd, a comma, and the price in the smallest unit of the
+ * currency.
+ */
+public class FilePriceFetcher implements IBatchPriceFetcher {
+
+	private File directory;
+
+	private File file;
+
+	/**
+	 * The number of times prices have been requested from this source
+	 */
+	private int requestCount = 0;
+
+	/**
+	 * The prices in the file, read the first time a price is requested.
+	 */
+	private Map<Date, Long> prices = null;
+
+	public FilePriceFetcher(File directory) {
+		this.directory = directory;
+	}
+
+	@Override
+	public boolean canProcess(Commodity commodity) {
+		if (commodity.getName() == null) {
+			return false;
+		}
+		file = new File(directory, commodity.getName() + ".csv"); //$NON-NLS-1$
+		return file.exists();
+	}
+
+	@Override
+	public Long getPrice(Date date) {
+		requestCount++;
+		return getPrices().get(date);
+	}
+
+	@Override
+	public Map<Date, Long> getPrices(Date startDate, Date endDate) {
+		requestCount++;
+		Map<Date, Long> result = new HashMap<Date, Long>();
+		for (Map.Entry<Date, Long> mapEntry : getPrices().entrySet()) {
+			if (!mapEntry.getKey().before(startDate) && !mapEntry.getKey().after(endDate)) {
+				result.put(mapEntry.getKey(), mapEntry.getValue());
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @return the number of times prices have been requested from this
+	 *         source, where a request for a range of dates counts as one
+	 */
+	public int getRequestCount() {
+		return requestCount;
+	}
+
+	private Map<Date, Long> getPrices() {
+		if (prices == null) {
+			prices = new HashMap<Date, Long>();
+			SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd"); //$NON-NLS-1$
+			try {
+				BufferedReader reader = new BufferedReader(new FileReader(file));
+				try {
+					String line;
+					while ((line = reader.readLine()) != null) {
+						String [] fields = line.split(","); //$NON-NLS-1$
+						if (fields.length == 2) {
+							try {
+								prices.put(dateFormat.parse(fields[0].trim()), Long.valueOf(fields[1].trim()));
+							} catch (ParseException e) {
+								// Ignore lines that are not prices, such as a header line
+							} catch (NumberFormatException e) {
+								// Ignore lines that are not prices, such as a header line
+							}
+						}
+					}
+				} finally {
+					reader.close();
+				}
+			} catch (IOException e) {
+				throw new RuntimeException("Cannot read prices from " + file.getPath(), e);
+			}
+		}
+		return prices;
+	}
+}
@@ -0,0 +1,96 @@
+/*
+ *
+ *  JMoney - A Personal Finance Manager
+ *  Copyright (c) 2007 Nigel Westbury <westbury@users.sourceforge.net>
+ *
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ */
+package net.sf.jmoney.test;
+
+import junit.framework.TestCase;
+import net.sf.jmoney.isolation.IntWeakValuedMap;
+
+/**
+ * Tests the weak valued identity map used by datastores to cache materialized
+ * objects.
+ */
+public class IntWeakValuedMapTest extends TestCase {
+
+	public void testPutGetRemove() {
+		IntWeakValuedMap<String> map = new IntWeakValuedMap<String>();
+		String[] values = new String[10000];
+		for (int i = 0; i < values.length; i++) {
+			values[i] = "value " + i;
+			map.put(i, values[i]);
+		}
+		assertEquals(values.length, map.size());
+
+		for (int i = 0; i < values.length; i++) {
+			assertSame(values[i], map.get(i));
+		}
+		assertNull(map.get(-1));
+
+		map.remove(5);
+		assertNull(map.get(5));
+		assertSame(values[6], map.get(6));
+		assertEquals(values.length - 1, map.size());
+	}
+
+	public void testPutIfAbsent() {
+		IntWeakValuedMap<String> map = new IntWeakValuedMap<String>();
+		String first = "first";
+		String second = "second";
+		assertNull(map.putIfAbsent(1, first));
+		assertSame(first, map.putIfAbsent(1, second));
+		assertSame(first, map.get(1));
+	}
+
+	/**
+	 * Several threads race to put values for the same keys. All threads must
+	 * agree on the value for each key.
+	 */
+	public void testConcurrentPutIfAbsent() throws InterruptedException {
+		final int keyCount = 10000;
+		final IntWeakValuedMap<Object> map = new IntWeakValuedMap<Object>();
+		final Object[][] winners = new Object[4][keyCount];
+		Thread[] threads = new Thread[winners.length];
+		for (int i = 0; i < threads.length; i++) {
+			final Object[] threadWinners = winners[i];
+			threads[i] = new Thread() {
+				@Override
+				public void run() {
+					for (int key = 0; key < keyCount; key++) {
+						Object value = new Object();
+						Object existing = map.putIfAbsent(key, value);
+						threadWinners[key] = (existing == null) ? value : existing;
+					}
+				}
+			};
+			threads[i].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		for (int key = 0; key < keyCount; key++) {
+			for (int i = 1; i < winners.length; i++) {
+				assertSame(winners[0][key], winners[i][key]);
+			}
+			assertSame(winners[0][key], map.get(key));
+		}
+	}
+}
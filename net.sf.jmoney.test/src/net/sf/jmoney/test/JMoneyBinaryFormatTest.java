@@ -0,0 +1,273 @@
+/*
+ *
+ *  JMoney - A Personal Finance Manager
+ *  Copyright (c) 2010 Nigel Westbury <westbury@users.sourceforge.net>
+ *
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ */
+package net.sf.jmoney.test;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.List;
+
+import junit.framework.TestCase;
+import net.sf.jmoney.model2.BankAccount;
+import net.sf.jmoney.model2.BankAccountInfo;
+import net.sf.jmoney.model2.Entry;
+import net.sf.jmoney.model2.Session;
+import net.sf.jmoney.model2.Transaction;
+import net.sf.jmoney.model2.TransactionInfo;
+import net.sf.jmoney.serializeddatastore.SessionManager;
+import net.sf.jmoney.serializeddatastore.formats.JMoneyBinaryFormat;
+import net.sf.jmoney.serializeddatastore.formats.JMoneyXmlFormat;
+
+import org.eclipse.core.runtime.FileLocator;
+import org.eclipse.core.runtime.Platform;
+import org.osgi.framework.Bundle;
+
+/**
+ * Writes sessions in the binary format and reads them back, with values
+ * chosen to cover the edge cases of the encodings: the variable length
+ * integers, the zig-zag encoding of signed values, the dates written as the
+ * number of days from the previous date, and the dictionary of strings.
+ */
+public class JMoneyBinaryFormatTest extends TestCase {
+
+	private static final long[] AMOUNTS = {
+		0, 1, -1, 63, -64, 64, -65, 127, 128, 8191, 8192, -8193,
+		Integer.MAX_VALUE, Integer.MIN_VALUE, Long.MAX_VALUE, Long.MIN_VALUE, Long.MIN_VALUE + 1
+	};
+
+	private SessionManager manager;
+
+	private Session session;
+
+	private BankAccount account;
+
+	private BankAccount otherAccount;
+
+	private File directory;
+
+	private File file;
+
+	@Override
+	public void setUp() throws IOException {
+		Bundle bundle = Platform.getBundle("net.sf.jmoney.test");
+		URL url = bundle.getEntry("resources/new_empty_session.jmx");
+		File emptySessionFile = new File(FileLocator.toFileURL(url).getFile());
+
+		JMoneyXmlFormat reader = new JMoneyXmlFormat();
+		manager = new SessionManager(JMoneyXmlFormat.ID_FILE_FORMAT, reader, emptySessionFile);
+		reader.readSessionQuietly(emptySessionFile, manager, null);
+		session = manager.getSession();
+
+		account = session.getAccountCollection().createNewElement(BankAccountInfo.getPropertySet());
+		account.setName("Checking");
+		otherAccount = session.getAccountCollection().createNewElement(BankAccountInfo.getPropertySet());
+		otherAccount.setName("Savings");
+
+		directory = File.createTempFile("jmoney", ".dir");
+		directory.delete();
+		directory.mkdir();
+		file = new File(directory, "session.jmb");
+	}
+
+	@Override
+	public void tearDown() {
+		for (File eachFile : directory.listFiles()) {
+			eachFile.delete();
+		}
+		directory.delete();
+	}
+
+	private static Date day(int year, int month, int dayOfMonth) {
+		Calendar calendar = Calendar.getInstance();
+		calendar.clear();
+		calendar.set(year, month, dayOfMonth);
+		return calendar.getTime();
+	}
+
+	private Entry addEntry(Date date, long amount) {
+		Transaction transaction = session.getTransactionCollection().createNewElement(TransactionInfo.getPropertySet());
+		transaction.setDate(date);
+		Entry entry = transaction.createEntry();
+		entry.setAccount(account);
+		entry.setAmount(amount);
+		return entry;
+	}
+
+	/**
+	 * Writes the session to the file and reads it into a new session.
+	 */
+	private Session writeAndRead() throws IOException {
+		JMoneyBinaryFormat format = new JMoneyBinaryFormat();
+		format.writeSessionQuietly(manager, file);
+
+		SessionManager manager2 = new SessionManager(JMoneyBinaryFormat.ID_FILE_FORMAT, format, file);
+		format.readSessionQuietly(file, manager2, null);
+		return manager2.getSession();
+	}
+
+	/**
+	 * @return the first entry in each transaction, in the order of the
+	 *         transactions in the session
+	 */
+	private static List<Entry> getEntries(Session session) {
+		List<Entry> entries = new ArrayList<Entry>();
+		for (Transaction transaction : session.getTransactionCollection()) {
+			entries.add(transaction.getEntryCollection().iterator().next());
+		}
+		return entries;
+	}
+
+	public void testAmounts() throws IOException {
+		Date date = day(2010, Calendar.MARCH, 1);
+		for (int i = 0; i < AMOUNTS.length; i++) {
+			Entry entry = addEntry(date, AMOUNTS[i]);
+			entry.setCreation(AMOUNTS[AMOUNTS.length - 1 - i]);
+		}
+
+		List<Entry> entries = getEntries(writeAndRead());
+		assertEquals(AMOUNTS.length, entries.size());
+		for (int i = 0; i < AMOUNTS.length; i++) {
+			assertEquals(AMOUNTS[i], entries.get(i).getAmount());
+			assertEquals(AMOUNTS[AMOUNTS.length - 1 - i], entries.get(i).getCreation());
+		}
+	}
+
+	/**
+	 * Dates are written as the difference in days from the previous date in
+	 * the column, so the dates include repeated dates, dates before the
+	 * previous date, dates either side of 1 January 1970, dates far apart,
+	 * and missing dates.
+	 */
+	public void testDates() throws IOException {
+		Date[] dates = {
+			day(2010, Calendar.MARCH, 1),
+			day(2010, Calendar.MARCH, 1),
+			day(2010, Calendar.FEBRUARY, 28),
+			null,
+			day(2010, Calendar.MARCH, 2),
+			day(1970, Calendar.JANUARY, 1),
+			day(1969, Calendar.DECEMBER, 31),
+			day(1900, Calendar.JANUARY, 1),
+			day(2100, Calendar.DECEMBER, 31),
+			null,
+			null,
+			day(2100, Calendar.DECEMBER, 31),
+		};
+		for (Date date : dates) {
+			addEntry(date, 1);
+		}
+
+		Session session2 = writeAndRead();
+		int i = 0;
+		for (Transaction transaction : session2.getTransactionCollection()) {
+			assertEquals("date " + i, dates[i], transaction.getDate());
+			i++;
+		}
+		assertEquals(dates.length, i);
+	}
+
+	/**
+	 * Checks strings that are missing, empty, repeated, shared between
+	 * properties, not ASCII, or long enough for the length to need more than
+	 * one byte, and a dictionary large enough for the indexes to need more
+	 * than one byte.
+	 */
+	public void testStrings() throws IOException {
+		StringBuffer longMemo = new StringBuffer();
+		for (int i = 0; i < 300; i++) {
+			longMemo.append((char)('a' + i % 26));
+		}
+
+		String[] memos = {
+			null, "", "Groceries", "Groceries", "Caf\u00e9 \u20ac5", longMemo.toString(), "Checking", " "
+		};
+		Date date = day(2010, Calendar.MARCH, 1);
+		for (String memo : memos) {
+			addEntry(date, 1).setMemo(memo);
+		}
+		for (int i = 0; i < 200; i++) {
+			addEntry(date, i).setMemo("Memo " + i);
+		}
+
+		List<Entry> entries = getEntries(writeAndRead());
+		assertEquals(memos.length + 200, entries.size());
+
+		// Empty strings are read as null, as in the XML format
+		assertNull(entries.get(0).getMemo());
+		assertNull(entries.get(1).getMemo());
+		for (int i = 2; i < memos.length; i++) {
+			assertEquals(memos[i], entries.get(i).getMemo());
+		}
+		for (int i = 0; i < 200; i++) {
+			assertEquals("Memo " + i, entries.get(memos.length + i).getMemo());
+		}
+	}
+
+	/**
+	 * Checks references to other objects and a column in which only a few
+	 * rows have a value, beyond the first byte of the bitmap of rows.
+	 */
+	public void testReferencesAndSparseColumns() throws IOException {
+		Date date = day(2010, Calendar.MARCH, 1);
+		for (int i = 0; i < 20; i++) {
+			Entry entry = addEntry(date, i);
+			if (i % 3 == 0) {
+				entry.setAccount(otherAccount);
+			}
+			if (i == 9 || i == 17) {
+				entry.setValuta(day(2010, Calendar.APRIL, i));
+			}
+		}
+
+		List<Entry> entries = getEntries(writeAndRead());
+		assertEquals(20, entries.size());
+		for (int i = 0; i < 20; i++) {
+			Entry entry = entries.get(i);
+			assertEquals(i, entry.getAmount());
+			assertEquals(i % 3 == 0 ? "Savings" : "Checking", entry.getAccount().getName());
+			if (i == 9 || i == 17) {
+				assertEquals(day(2010, Calendar.APRIL, i), entry.getValuta());
+			} else {
+				assertNull(entry.getValuta());
+			}
+		}
+	}
+
+	/**
+	 * Checks that writing over an existing file replaces it and leaves no
+	 * temporary files behind.
+	 */
+	public void testFileReplaced() throws IOException {
+		addEntry(day(2010, Calendar.MARCH, 1), 5);
+		new JMoneyBinaryFormat().writeSessionQuietly(manager, file);
+
+		addEntry(day(2010, Calendar.MARCH, 2), 7);
+		List<Entry> entries = getEntries(writeAndRead());
+		assertEquals(2, entries.size());
+		assertEquals(7, entries.get(1).getAmount());
+
+		assertEquals(1, directory.listFiles().length);
+	}
+}
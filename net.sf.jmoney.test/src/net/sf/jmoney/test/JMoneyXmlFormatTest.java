@@ -0,0 +1,196 @@
+/*
+ *
+ *  JMoney - A Personal Finance Manager
+ *  Copyright (c) 2010 Nigel Westbury <westbury@users.sourceforge.net>
+ *
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ */
+package net.sf.jmoney.test;
+
+import java.io.File;
+import java.net.URL;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import junit.framework.TestCase;
+import net.sf.jmoney.model2.Account;
+import net.sf.jmoney.model2.BankAccount;
+import net.sf.jmoney.model2.BankAccountInfo;
+import net.sf.jmoney.model2.Commodity;
+import net.sf.jmoney.model2.Currency;
+import net.sf.jmoney.model2.CurrencyInfo;
+import net.sf.jmoney.model2.Entry;
+import net.sf.jmoney.model2.Session;
+import net.sf.jmoney.model2.Transaction;
+import net.sf.jmoney.model2.TransactionInfo;
+import net.sf.jmoney.serializeddatastore.SessionManager;
+import net.sf.jmoney.serializeddatastore.formats.JMoneyXmlFormat;
+
+import org.eclipse.core.runtime.FileLocator;
+import org.eclipse.core.runtime.Platform;
+import org.osgi.framework.Bundle;
+
+/**
+ * Writes a session with enough transactions to fill several of the batches
+ * in which the transactions are constructed when a .jmx file is read, and
+ * reads it back both with worker threads and with all objects constructed on
+ * the thread that reads the file.
+ */
+public class JMoneyXmlFormatTest extends TestCase {
+
+	/**
+	 * The number of transactions, which is more than a few times the number
+	 * of transactions in a batch and not a multiple of it, so the last batch
+	 * is a part batch.
+	 */
+	private static final int TRANSACTION_COUNT = 1234;
+
+	private static final int ACCOUNT_COUNT = 7;
+
+	private File file;
+
+	@Override
+	public void setUp() throws Exception {
+		Bundle bundle = Platform.getBundle("net.sf.jmoney.test");
+		URL url = bundle.getEntry("resources/new_empty_session.jmx");
+		File emptySessionFile = new File(FileLocator.toFileURL(url).getFile());
+
+		JMoneyXmlFormat format = new JMoneyXmlFormat();
+		SessionManager manager = new SessionManager(JMoneyXmlFormat.ID_FILE_FORMAT, format, emptySessionFile);
+		format.readSessionQuietly(emptySessionFile, manager, null);
+		Session session = manager.getSession();
+
+		Currency euro = session.getCommodityCollection().createNewElement(CurrencyInfo.getPropertySet());
+		euro.setName("Euro");
+		euro.setCode("EUR");
+		euro.setDecimals(2);
+
+		BankAccount [] accounts = new BankAccount[ACCOUNT_COUNT];
+		for (int i = 0; i < ACCOUNT_COUNT; i++) {
+			accounts[i] = session.getAccountCollection().createNewElement(BankAccountInfo.getPropertySet());
+			accounts[i].setName("Account " + i);
+			accounts[i].setCurrency(getCurrency(session, getCurrencyCode(i)));
+		}
+
+		for (int i = 0; i < TRANSACTION_COUNT; i++) {
+			Transaction transaction = session.getTransactionCollection().createNewElement(TransactionInfo.getPropertySet());
+			transaction.setDate(getDate(i));
+
+			Entry entry1 = transaction.createEntry();
+			entry1.setAccount(accounts[i % ACCOUNT_COUNT]);
+			entry1.setAmount(i);
+			entry1.setMemo("Transaction " + i);
+
+			Entry entry2 = transaction.createEntry();
+			entry2.setAccount(accounts[(i + 1) % ACCOUNT_COUNT]);
+			entry2.setAmount(-i);
+		}
+
+		file = File.createTempFile("jmoney", ".jmx");
+		format.writeSessionQuietly(manager, file, null);
+	}
+
+	@Override
+	public void tearDown() {
+		file.delete();
+	}
+
+	private static Date getDate(int dayNumber) {
+		Calendar calendar = Calendar.getInstance();
+		calendar.clear();
+		calendar.set(2000, Calendar.JANUARY, 1);
+		calendar.add(Calendar.DAY_OF_MONTH, dayNumber);
+		return calendar.getTime();
+	}
+
+	private static String getCurrencyCode(int accountNumber) {
+		return accountNumber % 2 == 0 ? "USD" : "EUR";
+	}
+
+	private static Currency getCurrency(Session session, String code) {
+		for (Commodity commodity : session.getCommodityCollection()) {
+			if (commodity instanceof Currency && ((Currency)commodity).getCode().equals(code)) {
+				return (Currency)commodity;
+			}
+		}
+		fail("Currency " + code + " not found");
+		return null;
+	}
+
+	public void testReadWithWorkerThreads() throws Exception {
+		checkSession(read(3));
+	}
+
+	public void testReadWithoutWorkerThreads() throws Exception {
+		checkSession(read(0));
+	}
+
+	private Session read(int workerThreadCount) throws Exception {
+		JMoneyXmlFormat format = new JMoneyXmlFormat();
+		format.setWorkerThreadCount(workerThreadCount);
+		SessionManager manager = new SessionManager(JMoneyXmlFormat.ID_FILE_FORMAT, format, file);
+		format.readSessionQuietly(file, manager, null);
+		return manager.getSession();
+	}
+
+	/**
+	 * Checks that the transactions are in the order in which they were
+	 * written and that the entries reference the accounts in the session that
+	 * was read, not copies of them.
+	 */
+	private static void checkSession(Session session) {
+		Map<String, Account> accounts = new HashMap<String, Account>();
+		for (Account account : session.getAccountCollection()) {
+			accounts.put(account.getName(), account);
+		}
+		for (int i = 0; i < ACCOUNT_COUNT; i++) {
+			BankAccount account = (BankAccount)accounts.get("Account " + i);
+			assertNotNull(account);
+			assertSame(getCurrency(session, getCurrencyCode(i)), account.getCurrency());
+		}
+
+		int i = 0;
+		for (Transaction transaction : session.getTransactionCollection()) {
+			assertEquals(getDate(i), transaction.getDate());
+
+			Iterator<Entry> iterator = transaction.getEntryCollection().iterator();
+			Entry entry1 = iterator.next();
+			Entry entry2 = iterator.next();
+			assertFalse(iterator.hasNext());
+			if (entry1.getMemo() == null) {
+				Entry otherEntry = entry1;
+				entry1 = entry2;
+				entry2 = otherEntry;
+			}
+
+			assertEquals(i, entry1.getAmount());
+			assertEquals("Transaction " + i, entry1.getMemo());
+			assertSame(transaction, entry1.getTransaction());
+			assertSame(accounts.get("Account " + i % ACCOUNT_COUNT), entry1.getAccount());
+
+			assertEquals(-i, entry2.getAmount());
+			assertSame(transaction, entry2.getTransaction());
+			assertSame(accounts.get("Account " + (i + 1) % ACCOUNT_COUNT), entry2.getAccount());
+
+			i++;
+		}
+		assertEquals(TRANSACTION_COUNT, i);
+	}
+}
@@ -0,0 +1,235 @@
+/*
+ *
+ *  JMoney - A Personal Finance Manager
+ *  Copyright (c) 2010 Nigel Westbury <westbury@users.sourceforge.net>
+ *
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ */
+package net.sf.jmoney.test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+import net.sf.jmoney.ofx.parser.OfxReader;
+import net.sf.jmoney.ofx.parser.SimpleElement;
+
+/**
+ * Tests the pull parser for OFX files with statements in both the OFX 1.x
+ * (SGML) and the OFX 2.x (XML) formats.
+ */
+public class OfxReaderTest extends TestCase {
+
+	/**
+	 * An OFX 1.x statement. Elements that contain a value have no close tag,
+	 * except for the last transaction, where the close tags are given.
+	 */
+	private static final String SGML_STATEMENT =
+		"OFXHEADER:100\n"
+		+ "DATA:OFXSGML\n"
+		+ "VERSION:102\n"
+		+ "\n"
+		+ "<OFX>\n"
+		+ "<BANKMSGSRSV1>\n"
+		+ "<STMTTRNRS>\n"
+		+ "<STMTRS>\n"
+		+ "<CURDEF>USD\n"
+		+ "<BANKTRANLIST>\n"
+		+ "<DTSTART>20100101\n"
+		+ "<DTEND>20100131\n"
+		+ "<STMTTRN>\n"
+		+ "<TRNTYPE>DEBIT\n"
+		+ "<DTPOSTED>20100105\n"
+		+ "<TRNAMT>-12.50\n"
+		+ "<FITID>1001\n"
+		+ "<NAME>Smith &amp; Sons\n"
+		+ "</STMTTRN>\n"
+		+ "<STMTTRN>\n"
+		+ "<TRNTYPE>CREDIT</TRNTYPE>\n"
+		+ "<DTPOSTED>20100110</DTPOSTED>\n"
+		+ "<TRNAMT>100.00</TRNAMT>\n"
+		+ "<FITID>1002</FITID>\n"
+		+ "<NAME>Salary</NAME>\n"
+		+ "</STMTTRN>\n"
+		+ "</BANKTRANLIST>\n"
+		+ "<LEDGERBAL>\n"
+		+ "<BALAMT>87.50\n"
+		+ "<DTASOF>20100131\n"
+		+ "</LEDGERBAL>\n"
+		+ "</STMTRS>\n"
+		+ "</STMTTRNRS>\n"
+		+ "</BANKMSGSRSV1>\n"
+		+ "</OFX>\n";
+
+	/**
+	 * An OFX 2.x statement, with an empty-element tag, a CDATA section, and a
+	 * comment.
+	 */
+	private static final String XML_STATEMENT =
+		"<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+		+ "<?OFX OFXHEADER=\"200\" VERSION=\"211\"?>\n"
+		+ "<OFX>\n"
+		+ "  <BANKMSGSRSV1>\n"
+		+ "    <STMTTRNRS>\n"
+		+ "      <STMTRS>\n"
+		+ "        <!-- the transactions -->\n"
+		+ "        <BANKTRANLIST>\n"
+		+ "          <STMTTRN>\n"
+		+ "            <TRNAMT>-4.20</TRNAMT>\n"
+		+ "            <FITID>2001</FITID>\n"
+		+ "            <NAME><![CDATA[Fish & Chips <Harbour>]]></NAME>\n"
+		+ "            <MEMO/>\n"
+		+ "          </STMTTRN>\n"
+		+ "        </BANKTRANLIST>\n"
+		+ "      </STMTRS>\n"
+		+ "    </STMTTRNRS>\n"
+		+ "  </BANKMSGSRSV1>\n"
+		+ "</OFX>\n";
+
+	public void testSgmlStatement() throws IOException {
+		OfxReader reader = new OfxReader(new StringReader(SGML_STATEMENT));
+		List<SimpleElement> transactions = readTransactions(reader);
+
+		assertEquals(2, transactions.size());
+
+		SimpleElement first = transactions.get(0);
+		assertEquals("DEBIT", first.getString("TRNTYPE"));
+		assertEquals("-12.50", first.getString("TRNAMT"));
+		assertEquals("1001", first.getString("FITID"));
+		assertEquals("Smith & Sons", first.getString("NAME"));
+
+		SimpleElement second = transactions.get(1);
+		assertEquals("CREDIT", second.getString("TRNTYPE"));
+		assertEquals("100.00", second.getString("TRNAMT"));
+		assertEquals("Salary", second.getString("NAME"));
+	}
+
+	public void testXmlStatement() throws IOException {
+		OfxReader reader = new OfxReader(new StringReader(XML_STATEMENT));
+		List<SimpleElement> transactions = readTransactions(reader);
+
+		assertEquals(1, transactions.size());
+
+		SimpleElement transaction = transactions.get(0);
+		assertEquals("-4.20", transaction.getString("TRNAMT"));
+		assertEquals("2001", transaction.getString("FITID"));
+		assertEquals("Fish & Chips <Harbour>", transaction.getString("NAME"));
+		assertNotNull(transaction.findElement("MEMO"));
+		assertEquals("", transaction.getString("MEMO"));
+	}
+
+	/**
+	 * Checks the events for the elements that follow the transaction list,
+	 * where a value element is followed directly by the close tag of its
+	 * parent.
+	 */
+	public void testEvents() throws IOException {
+		OfxReader reader = new OfxReader(new StringReader(SGML_STATEMENT));
+		moveTo(reader, "BANKTRANLIST");
+		reader.skipElement();
+
+		assertEquals(OfxReader.START_ELEMENT, reader.next());
+		assertEquals("LEDGERBAL", reader.getTagName());
+		assertNull(reader.getText());
+
+		assertEquals(OfxReader.START_ELEMENT, reader.next());
+		assertEquals("BALAMT", reader.getTagName());
+		assertEquals("87.50", reader.getText());
+		assertEquals(OfxReader.END_ELEMENT, reader.next());
+		assertEquals("BALAMT", reader.getTagName());
+
+		assertEquals(OfxReader.START_ELEMENT, reader.next());
+		assertEquals("DTASOF", reader.getTagName());
+		assertEquals(OfxReader.END_ELEMENT, reader.next());
+		assertEquals("DTASOF", reader.getTagName());
+
+		assertEquals(OfxReader.END_ELEMENT, reader.next());
+		assertEquals("LEDGERBAL", reader.getTagName());
+
+		for (String tagName : new String[] { "STMTRS", "STMTTRNRS", "BANKMSGSRSV1", "OFX" }) {
+			assertEquals(OfxReader.END_ELEMENT, reader.next());
+			assertEquals(tagName, reader.getTagName());
+		}
+		assertEquals(OfxReader.END_DOCUMENT, reader.next());
+	}
+
+	public void testUnclosedElement() throws IOException {
+		OfxReader reader = new OfxReader(new StringReader("<OFX><BANKMSGSRSV1><CURDEF>USD"));
+		moveTo(reader, "CURDEF");
+		assertEquals(OfxReader.END_ELEMENT, reader.next());
+		try {
+			reader.next();
+			fail("End of file inside an element was not detected");
+		} catch (IOException e) {
+			// expected
+		}
+	}
+
+	public void testMismatchedCloseTag() throws IOException {
+		OfxReader reader = new OfxReader(new StringReader("<OFX><STMTRS></BANKTRANLIST></OFX>"));
+		moveTo(reader, "STMTRS");
+		try {
+			reader.next();
+			fail("Close tag without matching open tag was not detected");
+		} catch (IOException e) {
+			// expected
+		}
+	}
+
+	public void testNoElements() {
+		try {
+			new OfxReader(new StringReader("OFXHEADER:100\nDATA:OFXSGML\n"));
+			fail("File with no elements was accepted");
+		} catch (IOException e) {
+			// expected
+		}
+	}
+
+	/**
+	 * Reads all the STMTTRN elements from the given reader, the reader being
+	 * positioned before the root element.
+	 */
+	private static List<SimpleElement> readTransactions(OfxReader reader) throws IOException {
+		moveTo(reader, "BANKTRANLIST");
+
+		List<SimpleElement> transactions = new ArrayList<SimpleElement>();
+		while (reader.next() == OfxReader.START_ELEMENT) {
+			SimpleElement element = reader.readElement();
+			if (element.getTagName().equals("STMTTRN")) {
+				transactions.add(element);
+			}
+		}
+		assertEquals("BANKTRANLIST", reader.getTagName());
+		return transactions;
+	}
+
+	/**
+	 * Moves the reader to the start of the first element with the given
+	 * name.
+	 */
+	private static void moveTo(OfxReader reader, String tagName) throws IOException {
+		int event;
+		while ((event = reader.next()) != OfxReader.END_DOCUMENT) {
+			if (event == OfxReader.START_ELEMENT && reader.getTagName().equals(tagName)) {
+				return;
+			}
+		}
+		fail("Element " + tagName + " not found");
+	}
+}
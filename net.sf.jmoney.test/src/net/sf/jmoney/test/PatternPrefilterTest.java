@@ -0,0 +1,146 @@
+/*
+ *
+ *  JMoney - A Personal Finance Manager
+ *  Copyright (c) 2010 Nigel Westbury <westbury@users.sourceforge.net>
+ *
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ */
+package net.sf.jmoney.test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import junit.framework.TestCase;
+import net.sf.jmoney.importer.matcher.LiteralAutomaton;
+import net.sf.jmoney.importer.matcher.PatternPrefilter;
+
+/**
+ * Tests the extraction of required literals from memo patterns and the
+ * automaton that looks for the literals in imported values.
+ */
+public class PatternPrefilterTest extends TestCase {
+
+	private static String literalOf(String regex) {
+		return PatternPrefilter.getRequiredLiteral(Pattern.compile(regex, Pattern.CASE_INSENSITIVE));
+	}
+
+	public void testRequiredLiteral() {
+		assertEquals("amazon.com", literalOf("AMAZON\\.COM.*"));
+		assertEquals("payment to ", literalOf("^Payment to (.*) ref"));
+		assertEquals(" tesco", literalOf("[0-9]+ TESCO"));
+		assertEquals(" fuel", literalOf("(SHELL|BP) FUEL"));
+		assertEquals("yz", literalOf("x{2,3}yz"));
+
+		// The character before '?' or '*' is optional so is not included
+		assertEquals("colo", literalOf("colou?r"));
+		assertEquals("ab", literalOf("abc*"));
+	}
+
+	public void testNoRequiredLiteral() {
+		assertNull(literalOf("AMAZON|EBAY"));
+		assertNull(literalOf("(?i)amazon"));
+		assertNull(literalOf("\\Qa.b\\E"));
+		assertNull(literalOf("\\d+"));
+		assertNull(literalOf("(abc)"));
+		assertNull(PatternPrefilter.getRequiredLiteral(Pattern.compile("abc", Pattern.LITERAL)));
+	}
+
+	public void testAutomaton() {
+		LiteralAutomaton automaton = new LiteralAutomaton(Arrays.asList("he", "she", "his", "hers"));
+
+		BitSet expected = new BitSet();
+		expected.set(0);
+		expected.set(1);
+		expected.set(3);
+		assertEquals(expected, automaton.findLiterals("ushers"));
+
+		expected.clear();
+		expected.set(2);
+		assertEquals(expected, automaton.findLiterals("this"));
+
+		assertTrue(automaton.findLiterals("").isEmpty());
+		assertTrue(automaton.findLiterals("xyz").isEmpty());
+	}
+
+	public void testAutomatonWithNoLiterals() {
+		LiteralAutomaton automaton = new LiteralAutomaton(new ArrayList<String>());
+		assertTrue(automaton.findLiterals("anything").isEmpty());
+	}
+
+	/**
+	 * Checks, for every combination of a set of patterns and values, that a
+	 * pattern that matches a value is never skipped because its literal was
+	 * not found.
+	 */
+	public void testMatchingPatternsAreNeverSkipped() {
+		String[] regexes = {
+				"AMAZON\\.COM.*",
+				"^Payment to (.*) ref",
+				"[0-9]+ TESCO",
+				"(SHELL|BP) FUEL",
+				"colou?r",
+				"x{2,3}yz",
+				"AMAZON|EBAY",
+		};
+		String[] values = {
+				"AMAZON.COM purchase",
+				"amazon.co.uk",
+				"Payment to J Smith ref 123",
+				"PAYMENT TO X REF",
+				"1234 TESCO STORES",
+				"BP FUEL",
+				"Shell fuel",
+				"Color TV",
+				"colour",
+				"xxyz",
+				"Grocery",
+		};
+
+		List<Pattern> patterns = new ArrayList<Pattern>();
+		List<String> literals = new ArrayList<String>();
+		for (String regex : regexes) {
+			Pattern pattern = Pattern.compile(regex, Pattern.CASE_INSENSITIVE);
+			patterns.add(pattern);
+			String literal = PatternPrefilter.getRequiredLiteral(pattern);
+			if (literal != null && !literals.contains(literal)) {
+				literals.add(literal);
+			}
+		}
+		LiteralAutomaton automaton = new LiteralAutomaton(literals);
+
+		int skippedCount = 0;
+		for (String value : values) {
+			BitSet found = automaton.findLiterals(value.toLowerCase());
+			for (Pattern pattern : patterns) {
+				String literal = PatternPrefilter.getRequiredLiteral(pattern);
+				boolean mayMatch = literal == null || found.get(literals.indexOf(literal));
+				if (pattern.matcher(value).find()) {
+					assertTrue(pattern.pattern() + " skipped for " + value, mayMatch);
+				}
+				if (!mayMatch) {
+					skippedCount++;
+				}
+			}
+		}
+
+		// Most combinations do not match, and should be skipped
+		assertTrue(skippedCount > values.length * 3);
+	}
+}
@@ -0,0 +1,174 @@
+/*
+ *
+ *  JMoney - A Personal Finance Manager
+ *  Copyright (c) 2010 Nigel Westbury <westbury@users.sourceforge.net>
+ *
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ */
+package net.sf.jmoney.test;
+
+import java.util.Calendar;
+import java.util.Date;
+
+import junit.framework.TestCase;
+import net.sf.jmoney.isolation.ReferenceViolationException;
+import net.sf.jmoney.model2.Currency;
+import net.sf.jmoney.model2.CurrencyInfo;
+import net.sf.jmoney.model2.Session;
+import net.sf.jmoney.pricehistory.CommodityPricing;
+import net.sf.jmoney.pricehistory.CommodityPricingInfo;
+import net.sf.jmoney.pricehistory.Price;
+import net.sf.jmoney.pricehistory.PriceInfo;
+import net.sf.jmoney.pricehistory.PriceSeries;
+import net.sf.jmoney.serializeddatastore.SessionManager;
+import net.sf.jmoney.serializeddatastore.SimpleObjectKey;
+
+/**
+ * Tests the lookups in the sorted price series of a commodity, and that the
+ * series follows the prices as they are added, changed, and deleted.
+ */
+public class PriceSeriesTest extends TestCase {
+
+	private CommodityPricing pricing;
+
+	@Override
+	public void setUp() {
+		// A session manager that has no file associated with it
+		SessionManager sessionManager = new SessionManager(null, null, null);
+		SimpleObjectKey sessionKey = new SimpleObjectKey(sessionManager);
+		Session session = new Session(sessionKey, null);
+		sessionKey.setObject(session);
+		sessionManager.setSession(session);
+
+		Currency commodity = session.getCommodityCollection().createNewElement(CurrencyInfo.getPropertySet());
+		commodity.setName("Test Commodity");
+		pricing = commodity.getExtension(CommodityPricingInfo.getPropertySet(), true);
+	}
+
+	private Date day(int dayOfMonth) {
+		Calendar calendar = Calendar.getInstance();
+		calendar.clear();
+		calendar.set(2010, Calendar.MARCH, dayOfMonth);
+		return calendar.getTime();
+	}
+
+	private Price addPrice(int dayOfMonth, long amount) {
+		Price price = pricing.getPriceCollection().createNewElement(PriceInfo.getPropertySet());
+		price.setDate(day(dayOfMonth));
+		price.setPrice(amount);
+		return price;
+	}
+
+	public void testLookups() {
+		addPrice(10, 100);
+		addPrice(5, 50);
+		addPrice(20, 200);
+
+		PriceSeries series = pricing.getPriceSeries();
+		assertEquals(3, series.size());
+		assertEquals(day(5).getTime(), series.getDate(0));
+		assertEquals(day(20).getTime(), series.getDate(2));
+
+		assertNull(series.getLastKnownPrice(day(4)));
+		assertEquals(Long.valueOf(50), series.getLastKnownPrice(day(5)));
+		assertEquals(Long.valueOf(50), series.getLastKnownPrice(day(9)));
+		assertEquals(Long.valueOf(100), series.getLastKnownPrice(day(10)));
+		assertEquals(Long.valueOf(200), series.getLastKnownPrice(day(31)));
+
+		assertEquals(-1, series.ceilingIndex(day(21).getTime()));
+		assertEquals(1, series.ceilingIndex(day(6).getTime()));
+		assertEquals(-1, series.floorIndex(day(4).getTime()));
+		assertEquals(2, series.floorIndex(day(25).getTime()));
+
+		assertNull(series.getPriceObject(day(6)));
+		assertEquals(100, series.getPriceObject(day(10)).getPrice());
+
+		Price[] prices = series.getPriceObjects(day(5), day(10));
+		assertEquals(2, prices.length);
+		assertEquals(50, prices[0].getPrice());
+		assertEquals(100, prices[1].getPrice());
+		assertEquals(0, series.getPriceObjects(day(21), day(31)).length);
+	}
+
+	/**
+	 * Where more than one price has the same date, the lookups return the
+	 * price that was added first.
+	 */
+	public void testDuplicateDates() {
+		addPrice(10, 100);
+		PriceSeries series = pricing.getPriceSeries();
+		addPrice(10, 101);
+		addPrice(12, 120);
+
+		assertEquals(3, series.size());
+		assertEquals(0, series.floorIndex(day(11).getTime()));
+		assertEquals(Long.valueOf(100), series.getLastKnownPrice(day(11)));
+		assertEquals(100, series.getPriceObject(day(10)).getPrice());
+	}
+
+	public void testLastKnownPrices() {
+		addPrice(10, 100);
+		addPrice(10, 101);
+		addPrice(20, 200);
+		PriceSeries series = pricing.getPriceSeries();
+
+		long[] dates = { day(1).getTime(), day(9).getTime(), day(10).getTime(), day(15).getTime(), day(20).getTime(), day(31).getTime() };
+		long[] result = new long[dates.length];
+		assertEquals(2, series.getLastKnownPrices(dates, result));
+		assertEquals(0, result[0]);
+		assertEquals(0, result[1]);
+		assertEquals(100, result[2]);
+		assertEquals(100, result[3]);
+		assertEquals(200, result[4]);
+		assertEquals(200, result[5]);
+	}
+
+	/**
+	 * The series is built before the changes are made, so these are seen only
+	 * through the change listener.
+	 */
+	public void testSeriesFollowsChanges() throws ReferenceViolationException {
+		Price price5 = addPrice(5, 50);
+		Price price10 = addPrice(10, 100);
+		PriceSeries series = pricing.getPriceSeries();
+
+		// A new price
+		addPrice(15, 150);
+		assertEquals(Long.valueOf(150), series.getLastKnownPrice(day(16)));
+
+		// Change of price
+		price10.setPrice(110);
+		assertEquals(Long.valueOf(110), series.getLastKnownPrice(day(10)));
+
+		// Change of date
+		price5.setDate(day(12));
+		assertNull(series.getLastKnownPrice(day(9)));
+		assertEquals(Long.valueOf(50), series.getLastKnownPrice(day(13)));
+		assertEquals(day(12).getTime(), series.getDate(1));
+
+		// A price without a date is not in the series
+		price5.setDate(null);
+		assertEquals(2, series.size());
+		assertEquals(Long.valueOf(110), series.getLastKnownPrice(day(13)));
+
+		// Deletion
+		pricing.getPriceCollection().deleteElement(price10);
+		assertEquals(1, series.size());
+		assertNull(series.getLastKnownPrice(day(14)));
+		assertEquals(Long.valueOf(150), series.getLastKnownPrice(day(15)));
+	}
+}
@@ -0,0 +1,197 @@
+/*
+ *
+ *  JMoney - A Personal Finance Manager
+ *  Copyright (c) 2010 Nigel Westbury <westbury@users.sourceforge.net>
+ *
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ */
+package net.sf.jmoney.test;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.List;
+
+import junit.framework.TestCase;
+import net.sf.jmoney.model2.Commodity;
+import net.sf.jmoney.model2.Currency;
+import net.sf.jmoney.model2.CurrencyInfo;
+import net.sf.jmoney.model2.Session;
+import net.sf.jmoney.pricehistory.CommodityPricing;
+import net.sf.jmoney.pricehistory.CommodityPricingInfo;
+import net.sf.jmoney.pricehistory.Price;
+import net.sf.jmoney.pricehistory.PriceInfo;
+import net.sf.jmoney.pricehistory.PriceSeries;
+import net.sf.jmoney.pricehistory.external.IPriceFetcher;
+import net.sf.jmoney.pricehistory.external.PriceUpdater;
+import net.sf.jmoney.serializeddatastore.SessionManager;
+import net.sf.jmoney.serializeddatastore.SimpleObjectKey;
+
+import org.eclipse.core.runtime.NullProgressMonitor;
+
+/**
+ * Tests the fetching of prices by the price updater, using prices read from
+ * local files so no network connection is needed.
+ */
+public class PriceUpdaterTest extends TestCase {
+
+	private Session session;
+
+	private File directory;
+
+	/**
+	 * The fetchers created by the updater, so the requests made to the source
+	 * can be counted
+	 */
+	private List<FilePriceFetcher> fetchers = new ArrayList<FilePriceFetcher>();
+
+	private PriceUpdater updater = new PriceUpdater(2) {
+		@Override
+		protected IPriceFetcher findFetcher(Commodity commodity) {
+			FilePriceFetcher fetcher = new FilePriceFetcher(directory);
+			if (!fetcher.canProcess(commodity)) {
+				return null;
+			}
+			fetchers.add(fetcher);
+			return fetcher;
+		}
+	};
+
+	@Override
+	public void setUp() throws IOException {
+		// A session manager that has no file associated with it
+		SessionManager sessionManager = new SessionManager(null, null, null);
+		SimpleObjectKey sessionKey = new SimpleObjectKey(sessionManager);
+		session = new Session(sessionKey, null);
+		sessionKey.setObject(session);
+		sessionManager.setSession(session);
+
+		directory = File.createTempFile("prices", null);
+		directory.delete();
+		directory.mkdir();
+	}
+
+	@Override
+	public void tearDown() {
+		for (File file : directory.listFiles()) {
+			file.delete();
+		}
+		directory.delete();
+	}
+
+	/**
+	 * The cache of previous requests is kept between test runs, so each test
+	 * uses commodity names that have not been used before.
+	 */
+	private Currency createCommodity(String name) {
+		Currency commodity = session.getCommodityCollection().createNewElement(CurrencyInfo.getPropertySet());
+		commodity.setName(name + " " + System.currentTimeMillis());
+		return commodity;
+	}
+
+	private void writePrices(Commodity commodity, String... lines) throws IOException {
+		PrintWriter writer = new PrintWriter(new FileWriter(new File(directory, commodity.getName() + ".csv")));
+		try {
+			writer.println("Date,Price");
+			for (String line : lines) {
+				writer.println(line);
+			}
+		} finally {
+			writer.close();
+		}
+	}
+
+	private Date day(int year, int month, int dayOfMonth) {
+		Calendar calendar = Calendar.getInstance();
+		calendar.clear();
+		calendar.set(year, month, dayOfMonth);
+		return calendar.getTime();
+	}
+
+	private int getRequestCount() {
+		int count = 0;
+		for (FilePriceFetcher fetcher : fetchers) {
+			count += fetcher.getRequestCount();
+		}
+		return count;
+	}
+
+	public void testUpdatePrices() throws IOException {
+		Currency commodity = createCommodity("Priced");
+		writePrices(commodity,
+				"2010-03-01,100",
+				"2010-03-02,200",
+				"2010-03-04,400",
+				"2010-03-05,500",
+				"2010-03-08,800");
+
+		Currency commodityWithoutSource = createCommodity("Not Priced");
+
+		// A price that is already stored is not replaced
+		CommodityPricing pricing = commodity.getExtension(CommodityPricingInfo.getPropertySet(), true);
+		Price existingPrice = pricing.getPriceCollection().createNewElement(PriceInfo.getPropertySet());
+		existingPrice.setDate(day(2010, Calendar.MARCH, 2));
+		existingPrice.setPrice(999);
+
+		int count = updater.updatePrices(Arrays.asList(commodity, commodityWithoutSource), day(2010, Calendar.MARCH, 1), day(2010, Calendar.MARCH, 5), new NullProgressMonitor());
+		assertEquals(3, count);
+		assertEquals(1, getRequestCount());
+
+		PriceSeries series = pricing.getPriceSeries();
+		assertEquals(4, series.size());
+		assertEquals(Long.valueOf(100), series.getLastKnownPrice(day(2010, Calendar.MARCH, 1)));
+		assertEquals(Long.valueOf(999), series.getLastKnownPrice(day(2010, Calendar.MARCH, 2)));
+		assertNull(series.getPriceObject(day(2010, Calendar.MARCH, 3)));
+		assertEquals(Long.valueOf(400), series.getLastKnownPrice(day(2010, Calendar.MARCH, 4)));
+		assertEquals(Long.valueOf(500), series.getLastKnownPrice(day(2010, Calendar.MARCH, 5)));
+
+		CommodityPricing otherPricing = commodityWithoutSource.getExtension(CommodityPricingInfo.getPropertySet(), true);
+		assertEquals(0, otherPricing.getPriceSeries().size());
+
+		/*
+		 * The only day without a price is one the source had no price for. It
+		 * was long enough ago that it is taken from the cache and not
+		 * requested again.
+		 */
+		count = updater.updatePrices(Arrays.asList(commodity), day(2010, Calendar.MARCH, 1), day(2010, Calendar.MARCH, 5), new NullProgressMonitor());
+		assertEquals(0, count);
+		assertEquals(1, getRequestCount());
+	}
+
+	/**
+	 * The source may not yet have the price for a recent day, so a recent
+	 * day for which there was no price is requested again.
+	 */
+	public void testRecentMissIsRequestedAgain() throws IOException {
+		Currency commodity = createCommodity("Recent");
+		writePrices(commodity);
+
+		Calendar calendar = Calendar.getInstance();
+		Date today = day(calendar.get(Calendar.YEAR), calendar.get(Calendar.MONTH), calendar.get(Calendar.DAY_OF_MONTH));
+
+		assertEquals(0, updater.updatePrices(Arrays.asList(commodity), today, today, new NullProgressMonitor()));
+		assertEquals(1, getRequestCount());
+
+		assertEquals(0, updater.updatePrices(Arrays.asList(commodity), today, today, new NullProgressMonitor()));
+		assertEquals(2, getRequestCount());
+	}
+}
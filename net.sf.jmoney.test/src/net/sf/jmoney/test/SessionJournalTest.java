@@ -0,0 +1,329 @@
+/*
+ *
+ *  JMoney - A Personal Finance Manager
+ *  Copyright (c) 2010 Nigel Westbury <westbury@users.sourceforge.net>
+ *
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ */
+package net.sf.jmoney.test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+import net.sf.jmoney.model2.Account;
+import net.sf.jmoney.model2.BankAccount;
+import net.sf.jmoney.model2.BankAccountInfo;
+import net.sf.jmoney.model2.Entry;
+import net.sf.jmoney.model2.Session;
+import net.sf.jmoney.model2.Transaction;
+import net.sf.jmoney.model2.TransactionInfo;
+import net.sf.jmoney.serializeddatastore.SessionJournal;
+import net.sf.jmoney.serializeddatastore.SessionManager;
+import net.sf.jmoney.serializeddatastore.formats.JMoneyXmlFormat;
+
+import org.eclipse.core.runtime.FileLocator;
+import org.eclipse.core.runtime.Platform;
+import org.osgi.framework.Bundle;
+
+/**
+ * Tests the journal of changes kept alongside a session file: that saved
+ * changes are applied when the session is next read, that a block that was
+ * not completely or correctly written is ignored, and that a journal is not
+ * applied to a session file whose objects are in a different order.
+ * <P>
+ * The session file is written uncompressed so that the test can change it.
+ */
+public class SessionJournalTest extends TestCase {
+
+	private SessionManager manager;
+
+	private Session session;
+
+	private BankAccount accountA;
+
+	private BankAccount accountB;
+
+	private SessionJournal journal;
+
+	private File directory;
+
+	private File file;
+
+	/**
+	 * The session manager into which the session was last read by
+	 * <code>reopen</code>.
+	 */
+	private SessionManager reopenedManager;
+
+	@Override
+	public void setUp() throws Exception {
+		Bundle bundle = Platform.getBundle("net.sf.jmoney.test");
+		URL url = bundle.getEntry("resources/new_empty_session.jmx");
+		File emptySessionFile = new File(FileLocator.toFileURL(url).getFile());
+
+		JMoneyXmlFormat reader = new JMoneyXmlFormat();
+		manager = new SessionManager(JMoneyXmlFormat.ID_FILE_FORMAT, reader, emptySessionFile);
+		reader.readSessionQuietly(emptySessionFile, manager, null);
+		session = manager.getSession();
+
+		accountA = session.getAccountCollection().createNewElement(BankAccountInfo.getPropertySet());
+		accountA.setName("Account A");
+		accountB = session.getAccountCollection().createNewElement(BankAccountInfo.getPropertySet());
+		accountB.setName("Account B");
+
+		directory = File.createTempFile("jmoney", ".dir");
+		directory.delete();
+		directory.mkdir();
+		file = new File(directory, "session.xml");
+
+		new JMoneyXmlFormat().writeSessionQuietly(manager, file, null);
+		journal = SessionJournal.start(manager, file);
+	}
+
+	@Override
+	public void tearDown() {
+		journal.dispose();
+		for (File eachFile : directory.listFiles()) {
+			eachFile.delete();
+		}
+		directory.delete();
+	}
+
+	private static Transaction addTransaction(Session targetSession, Account account, long amount, String memo) {
+		Transaction transaction = targetSession.getTransactionCollection().createNewElement(TransactionInfo.getPropertySet());
+		Entry entry = transaction.createEntry();
+		entry.setAccount(account);
+		entry.setAmount(amount);
+		entry.setMemo(memo);
+		return transaction;
+	}
+
+	/**
+	 * Reads the session file into a new session and applies the journal.
+	 *
+	 * @return the journal, which is recording the changes to the new session
+	 */
+	private SessionJournal reopen() throws Exception {
+		JMoneyXmlFormat reader = new JMoneyXmlFormat();
+		reopenedManager = new SessionManager(JMoneyXmlFormat.ID_FILE_FORMAT, reader, file);
+		reader.readSessionQuietly(file, reopenedManager, null);
+		return SessionJournal.open(reopenedManager, file);
+	}
+
+	/**
+	 * @return the first entry in each transaction, in the order of the
+	 *         transactions in the session
+	 */
+	private static List<Entry> getEntries(Session session) {
+		List<Entry> entries = new ArrayList<Entry>();
+		for (Transaction transaction : session.getTransactionCollection()) {
+			entries.add(transaction.getEntryCollection().iterator().next());
+		}
+		return entries;
+	}
+
+	public void testAppendAndReplay() throws Exception {
+		Transaction transaction1 = addTransaction(session, accountA, 100, "first");
+		journal.save();
+		long firstLength = journal.getLength();
+		assertTrue(firstLength > 0);
+
+		transaction1.getEntryCollection().iterator().next().setMemo("changed");
+		addTransaction(session, accountB, 5, "second");
+		Transaction transaction3 = addTransaction(session, accountA, 7, "deleted");
+		session.getTransactionCollection().deleteElement(transaction3);
+		journal.save();
+		assertTrue(journal.getLength() > firstLength);
+
+		SessionJournal journal2 = reopen();
+		try {
+			assertEquals(journal.getLength(), journal2.getLength());
+
+			List<Entry> entries = getEntries(reopenedManager.getSession());
+			assertEquals(2, entries.size());
+			assertEquals(100, entries.get(0).getAmount());
+			assertEquals("changed", entries.get(0).getMemo());
+			assertEquals("Account A", entries.get(0).getAccount().getName());
+			assertEquals(5, entries.get(1).getAmount());
+			assertEquals("second", entries.get(1).getMemo());
+			assertEquals("Account B", entries.get(1).getAccount().getName());
+
+			// Changes to the replayed session are appended to the same journal
+			entries.get(1).setAmount(6);
+			journal2.save();
+		} finally {
+			journal2.dispose();
+		}
+
+		SessionJournal journal3 = reopen();
+		try {
+			List<Entry> entries = getEntries(reopenedManager.getSession());
+			assertEquals(2, entries.size());
+			assertEquals("changed", entries.get(0).getMemo());
+			assertEquals(6, entries.get(1).getAmount());
+		} finally {
+			journal3.dispose();
+		}
+	}
+
+	/**
+	 * Checks that a block with a bad checksum, and the blocks after it, are
+	 * ignored, and that the next save replaces it.
+	 */
+	public void testCorruptBlockIgnored() throws Exception {
+		addTransaction(session, accountA, 1, "kept");
+		journal.save();
+		long firstLength = journal.getLength();
+
+		addTransaction(session, accountA, 2, "lost");
+		journal.save();
+
+		// Change the first byte after the length and checksum of the second block
+		RandomAccessFile journalFile = new RandomAccessFile(SessionJournal.getJournalFile(file), "rw");
+		try {
+			journalFile.seek(firstLength + 12);
+			int value = journalFile.read();
+			journalFile.seek(firstLength + 12);
+			journalFile.write(~value);
+		} finally {
+			journalFile.close();
+		}
+
+		SessionJournal journal2 = reopen();
+		try {
+			assertEquals(firstLength, journal2.getLength());
+			List<Entry> entries = getEntries(reopenedManager.getSession());
+			assertEquals(1, entries.size());
+			assertEquals("kept", entries.get(0).getMemo());
+
+			addTransaction(reopenedManager.getSession(), entries.get(0).getAccount(), 3, "added");
+			journal2.save();
+		} finally {
+			journal2.dispose();
+		}
+
+		SessionJournal journal3 = reopen();
+		try {
+			List<Entry> entries = getEntries(reopenedManager.getSession());
+			assertEquals(2, entries.size());
+			assertEquals("kept", entries.get(0).getMemo());
+			assertEquals("added", entries.get(1).getMemo());
+		} finally {
+			journal3.dispose();
+		}
+	}
+
+	/**
+	 * Checks that a block that was not completely written is ignored.
+	 */
+	public void testTruncatedBlockIgnored() throws Exception {
+		addTransaction(session, accountA, 1, "kept");
+		journal.save();
+		long firstLength = journal.getLength();
+
+		addTransaction(session, accountA, 2, "lost");
+		journal.save();
+
+		RandomAccessFile journalFile = new RandomAccessFile(SessionJournal.getJournalFile(file), "rw");
+		try {
+			journalFile.setLength(journal.getLength() - 3);
+		} finally {
+			journalFile.close();
+		}
+
+		SessionJournal journal2 = reopen();
+		try {
+			assertEquals(firstLength, journal2.getLength());
+			List<Entry> entries = getEntries(reopenedManager.getSession());
+			assertEquals(1, entries.size());
+			assertEquals("kept", entries.get(0).getMemo());
+		} finally {
+			journal2.dispose();
+		}
+	}
+
+	/**
+	 * Checks that the journal is not applied to a session file with the same
+	 * length and time of last modification but with two accounts in the other
+	 * order, which would give the objects different numbers.
+	 */
+	public void testReorderedSessionRejected() throws Exception {
+		addTransaction(session, accountB, 1, "memo");
+		journal.save();
+
+		long lastModified = file.lastModified();
+		byte [] bytes = new byte[(int)file.length()];
+		FileInputStream in = new FileInputStream(file);
+		try {
+			int offset = 0;
+			while (offset < bytes.length) {
+				offset += in.read(bytes, offset, bytes.length - offset);
+			}
+		} finally {
+			in.close();
+		}
+
+		String text = new String(bytes, "ISO-8859-1")
+				.replace("Account A", "Account X")
+				.replace("Account B", "Account A")
+				.replace("Account X", "Account B");
+		FileOutputStream out = new FileOutputStream(file);
+		try {
+			out.write(text.getBytes("ISO-8859-1"));
+		} finally {
+			out.close();
+		}
+		file.setLastModified(lastModified);
+
+		try {
+			reopen().dispose();
+			fail("Journal applied to a session with reordered objects");
+		} catch (IOException e) {
+			// expected
+		}
+	}
+
+	/**
+	 * Checks that an object deleted after an object that references it has
+	 * been deleted is also deleted when the journal is applied.
+	 */
+	public void testDeletes() throws Exception {
+		Transaction transaction = addTransaction(session, accountA, 1, "memo");
+		journal.save();
+
+		session.getTransactionCollection().deleteElement(transaction);
+		session.getAccountCollection().deleteElement(accountA);
+		journal.save();
+
+		SessionJournal journal2 = reopen();
+		try {
+			assertEquals(0, getEntries(reopenedManager.getSession()).size());
+			for (Account account : reopenedManager.getSession().getAccountCollection()) {
+				assertFalse("Account A".equals(account.getName()));
+			}
+		} finally {
+			journal2.dispose();
+		}
+	}
+}
@@ -1,11 +1,13 @@
 package net.sf.jmoney.tests.stocks.gains;
 
+import net.sf.jmoney.tests.stocks.model.SecurityPositionIndexTest;
+
 import org.junit.runner.RunWith;
 import org.junit.runners.Suite;
 import org.junit.runners.Suite.SuiteClasses;
 
 @RunWith(Suite.class)
-@SuiteClasses({})
+@SuiteClasses({ SecurityPositionIndexTest.class })
 public class AllTests {
 
 }
@@ -129,6 +129,35 @@ public class SimpleTest {
 		assertContains(100000, 60000, 50000, "2012-1-1", "2012-1-3", matchedPurchaseAndSales);
 	}
 
+	/**
+	 * The gains are cached between exports.  This test checks that a sale
+	 * added after an export is included in the next export.
+	 */
+	@Test
+	public void saleAddedAfterExport() throws IOException, ParseException {
+        setUp();
+
+		StockAccount account = session.getAccountCollection().createNewElement(StockAccountInfo.getPropertySet());
+
+		buyTransaction(account, "2012-1-1", companyA, 100, 1000);
+		sellTransaction(account, "2012-1-3", companyA, 50, 600);
+
+		Collection<StockPurchaseAndSale> matchedPurchaseAndSales = new ArrayList<StockPurchaseAndSale>();
+		CapitalGainsCalculator.exportCapitalGains(account, df.parse("2012-1-1"), df.parse("2012-1-3"), matchedPurchaseAndSales);
+
+		assertEquals(1, matchedPurchaseAndSales.size());
+		assertContains(50000, 60000, 50000, "2012-1-1", "2012-1-3", matchedPurchaseAndSales);
+
+		sellTransaction(account, "2012-1-4", companyA, 50, 700);
+
+		matchedPurchaseAndSales = new ArrayList<StockPurchaseAndSale>();
+		CapitalGainsCalculator.exportCapitalGains(account, df.parse("2012-1-1"), df.parse("2012-1-4"), matchedPurchaseAndSales);
+
+		assertEquals(2, matchedPurchaseAndSales.size());
+		assertContains(50000, 60000, 50000, "2012-1-1", "2012-1-3", matchedPurchaseAndSales);
+		assertContains(50000, 70000, 50000, "2012-1-1", "2012-1-4", matchedPurchaseAndSales);
+	}
+
 	private void assertContains(long basis, long proceeds, long quantity, String buyDateString,
 			String sellDateString,
 			Collection<StockPurchaseAndSale> matchedPurchaseAndSales) {
@@ -0,0 +1,227 @@
+/*
+ *
+ *  JMoney - A Personal Finance Manager
+ *  Copyright (c) 2010 Nigel Westbury <westbury@users.sourceforge.net>
+ *
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ */
+package net.sf.jmoney.tests.stocks.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Calendar;
+import java.util.Date;
+import java.util.Map;
+
+import net.sf.jmoney.isolation.ReferenceViolationException;
+import net.sf.jmoney.model2.Entry;
+import net.sf.jmoney.model2.Session;
+import net.sf.jmoney.model2.Transaction;
+import net.sf.jmoney.pricehistory.CommodityPricing;
+import net.sf.jmoney.pricehistory.CommodityPricingInfo;
+import net.sf.jmoney.pricehistory.Price;
+import net.sf.jmoney.pricehistory.PriceInfo;
+import net.sf.jmoney.serializeddatastore.SessionManager;
+import net.sf.jmoney.serializeddatastore.SimpleObjectKey;
+import net.sf.jmoney.stocks.model.Security;
+import net.sf.jmoney.stocks.model.SecurityPositionIndex;
+import net.sf.jmoney.stocks.model.Stock;
+import net.sf.jmoney.stocks.model.StockAccount;
+import net.sf.jmoney.stocks.model.StockAccountInfo;
+import net.sf.jmoney.stocks.model.StockInfo;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the quantities of securities held in a stock account on each date, as
+ * given by the security position index both when it is built and after
+ * changes to the entries.
+ */
+public class SecurityPositionIndexTest {
+
+	private Session session;
+
+	private StockAccount account;
+
+	private Stock companyA;
+
+	private Stock companyB;
+
+	private SecurityPositionIndex index;
+
+	@Before
+	public void setUp() {
+		// A session manager that has no file associated with it
+		SessionManager sessionManager = new SessionManager(null, null, null);
+		SimpleObjectKey sessionKey = new SimpleObjectKey(sessionManager);
+		session = new Session(sessionKey, null);
+		sessionKey.setObject(session);
+		sessionManager.setSession(session);
+
+		account = session.getAccountCollection().createNewElement(StockAccountInfo.getPropertySet());
+
+		companyA = session.getCommodityCollection().createNewElement(StockInfo.getPropertySet());
+		companyA.setName("Company A");
+		companyB = session.getCommodityCollection().createNewElement(StockInfo.getPropertySet());
+		companyB.setName("Company B");
+	}
+
+	@After
+	public void tearDown() {
+		if (index != null) {
+			index.dispose();
+		}
+	}
+
+	private Date day(int dayOfMonth) {
+		Calendar calendar = Calendar.getInstance();
+		calendar.clear();
+		calendar.set(2012, Calendar.JANUARY, dayOfMonth);
+		return calendar.getTime();
+	}
+
+	private long shares(int quantity) {
+		return quantity * (long)Stock.SCALE_FACTOR;
+	}
+
+	/**
+	 * Adds a transaction with a single entry for a purchase (positive
+	 * quantity) or sale (negative quantity) of a security. The cash side of
+	 * the trade does not affect the positions, so is omitted.
+	 */
+	private Transaction trade(int dayOfMonth, Security security, int quantity) {
+		Transaction transaction = session.createTransaction();
+		transaction.setDate(day(dayOfMonth));
+		Entry entry = transaction.createEntry();
+		entry.setAccount(account);
+		entry.setCommodity(security);
+		entry.setAmount(shares(quantity));
+		return transaction;
+	}
+
+	@Test
+	public void testBuiltFromEntries() {
+		trade(1, companyA, 50);
+		trade(2, companyA, 100);
+		trade(2, companyA, 10);
+		trade(3, companyA, -100);
+		trade(5, companyB, 20);
+
+		index = new SecurityPositionIndex(account);
+
+		assertEquals(0, index.getQuantity(companyA, day(0)));
+		assertEquals(shares(50), index.getQuantity(companyA, day(1)));
+		assertEquals(shares(160), index.getQuantity(companyA, day(2)));
+		assertEquals(shares(60), index.getQuantity(companyA, day(3)));
+		assertEquals(shares(60), index.getQuantity(companyA, day(31)));
+		assertEquals(0, index.getQuantity(companyB, day(4)));
+		assertEquals(shares(20), index.getQuantity(companyB, day(5)));
+
+		assertEquals(2, index.getSecurities().size());
+		assertTrue(index.getSecurities(day(0)).isEmpty());
+		assertEquals(1, index.getSecurities(day(4)).size());
+		assertTrue(index.getSecurities(day(4)).contains(companyA));
+		assertEquals(2, index.getSecurities(day(5)).size());
+
+		Map<Security, Long> quantities = index.getQuantities(day(4));
+		assertEquals(1, quantities.size());
+		assertEquals(Long.valueOf(shares(60)), quantities.get(companyA));
+	}
+
+	/**
+	 * A security that was held before the date but sold is included, with a
+	 * zero quantity.
+	 */
+	@Test
+	public void testSoldSecurityIsIncluded() {
+		trade(1, companyA, 50);
+		trade(2, companyA, -50);
+
+		index = new SecurityPositionIndex(account);
+
+		assertTrue(index.getSecurities(day(3)).contains(companyA));
+		assertEquals(Long.valueOf(0), index.getQuantities(day(3)).get(companyA));
+	}
+
+	@Test
+	public void testFollowsChanges() throws ReferenceViolationException {
+		trade(1, companyA, 50);
+		Transaction saleOfA = trade(3, companyA, -20);
+
+		index = new SecurityPositionIndex(account);
+		assertEquals(shares(30), index.getQuantity(companyA, day(3)));
+
+		// A new entry before existing entries
+		trade(2, companyA, 5);
+		assertEquals(shares(55), index.getQuantity(companyA, day(2)));
+		assertEquals(shares(35), index.getQuantity(companyA, day(3)));
+
+		// A new security
+		Transaction purchaseOfB = trade(4, companyB, 100);
+		assertFalse(index.getSecurities(day(3)).contains(companyB));
+		assertTrue(index.getSecurities(day(4)).contains(companyB));
+
+		// Change of date
+		purchaseOfB.setDate(day(3));
+		assertTrue(index.getSecurities(day(3)).contains(companyB));
+		assertEquals(shares(100), index.getQuantity(companyB, day(3)));
+
+		// Change of amount
+		Entry saleEntry = saleOfA.getEntryCollection().iterator().next();
+		saleEntry.setAmount(shares(-50));
+		assertEquals(shares(5), index.getQuantity(companyA, day(3)));
+
+		// Change of security
+		saleEntry.setCommodity(companyB);
+		assertEquals(shares(55), index.getQuantity(companyA, day(3)));
+		assertEquals(shares(50), index.getQuantity(companyB, day(3)));
+
+		// Deletion of the only entries in a security
+		session.deleteTransaction(saleOfA);
+		session.deleteTransaction(purchaseOfB);
+		assertEquals(1, index.getSecurities().size());
+		assertFalse(index.getSecurities(day(31)).contains(companyB));
+		assertEquals(0, index.getQuantity(companyB, day(31)));
+	}
+
+	@Test
+	public void testMarketValue() {
+		trade(1, companyA, 50);
+		trade(3, companyA, 50);
+
+		CommodityPricing pricing = companyA.getExtension(CommodityPricingInfo.getPropertySet(), true);
+		Price price = pricing.getPriceCollection().createNewElement(PriceInfo.getPropertySet());
+		price.setDate(day(2));
+		price.setPrice(1234);
+
+		index = new SecurityPositionIndex(account);
+
+		// No price on or before the date
+		assertNull(index.getMarketValue(companyA, day(1)));
+
+		assertEquals(Long.valueOf(50 * 1234), index.getMarketValue(companyA, day(2)));
+		assertEquals(Long.valueOf(100 * 1234), index.getMarketValue(companyA, day(3)));
+
+		// Nothing held
+		assertEquals(Long.valueOf(0), index.getMarketValue(companyB, day(3)));
+	}
+}
@@ -22,15 +22,16 @@
 
 package net.sf.jmoney.entrytable;
 
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.Vector;
 
 import org.eclipse.core.databinding.observable.list.IObservableList;
@@ -151,6 +152,18 @@ public abstract class EntriesTable<R extends BaseEntryRowControl<?,R>> extends C
 	 */
 	IObservableList<EntryData> sortedEntries;
 
+	/**
+	 * The running balances of the rows in <code>sortedEntries</code>. This
+	 * must be kept in step with <code>sortedEntries</code>.
+	 */
+	private final RunningBalances runningBalances = new RunningBalances();
+
+	/**
+	 * The loader that is loading the entries into the table, or null if all
+	 * the entries have been loaded.
+	 */
+	private EntryLoader loader = null;
+
 	/**
 	 * Set of listeners for selection changes
 	 */
@@ -179,8 +192,11 @@ public abstract class EntriesTable<R extends BaseEntryRowControl<?,R>> extends C
 
 		this.entriesContent = entriesContent;
 
-		// Fetch and sort the list of top level entries to display.
-		buildEntryList();
+		/*
+		 * The entries are loaded after the table has been created, a batch at
+		 * a time, so start with an empty list.
+		 */
+		entries = new HashMap<Entry, EntryData>();
 
 		newEntryRow = createNewEntryRowInput();
 
@@ -200,7 +216,6 @@ public abstract class EntriesTable<R extends BaseEntryRowControl<?,R>> extends C
 						Date date2 = o2.getEntry().getValuta() == null
 								? o2.getEntry().getTransaction().getDate()
 										: o2.getEntry().getValuta();
-								DateFormat df = new SimpleDateFormat("dd-MM-yyyy hh:mm:ss");
 								int result = date1.compareTo(date2);
 //								if (result == 0) {
 //									result =	o1.toString().compareTo(o2.toString());
@@ -229,6 +244,12 @@ public abstract class EntriesTable<R extends BaseEntryRowControl<?,R>> extends C
 		gridData.widthHint = 100;
 		table.setLayoutData(gridData);
 
+		/*
+		 * Show the end of the table, which is where the most recent entries
+		 * are, as these are loaded first.
+		 */
+		table.scrollToEnd();
+
 		session.getDataManager().addChangeListener(new SessionChangeAdapter() {
 			@Override
 			public void objectInserted(IModelObject newObject) {
@@ -265,6 +286,9 @@ public abstract class EntriesTable<R extends BaseEntryRowControl<?,R>> extends C
 			public void objectRemoved(IModelObject deletedObject) {
 				if (deletedObject instanceof Entry) {
 					Entry deletedEntry = (Entry) deletedObject;
+					if (loader != null) {
+						loader.entryRemoved(deletedEntry);
+					}
 					// if the entry is in this table, remove it.
 					if (entries.containsKey(deletedEntry)) {
 						removeEntryFromTable(deletedEntry);
@@ -287,6 +311,9 @@ public abstract class EntriesTable<R extends BaseEntryRowControl<?,R>> extends C
 					// with focus is in the transaction being deleted?
 
 					for (Entry deletedEntry: deletedTransaction.getEntryCollection()) {
+						if (loader != null) {
+							loader.entryRemoved(deletedEntry);
+						}
 						if (entries.containsKey(deletedEntry)) {
 							removeEntryFromTable(deletedEntry);
 						}
@@ -402,15 +429,6 @@ public abstract class EntriesTable<R extends BaseEntryRowControl<?,R>> extends C
 				int index = originalIndex;
 				Assert.isTrue(index == sortedEntries.indexOf(data));
 
-				/*
-				 * The start index from which we need to update balances.
-				 * This is currently set the this index, but this variable
-				 * must be updated if the current index is moved in the sort
-				 * order.
-				 */
-				int balanceRefreshStartPoint = index;
-				long balanceRefreshStartAmount = data.getBalance();
-
 				// Bubble up the screen (down the sort order)
 				while (index > 0) {
 					EntryData data2 = sortedEntries.get(index-1);
@@ -419,9 +437,6 @@ public abstract class EntriesTable<R extends BaseEntryRowControl<?,R>> extends C
 					}
 					sortedEntries.set(index, data2);
 					index--;
-
-					balanceRefreshStartPoint = index;
-					balanceRefreshStartAmount = data2.getBalance();
 				}
 
 				// Bubble down the screen (up the sort order)
@@ -439,13 +454,16 @@ public abstract class EntriesTable<R extends BaseEntryRowControl<?,R>> extends C
 				sortedEntries.set(index, data);
 
 				/*
-				 * It is possible that the amount of this entry changed.
-				 * Therefore we must refresh the balances of all later
-				 * entries in the sorted list.
+				 * It is possible that the amount of this entry changed, so
+				 * the amount is always set.  This changes the balances of all
+				 * later entries in the sorted list, but those are calculated
+				 * only when needed.
 				 */
-				updateFollowingValues(balanceRefreshStartPoint, balanceRefreshStartAmount);
-
-				if (index != originalIndex) {
+				if (index == originalIndex) {
+					runningBalances.setAmount(index, RunningBalances.amountOf(data));
+				} else {
+					runningBalances.move(originalIndex, index, RunningBalances.amountOf(data));
+					updateIndexes(Math.min(originalIndex, index), Math.max(originalIndex, index));
 					table.moveRow(originalIndex, index);
 				}
 			}
@@ -455,9 +473,10 @@ public abstract class EntriesTable<R extends BaseEntryRowControl<?,R>> extends C
 
 				int indexToRemove = sortedEntries.indexOf(data);
 				sortedEntries.remove(indexToRemove);
+				runningBalances.remove(indexToRemove);
 
-				// Update all the later entries
-				updateFollowingValues(indexToRemove, data.getBalance());
+				// Update the indexes of all the later entries
+				updateIndexes(indexToRemove, sortedEntries.size() - 1);
 
 				// Now done through observable
 //				table.deleteRow(indexToRemove);
@@ -491,48 +510,39 @@ public abstract class EntriesTable<R extends BaseEntryRowControl<?,R>> extends C
 				}
 
 				int insertIndex = i;
-				long balance = sortedEntries.get(i).getBalance();
 
 				// Insert the entry at the appropriate place in the sorted list.
 				sortedEntries.add(insertIndex, newData);
+				runningBalances.insert(insertIndex, RunningBalances.amountOf(newData));
 
-				updateFollowingValues(insertIndex, balance);
+				updateIndexes(insertIndex, sortedEntries.size() - 1);
 
 				// Now done though observable list
 //				table.insertRow(insertIndex);
 			}
 		}, this);
+
+		startLoading();
 	}
 
 	protected abstract EntryData createNewEntryRowInput();
 
 	/**
-	 * Adjust the indexes and balances of all entries in the table starting at
-	 * the given start index in the sorted list.
-	 *
-	 * The EntryData objects hold the committed data, so changing an amount in
-	 * an entry will not update the balances until the entry is committed. If an
-	 * EntryData object represents a new entry that has never been committed
-	 * then the Entry value will be null. In that case the balance is not
-	 * changed by the entry.
+	 * Set the indexes of the entries in the given range of the sorted list.
+	 * This must be called after the running balances have been updated.
+	 * <P>
+	 * Balances are not set here. They are calculated from the running balances
+	 * when needed, using the index.
 	 *
 	 * @param startIndex
 	 *            the index of the first entry that needs updating
-	 * @param startBalance
-	 *            the balance for the entry at the given start index, which is
-	 *            the running balance BEFORE the entry has been added in
+	 * @param endIndex
+	 *            the index of the last entry that needs updating
 	 */
-	private void updateFollowingValues(int startIndex, long startBalance) {
-		long balance = startBalance;
-		for (int index = startIndex; index < sortedEntries.size(); index++) {
+	private void updateIndexes(int startIndex, int endIndex) {
+		for (int index = startIndex; index <= endIndex; index++) {
 			EntryData data = sortedEntries.get(index);
-
-			data.setIndex(index);
-			data.setBalance(balance);
-
-			if (data.getEntry() != null) {
-				balance += data.getEntry().getAmount();
-			}
+			data.setIndex(index, runningBalances);
 		}
 	}
 
@@ -596,27 +606,189 @@ public abstract class EntriesTable<R extends BaseEntryRowControl<?,R>> extends C
         /*
          * Having sorted the entries, the indexes and balances must be updated.
          */
-		updateFollowingValues(0, entriesContent.getStartBalance());
+		runningBalances.setStartBalance(entriesContent.getStartBalance());
+		runningBalances.rebuild(sortedEntries);
+		updateIndexes(0, sortedEntries.size() - 1);
+	}
+
+	/**
+	 * Starts loading the entries to be shown in the table. Any entries already
+	 * in the table are first removed.
+	 * <P>
+	 * The first batch of entries is loaded before this method returns, so the
+	 * table shows something immediately. The remaining entries are loaded in
+	 * further batches, each run from the UI event loop, so the table remains
+	 * responsive while a large account is being loaded.
+	 */
+	private void startLoading() {
+		if (loader != null) {
+			loader.cancel();
+		}
+
+		entries.clear();
+		sort();
+
+		loader = new EntryLoader(entriesContent.getEntriesMostRecentFirst());
+		loader.run();
+	}
+
+	/**
+	 * Loads the entries into the table a batch at a time.
+	 * <P>
+	 * Each batch loads entries until a time limit is reached, then the batch
+	 * is sorted and merged into the sorted entries. The running balances are
+	 * updated once for each batch, not for each entry. The next batch is
+	 * scheduled using <code>asyncExec</code> so that user input and painting
+	 * are processed between batches.
+	 * <P>
+	 * The entries are loaded on the UI thread because the model objects may
+	 * only be used on the UI thread. It is the batching that keeps the table
+	 * responsive.
+	 * <P>
+	 * Entries may be added to and removed from the table by the session change
+	 * listener while loading is in progress. The loader skips any entry that is
+	 * already in the table or that has since been removed from the datastore.
+	 */
+	private class EntryLoader implements Runnable {
+
+		/**
+		 * The maximum time in milliseconds spent in a single batch. The first
+		 * batch may take a little longer because the table will be empty until
+		 * it has finished.
+		 */
+		private static final int BATCH_TIME = 50;
+
+		private static final int FIRST_BATCH_TIME = 100;
+
+		private final Iterator<Entry> iterator;
+
+		private final Set<Entry> removedEntries = new HashSet<Entry>();
+
+		private boolean isFirstBatch = true;
+
+		private boolean cancelled = false;
+
+		EntryLoader(Iterable<Entry> entriesToLoad) {
+			this.iterator = entriesToLoad.iterator();
+		}
+
+		void cancel() {
+			cancelled = true;
+		}
+
+		void entryRemoved(Entry entry) {
+			removedEntries.add(entry);
+		}
+
+		@Override
+		public void run() {
+			if (cancelled || isDisposed()) {
+				return;
+			}
+
+			long endTime = System.currentTimeMillis() + (isFirstBatch ? FIRST_BATCH_TIME : BATCH_TIME);
+			isFirstBatch = false;
+
+			List<EntryData> batch = new ArrayList<EntryData>();
+			while (iterator.hasNext()) {
+				Entry entry = iterator.next();
+				if (!entries.containsKey(entry) && !removedEntries.contains(entry)) {
+					EntryData data = createEntryRowInput(entry);
+					if (matchesFilter(data)) {
+						entries.put(entry, data);
+						batch.add(data);
+					}
+				}
+
+				if (System.currentTimeMillis() >= endTime) {
+					break;
+				}
+			}
+
+			mergeIntoSortedEntries(batch);
+
+			if (iterator.hasNext()) {
+				getDisplay().asyncExec(this);
+			} else {
+				loader = null;
+			}
+		}
 	}
 
 	/**
-     * Build the list of entries to be shown in the entries list. This method
-     * sets the list into <code>entries</code>. This list contains only the
-     * top level entries.
-     * <P>
-     * The entries are unsorted.
-     */
-    private void buildEntryList() {
-        // Note that the balances are not set at this time. This is done
-        // when the data is sorted.
-        entries = new HashMap<Entry, EntryData>();
-        for (Entry accountEntry: entriesContent.getEntries()) {
-        	EntryData data = createEntryRowInput(accountEntry);
-            if (matchesFilter(data)) {
-                entries.put(accountEntry, data);
-            }
-        }
-    }
+	 * Adds a batch of newly loaded entries to the sorted entries.
+	 * <P>
+	 * The entries are usually loaded most recent first, so each batch normally
+	 * sorts entirely before the entries already loaded. In that case the batch
+	 * is inserted at the start in a single change, and only the rows of the
+	 * batch have their indexes set. Otherwise each entry is inserted at its
+	 * place in the sort order. Either way the running balances are rebuilt
+	 * only once for the batch.
+	 */
+	private void mergeIntoSortedEntries(List<EntryData> batch) {
+		if (batch.isEmpty()) {
+			return;
+		}
+
+		Collections.sort(batch, rowComparator);
+
+		// The last row is always the 'new entry' row, which is not sorted.
+		int loadedCount = sortedEntries.size() - 1;
+
+		if (loadedCount == 0
+				|| rowComparator.compare(batch.get(batch.size() - 1), sortedEntries.get(0)) <= 0) {
+			long[] amounts = new long[batch.size()];
+			for (int i = 0; i < amounts.length; i++) {
+				amounts[i] = RunningBalances.amountOf(batch.get(i));
+			}
+			sortedEntries.addAll(0, batch);
+			runningBalances.insertAllAtStart(amounts);
+
+			// The rows already loaded keep their indexes relative to the first slot
+			updateIndexes(0, batch.size() - 1);
+		} else {
+			/*
+			 * The batch is in sort order, and each row is put after any rows
+			 * that compare equal, so each row goes after the rows of the
+			 * batch already inserted. The index at which each row is inserted
+			 * is therefore also its final index, and the running balances
+			 * can be updated for the whole batch at the end.
+			 */
+			int[] indexes = new int[batch.size()];
+			long[] amounts = new long[batch.size()];
+			for (int i = 0; i < indexes.length; i++) {
+				EntryData data = batch.get(i);
+				int insertIndex = findInsertIndex(data, sortedEntries.size() - 1);
+				sortedEntries.add(insertIndex, data);
+				indexes[i] = insertIndex;
+				amounts[i] = RunningBalances.amountOf(data);
+			}
+			runningBalances.insertAll(indexes, amounts);
+			updateIndexes(indexes[0], sortedEntries.size() - 1);
+		}
+	}
+
+	/**
+	 * Finds the index at which the given entry should be inserted into the
+	 * sorted entries, using a binary search. The entry is put after any
+	 * entries that compare equal.
+	 *
+	 * @param count the number of entries to search, which excludes the 'new
+	 *            entry' row at the end
+	 */
+	private int findInsertIndex(EntryData data, int count) {
+		int low = 0;
+		int high = count;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (rowComparator.compare(sortedEntries.get(middle), data) <= 0) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
 
 	/**
 	 * Filters work at the transaction level, not the entry level.
@@ -652,13 +824,11 @@ public abstract class EntriesTable<R extends BaseEntryRowControl<?,R>> extends C
 	 * Refresh the list of entries.
 	 */
 	public void refreshEntryList() {
-		buildEntryList();
-
 		/*
-		 * Re-sort using the rowComparator field as a comparator.
+		 * Reload the entries. The entries are sorted using the rowComparator
+		 * field as a comparator as they are loaded.
 		 */
-	    sort();
-
+		startLoading();
 	}
 
     @Override
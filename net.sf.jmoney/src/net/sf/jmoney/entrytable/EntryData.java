@@ -65,13 +65,18 @@ public class EntryData {
 	private final IDataManagerForAccounts dataManager;
 
 	/**
-	 * The balance before this entry is added in, so the balance shown to the
-	 * user for this line is calculated by adding this balance property to the
-	 * amount of this entry.
+	 * The running balances of the table containing this row, or null if this
+	 * row has not been put in a table. Balances are not stored in each row
+	 * but are calculated when needed from this object.
 	 */
-	private IObservableValue<Long> balance = new WritableValue<Long>();
+	private RunningBalances runningBalances = null;
 
-	private int index;
+	/**
+	 * The slot of this row in the running balances. The index of this row is
+	 * its slot less the slot of the first row, so rows can be inserted at the
+	 * start of the table without the slots of the other rows being changed.
+	 */
+	private int slot;
 
 	// bound to entry.getAmount()
 	protected IObservableValue<Long> netAmount = new WritableValue<Long>();
@@ -137,12 +142,8 @@ public class EntryData {
 		return netAmount.getValue() == null ? 0 : netAmount.getValue();
 	}
 
-	public void setIndex(int index) {
-		this.index = index;
-	}
-
 	public int getIndex() {
-		return index;
+		return runningBalances == null ? slot : slot - runningBalances.getFirstSlot();
 	}
 
 	/**
@@ -153,19 +154,18 @@ public class EntryData {
 	 * @trackedGetter
 	 */
 	public long getBalance() {
-		// Currently balances may be got before they are set,
-		// so protect against a null value.
-		return balance.getValue() == null ? 0 : balance.getValue();
+		// Balances may be got before this row is put in a table.
+		return runningBalances == null ? 0 : runningBalances.getBalanceBefore(getIndex());
 	}
 
 	/**
-	 * @param balance the balance before this entry is added in, so
-	 * 		the balance show to the user for this line is calculated
-	 * 		by adding this balance property to the amount of this
-	 * 		entry
+	 * Sets the index of this row and the running balances of the table
+	 * containing this row. The balance for this row is calculated from these
+	 * running balances using the index of this row.
 	 */
-	public void setBalance(long balance) {
-		this.balance.setValue(balance);
+	void setIndex(int index, RunningBalances runningBalances) {
+		this.runningBalances = runningBalances;
+		this.slot = runningBalances.getFirstSlot() + index;
 	}
 
 	/**
@@ -22,6 +22,7 @@
 
 package net.sf.jmoney.entrytable;
 
+import java.util.ArrayList;
 import java.util.Collection;
 
 import net.sf.jmoney.model2.Entry;
@@ -47,6 +48,24 @@ public interface IEntriesContent {
 	 */
 	Collection<Entry> getEntries();
 
+	/**
+	 * Get the entries to be shown in the table, for loading into the table.
+	 * <P>
+	 * The table loads the entries in batches, so the returned collection is
+	 * iterated over a period of time during which the user may be making
+	 * changes. The iterator must therefore not fail if the datastore is
+	 * changed between batches. Changes made during loading are reported to
+	 * the table through the usual change listeners.
+	 * <P>
+	 * Entries should be returned with the most recent first where this can be
+	 * done efficiently, so the entries the user is most likely to want are
+	 * shown first. The default implementation returns a copy of the entries
+	 * returned by <code>getEntries</code>, in no particular order.
+	 */
+	default Iterable<Entry> getEntriesMostRecentFirst() {
+		return new ArrayList<Entry>(getEntries());
+	}
+
 	/**
 	 * Determine if a given entry is included in the list.
 	 * <P>
@@ -0,0 +1,266 @@
+/*
+ *
+ *  JMoney - A Personal Finance Manager
+ *  Copyright (c) 2007 Nigel Westbury <westbury@users.sf.net>
+ *
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ */
+
+package net.sf.jmoney.entrytable;
+
+import java.util.List;
+
+import org.eclipse.core.databinding.observable.value.IObservableValue;
+import org.eclipse.core.databinding.observable.value.WritableValue;
+
+/**
+ * The running balances of the rows in an entries table.
+ * <P>
+ * The amounts of the rows, in sorted order, are kept in a Fenwick tree (binary
+ * indexed tree). The balance before any row is then a prefix sum that can be
+ * calculated in O(log n) time, and a change to the amount of a single row also
+ * takes O(log n) time. Balances therefore do not need to be stored in each
+ * row. They are calculated only when asked for, which in practice means only
+ * for the visible rows.
+ * <P>
+ * Inserting, removing, or moving a row shifts the positions of the following
+ * rows so the tree is rebuilt. That is O(n) but involves only arithmetic on an
+ * array. Nothing is set into the rows themselves.
+ * <P>
+ * <code>getBalanceBefore</code> is a tracked getter. Any change to the
+ * amounts causes computed values that depend on a balance, such as the
+ * balance column in the visible rows, to be recalculated.
+ */
+class RunningBalances {
+
+	private long startBalance = 0;
+
+	/**
+	 * The amount of each row, indexed by position in the sorted rows. Only
+	 * the first <code>size</code> elements are used.
+	 */
+	private long[] amounts = new long[0];
+
+	/**
+	 * The Fenwick tree, using 1-based indexes, so element 0 is not used.
+	 */
+	private long[] tree = new long[1];
+
+	private int size = 0;
+
+	/**
+	 * The slot of the first row. Rows are given slots in the order of the
+	 * rows, and the index of a row is its slot less this. Rows inserted at
+	 * the start are given the slots before this so that the rows already
+	 * there keep their slots.
+	 */
+	private int firstSlot = 0;
+
+	private int changeCount = 0;
+
+	/**
+	 * Changed whenever any balance may have changed. This is read by
+	 * <code>getBalanceBefore</code> so that the balances are tracked.
+	 */
+	private final IObservableValue<Integer> version = new WritableValue<Integer>();
+
+	/**
+	 * @return the amount by which the given row changes the balance, being
+	 *         zero for the 'new entry' row
+	 */
+	static long amountOf(EntryData data) {
+		return data.getEntry() == null ? 0 : data.getEntry().getAmount();
+	}
+
+	/**
+	 * Sets the balance before the first row.
+	 */
+	void setStartBalance(long startBalance) {
+		this.startBalance = startBalance;
+		fireChange();
+	}
+
+	/**
+	 * Rebuilds the balances from the given rows.
+	 *
+	 * @param rows the rows in sorted order
+	 */
+	void rebuild(List<EntryData> rows) {
+		size = rows.size();
+		firstSlot = 0;
+		amounts = new long[size];
+		for (int index = 0; index < size; index++) {
+			amounts[index] = amountOf(rows.get(index));
+		}
+		buildTree();
+		fireChange();
+	}
+
+	/**
+	 * Sets the amount of the row at the given position.
+	 */
+	void setAmount(int index, long amount) {
+		long delta = amount - amounts[index];
+		if (delta != 0) {
+			amounts[index] = amount;
+			for (int i = index + 1; i <= size; i += i & -i) {
+				tree[i] += delta;
+			}
+			fireChange();
+		}
+	}
+
+	/**
+	 * Inserts a row at the given position, shifting the following rows.
+	 */
+	void insert(int index, long amount) {
+		if (size == amounts.length) {
+			long[] newAmounts = new long[Math.max(16, size * 2)];
+			System.arraycopy(amounts, 0, newAmounts, 0, size);
+			amounts = newAmounts;
+		}
+		System.arraycopy(amounts, index, amounts, index + 1, size - index);
+		amounts[index] = amount;
+		size++;
+		buildTree();
+		fireChange();
+	}
+
+	/**
+	 * Inserts a number of rows at the start. The tree is rebuilt only once,
+	 * so this is much faster than inserting the rows one at a time.
+	 * <P>
+	 * The new rows are given the slots before the first row, so the indexes
+	 * of only the new rows need to be set.
+	 */
+	void insertAllAtStart(long[] newAmounts) {
+		long[] shiftedAmounts = amounts;
+		if (size + newAmounts.length > amounts.length) {
+			shiftedAmounts = new long[Math.max(16, Math.max(size * 2, size + newAmounts.length))];
+		}
+		System.arraycopy(amounts, 0, shiftedAmounts, newAmounts.length, size);
+		System.arraycopy(newAmounts, 0, shiftedAmounts, 0, newAmounts.length);
+		amounts = shiftedAmounts;
+		size += newAmounts.length;
+		firstSlot -= newAmounts.length;
+		buildTree();
+		fireChange();
+	}
+
+	/**
+	 * Inserts a number of rows at different positions. The tree is rebuilt
+	 * only once, so this takes O(n) time however many rows are inserted.
+	 *
+	 * @param indexes the positions of the new rows after all the rows have
+	 *            been inserted, in ascending order
+	 * @param newAmounts the amounts of the new rows, each element
+	 *            corresponding to the same element in the indexes array
+	 */
+	void insertAll(int[] indexes, long[] newAmounts) {
+		int newSize = size + newAmounts.length;
+		long[] mergedAmounts = amounts.length >= newSize ? amounts : new long[Math.max(16, Math.max(size * 2, newSize))];
+
+		/*
+		 * Work back from the end so that, when the array is not being
+		 * replaced, no amount is overwritten before it has been moved.
+		 */
+		int oldIndex = size - 1;
+		int newRow = newAmounts.length - 1;
+		for (int index = newSize - 1; index >= 0; index--) {
+			if (newRow >= 0 && indexes[newRow] == index) {
+				mergedAmounts[index] = newAmounts[newRow--];
+			} else {
+				mergedAmounts[index] = amounts[oldIndex--];
+			}
+		}
+
+		amounts = mergedAmounts;
+		size = newSize;
+		buildTree();
+		fireChange();
+	}
+
+	/**
+	 * Removes the row at the given position, shifting the following rows.
+	 */
+	void remove(int index) {
+		System.arraycopy(amounts, index + 1, amounts, index, size - index - 1);
+		size--;
+		buildTree();
+		fireChange();
+	}
+
+	/**
+	 * Moves a row to a new position, setting its amount at the same time.
+	 * The rows between the two positions shift by one.
+	 */
+	void move(int fromIndex, int toIndex, long amount) {
+		if (fromIndex < toIndex) {
+			System.arraycopy(amounts, fromIndex + 1, amounts, fromIndex, toIndex - fromIndex);
+		} else {
+			System.arraycopy(amounts, toIndex, amounts, toIndex + 1, fromIndex - toIndex);
+		}
+		amounts[toIndex] = amount;
+		buildTree();
+		fireChange();
+	}
+
+	/**
+	 * @return the slot of the first row, to be subtracted from the slot of a
+	 *         row to give its index
+	 */
+	int getFirstSlot() {
+		return firstSlot;
+	}
+
+	/**
+	 * @return the balance before the row at the given position is added in
+	 * @trackedGetter
+	 */
+	long getBalanceBefore(int index) {
+		version.getValue();
+
+		long balance = startBalance;
+		for (int i = Math.min(index, size); i > 0; i -= i & -i) {
+			balance += tree[i];
+		}
+		return balance;
+	}
+
+	/**
+	 * Builds the tree from the amounts in O(n) time by adding each node into
+	 * its parent.
+	 */
+	private void buildTree() {
+		if (tree.length < amounts.length + 1) {
+			tree = new long[amounts.length + 1];
+		}
+		for (int i = 1; i <= size; i++) {
+			tree[i] = amounts[i - 1];
+		}
+		for (int i = 1; i <= size; i++) {
+			int parent = i + (i & -i);
+			if (parent <= size) {
+				tree[parent] += tree[i];
+			}
+		}
+	}
+
+	private void fireChange() {
+		version.setValue(++changeCount);
+	}
+}
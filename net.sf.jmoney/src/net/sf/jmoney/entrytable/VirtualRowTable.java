@@ -224,6 +224,14 @@ public class VirtualRowTable<T, R extends RowControl<IObservableValue<T>,R,R>> e
 				 */
 				for (ListDiffEntry<? extends T> diff : event.diff.getDifferences()) {
 					if (diff.isAddition()) {
+						/*
+						 * Rows may be inserted above the selected row, for
+						 * example while the rows are still being loaded, so
+						 * keep the index of the selected row up to date.
+						 */
+						if (currentRow != -1 && diff.getPosition() <= currentRow) {
+							currentRow++;
+						}
 						rowCount++;
 					} else {
 						/*
@@ -233,6 +241,8 @@ public class VirtualRowTable<T, R extends RowControl<IObservableValue<T>,R,R>> e
 						 */
 						if (diff.getPosition() == currentRow) {
 							currentRow = -1;
+						} else if (diff.getPosition() < currentRow) {
+							currentRow--;
 						}
 						rowCount--;
 					}
@@ -614,6 +624,22 @@ public class VirtualRowTable<T, R extends RowControl<IObservableValue<T>,R,R>> e
 		previousRows.clear();
 	}
 
+	/**
+	 * Scrolls the table to show the last row. If the table has not yet been
+	 * sized then the scroll bar is set so that the last row is shown when it
+	 * is.
+	 * <P>
+	 * As the view is positioned according to the scroll bar, the last row
+	 * remains visible when rows are added to the start of the table.
+	 */
+	public void scrollToEnd() {
+		vSlider.setSelection(vSlider.getMaximum());
+		sliderPosition = vSlider.getSelection();
+		if (clientAreaSize.y != 0) {
+			scrollToSliderPosition();
+		}
+	}
+
 	void setTopRow(int topRow) {
 		scrollToGivenFix(topRow, 0);
 	}
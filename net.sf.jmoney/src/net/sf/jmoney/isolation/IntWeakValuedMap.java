@@ -0,0 +1,274 @@
+/*
+ *
+ *  JMoney - A Personal Finance Manager
+ *  Copyright (c) 2007 Nigel Westbury <westbury@users.sourceforge.net>
+ *
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ */
+
+package net.sf.jmoney.isolation;
+
+import java.lang.ref.WeakReference;
+
+/**
+ * A map from int keys to weakly referenced values. An entry is removed from
+ * the map once its value has been garbage collected.
+ * <P>
+ * This map is intended for use by datastores as an identity map from row ids
+ * to the materialized model objects. Such a map may have an entry for every
+ * object that passes through the cache, so the memory used by each entry
+ * matters. Keys are not boxed and each entry is a single object, the weak
+ * reference itself, which also serves as the link in the hash chain.
+ * <P>
+ * This class is thread safe. The map is split into a fixed number of stripes,
+ * each protected by its own lock. Dead entries are removed on a background
+ * thread (see <code>ReferenceCleaner</code>).
+ * <P>
+ * Null values are not supported.
+ *
+ * @param <V> the type of the values
+ */
+public class IntWeakValuedMap<V> {
+
+	private static final int STRIPE_COUNT = 16;
+
+	/**
+	 * The number of bits to shift the hash right to get the stripe index. The
+	 * stripe is chosen from the high bits of the hash and the bucket within
+	 * the stripe from the low bits, so the two are independent.
+	 */
+	private static final int STRIPE_SHIFT = 32 - Integer.numberOfTrailingZeros(STRIPE_COUNT);
+
+	private static final int INITIAL_CAPACITY = 16;
+
+	/**
+	 * An entry in the map. This is both the weak reference to the value and
+	 * the link in the hash chain.
+	 */
+	private static final class Node<V> extends WeakReference<V> implements ReferenceCleaner.Cleanable {
+		final int key;
+		final Stripe<V> stripe;
+		Node<V> next;
+
+		Node(int key, V value, Stripe<V> stripe, Node<V> next) {
+			super(value, ReferenceCleaner.queue);
+			this.key = key;
+			this.stripe = stripe;
+			this.next = next;
+		}
+
+		@Override
+		public void clean() {
+			stripe.removeNode(this);
+		}
+	}
+
+	/**
+	 * A hash table with chaining, accessed only while holding the lock on the
+	 * stripe.
+	 */
+	private static final class Stripe<V> {
+		private Node<V>[] table = newTable(INITIAL_CAPACITY);
+		private int count = 0;
+
+		@SuppressWarnings("unchecked")
+		private static <V> Node<V>[] newTable(int capacity) {
+			return new Node[capacity];
+		}
+
+		private int indexFor(int hash) {
+			return hash & (table.length - 1);
+		}
+
+		synchronized Node<V> findNode(int key, int hash) {
+			for (Node<V> node = table[indexFor(hash)]; node != null; node = node.next) {
+				if (node.key == key) {
+					return node;
+				}
+			}
+			return null;
+		}
+
+		/**
+		 * Puts the value in the map. If <code>onlyIfAbsent</code> is set and
+		 * there is already a live value for the key then the map is not
+		 * changed and the existing value is returned.
+		 */
+		synchronized V put(int key, int hash, V value, boolean onlyIfAbsent) {
+			int index = indexFor(hash);
+			Node<V> previous = null;
+			for (Node<V> node = table[index]; node != null; previous = node, node = node.next) {
+				if (node.key == key) {
+					if (onlyIfAbsent) {
+						V existingValue = node.get();
+						if (existingValue != null) {
+							return existingValue;
+						}
+					}
+					// Replace the node
+					Node<V> newNode = new Node<V>(key, value, this, node.next);
+					if (previous == null) {
+						table[index] = newNode;
+					} else {
+						previous.next = newNode;
+					}
+					return null;
+				}
+			}
+
+			table[index] = new Node<V>(key, value, this, table[index]);
+			if (++count > table.length - (table.length >>> 2)) {
+				resize();
+			}
+			return null;
+		}
+
+		synchronized void remove(int key, int hash) {
+			int index = indexFor(hash);
+			Node<V> previous = null;
+			for (Node<V> node = table[index]; node != null; previous = node, node = node.next) {
+				if (node.key == key) {
+					unlink(index, previous, node);
+					return;
+				}
+			}
+		}
+
+		/**
+		 * Removes the given node, if it is still in the map. The node is
+		 * matched by identity so a newer node with the same key is not
+		 * removed.
+		 */
+		synchronized void removeNode(Node<V> nodeToRemove) {
+			int index = indexFor(hash(nodeToRemove.key));
+			Node<V> previous = null;
+			for (Node<V> node = table[index]; node != null; previous = node, node = node.next) {
+				if (node == nodeToRemove) {
+					unlink(index, previous, node);
+					return;
+				}
+			}
+		}
+
+		synchronized int size() {
+			return count;
+		}
+
+		private void unlink(int index, Node<V> previous, Node<V> node) {
+			if (previous == null) {
+				table[index] = node.next;
+			} else {
+				previous.next = node.next;
+			}
+			count--;
+		}
+
+		private void resize() {
+			Node<V>[] oldTable = table;
+			table = newTable(oldTable.length * 2);
+			for (Node<V> head : oldTable) {
+				Node<V> node = head;
+				while (node != null) {
+					Node<V> next = node.next;
+					int index = indexFor(hash(node.key));
+					node.next = table[index];
+					table[index] = node;
+					node = next;
+				}
+			}
+		}
+	}
+
+	private final Stripe<V>[] stripes;
+
+	@SuppressWarnings("unchecked")
+	public IntWeakValuedMap() {
+		stripes = new Stripe[STRIPE_COUNT];
+		for (int i = 0; i < STRIPE_COUNT; i++) {
+			stripes[i] = new Stripe<V>();
+		}
+	}
+
+	/**
+	 * Row ids are usually allocated sequentially, so the bits are mixed to
+	 * spread consecutive keys across the stripes.
+	 */
+	private static int hash(int key) {
+		int hash = key * 0x9E3779B9;
+		return hash ^ (hash >>> 16);
+	}
+
+	private Stripe<V> stripeFor(int hash) {
+		return stripes[hash >>> STRIPE_SHIFT];
+	}
+
+	/**
+	 * @param key
+	 * @return the value if it is in the map, or null if either the key was
+	 *         not in the map or if the value had been garbage collected
+	 */
+	public V get(int key) {
+		int hash = hash(key);
+		Node<V> node = stripeFor(hash).findNode(key, hash);
+		return (node == null) ? null : node.get();
+	}
+
+	/**
+	 * Puts a value in the map, replacing any existing value for the key.
+	 * 
+	 * @param key
+	 * @param value the value to which a weak reference is maintained, which
+	 *            must not be null
+	 */
+	public void put(int key, V value) {
+		int hash = hash(key);
+		stripeFor(hash).put(key, hash, value, false);
+	}
+
+	/**
+	 * Puts a value in the map unless there is already a value for the key.
+	 * This allows two threads that both construct an object for the same key
+	 * to agree on which one is used.
+	 * 
+	 * @param key
+	 * @param value the value to which a weak reference is maintained, which
+	 *            must not be null
+	 * @return the existing value, in which case the map is unchanged, or null
+	 *         if the given value was put in the map
+	 */
+	public V putIfAbsent(int key, V value) {
+		int hash = hash(key);
+		return stripeFor(hash).put(key, hash, value, true);
+	}
+
+	public void remove(int key) {
+		int hash = hash(key);
+		stripeFor(hash).remove(key, hash);
+	}
+
+	/**
+	 * @return the number of entries in the map, which may include entries
+	 *         whose values have been garbage collected but not yet removed
+	 */
+	public int size() {
+		int size = 0;
+		for (Stripe<V> stripe : stripes) {
+			size += stripe.size();
+		}
+		return size;
+	}
+}
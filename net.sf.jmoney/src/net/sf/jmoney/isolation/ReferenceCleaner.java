@@ -0,0 +1,77 @@
+/*
+ *
+ *  JMoney - A Personal Finance Manager
+ *  Copyright (c) 2007 Nigel Westbury <westbury@users.sourceforge.net>
+ *
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ */
+
+package net.sf.jmoney.isolation;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+
+/**
+ * Removes entries from the weak valued maps after the values have been
+ * garbage collected.
+ * <P>
+ * All weak references created by the maps in this package are registered with
+ * a single reference queue. A daemon thread waits on the queue and, as each
+ * reference is enqueued, asks the reference to remove itself from the map that
+ * contains it. Dead entries are therefore removed promptly even if the map is
+ * never updated again, and callers of the maps never pay for the cleanup.
+ * <P>
+ * The maps must remove entries by identity of the reference, not by key,
+ * because the key may since have been re-used for a new value.
+ */
+final class ReferenceCleaner {
+
+	/**
+	 * Implemented by the weak references registered with the queue.
+	 */
+	interface Cleanable {
+		/**
+		 * Removes this reference from the map that contains it, if it is
+		 * still in the map. This method is called on the cleaner thread.
+		 */
+		void clean();
+	}
+
+	static final ReferenceQueue<Object> queue = new ReferenceQueue<Object>();
+
+	static {
+		Thread cleanerThread = new Thread("JMoney weak reference cleaner") {
+			@Override
+			public void run() {
+				while (true) {
+					try {
+						Reference<?> reference = queue.remove();
+						((Cleanable)reference).clean();
+					} catch (InterruptedException e) {
+						return;
+					}
+				}
+			}
+		};
+		cleanerThread.setDaemon(true);
+		cleanerThread.start();
+	}
+
+	private ReferenceCleaner() {
+		// Static members only
+	}
+}
@@ -22,50 +22,68 @@
 
 package net.sf.jmoney.isolation;
 
-import java.lang.ref.Reference;
-import java.lang.ref.ReferenceQueue;
 import java.lang.ref.WeakReference;
 import java.util.HashMap;
 import java.util.Map;
 
+/**
+ * A map in which the values are weakly referenced. An entry is removed from
+ * the map once its value has been garbage collected.
+ * <P>
+ * This class is thread safe. The map is split into a fixed number of stripes,
+ * each protected by its own lock, so threads using different keys rarely
+ * contend. Dead entries are removed on a background thread (see
+ * <code>ReferenceCleaner</code>).
+ */
 public class WeakValuedMap<K, V> {
 
+	private static final int STRIPE_COUNT = 16;
+
 	/**
 	 * We define our own subclass of WeakReference which contains not only the
 	 * value but also the key to make it easier to find the entry in the HashMap
 	 * after it's been garbage collected.
+	 * <P>
+	 * An entry may be removed by an explicit call to <code>remove</code>, and
+	 * another value may then be put in the map using the same key, before the
+	 * reference to the old value is processed by the cleaner. The cleaner must
+	 * not then remove the active entry, so entries are removed only if the
+	 * reference in the map is this reference.
 	 */
-	private static class WeakValueReference<K, V> extends WeakReference<V> {
-		/**
-		 * This key is always set when this weak reference is created and added
-		 * to the map. However, there are two reasons why an entry may be
-		 * removed from the map. An entry may be removed because there are no
-		 * strong references to the value, but an entry may also be removed by
-		 * an explicit call to the <code>remove</code> method. It is possible
-		 * that an entry may be removed by a call to the <code>remove</code>
-		 * method and then later the reference queue is processed and a second
-		 * attempt is made to remove the entry. You may think this is not a
-		 * problem because the attempt to remove the entry the second time will
-		 * simply do nothing. However, it is possible that another entry has
-		 * been put in the map by a call to the <code>put</code> method using
-		 * the same key value. The queue processor would then be removing not a
-		 * dead entry but an active entry.
-		 * 
-		 * This can be solved as follows. If an entry is explicitly deleted from
-		 * the map then the entry is removed from the map AND the key in this
-		 * reference object is set to null.
-		 */
-		private K key;
+	private class WeakValueReference extends WeakReference<V> implements ReferenceCleaner.Cleanable {
+		private final K key;
 
-		private WeakValueReference(V value, K key, ReferenceQueue<V> queue) {
-			super(value, queue);
+		private WeakValueReference(V value, K key) {
+			super(value, ReferenceCleaner.queue);
 			this.key = key;
 		}
+
+		@Override
+		public void clean() {
+			Map<K, WeakValueReference> stripe = stripeFor(key);
+			synchronized (stripe) {
+				if (stripe.get(key) == this) {
+					stripe.remove(key);
+				}
+			}
+		}
 	}
 
-	private Map<K, WeakValueReference<K, V>> map = new HashMap<K, WeakValueReference<K, V>>();
+	private final Map<K, WeakValueReference>[] stripes;
 
-	private ReferenceQueue<V> referenceQueue = new ReferenceQueue<V>();
+	@SuppressWarnings("unchecked")
+	public WeakValuedMap() {
+		stripes = new Map[STRIPE_COUNT];
+		for (int i = 0; i < STRIPE_COUNT; i++) {
+			stripes[i] = new HashMap<K, WeakValueReference>();
+		}
+	}
+
+	private Map<K, WeakValueReference> stripeFor(K key) {
+		int hash = key.hashCode();
+		hash ^= (hash >>> 16);
+		return stripes[hash & (STRIPE_COUNT - 1)];
+	}
 
 	/**
 	 * 
@@ -73,11 +91,10 @@ public class WeakValuedMap<K, V> {
 	 * @param value the value to which a weak reference is maintained
 	 */
 	public void put(K key, V value) {
-		removeDeadEntries();
-		
-		map.put(
-				key, 
-				new WeakValueReference<K, V>(value, key, referenceQueue));
+		Map<K, WeakValueReference> stripe = stripeFor(key);
+		synchronized (stripe) {
+			stripe.put(key, new WeakValueReference(value, key));
+		}
 	}
 
 	/**
@@ -88,7 +105,11 @@ public class WeakValuedMap<K, V> {
 	 * 		had been garbage collected
 	 */
 	public V get(K key) {
-		WeakReference<V> valueReference = map.get(key);
+		Map<K, WeakValueReference> stripe = stripeFor(key);
+		WeakReference<V> valueReference;
+		synchronized (stripe) {
+			valueReference = stripe.get(key);
+		}
 		if (valueReference == null) {
 			return null;
 		} else {
@@ -97,30 +118,9 @@ public class WeakValuedMap<K, V> {
 	}
 
 	public void remove(K key) {
-		/*
-		 * This line is necessary to stop the reference queue processor from
-		 * deleting an active entry if the same key was re-used for a new
-		 * object.
-		 */
-		map.get(key).key = null;
-
-		map.remove(key);
-	}
-
-	/**
-	 * Check the queue for weak references to the value objects
-	 * that no longer exist.  It really does not matter where this is
-	 * done as long as it is done on the thread for this class (this
-	 * class is not thread-safe).
-	 */
-	private void removeDeadEntries() {
-		Reference<? extends V> valueReference = referenceQueue.poll();
-		while (valueReference != null) {
-			Object key = ((WeakValueReference<?,?>) valueReference).key;
-			if (key != null) {
-				map.remove(key);
-			}
-			valueReference = referenceQueue.poll();
+		Map<K, WeakValueReference> stripe = stripeFor(key);
+		synchronized (stripe) {
+			stripe.remove(key);
 		}
 	}
 }
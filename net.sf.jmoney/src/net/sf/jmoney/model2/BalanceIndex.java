@@ -0,0 +1,346 @@
+/*
+ *
+ *  JMoney - A Personal Finance Manager
+ *  Copyright (c) 2004 Nigel Westbury <westbury@users.sourceforge.net>
+ *
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ */
+
+package net.sf.jmoney.model2;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+import net.sf.jmoney.isolation.IListPropertyAccessor;
+import net.sf.jmoney.isolation.IModelObject;
+import net.sf.jmoney.isolation.IScalarPropertyAccessor;
+import net.sf.jmoney.isolation.SessionChangeAdapter;
+
+/**
+ * An index of the entry amounts in each currency account, used to get the
+ * balance of an account between two dates without looking at every entry.
+ * <P>
+ * This is used when the datastore does not implement
+ * <code>IEntryQueries</code>. There is one index per session. The index for
+ * an account is built the first time a balance is requested for that account,
+ * and from then on it is kept up to date by listening for changes to the
+ * entries and transactions in the session.
+ * <P>
+ * For each account, the entries are summed by transaction date. The sums are
+ * held in a Fenwick tree over the distinct dates, so the balance between any
+ * two dates is found in O(log n) time. A change to an entry on a date already
+ * in the index is also O(log n). A new date requires the arrays to be
+ * expanded, which is O(n) but involves only array arithmetic.
+ * <P>
+ * The balances of accounts including their sub-accounts are also cached, for
+ * the last pair of dates requested. These are cleared when there is a change
+ * to an entry in the account or any sub-account, or when the account
+ * hierarchy changes.
+ *
+ * @author Nigel Westbury
+ */
+class BalanceIndex {
+
+	/**
+	 * The amount and date of an entry at the time it was added to the index
+	 * for its account. These are the values that must be subtracted when the
+	 * entry changes or is removed, regardless of the values in the entry
+	 * itself at that time.
+	 */
+	private static class IndexedEntry {
+		final CurrencyAccount account;
+		final AccountIndex accountIndex;
+		final long date;
+		final long amount;
+
+		IndexedEntry(CurrencyAccount account, AccountIndex accountIndex, long date, long amount) {
+			this.account = account;
+			this.accountIndex = accountIndex;
+			this.date = date;
+			this.amount = amount;
+		}
+	}
+
+	/**
+	 * The amounts in one account summed by date.
+	 */
+	private static class AccountIndex {
+		/**
+		 * The distinct dates, in ascending order, as milliseconds. Only the
+		 * first <code>size</code> elements are used.
+		 */
+		private long [] dates = new long[16];
+
+		/**
+		 * The Fenwick tree of the sums for each date. Element i+1 of this
+		 * array corresponds to element i of the dates array.
+		 */
+		private long [] tree = new long[17];
+
+		private int size = 0;
+
+		void add(long date, long amount) {
+			int index = Arrays.binarySearch(dates, 0, size, date);
+			if (index < 0) {
+				insertDate(-index - 1, date);
+				index = -index - 1;
+			}
+			for (int i = index + 1; i <= size; i += i & -i) {
+				tree[i] += amount;
+			}
+		}
+
+		/**
+		 * Inserts a date with a zero sum. The tree is converted back to the
+		 * individual sums, the arrays are shifted, and the tree rebuilt.
+		 */
+		private void insertDate(int index, long date) {
+			long [] sums = new long[size + 1];
+			for (int i = 0; i < size; i++) {
+				sums[i] = getSum(i + 1) - getSum(i);
+			}
+			System.arraycopy(sums, index, sums, index + 1, size - index);
+			sums[index] = 0;
+
+			if (size == dates.length) {
+				dates = Arrays.copyOf(dates, dates.length * 2);
+			}
+			System.arraycopy(dates, index, dates, index + 1, size - index);
+			dates[index] = date;
+			size++;
+
+			tree = new long[dates.length + 1];
+			for (int i = 1; i <= size; i++) {
+				tree[i] += sums[i - 1];
+				int parent = i + (i & -i);
+				if (parent <= size) {
+					tree[parent] += tree[i];
+				}
+			}
+		}
+
+		/**
+		 * @return the sum of the first <code>count</code> dates
+		 */
+		private long getSum(int count) {
+			long sum = 0;
+			for (int i = count; i > 0; i -= i & -i) {
+				sum += tree[i];
+			}
+			return sum;
+		}
+
+		/**
+		 * @return the sum of the amounts with dates from fromDate to toDate,
+		 *         inclusive
+		 */
+		long getSum(long fromDate, long toDate) {
+			if (fromDate > toDate) {
+				return 0;
+			}
+			int fromIndex = Arrays.binarySearch(dates, 0, size, fromDate);
+			if (fromIndex < 0) {
+				fromIndex = -fromIndex - 1;
+			}
+			int toIndex = Arrays.binarySearch(dates, 0, size, toDate);
+			toIndex = (toIndex < 0) ? -toIndex - 1 : toIndex + 1;
+			return getSum(toIndex) - getSum(fromIndex);
+		}
+	}
+
+	/**
+	 * A cached balance of an account including its sub-accounts.
+	 */
+	private static class RollUp {
+		final Date fromDate;
+		final Date toDate;
+		final long balance;
+
+		RollUp(Date fromDate, Date toDate, long balance) {
+			this.fromDate = fromDate;
+			this.toDate = toDate;
+			this.balance = balance;
+		}
+	}
+
+	private Map<CurrencyAccount, AccountIndex> accountIndexes = new HashMap<CurrencyAccount, AccountIndex>();
+
+	private Map<Entry, IndexedEntry> indexedEntries = new HashMap<Entry, IndexedEntry>();
+
+	private Map<CurrencyAccount, RollUp> rollUps = new HashMap<CurrencyAccount, RollUp>();
+
+	BalanceIndex(Session session) {
+		session.getDataManager().addChangeListener(new SessionChangeAdapter() {
+			@Override
+			public void objectInserted(IModelObject newObject) {
+				if (newObject instanceof Entry) {
+					addEntry((Entry)newObject);
+				} else if (newObject instanceof Transaction) {
+					for (Entry entry : ((Transaction)newObject).getEntryCollection()) {
+						addEntry(entry);
+					}
+				} else if (newObject instanceof Account) {
+					rollUps.clear();
+				}
+			}
+
+			@Override
+			public void objectRemoved(IModelObject deletedObject) {
+				if (deletedObject instanceof Entry) {
+					removeEntry((Entry)deletedObject);
+				} else if (deletedObject instanceof Transaction) {
+					for (Entry entry : ((Transaction)deletedObject).getEntryCollection()) {
+						removeEntry(entry);
+					}
+				} else if (deletedObject instanceof Account) {
+					accountIndexes.remove(deletedObject);
+					rollUps.clear();
+				}
+			}
+
+			@Override
+			public void objectChanged(IModelObject changedObject, IScalarPropertyAccessor changedProperty, Object oldValue, Object newValue) {
+				if (changedObject instanceof Entry) {
+					if (changedProperty == EntryInfo.getAmountAccessor()
+							|| changedProperty == EntryInfo.getAccountAccessor()) {
+						removeEntry((Entry)changedObject);
+						addEntry((Entry)changedObject);
+					}
+					if (changedProperty == EntryInfo.getAccountAccessor()
+							&& oldValue instanceof CurrencyAccount) {
+						invalidateRollUps((CurrencyAccount)oldValue);
+					}
+				} else if (changedObject instanceof Transaction) {
+					if (changedProperty == TransactionInfo.getDateAccessor()) {
+						for (Entry entry : ((Transaction)changedObject).getEntryCollection()) {
+							removeEntry(entry);
+							addEntry(entry);
+						}
+					}
+				} else if (changedObject instanceof Account) {
+					// The start balance, for example, may have changed.
+					rollUps.clear();
+				}
+			}
+
+			@Override
+			public void objectMoved(IModelObject movedObject, IModelObject originalParent, IModelObject newParent, IListPropertyAccessor<?,?> originalParentListProperty, IListPropertyAccessor<?,?> newParentListProperty) {
+				if (movedObject instanceof Entry) {
+					// The entry is now in a transaction with a different date.
+					removeEntry((Entry)movedObject);
+					addEntry((Entry)movedObject);
+				} else if (movedObject instanceof Account) {
+					rollUps.clear();
+				}
+			}
+		});
+	}
+
+	/**
+	 * Adds an entry to the index for its account, if the index for its
+	 * account has been built. If the index has not been built then the entry
+	 * will be picked up when it is.
+	 */
+	private void addEntry(Entry entry) {
+		if (indexedEntries.containsKey(entry)) {
+			return;
+		}
+		if (entry.getAccount() instanceof CurrencyAccount) {
+			CurrencyAccount account = (CurrencyAccount)entry.getAccount();
+			AccountIndex accountIndex = accountIndexes.get(account);
+			if (accountIndex != null) {
+				addEntry(account, accountIndex, entry);
+			}
+			invalidateRollUps(account);
+		}
+	}
+
+	private void addEntry(CurrencyAccount account, AccountIndex accountIndex, Entry entry) {
+		Date date = entry.getTransaction().getDate();
+		IndexedEntry indexedEntry = new IndexedEntry(account, accountIndex, date == null ? Long.MIN_VALUE : date.getTime(), entry.getAmount());
+		accountIndex.add(indexedEntry.date, indexedEntry.amount);
+		indexedEntries.put(entry, indexedEntry);
+	}
+
+	private void removeEntry(Entry entry) {
+		IndexedEntry indexedEntry = indexedEntries.remove(entry);
+		if (indexedEntry != null) {
+			indexedEntry.accountIndex.add(indexedEntry.date, -indexedEntry.amount);
+			invalidateRollUps(indexedEntry.account);
+		}
+		if (entry.getAccount() instanceof CurrencyAccount) {
+			invalidateRollUps((CurrencyAccount)entry.getAccount());
+		}
+	}
+
+	/**
+	 * Clears the cached roll-ups for the given account and all accounts above
+	 * it.
+	 */
+	private void invalidateRollUps(CurrencyAccount account) {
+		for (Account eachAccount = account; eachAccount != null; eachAccount = eachAccount.getParent()) {
+			rollUps.remove(eachAccount);
+		}
+	}
+
+	/**
+	 * Returns the sum of the amounts of the entries in the given account with
+	 * transaction dates between the given dates, inclusive. This does not
+	 * include the start balance.
+	 *
+	 * @param fromDate the first date, or null if there is no lower bound
+	 * @param toDate the last date, or null if there is no upper bound
+	 */
+	long sumOfAmounts(CurrencyAccount account, Date fromDate, Date toDate) {
+		AccountIndex accountIndex = accountIndexes.get(account);
+		if (accountIndex == null) {
+			accountIndex = new AccountIndex();
+			for (Entry entry : account.getEntries()) {
+				addEntry(account, accountIndex, entry);
+			}
+			accountIndexes.put(account, accountIndex);
+		}
+
+		return accountIndex.getSum(
+				fromDate == null ? Long.MIN_VALUE : fromDate.getTime(),
+				toDate == null ? Long.MAX_VALUE : toDate.getTime());
+	}
+
+	/**
+	 * @return the cached balance including sub-accounts between the given
+	 *         dates, or null if it is not cached
+	 */
+	Long getCachedBalanceWithSubAccounts(CurrencyAccount account, Date fromDate, Date toDate) {
+		RollUp rollUp = rollUps.get(account);
+		if (rollUp != null
+				&& equal(rollUp.fromDate, fromDate)
+				&& equal(rollUp.toDate, toDate)) {
+			return rollUp.balance;
+		}
+		return null;
+	}
+
+	void setCachedBalanceWithSubAccounts(CurrencyAccount account, Date fromDate, Date toDate, long balance) {
+		rollUps.put(account, new RollUp(fromDate, toDate, balance));
+	}
+
+	private static boolean equal(Date date1, Date date2) {
+		return date1 == null ? date2 == null : date1.equals(date2);
+	}
+}
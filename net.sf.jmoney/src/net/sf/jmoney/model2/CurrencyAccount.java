@@ -188,15 +188,9 @@ public abstract class CurrencyAccount extends CapitalAccount {
     	} else {
     		// IEntryQueries has not been implemented in the datastore.
     		// We must therefore provide our own implementation.
-
-    		// Sum each entry the entry between the two dates
-    		for (Entry e: getEntries()) {
-    			if ((e.getTransaction().getDate().compareTo(fromDate) >= 0)
-    					&& e.getTransaction().getDate().compareTo(toDate) <= 0){
-    				bal += e.getAmount();
-
-    			}
-    		}
+    		// This uses an index, kept up to date as the entries change,
+    		// so we don't look at every entry each time.
+    		bal += getSession().getBalanceIndex().sumOfAmounts(this, fromDate, toDate);
     	}
 
 		return bal;
@@ -211,6 +205,13 @@ public abstract class CurrencyAccount extends CapitalAccount {
 	 */
 	public long getBalanceWithSubAccounts(Session session, Date fromDate, Date toDate) {
 		if (JMoneyPlugin.DEBUG) System.out.println("Calculing the Balance for >" + name + "< (with sub-accounts) between " + fromDate + " and " + toDate); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+
+		BalanceIndex balanceIndex = getSession().getBalanceIndex();
+		Long cachedBalance = balanceIndex.getCachedBalanceWithSubAccounts(this, fromDate, toDate);
+		if (cachedBalance != null) {
+			return cachedBalance;
+		}
+
 		long bal = getBalance(session, fromDate, toDate);
 
 		// This logic may not be quite right.  If a stock account is a sub account of
@@ -226,6 +227,8 @@ public abstract class CurrencyAccount extends CapitalAccount {
 				bal += ((CurrencyAccount)account).getBalanceWithSubAccounts(session, fromDate, toDate);
 			}
 		}
+
+		balanceIndex.setCachedBalanceWithSubAccounts(this, fromDate, toDate, bal);
 		return bal;
 	}
 }
\ No newline at end of file
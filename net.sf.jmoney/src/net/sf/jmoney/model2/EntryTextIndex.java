@@ -0,0 +1,301 @@
+/*
+ *
+ *  JMoney - A Personal Finance Manager
+ *  Copyright (c) 2004 Nigel Westbury <westbury@users.sourceforge.net>
+ *
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ */
+
+package net.sf.jmoney.model2;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import net.sf.jmoney.isolation.IDataManager;
+import net.sf.jmoney.isolation.IModelObject;
+import net.sf.jmoney.isolation.IScalarPropertyAccessor;
+import net.sf.jmoney.isolation.SessionChangeAdapter;
+
+/**
+ * An inverted index of the words in the memos of the entries, used to find
+ * the entries whose memo contains a given piece of text without looking at
+ * every entry.
+ * <P>
+ * A memo is split into words, being the runs of letters and digits in the
+ * upper-cased memo. For each word the index holds the set of entries whose
+ * memo contains it. Text occurs in a memo only if each word in the text
+ * occurs inside a word of the memo. So the entries to be looked at are found
+ * by taking, for each word in the text, the union of the entries for the
+ * words that contain it, and then taking the intersection of these sets. The
+ * words that contain a given word are found from a sorted map of the
+ * suffixes of all the words in the index: a word occurs inside another word
+ * exactly when it is the start of one of the suffixes of the other word, so
+ * this is a range of the sorted map. The map holds only the distinct words,
+ * which are far fewer than the entries.
+ * <P>
+ * The entries found may not all contain the text, because the words may be
+ * in a different order or separated differently. The caller must check each
+ * entry found.
+ * <P>
+ * The index is kept up to date by listening for changes to entries and
+ * transactions in the given data manager. The index is used by searches that
+ * run in background jobs, so all access is synchronized.
+ *
+ * @author Nigel Westbury
+ */
+public class EntryTextIndex {
+
+	/**
+	 * The longest term put into the index by {@link #getTerms(String)}.
+	 * Longer terms are truncated, which is safe because a query term is
+	 * truncated to the same length and then used as a prefix.
+	 */
+	public static final int MAXIMUM_TERM_LENGTH = 20;
+
+	/**
+	 * The entries whose memo contains each word.
+	 */
+	private Map<String, Set<Entry>> entriesByWord = new HashMap<String, Set<Entry>>();
+
+	/**
+	 * The words in the index that have each suffix.
+	 */
+	private SortedMap<String, Set<String>> wordsBySuffix = new TreeMap<String, Set<String>>();
+
+	/**
+	 * The words under which each entry was put into the index. These are the
+	 * words that must be removed when the memo changes, regardless of the
+	 * memo in the entry at that time.
+	 */
+	private Map<Entry, Set<String>> indexedEntries = new HashMap<Entry, Set<String>>();
+
+	private final SessionChangeAdapter listener = new SessionChangeAdapter() {
+		@Override
+		public void objectInserted(IModelObject newObject) {
+			objectCreated(newObject);
+		}
+
+		@Override
+		public void objectCreated(IModelObject newObject) {
+			if (newObject instanceof Entry) {
+				addEntry((Entry)newObject);
+			} else if (newObject instanceof Transaction) {
+				for (Entry entry : ((Transaction)newObject).getEntryCollection()) {
+					addEntry(entry);
+				}
+			}
+		}
+
+		@Override
+		public void objectRemoved(IModelObject deletedObject) {
+			objectDestroyed(deletedObject);
+		}
+
+		@Override
+		public void objectDestroyed(IModelObject deletedObject) {
+			if (deletedObject instanceof Entry) {
+				removeEntry((Entry)deletedObject);
+			} else if (deletedObject instanceof Transaction) {
+				for (Entry entry : ((Transaction)deletedObject).getEntryCollection()) {
+					removeEntry(entry);
+				}
+			}
+		}
+
+		@Override
+		public void objectChanged(IModelObject changedObject, IScalarPropertyAccessor changedProperty, Object oldValue, Object newValue) {
+			if (changedObject instanceof Entry
+					&& changedProperty == EntryInfo.getMemoAccessor()) {
+				removeEntry((Entry)changedObject);
+				addEntry((Entry)changedObject);
+			}
+		}
+	};
+
+	/**
+	 * Creates an empty index and starts listening for changes. The existing
+	 * entries are then put into the index by calling
+	 * {@link #addEntries(Collection)}.
+	 *
+	 * @param dataManager the data manager whose changes are to be applied
+	 *            to the index
+	 */
+	public EntryTextIndex(IDataManager dataManager) {
+		dataManager.addChangeListener(listener);
+	}
+
+	/**
+	 * Puts existing entries into the index. The collection of entries must be
+	 * taken after this index was constructed. Every change is then either
+	 * seen in the collection or is applied by the listener after the change,
+	 * so no change is missed.
+	 */
+	public synchronized void addEntries(Collection<Entry> entries) {
+		for (Entry entry : entries) {
+			addEntry(entry);
+		}
+	}
+
+	private synchronized void addEntry(Entry entry) {
+		if (indexedEntries.containsKey(entry)) {
+			return;
+		}
+
+		Set<String> words = getWords(entry.getMemo());
+		for (String word : words) {
+			Set<Entry> entries = entriesByWord.get(word);
+			if (entries == null) {
+				entries = new HashSet<Entry>();
+				entriesByWord.put(word, entries);
+				for (int i = 0; i < word.length(); i++) {
+					String suffix = word.substring(i);
+					Set<String> wordsWithSuffix = wordsBySuffix.get(suffix);
+					if (wordsWithSuffix == null) {
+						wordsWithSuffix = new HashSet<String>();
+						wordsBySuffix.put(suffix, wordsWithSuffix);
+					}
+					wordsWithSuffix.add(word);
+				}
+			}
+			entries.add(entry);
+		}
+		indexedEntries.put(entry, words);
+	}
+
+	private synchronized void removeEntry(Entry entry) {
+		Set<String> words = indexedEntries.remove(entry);
+		if (words == null) {
+			return;
+		}
+
+		for (String word : words) {
+			Set<Entry> entries = entriesByWord.get(word);
+			entries.remove(entry);
+			if (entries.isEmpty()) {
+				entriesByWord.remove(word);
+				for (int i = 0; i < word.length(); i++) {
+					String suffix = word.substring(i);
+					Set<String> wordsWithSuffix = wordsBySuffix.get(suffix);
+					wordsWithSuffix.remove(word);
+					if (wordsWithSuffix.isEmpty()) {
+						wordsBySuffix.remove(suffix);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Finds the entries whose memo may contain the given text, ignoring case.
+	 *
+	 * @param text the text to be found
+	 * @return the entries whose memo may contain the text, which include all
+	 *         entries whose memo does contain the text, or null if the text
+	 *         contains no letters or digits, in which case the index cannot
+	 *         be used
+	 */
+	public synchronized List<Entry> findEntries(String text) {
+		Set<String> queryWords = getWords(text);
+		if (queryWords.isEmpty()) {
+			return null;
+		}
+
+		Set<Entry> result = null;
+		for (String queryWord : queryWords) {
+			Set<Entry> entries = new HashSet<Entry>();
+			for (Set<String> words : wordsBySuffix.subMap(queryWord, queryWord + Character.MAX_VALUE).values()) {
+				for (String word : words) {
+					entries.addAll(entriesByWord.get(word));
+				}
+			}
+
+			if (result == null) {
+				result = entries;
+			} else {
+				result.retainAll(entries);
+			}
+			if (result.isEmpty()) {
+				break;
+			}
+		}
+		return new ArrayList<Entry>(result);
+	}
+
+	/**
+	 * Splits text into words. The words are the runs of letters and digits in
+	 * the upper-cased text. Upper-casing before splitting means the words are
+	 * consistent with a search that compares the upper-cased text.
+	 *
+	 * @param text the text, which may be null
+	 * @return the distinct words in the order in which they first occur
+	 */
+	public static Set<String> getWords(String text) {
+		Set<String> words = new LinkedHashSet<String>();
+		if (text != null) {
+			String upperCaseText = text.toUpperCase();
+			int start = -1;
+			for (int i = 0; i <= upperCaseText.length(); i++) {
+				if (i < upperCaseText.length() && Character.isLetterOrDigit(upperCaseText.charAt(i))) {
+					if (start == -1) {
+						start = i;
+					}
+				} else if (start != -1) {
+					words.add(upperCaseText.substring(start, i));
+					start = -1;
+				}
+			}
+		}
+		return words;
+	}
+
+	/**
+	 * Gets the terms under which an entry is put into an index that is held
+	 * in a database table. These are all the suffixes of the words in the
+	 * text, each truncated to {@link #MAXIMUM_TERM_LENGTH} characters. A word
+	 * occurs inside one of the words in the text exactly when the word,
+	 * truncated to the same length, is the start of one of these terms, so a
+	 * database can find the entries using an index on the terms.
+	 *
+	 * @param text the text, which may be null
+	 * @return the distinct terms
+	 */
+	public static Set<String> getTerms(String text) {
+		Set<String> terms = new HashSet<String>();
+		for (String word : getWords(text)) {
+			for (int i = 0; i < word.length(); i++) {
+				terms.add(truncateTerm(word.substring(i)));
+			}
+		}
+		return terms;
+	}
+
+	/**
+	 * @return the given term, truncated to at most
+	 *         {@link #MAXIMUM_TERM_LENGTH} characters
+	 */
+	public static String truncateTerm(String term) {
+		return term.length() > MAXIMUM_TERM_LENGTH ? term.substring(0, MAXIMUM_TERM_LENGTH) : term;
+	}
+}
@@ -53,4 +53,24 @@ public interface IDataManagerForAccounts extends IDataManager {
 	 * @return
 	 */
 	List<Entry> getEntries(Date startDate, Date endDate, Long amount, String memo);
+
+	/**
+	 * Prepares a search for entries. The criteria are the same as for
+	 * {@link #getEntries(Date, Date, Long, String)}.
+	 * <P>
+	 * This method must be called on the thread that owns the data manager.
+	 * Anything the search needs from the model is read here, so the returned
+	 * task can then be run on a background thread. The entries are found
+	 * without blocking that thread, and the search can be cancelled.
+	 * 
+	 * @param startDate the earliest transaction date, or null if no lower
+	 *            bound
+	 * @param endDate the latest transaction date, or null if no upper bound
+	 * @param amount the amount, which is matched ignoring the sign, or null to
+	 *            match any amount
+	 * @param memo text that must occur in the memo, ignoring case, or null to
+	 *            match any memo
+	 * @return the search, to be run by calling its <code>run</code> method
+	 */
+	IEntrySearchTask prepareEntrySearch(Date startDate, Date endDate, Long amount, String memo);
 }
@@ -0,0 +1,48 @@
+/*
+*
+*  JMoney - A Personal Finance Manager
+*  Copyright (c) 2004 Nigel Westbury <westbury@users.sourceforge.net>
+*
+*
+*  This program is free software; you can redistribute it and/or modify
+*  it under the terms of the GNU General Public License as published by
+*  the Free Software Foundation; either version 2 of the License, or
+*  (at your option) any later version.
+*
+*  This program is distributed in the hope that it will be useful,
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*  GNU General Public License for more details.
+*
+*  You should have received a copy of the GNU General Public License
+*  along with this program; if not, write to the Free Software
+*  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+*
+*/
+
+package net.sf.jmoney.model2;
+
+import net.sf.jmoney.isolation.IObjectKey;
+
+/**
+ * Receives the entries found by a search, as they are found.
+ * <P>
+ * The search runs on a background thread, and entries may be materialized
+ * only on the thread that owns the data manager. The keys of the entries are
+ * therefore passed rather than the entries. The entries are obtained from the
+ * keys by {@link IEntrySearchTask#getEntries(java.util.List)}.
+ * 
+ * @see IEntrySearchTask#run(IEntryCollector, org.eclipse.core.runtime.IProgressMonitor)
+ * @author Nigel Westbury
+ */
+public interface IEntryCollector {
+
+	/**
+	 * Called for each entry that matches the search. This method may be
+	 * called from any thread, and may be called from more than one thread at
+	 * the same time, so implementations must be thread safe.
+	 * 
+	 * @param entryKey the key of the matching entry
+	 */
+	void entryFound(IObjectKey entryKey);
+}
@@ -23,8 +23,13 @@
 
 package net.sf.jmoney.model2;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
 
 /**
  * Interface containing methods that execute queries against the datastore.
@@ -86,4 +91,76 @@ public interface IEntryQueries {
 	 * @return An array with a size equal to the numberOfMonths
 	 */
 	long[] getEntryTotalsByMonth(CapitalAccount account, int startYear, int startMonth, int numberOfMonths, boolean includeSubAccounts);
+
+	/**
+	 * Return the entries in the given account, together with the
+	 * transactions that contain those entries and all the other entries in
+	 * those transactions.
+	 * <P>
+	 * The returned collection contains only the entries in the account, the
+	 * same as <code>Account.getEntries()</code>. The difference is that the
+	 * transactions and the other entries in the transactions are also loaded,
+	 * so callers that display each entry together with its transaction and
+	 * the other accounts involved (for example the account entries table) do
+	 * not cause further reads from the datastore. Datastores that are backed
+	 * by a database should read all this data using a small, fixed, number of
+	 * queries regardless of the number of entries in the account.
+	 * 
+	 * @param account The account whose entries are to be returned.
+	 * @return the entries in the account, in no particular order
+	 */
+	Collection<Entry> getEntriesWithTransactions(Account account);
+
+	/**
+	 * Return the entries in the given account that have transaction dates and
+	 * amounts within the given ranges, sorted by transaction date.
+	 * <P>
+	 * Datastores backed by a database should pass the restrictions on to the
+	 * database, so entries outside the ranges are never read, and should
+	 * read the entries as the iterator is advanced, so a caller that stops
+	 * part way through does not cause the remaining entries to be read. The
+	 * default implementation filters and sorts the entries from
+	 * <code>Account.getEntries()</code> in memory.
+	 * 
+	 * @param account The account whose entries are to be returned.
+	 * @param fromDate the earliest transaction date, inclusive, or null if
+	 *            there is no lower bound on the date
+	 * @param toDate the latest transaction date, inclusive, or null if there
+	 *            is no upper bound on the date
+	 * @param minimumAmount the lowest amount, inclusive, or null if there is
+	 *            no lower bound on the amount
+	 * @param maximumAmount the highest amount, inclusive, or null if there is
+	 *            no upper bound on the amount
+	 * @return an iterator over the matching entries
+	 */
+	default Iterator<Entry> getEntries(Account account, Date fromDate, Date toDate, Long minimumAmount, Long maximumAmount) {
+		List<Entry> entries = new ArrayList<Entry>();
+		for (Entry entry : account.getEntries()) {
+			Date date = entry.getTransaction().getDate();
+			if ((fromDate != null || toDate != null) && date == null) {
+				continue;
+			}
+			if ((fromDate != null && date.before(fromDate))
+					|| (toDate != null && date.after(toDate))
+					|| (minimumAmount != null && entry.getAmount() < minimumAmount)
+					|| (maximumAmount != null && entry.getAmount() > maximumAmount)) {
+				continue;
+			}
+			entries.add(entry);
+		}
+
+		Collections.sort(entries, new Comparator<Entry>() {
+			@Override
+			public int compare(Entry entry1, Entry entry2) {
+				Date date1 = entry1.getTransaction().getDate();
+				Date date2 = entry2.getTransaction().getDate();
+				if (date1 == null || date2 == null) {
+					return (date1 == null ? 0 : 1) - (date2 == null ? 0 : 1);
+				}
+				return date1.compareTo(date2);
+			}
+		});
+
+		return entries.iterator();
+	}
 }
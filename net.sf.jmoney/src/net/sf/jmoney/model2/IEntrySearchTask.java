@@ -0,0 +1,66 @@
+/*
+*
+*  JMoney - A Personal Finance Manager
+*  Copyright (c) 2004 Nigel Westbury <westbury@users.sourceforge.net>
+*
+*
+*  This program is free software; you can redistribute it and/or modify
+*  it under the terms of the GNU General Public License as published by
+*  the Free Software Foundation; either version 2 of the License, or
+*  (at your option) any later version.
+*
+*  This program is distributed in the hope that it will be useful,
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*  GNU General Public License for more details.
+*
+*  You should have received a copy of the GNU General Public License
+*  along with this program; if not, write to the Free Software
+*  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+*
+*/
+
+package net.sf.jmoney.model2;
+
+import java.util.List;
+
+import net.sf.jmoney.isolation.IObjectKey;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+
+/**
+ * A search for entries that has been prepared on the thread that owns the
+ * data manager and can then be run on a background thread.
+ * 
+ * @see IDataManagerForAccounts#prepareEntrySearch(java.util.Date, java.util.Date, Long, String)
+ * @author Nigel Westbury
+ */
+public interface IEntrySearchTask {
+
+	/**
+	 * Runs the search, passing the key of each matching entry to the
+	 * collector as it is found. This method may be called from any thread. It
+	 * does not read or materialize model objects.
+	 * <P>
+	 * Changes made to the datastore after the search was prepared may or may
+	 * not be reflected in the entries found.
+	 * 
+	 * @param collector receives the keys of the matching entries
+	 * @param monitor the progress monitor, which is checked for cancellation.
+	 *            If the search is cancelled then this method returns early
+	 *            and some matching entries will not have been passed to the
+	 *            collector.
+	 */
+	void run(IEntryCollector collector, IProgressMonitor monitor);
+
+	/**
+	 * Gets the entries for keys passed to the collector. This must be called
+	 * on the thread that owns the data manager. Datastores that are backed by
+	 * a database should read all the given entries in a single query.
+	 * 
+	 * @param entryKeys keys passed to the collector by <code>run</code>
+	 * @return the entries, in the same order as the keys. Entries that have
+	 *         been deleted since they were found may be omitted.
+	 */
+	List<Entry> getEntries(List<IObjectKey> entryKeys);
+}
@@ -36,6 +36,8 @@ import net.sf.jmoney.isolation.ListKey;
 import net.sf.jmoney.isolation.ObjectCollection;
 import net.sf.jmoney.isolation.ReferenceViolationException;
 
+import org.eclipse.core.runtime.IAdaptable;
+
 /**
  * Holds the fields that will be saved in a file.
  */
@@ -56,6 +58,13 @@ public class Session extends ExtendableObject {
      */
     Hashtable<String, Currency> currencies = new Hashtable<String, Currency>();
 
+    /**
+     * The index of entry amounts used to calculate account balances when
+     * the datastore does not support IEntryQueries, or null if no balance
+     * has yet been requested.
+     */
+    private BalanceIndex balanceIndex = null;
+
 	/**
      * Constructor used by datastore plug-ins to create
      * a session object.
@@ -108,6 +117,19 @@ public class Session extends ExtendableObject {
 		return "net.sf.jmoney.session"; //$NON-NLS-1$
 	}
 
+    /**
+     * Returns the index used to calculate account balances, creating it if
+     * it does not yet exist. The index listens for changes to the entries in
+     * this session so it must not be created until the session has been
+     * fully constructed.
+     */
+    BalanceIndex getBalanceIndex() {
+    	if (balanceIndex == null) {
+    		balanceIndex = new BalanceIndex(this);
+    	}
+    	return balanceIndex;
+    }
+
     public Currency getDefaultCurrency() {
         return defaultCurrencyKey == null
 		? null
@@ -338,6 +360,24 @@ public class Session extends ExtendableObject {
 	    return foundAccount;
 	}
 
+	/**
+	 * Datastores may provide optimized implementations of interfaces such as
+	 * <code>IEntryQueries</code>. These are obtained by adapting the data
+	 * manager for this session. If the data manager does not provide the
+	 * interface then null is returned and the caller must fall back to
+	 * iterating over the objects in the model.
+	 */
+	@Override
+	public Object getAdapter(Class adapter) {
+		if (getDataManager() instanceof IAdaptable) {
+			Object result = ((IAdaptable)getDataManager()).getAdapter(adapter);
+			if (result != null) {
+				return result;
+			}
+		}
+		return super.getAdapter(adapter);
+	}
+
     public class NoAccountFoundException extends Exception {
 		private static final long serialVersionUID = -6022196945540827504L;
 	}
@@ -185,4 +185,10 @@ public class TransactionManagerForAccounts extends TransactionManager implements
 		throw new UnsupportedOperationException();
 	}
 
+	@Override
+	public IEntrySearchTask prepareEntrySearch(Date startDate, Date endDate, Long amount,
+			String memo) {
+		throw new UnsupportedOperationException();
+	}
+
 }
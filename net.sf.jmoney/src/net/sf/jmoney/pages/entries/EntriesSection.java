@@ -20,6 +20,7 @@ package net.sf.jmoney.pages.entries;
 
 import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
+import java.util.ArrayList;
 import java.util.Collection;
 
 import net.sf.jmoney.entrytable.BalanceColumn;
@@ -46,10 +47,12 @@ import net.sf.jmoney.entrytable.SingleOtherEntryDetailPropertyBlock;
 import net.sf.jmoney.entrytable.VerticalBlock;
 import net.sf.jmoney.isolation.TransactionManager;
 import net.sf.jmoney.model2.Account;
+import net.sf.jmoney.model2.CapitalAccount;
 import net.sf.jmoney.model2.Currency;
 import net.sf.jmoney.model2.CurrencyAccount;
 import net.sf.jmoney.model2.Entry;
 import net.sf.jmoney.model2.EntryInfo;
+import net.sf.jmoney.model2.IEntryQueries;
 import net.sf.jmoney.model2.IncomeExpenseAccount;
 import net.sf.jmoney.model2.Transaction;
 import net.sf.jmoney.model2.TransactionInfo;
@@ -250,9 +253,35 @@ public class EntriesSection extends SectionPart implements IEntriesContent {
 				.getSortedEntries(TransactionInfo.getDateAccessor(), false);
         return accountEntries;
 */
+		/*
+		 * The table shows the other entries in each transaction, so if the
+		 * datastore can load the transactions and their entries in bulk then
+		 * let it do so.
+		 */
+		IEntryQueries queries = (IEntryQueries)account.getSession().getAdapter(IEntryQueries.class);
+		if (queries != null) {
+			return queries.getEntriesWithTransactions(account);
+		}
 		return account.getEntries();
 	}
 
+	/**
+	 * If the datastore can sort the entries then the entries are fetched most
+	 * recent first, a page at a time as the table loads them, so the table
+	 * can show the most recent entries without waiting for all of them to be
+	 * read.
+	 */
+	@Override
+	public Iterable<Entry> getEntriesMostRecentFirst() {
+		if (account instanceof CapitalAccount) {
+			IEntryQueries queries = (IEntryQueries)account.getSession().getAdapter(IEntryQueries.class);
+			if (queries != null) {
+				return queries.getSortedEntries((CapitalAccount)account, TransactionInfo.getDateAccessor(), true);
+			}
+		}
+		return new ArrayList<Entry>(getEntries());
+	}
+
 	@Override
 	public boolean isEntryInTable(Entry entry) {
 		return account.equals(entry.getAccount());